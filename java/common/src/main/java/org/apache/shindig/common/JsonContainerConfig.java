@@ -36,9 +36,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -48,6 +49,12 @@ import java.util.logging.Logger;
  *
  * We use a cascading model, so you only have to specify attributes in
  * your config that you actually want to change.
+ *
+ * Once loaded, each container is merged with its parents and every path in
+ * it is indexed up front, so lookups don't have to walk the JSON. The values
+ * are the JSON values themselves, as ContainerConfig hands them out. The
+ * merged configuration is published as a single snapshot which {@link #reload}
+ * replaces atomically.
  */
 @Singleton
 public class JsonContainerConfig implements ContainerConfig {
@@ -57,7 +64,19 @@ public class JsonContainerConfig implements ContainerConfig {
   // TODO: Rename this to simply "container", gadgets.container is unnecessary.
   public static final String CONTAINER_KEY = "gadgets.container";
 
-  private final Map<String, JSONObject> config;
+  /** The most lookups of paths that aren't in the config that are remembered per container. */
+  private static final int MAX_UNINDEXED_PATHS = 1000;
+
+  /** Marks a remembered lookup that found nothing. */
+  private static final Object NOT_FOUND = new Object();
+
+  private final String containers;
+
+  /** The containers that the snapshot was built from, never changed once published. */
+  private Map<String, JSONObject> config;
+
+  /** The containers in config with their paths indexed. */
+  private volatile Snapshot snapshot;
 
   /**
    * Creates a new, empty configuration.
@@ -67,38 +86,39 @@ public class JsonContainerConfig implements ContainerConfig {
   @Inject
   public JsonContainerConfig(@Named("shindig.containers.default") String containers)
       throws ContainerConfigException {
-    config = Maps.newHashMap();
+    this.containers = containers;
+    publish(Collections.<String, JSONObject>emptyMap());
+    if (containers != null) {
+      reload();
+    }
+  }
+
+  /**
+   * Loads the container configuration again. Lookups keep using the old
+   * configuration until the new one has been completely loaded.
+   *
+   * @throws ContainerConfigException if the configuration can't be loaded, in
+   *     which case the old configuration stays in place.
+   */
+  public synchronized void reload() throws ContainerConfigException {
+    Map<String, JSONObject> loaded = Maps.newHashMap();
     if (containers != null) {
-      loadContainers(containers);
+      loadContainers(containers, loaded);
     }
+    publish(loaded);
+  }
+
+  private void publish(Map<String, JSONObject> loaded) {
+    config = loaded;
+    snapshot = new Snapshot(loaded);
   }
 
   public Collection<String> getContainers() {
-    return Collections.unmodifiableSet(config.keySet());
+    return snapshot.getContainers();
   }
 
   public Object getJson(String container, String parameter) {
-    JSONObject data = config.get(container);
-    if (data == null) {
-      return null;
-    }
-    if (parameter == null) {
-      return data;
-    }
-
-    try {
-      for (String param : parameter.split("/")) {
-        Object next = data.get(param);
-        if (next instanceof JSONObject) {
-          data = (JSONObject)next;
-        } else {
-          return next;
-        }
-      }
-      return data;
-    } catch (JSONException e) {
-      return null;
-    }
+    return snapshot.getJson(container, parameter);
   }
 
   public String get(String container, String parameter) {
@@ -128,20 +148,22 @@ public class JsonContainerConfig implements ContainerConfig {
    * Only files with a .js or .json extension will be loaded.
    *
    * @param files The files to examine.
+   * @param loaded The containers read so far.
    * @throws ContainerConfigException
    */
-  private void loadFiles(File[] files) throws ContainerConfigException {
+  private void loadFiles(File[] files, Map<String, JSONObject> loaded)
+      throws ContainerConfigException {
     try {
       for (File file : files) {
         LOG.info("Reading container config: " + file.getName());
         if (file.isDirectory()) {
-          loadFiles(file.listFiles());
+          loadFiles(file.listFiles(), loaded);
         } else if (file.getName().toLowerCase(Locale.ENGLISH).endsWith(".js") ||
                    file.getName().toLowerCase(Locale.ENGLISH).endsWith(".json")) {
             if (!file.exists()) {
                 throw new ContainerConfigException("The file '" + file.getAbsolutePath() + "' doesn't exist.");
             }
-          loadFromString(ResourceLoader.getContent(file));
+          loadFromString(ResourceLoader.getContent(file), loaded);
         } else {
             LOG.finest(file.getAbsolutePath() + " doesn't seem to be a JS or JSON file.");
         }
@@ -154,14 +176,16 @@ public class JsonContainerConfig implements ContainerConfig {
   /**
    * Loads resources recursively.
    * @param files The base paths to look for container.xml
+   * @param loaded The containers read so far.
    * @throws ContainerConfigException
    */
-  private void loadResources(String[] files)  throws ContainerConfigException {
+  private void loadResources(String[] files, Map<String, JSONObject> loaded)
+      throws ContainerConfigException {
     try {
       for (String entry : files) {
         LOG.info("Reading container config: " + entry);
         String content = ResourceLoader.getContent(entry);
-        loadFromString(content);
+        loadFromString(content, loaded);
       }
     } catch (IOException e) {
       throw new ContainerConfigException(e);
@@ -214,29 +238,37 @@ public class JsonContainerConfig implements ContainerConfig {
    * @throws ContainerConfigException If there is an invalid parent parameter
    *    in the prototype chain.
    */
-  private JSONObject mergeParents(String container)
+  private JSONObject mergeParents(String container, Map<String, JSONObject> loaded)
       throws ContainerConfigException, JSONException {
-    JSONObject base = config.get(container);
+    JSONObject base = loaded.get(container);
     if (DEFAULT_CONTAINER.equals(container)) {
       return base;
     }
 
     String parent = base.optString(PARENT_KEY, DEFAULT_CONTAINER);
-    if (!config.containsKey(parent)) {
+    if (!loaded.containsKey(parent)) {
       throw new ContainerConfigException(
           "Unable to locate parent '" + parent + "' required by "
           + base.getString(CONTAINER_KEY));
     }
-    return mergeObjects(mergeParents(parent), base);
+    return mergeObjects(mergeParents(parent, loaded), base);
   }
 
   /**
-   * Processes a container file.
+   * Processes a container file, adding its containers to the current
+   * configuration as they are.
    *
    * @param json
    * @throws ContainerConfigException
    */
-  protected void loadFromString(String json) throws ContainerConfigException {
+  protected synchronized void loadFromString(String json) throws ContainerConfigException {
+    Map<String, JSONObject> loaded = Maps.newHashMap(config);
+    loadFromString(json, loaded);
+    publish(loaded);
+  }
+
+  private void loadFromString(String json, Map<String, JSONObject> loaded)
+      throws ContainerConfigException {
     try {
       JSONObject contents = new JSONObject(json);
       JSONArray containers = contents.getJSONArray(CONTAINER_KEY);
@@ -244,7 +276,7 @@ public class JsonContainerConfig implements ContainerConfig {
       for (int i = 0, j = containers.length(); i < j; ++i) {
         // Copy the default object and produce a new one.
         String container = containers.getString(i);
-        config.put(container, contents);
+        loaded.put(container, contents);
       }
     } catch (JSONException e) {
       throw new ContainerConfigException(e);
@@ -256,38 +288,122 @@ public class JsonContainerConfig implements ContainerConfig {
    * as {@code JsFeatureLoader.loadFeatures} for locating resources.
    *
    * @param path
+   * @param loaded The map to load the merged containers into.
    * @throws ContainerConfigException
    */
-  private void loadContainers(String path) throws ContainerConfigException {
+  private void loadContainers(String path, Map<String, JSONObject> loaded)
+      throws ContainerConfigException {
     try {
       for (String location : StringUtils.split(path, FILE_SEPARATOR)) {
         if (location.startsWith("res://")) {
           location = location.substring(6);
           LOG.info("Loading resources from: " + location);
           if (path.endsWith(".txt")) {
-            loadResources(ResourceLoader.getContent(location).split("[\r\n]+"));
+            loadResources(ResourceLoader.getContent(location).split("[\r\n]+"), loaded);
           } else {
-            loadResources(new String[]{location});
+            loadResources(new String[]{location}, loaded);
           }
         } else {
           LOG.info("Loading files from: " + location);
           File file = new File(location);
-          loadFiles(new File[]{file});
+          loadFiles(new File[]{file}, loaded);
         }
       }
 
       // Now that all containers are loaded, we go back through them and merge
       // recursively. This is done at startup to simplify lookups.
-      Map<String, JSONObject> merged = Maps.newHashMapWithExpectedSize(config.size());
+      Map<String, JSONObject> merged = Maps.newHashMapWithExpectedSize(loaded.size());
 
-      for (String container : config.keySet()) {
-        merged.put(container, mergeParents(container));
+      for (String container : loaded.keySet()) {
+        merged.put(container, mergeParents(container, loaded));
       }
-      config.putAll(merged);
+      loaded.putAll(merged);
     } catch (IOException e) {
       throw new ContainerConfigException(e);
     } catch (JSONException e) {
       throw new ContainerConfigException(e);
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * The merged configuration of every container, with all paths indexed.
+   */
+  private static final class Snapshot {
+    private final Map<String, JSONObject> roots;
+    private final Map<String, Map<String, Object>> paths;
+    private final Map<String, ConcurrentMap<String, Object>> unindexed;
+
+    Snapshot(Map<String, JSONObject> merged) {
+      Map<String, JSONObject> roots = Maps.newHashMapWithExpectedSize(merged.size());
+      Map<String, Map<String, Object>> paths = Maps.newHashMapWithExpectedSize(merged.size());
+      Map<String, ConcurrentMap<String, Object>> unindexed =
+          Maps.newHashMapWithExpectedSize(merged.size());
+      for (Map.Entry<String, JSONObject> entry : merged.entrySet()) {
+        Map<String, Object> containerPaths = Maps.newHashMap();
+        index(entry.getValue(), "", containerPaths);
+        roots.put(entry.getKey(), entry.getValue());
+        paths.put(entry.getKey(), containerPaths);
+        unindexed.put(entry.getKey(), Maps.<String, Object>newConcurrentHashMap());
+      }
+      this.roots = Collections.unmodifiableMap(roots);
+      this.paths = paths;
+      this.unindexed = unindexed;
+    }
+
+    private static void index(JSONObject data, String prefix, Map<String, Object> paths) {
+      for (Iterator<?> i = data.keys(); i.hasNext();) {
+        String name = (String) i.next();
+        Object value = data.opt(name);
+        paths.put(prefix + name, value);
+        if (value instanceof JSONObject) {
+          index((JSONObject) value, prefix + name + '/', paths);
+        }
+      }
+    }
+
+    Collection<String> getContainers() {
+      return roots.keySet();
+    }
+
+    Object getJson(String container, String parameter) {
+      JSONObject data = roots.get(container);
+      if (data == null || parameter == null) {
+        return data;
+      }
+      Object value = paths.get(container).get(parameter);
+      if (value != null) {
+        return value;
+      }
+      // Not a path in the config, but the lookup may still find something, e.g.
+      // "a/b" finds the value of "a" if that isn't an object.
+      ConcurrentMap<String, Object> misses = unindexed.get(container);
+      value = misses.get(parameter);
+      if (value == null) {
+        value = walk(data, parameter);
+        if (value == null) {
+          value = NOT_FOUND;
+        }
+        if (misses.size() < MAX_UNINDEXED_PATHS) {
+          misses.put(parameter, value);
+        }
+      }
+      return value == NOT_FOUND ? null : value;
+    }
+
+    private static Object walk(JSONObject data, String parameter) {
+      try {
+        for (String param : parameter.split("/")) {
+          Object next = data.get(param);
+          if (next instanceof JSONObject) {
+            data = (JSONObject)next;
+          } else {
+            return next;
+          }
+        }
+        return data;
+      } catch (JSONException e) {
+        return null;
+      }
+    }
+  }
+}
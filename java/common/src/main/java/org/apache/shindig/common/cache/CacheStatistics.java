@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.cache;
+
+/**
+ * Implemented by caches that count how well they are doing.
+ */
+public interface CacheStatistics {
+  /**
+   * @return The number of reads that found an entry.
+   */
+  public long getHitCount();
+
+  /**
+   * @return The number of reads that found nothing.
+   */
+  public long getMissCount();
+
+  /**
+   * @return The number of entries dropped to make room for others, or -1 if the cache doesn't
+   *     count them.
+   */
+  public long getEvictionCount();
+}
@@ -20,12 +20,17 @@ package org.apache.shindig.common.cache;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A basic LRU cache. Prefer using EhCache for most purposes to this class.
  */
-public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
+public class LruCache<K, V> extends LinkedHashMap<K, V>
+    implements Cache<K, V>, CacheStatistics {
   final int capacity;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
 
   public LruCache(int capacity) {
     super(capacity, 0.75f, true);
@@ -33,7 +38,13 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
   }
 
   public synchronized V getElement(K key) {
-    return super.get(key);
+    V value = super.get(key);
+    if (value == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return value;
   }
 
   public synchronized void addElement(K key, V value) {
@@ -52,8 +63,24 @@ public class LruCache<K, V> extends LinkedHashMap<K, V> implements Cache<K, V> {
     return size();
   }
 
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
   @Override
   protected synchronized boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-    return size() > capacity;
+    if (size() > capacity) {
+      evictions.incrementAndGet();
+      return true;
+    }
+    return false;
   }
 }
@@ -18,6 +18,8 @@
  */
 package org.apache.shindig.common.cache;
 
+import org.apache.shindig.common.metrics.Metrics;
+
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
@@ -45,6 +47,7 @@ public class LruCacheProvider implements CacheProvider {
   private final int defaultCapacity;
   private final Injector injector;
   private final Map<String, Cache<?, ?>> caches = Maps.newConcurrentHashMap();
+  private Metrics metrics;
 
   @Inject
   public LruCacheProvider(Injector injector,
@@ -57,6 +60,17 @@ public class LruCacheProvider implements CacheProvider {
     this(null, capacity);
   }
 
+  /**
+   * Named caches are reported in the metrics.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+    for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+      metrics.addCache(entry.getKey(), entry.getValue());
+    }
+  }
+
   private int getCapacity(String name) {
     if (injector != null && name != null) {
       String key = "shindig.cache.lru." + name + ".capacity";
@@ -87,6 +101,9 @@ public class LruCacheProvider implements CacheProvider {
         LOG.info("Creating cache named " + name);
         cache = new LruCache<K, V>(capacity);
         caches.put(name, cache);
+        if (metrics != null) {
+          metrics.addCache(name, cache);
+        }
       }
       return cache;
     }
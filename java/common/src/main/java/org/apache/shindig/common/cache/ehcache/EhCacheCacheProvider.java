@@ -20,6 +20,7 @@ package org.apache.shindig.common.cache.ehcache;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.common.util.ResourceLoader;
 
 import com.google.common.collect.Maps;
@@ -41,6 +42,7 @@ public class EhCacheCacheProvider implements CacheProvider {
   private final Logger LOG = Logger.getLogger(EhCacheCacheProvider.class.getName());
   private final CacheManager cacheManager;
   private final Map<String, Cache<?, ?>> caches = Maps.newConcurrentHashMap();
+  private Metrics metrics;
 
   @Inject
   public EhCacheCacheProvider(@Named("shindig.cache.ehcache.config") String configPath,
@@ -51,6 +53,17 @@ public class EhCacheCacheProvider implements CacheProvider {
     create(jmxEnabled, withCacheStats);
   }
 
+  /**
+   * Named caches are reported in the metrics, alongside the statistics ehcache exports itself.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+    for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+      metrics.addCache(entry.getKey(), entry.getValue());
+    }
+  }
+
   /**
    * Read the cache conifuration from the specified resource.
    * This function is intended to be overrideable to allow for programmatic
@@ -105,6 +118,9 @@ public class EhCacheCacheProvider implements CacheProvider {
         LOG.info("Creating cache named " + name);
         cache = new EhConfiguredCache<K, V>(name, cacheManager);
         caches.put(name, cache);
+        if (metrics != null) {
+          metrics.addCache(name, cache);
+        }
       }
       return cache;
     }
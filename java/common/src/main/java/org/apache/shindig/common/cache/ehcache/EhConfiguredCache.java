@@ -19,17 +19,21 @@
 package org.apache.shindig.common.cache.ehcache;
 
 import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheStatistics;
 
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Produces a cache configured from ehcache.
  */
-public class EhConfiguredCache<K, V> implements Cache<K, V> {
+public class EhConfiguredCache<K, V> implements Cache<K, V>, CacheStatistics {
 
   private net.sf.ehcache.Cache cache;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
 
   public EhConfiguredCache(String cacheName, CacheManager cacheManager) {
     if (cacheName == null) {
@@ -55,16 +59,18 @@ public class EhConfiguredCache<K, V> implements Cache<K, V> {
   public V getElement(K key) {
     Element cacheElement = cache.get(key);
     if (cacheElement != null) {
+      hits.incrementAndGet();
       return (V) cacheElement.getObjectValue();
     }
+    misses.incrementAndGet();
     return null;
   }
 
   @SuppressWarnings("unchecked")
   public V removeElement(K key) {
-    Object value = getElement(key);
+    Element cacheElement = cache.get(key);
     cache.remove(key);
-    return (V) value;
+    return cacheElement == null ? null : (V) cacheElement.getObjectValue();
   }
 
   public long getCapacity() {
@@ -81,4 +87,16 @@ public class EhConfiguredCache<K, V> implements Cache<K, V> {
   public long getSize() {
     return cache.getMemoryStoreSize() + cache.getDiskStoreSize();
   }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return cache.getStatistics().getEvictionCount();
+  }
 }
@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.metrics;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheStatistics;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the named timers, counters, gauges and caches that describe how the server is doing.
+ *
+ * Metrics are created on first use. Names should come from a small fixed set. Once the limit on
+ * distinct names is reached, new names are all counted under "other". Timers keyed by values
+ * from outside the server, such as host names, are kept in a namespace of their own with its own
+ * limit, so that they can't crowd out the fixed timers.
+ */
+@Singleton
+public class Metrics {
+  private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+
+  public static final String OBJECT_NAME = "org.apache.shindig:type=Metrics";
+  public static final String OTHER = "other";
+
+  private static final int DEFAULT_MAX_NAMES = 1000;
+
+  private final ConcurrentMap<String, Timer> timers = Maps.newConcurrentHashMap();
+  private final ConcurrentMap<String, ConcurrentMap<String, Timer>> keyedTimers =
+      Maps.newConcurrentHashMap();
+  private final ConcurrentMap<String, AtomicLong> counters = Maps.newConcurrentHashMap();
+  private final ConcurrentMap<String, Gauge> gauges = Maps.newConcurrentHashMap();
+  private final ConcurrentMap<String, Cache<?, ?>> caches = Maps.newConcurrentHashMap();
+  private final int maxNames;
+
+  /**
+   * Creates metrics that are not exported over JMX.
+   */
+  public Metrics() {
+    this.maxNames = DEFAULT_MAX_NAMES;
+  }
+
+  /**
+   * @param maxNames The most distinct timer names, the most distinct keys in each namespace of
+   *     keyed timers, and the most distinct counter names.
+   * @param jmxEnabled Whether to export the metrics over JMX, as {@link #OBJECT_NAME}.
+   */
+  @Inject
+  public Metrics(@Named("shindig.metrics.max-names") int maxNames,
+                 @Named("shindig.metrics.jmx.enabled") boolean jmxEnabled) {
+    this.maxNames = maxNames;
+    if (jmxEnabled) {
+      register();
+    }
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        // Left over from an earlier deployment of the web application.
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(new MetricsExporter(this), name);
+    } catch (JMException e) {
+      LOG.log(Level.WARNING, "Unable to export metrics over JMX", e);
+    }
+  }
+
+  /**
+   * @return The timer with the given name, created if needed.
+   */
+  public Timer getTimer(String name) {
+    Timer timer = timers.get(name);
+    if (timer == null) {
+      if (timers.size() >= maxNames) {
+        name = OTHER;
+      }
+      timers.putIfAbsent(name, new Timer());
+      timer = timers.get(name);
+    }
+    return timer;
+  }
+
+  /**
+   * @return The timer for the given key in a namespace, such as a host name under "fetch.host",
+   *     created if needed. It is reported as namespace.key. Once the namespace holds the most
+   *     distinct keys, new keys are all counted under namespace.other.
+   */
+  public Timer getTimer(String namespace, String key) {
+    ConcurrentMap<String, Timer> namespaceTimers = keyedTimers.get(namespace);
+    if (namespaceTimers == null) {
+      keyedTimers.putIfAbsent(namespace, Maps.<String, Timer>newConcurrentHashMap());
+      namespaceTimers = keyedTimers.get(namespace);
+    }
+    Timer timer = namespaceTimers.get(key);
+    if (timer == null) {
+      if (namespaceTimers.size() >= maxNames) {
+        key = OTHER;
+      }
+      namespaceTimers.putIfAbsent(key, new Timer());
+      timer = namespaceTimers.get(key);
+    }
+    return timer;
+  }
+
+  /**
+   * @return Every timer by the name it is reported under.
+   */
+  private Map<String, Timer> getTimers() {
+    Map<String, Timer> all = Maps.newHashMap(timers);
+    for (Map.Entry<String, ConcurrentMap<String, Timer>> namespace : keyedTimers.entrySet()) {
+      for (Map.Entry<String, Timer> entry : namespace.getValue().entrySet()) {
+        all.put(namespace.getKey() + '.' + entry.getKey(), entry.getValue());
+      }
+    }
+    return all;
+  }
+
+  /**
+   * @return The counter with the given name, created if needed.
+   */
+  public AtomicLong getCounter(String name) {
+    AtomicLong counter = counters.get(name);
+    if (counter == null) {
+      if (counters.size() >= maxNames) {
+        name = OTHER;
+      }
+      counters.putIfAbsent(name, new AtomicLong());
+      counter = counters.get(name);
+    }
+    return counter;
+  }
+
+  /**
+   * Reports a value that is kept elsewhere. Replaces any gauge with the same name.
+   */
+  public void addGauge(String name, Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  /**
+   * Reports the size of a named cache, and how well it is doing if it implements
+   * {@link CacheStatistics}. Replaces any cache with the same name.
+   */
+  public void addCache(String name, Cache<?, ?> cache) {
+    caches.put(name, cache);
+  }
+
+  /**
+   * @return The current value of every metric, under flat names such as "timer.render.count" and
+   *     "cache.gadgetSpecs.hits".
+   */
+  public SortedMap<String, Number> getValues() {
+    SortedMap<String, Number> values = Maps.newTreeMap();
+    for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+      String prefix = "timer." + entry.getKey();
+      Timer timer = entry.getValue();
+      values.put(prefix + ".count", timer.getCount());
+      values.put(prefix + ".meanMillis", timer.getMeanMillis());
+      values.put(prefix + ".maxMillis", timer.getMaxNanos() / 1000000.0);
+    }
+    for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+      values.put("counter." + entry.getKey(), entry.getValue().get());
+    }
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      values.put("gauge." + entry.getKey(), entry.getValue().getValue());
+    }
+    for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+      String prefix = "cache." + entry.getKey();
+      Cache<?, ?> cache = entry.getValue();
+      values.put(prefix + ".size", cache.getSize());
+      values.put(prefix + ".capacity", cache.getCapacity());
+      if (cache instanceof CacheStatistics) {
+        CacheStatistics statistics = (CacheStatistics) cache;
+        values.put(prefix + ".hits", statistics.getHitCount());
+        values.put(prefix + ".misses", statistics.getMissCount());
+        values.put(prefix + ".evictions", statistics.getEvictionCount());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return Every metric as JSON, with timers including their histograms.
+   */
+  public JSONObject toJson() throws JSONException {
+    JSONObject json = new JSONObject();
+
+    JSONObject timerJson = new JSONObject();
+    String[] bucketNames = Timer.getBucketNames();
+    for (Map.Entry<String, Timer> entry : getTimers().entrySet()) {
+      Timer timer = entry.getValue();
+      JSONObject histogram = new JSONObject();
+      long[] buckets = timer.getBuckets();
+      for (int i = 0; i < buckets.length; i++) {
+        if (buckets[i] > 0) {
+          histogram.put(bucketNames[i], buckets[i]);
+        }
+      }
+      timerJson.put(entry.getKey(), new JSONObject()
+          .put("count", timer.getCount())
+          .put("meanMillis", timer.getMeanMillis())
+          .put("maxMillis", timer.getMaxNanos() / 1000000.0)
+          .put("histogram", histogram));
+    }
+    json.put("timers", timerJson);
+
+    JSONObject counterJson = new JSONObject();
+    for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+      counterJson.put(entry.getKey(), entry.getValue().get());
+    }
+    json.put("counters", counterJson);
+
+    JSONObject gaugeJson = new JSONObject();
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      gaugeJson.put(entry.getKey(), entry.getValue().getValue());
+    }
+    json.put("gauges", gaugeJson);
+
+    JSONObject cacheJson = new JSONObject();
+    for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+      Cache<?, ?> cache = entry.getValue();
+      JSONObject stats = new JSONObject()
+          .put("size", cache.getSize())
+          .put("capacity", cache.getCapacity());
+      if (cache instanceof CacheStatistics) {
+        CacheStatistics statistics = (CacheStatistics) cache;
+        stats.put("hits", statistics.getHitCount())
+            .put("misses", statistics.getMissCount())
+            .put("evictions", statistics.getEvictionCount());
+      }
+      cacheJson.put(entry.getKey(), stats);
+    }
+    json.put("caches", cacheJson);
+    return json;
+  }
+}
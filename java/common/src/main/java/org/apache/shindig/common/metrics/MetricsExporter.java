@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exports metrics over JMX as read only attributes, one for each of {@link Metrics#getValues}.
+ */
+class MetricsExporter implements DynamicMBean {
+  private final Metrics metrics;
+
+  MetricsExporter(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public Object getAttribute(String name) throws AttributeNotFoundException {
+    Number value = metrics.getValues().get(name);
+    if (value == null) {
+      throw new AttributeNotFoundException(name);
+    }
+    return value;
+  }
+
+  public AttributeList getAttributes(String[] names) {
+    SortedMap<String, Number> values = metrics.getValues();
+    AttributeList attributes = new AttributeList();
+    for (String name : names) {
+      Number value = values.get(name);
+      if (value != null) {
+        attributes.add(new Attribute(name, value));
+      }
+    }
+    return attributes;
+  }
+
+  public MBeanInfo getMBeanInfo() {
+    SortedMap<String, Number> values = metrics.getValues();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+    int i = 0;
+    for (Map.Entry<String, Number> entry : values.entrySet()) {
+      attributes[i++] = new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+          entry.getKey(), true, false, false);
+    }
+    return new MBeanInfo(getClass().getName(), "Shindig metrics", attributes, null,
+        new MBeanOperationInfo[0], null);
+  }
+
+  public Object invoke(String name, Object[] params, String[] signature)
+      throws MBeanException, ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(name));
+  }
+
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException(attribute.getName() + " is read only");
+  }
+
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often something happens and how long it takes, with a histogram of durations.
+ *
+ * Updates are a handful of atomic operations, so timers can stay on in production.
+ */
+public class Timer {
+  /**
+   * Upper bounds of the histogram buckets, in milliseconds. The last bucket holds everything
+   * longer than the last bound.
+   */
+  static final long[] BUCKET_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_MILLIS.length + 1);
+
+  /**
+   * Records something that took the time since start.
+   *
+   * @param start The time it started, from System.nanoTime().
+   */
+  public void updateSince(long start) {
+    update(System.nanoTime() - start);
+  }
+
+  /**
+   * Records something that took the given time.
+   */
+  public void update(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    count.incrementAndGet();
+    totalNanos.addAndGet(nanos);
+    long max = maxNanos.get();
+    while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+      max = maxNanos.get();
+    }
+    long millis = nanos / 1000000;
+    int bucket = 0;
+    while (bucket < BUCKET_MILLIS.length && millis >= BUCKET_MILLIS[bucket]) {
+      bucket++;
+    }
+    buckets.incrementAndGet(bucket);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.get();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  /**
+   * @return The mean time, in milliseconds, or 0 if nothing has been recorded.
+   */
+  public double getMeanMillis() {
+    long n = count.get();
+    return n == 0 ? 0 : totalNanos.get() / (n * 1000000.0);
+  }
+
+  /**
+   * @return How many updates fell in each bucket. Bucket i holds times under BUCKET_MILLIS[i]
+   *     milliseconds, and the last bucket holds the rest.
+   */
+  public long[] getBuckets() {
+    long[] counts = new long[buckets.length()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * @return Names for the buckets returned by getBuckets, such as "<5ms" and ">=10000ms".
+   */
+  public static String[] getBucketNames() {
+    String[] names = new String[BUCKET_MILLIS.length + 1];
+    for (int i = 0; i < BUCKET_MILLIS.length; i++) {
+      names[i] = "<" + BUCKET_MILLIS[i] + "ms";
+    }
+    names[BUCKET_MILLIS.length] = ">=" + BUCKET_MILLIS[BUCKET_MILLIS.length - 1] + "ms";
+    return names;
+  }
+}
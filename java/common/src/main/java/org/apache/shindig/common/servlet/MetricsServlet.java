@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.servlet;
+
+import org.apache.shindig.common.metrics.Metrics;
+import org.apache.shindig.common.util.CharsetUtil;
+
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Reports the server metrics as JSON.
+ *
+ * Off unless shindig.metrics.servlet.key is set, and then only answers requests that send that key
+ * in the X-Shindig-Metrics-Key header. The remote address is not used, since behind a proxy on
+ * the same host every request comes from the loopback address.
+ */
+public class MetricsServlet extends InjectedServlet {
+  static final String KEY_HEADER = "X-Shindig-Metrics-Key";
+
+  private Metrics metrics;
+  private byte[] key;
+
+  @Inject
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param key The key requests have to send, or an empty string to turn the servlet off.
+   */
+  @Inject(optional = true)
+  public void setKey(@Named("shindig.metrics.servlet.key") String key) {
+    this.key = key.length() == 0 ? null : CharsetUtil.getUtf8Bytes(key);
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (key == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (!isKey(request.getHeader(KEY_HEADER))) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    try {
+      String json = metrics.toJson().toString(2);
+      response.setContentType("application/json");
+      response.setCharacterEncoding("UTF-8");
+      response.setHeader("Cache-Control", "no-cache");
+      response.getWriter().write(json);
+    } catch (JSONException e) {
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+  }
+
+  /**
+   * Compares every byte whatever the first difference, so the key can't be guessed a byte at a
+   * time from response times.
+   */
+  private boolean isKey(String given) {
+    if (given == null) {
+      return false;
+    }
+    byte[] bytes = CharsetUtil.getUtf8Bytes(given);
+    if (bytes.length != key.length) {
+      return false;
+    }
+    int difference = 0;
+    for (int i = 0; i < bytes.length; i++) {
+      difference |= bytes[i] ^ key[i];
+    }
+    return difference == 0;
+  }
+}
@@ -23,6 +23,8 @@ import static org.apache.shindig.common.ContainerConfig.DEFAULT_CONTAINER;
 import static org.apache.shindig.common.JsonContainerConfig.CONTAINER_KEY;
 import static org.apache.shindig.common.JsonContainerConfig.PARENT_KEY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -31,6 +33,8 @@ import org.junit.Test;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class JsonContainerConfigTest {
 
@@ -163,4 +167,98 @@ public class JsonContainerConfigTest {
     String data = config.get(DEFAULT_CONTAINER, path);
     assertEquals(NESTED_VALUE, data);
   }
+
+  @Test
+  public void missingPathQuery() throws Exception {
+    ContainerConfig config = new JsonContainerConfig(createDefaultContainer().getAbsolutePath());
+    assertNull(config.get(DEFAULT_CONTAINER, NESTED_KEY + "/does not exist"));
+    assertNull(config.get(DEFAULT_CONTAINER, NESTED_KEY + "/does not exist"));
+    assertNull(config.get("no such container", TOP_LEVEL_NAME));
+    // A path through a value that isn't an object finds that value.
+    assertEquals(TOP_LEVEL_VALUE, config.get(DEFAULT_CONTAINER, TOP_LEVEL_NAME + "/more"));
+  }
+
+  @Test
+  public void loadFromStringAfterConstruction() throws Exception {
+    JsonContainerConfig config = new JsonContainerConfig(null);
+    assertNull(config.get(DEFAULT_CONTAINER, TOP_LEVEL_NAME));
+
+    JSONObject json = new JSONObject();
+    json.put(CONTAINER_KEY, new String[]{DEFAULT_CONTAINER});
+    json.put(TOP_LEVEL_NAME, TOP_LEVEL_VALUE);
+    config.loadFromString(json.toString());
+    assertEquals(TOP_LEVEL_VALUE, config.get(DEFAULT_CONTAINER, TOP_LEVEL_NAME));
+  }
+
+  @Test
+  public void reloadReplacesConfig() throws Exception {
+    File file = createDefaultContainer();
+    JsonContainerConfig config = new JsonContainerConfig(file.getAbsolutePath());
+    assertEquals(TOP_LEVEL_VALUE, config.get(DEFAULT_CONTAINER, TOP_LEVEL_NAME));
+
+    JSONObject json = new JSONObject();
+    json.put(CONTAINER_KEY, new String[]{DEFAULT_CONTAINER});
+    json.put(TOP_LEVEL_NAME, NESTED_ALT_VALUE);
+    BufferedWriter out = new BufferedWriter(new FileWriter(file));
+    out.write(json.toString());
+    out.close();
+
+    config.reload();
+    assertEquals(NESTED_ALT_VALUE, config.get(DEFAULT_CONTAINER, TOP_LEVEL_NAME));
+    assertNull(config.getJsonObject(DEFAULT_CONTAINER, NESTED_KEY));
+  }
+
+  @Test
+  public void readersNeverSeePartialConfig() throws Exception {
+    File dir = File.createTempFile(getClass().getName(), "");
+    assertTrue(dir.delete() && dir.mkdir());
+    dir.deleteOnExit();
+    JSONObject json = new JSONObject();
+    json.put(CONTAINER_KEY, new String[]{DEFAULT_CONTAINER});
+    json.put(TOP_LEVEL_NAME, TOP_LEVEL_VALUE);
+    writeContainer(new File(dir, "default.js"), json);
+    json = new JSONObject();
+    json.put(CONTAINER_KEY, new String[]{CHILD_CONTAINER});
+    json.put(PARENT_KEY, DEFAULT_CONTAINER);
+    writeContainer(new File(dir, "child.js"), json);
+
+    final JsonContainerConfig config = new JsonContainerConfig(dir.getAbsolutePath());
+    final AtomicBoolean reloading = new AtomicBoolean(true);
+    final AtomicReference<String> failure = new AtomicReference<String>();
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread() {
+        @Override
+        public void run() {
+          while (reloading.get() && failure.get() == null) {
+            // The child only has the value once it has been merged with its parent.
+            if (!TOP_LEVEL_VALUE.equals(config.get(CHILD_CONTAINER, TOP_LEVEL_NAME))) {
+              failure.set("Child container was not merged");
+            } else if (config.getContainers().size() != 2) {
+              failure.set("Saw " + config.getContainers());
+            }
+          }
+        }
+      };
+      readers[i].start();
+    }
+    try {
+      for (int i = 0; i < 200 && failure.get() == null; i++) {
+        config.reload();
+      }
+    } finally {
+      reloading.set(false);
+      for (Thread reader : readers) {
+        reader.join();
+      }
+    }
+    assertNull(failure.get());
+  }
+
+  private static void writeContainer(File file, JSONObject json) throws Exception {
+    file.deleteOnExit();
+    BufferedWriter out = new BufferedWriter(new FileWriter(file));
+    out.write(json.toString());
+    out.close();
+  }
 }
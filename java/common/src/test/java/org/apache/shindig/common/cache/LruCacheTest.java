@@ -49,4 +49,17 @@ public class LruCacheTest {
     assertEquals(TEST_CAPACITY, cache.getCapacity());
     assertEquals(null, cache.getElement("0"));
   }
+
+  @Test
+  public void countsHitsMissesAndEvictions() {
+    for (int i = 0; i < TEST_CAPACITY + 1; ++i) {
+      cache.addElement(Integer.toString(i), Integer.toString(i));
+    }
+    cache.getElement("0");
+    cache.getElement("1");
+    cache.getElement("2");
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getEvictionCount());
+  }
 }
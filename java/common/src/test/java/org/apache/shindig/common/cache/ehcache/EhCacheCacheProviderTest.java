@@ -20,6 +20,7 @@ package org.apache.shindig.common.cache.ehcache;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.CacheStatistics;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -59,4 +60,15 @@ public class EhCacheCacheProviderTest {
     Assert.assertEquals(cache.getCapacity(), cache2.getCapacity());
     Assert.assertEquals(cache.getSize(), cache2.getSize());
   }
+
+  @Test
+  public void countsEvictions() throws Exception {
+    CacheProvider defaultProvider = new EhCacheCacheProvider(
+        "res://org/apache/shindig/common/cache/ehcache/ehcacheConfig.xml", true, true);
+    Cache<Integer, String> cache = defaultProvider.createCache("evictioncache");
+    for (int i = 0; i <= cache.getCapacity(); ++i) {
+      cache.addElement(i, "value");
+    }
+    Assert.assertTrue(((CacheStatistics) cache).getEvictionCount() > 0);
+  }
 }
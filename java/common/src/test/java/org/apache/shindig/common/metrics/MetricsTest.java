@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.apache.shindig.common.cache.LruCache;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class MetricsTest {
+  private final Metrics metrics = new Metrics(3, false);
+
+  @Test
+  public void timerRecordsCountMeanMaxAndHistogram() {
+    Timer timer = metrics.getTimer("render");
+    timer.update(3 * 1000000L);
+    timer.update(7 * 1000000L);
+    timer.update(20000 * 1000000L);
+
+    assertSame(timer, metrics.getTimer("render"));
+    assertEquals(3, timer.getCount());
+    assertEquals(20000 * 1000000L, timer.getMaxNanos());
+    assertEquals((3 + 7 + 20000) / 3.0, timer.getMeanMillis(), 0.001);
+
+    long[] buckets = timer.getBuckets();
+    String[] names = Timer.getBucketNames();
+    assertEquals(names.length, buckets.length);
+    assertEquals(1, buckets[2]);
+    assertEquals("<5ms", names[2]);
+    assertEquals(1, buckets[3]);
+    assertEquals(1, buckets[buckets.length - 1]);
+    assertEquals(">=10000ms", names[names.length - 1]);
+  }
+
+  @Test
+  public void namesBeyondLimitCountAsOther() {
+    metrics.getTimer("a");
+    metrics.getTimer("b");
+    metrics.getTimer("c");
+    Timer overflow = metrics.getTimer("d");
+    assertSame(metrics.getTimer(Metrics.OTHER), overflow);
+    assertSame(overflow, metrics.getTimer("e"));
+  }
+
+  @Test
+  public void keyedTimersHaveTheirOwnLimit() {
+    for (int i = 0; i < 10; i++) {
+      metrics.getTimer("fetch.host", "host" + i);
+    }
+    Timer overflow = metrics.getTimer("fetch.host", "another");
+    assertSame(metrics.getTimer("fetch.host", Metrics.OTHER), overflow);
+
+    // Fixed timers created afterwards still get their own names.
+    Timer render = metrics.getTimer("render");
+    assertNotSame(metrics.getTimer(Metrics.OTHER), render);
+    render.update(1000000L);
+    assertEquals(1L, metrics.getValues().get("timer.render.count"));
+    assertEquals(0L, metrics.getValues().get("timer.fetch.host.host0.count"));
+  }
+
+  @Test
+  public void valuesIncludeEverything() throws Exception {
+    metrics.getTimer("fetch").update(1000000L);
+    metrics.getCounter("errors").incrementAndGet();
+    metrics.addGauge("queue", new Gauge() {
+      public long getValue() {
+        return 5;
+      }
+    });
+    LruCache<String, String> cache = new LruCache<String, String>(1);
+    cache.addElement("a", "a");
+    cache.addElement("b", "b");
+    cache.getElement("a");
+    cache.getElement("b");
+    metrics.addCache("specs", cache);
+
+    Map<String, Number> values = metrics.getValues();
+    assertEquals(1L, values.get("timer.fetch.count"));
+    assertEquals(1L, values.get("counter.errors"));
+    assertEquals(5L, values.get("gauge.queue"));
+    assertEquals(1L, values.get("cache.specs.size"));
+    assertEquals(1L, values.get("cache.specs.hits"));
+    assertEquals(1L, values.get("cache.specs.misses"));
+    assertEquals(1L, values.get("cache.specs.evictions"));
+
+    JSONObject json = metrics.toJson();
+    assertEquals(1, json.getJSONObject("timers").getJSONObject("fetch").getInt("count"));
+    assertEquals(1, json.getJSONObject("timers").getJSONObject("fetch")
+        .getJSONObject("histogram").getInt("<2ms"));
+    assertEquals(1, json.getJSONObject("caches").getJSONObject("specs").getInt("evictions"));
+    assertEquals(5, json.getJSONObject("gauges").getInt("queue"));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.common.servlet;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import org.apache.shindig.common.metrics.Metrics;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class MetricsServletTest {
+  private final HttpServletRequest request = createMock(HttpServletRequest.class);
+  private final HttpServletResponse response = createMock(HttpServletResponse.class);
+  private final MetricsServlet servlet = new MetricsServlet();
+
+  @Before
+  public void setUp() {
+    Metrics metrics = new Metrics();
+    metrics.getCounter("requests").incrementAndGet();
+    servlet.setMetrics(metrics);
+    // Even a request that seems to come from the server itself needs the key.
+    expect(request.getRemoteAddr()).andReturn("127.0.0.1").anyTimes();
+  }
+
+  @Test
+  public void offWithoutKey() throws Exception {
+    servlet.setKey("");
+    expect(request.getHeader(MetricsServlet.KEY_HEADER)).andReturn("").anyTimes();
+    response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    replay(request, response);
+
+    servlet.doGet(request, response);
+    verify(request, response);
+  }
+
+  @Test
+  public void missingKeyRefused() throws Exception {
+    servlet.setKey("secret");
+    expect(request.getHeader(MetricsServlet.KEY_HEADER)).andReturn(null);
+    response.sendError(HttpServletResponse.SC_FORBIDDEN);
+    replay(request, response);
+
+    servlet.doGet(request, response);
+    verify(request, response);
+  }
+
+  @Test
+  public void wrongKeyRefused() throws Exception {
+    servlet.setKey("secret");
+    expect(request.getHeader(MetricsServlet.KEY_HEADER)).andReturn("secreT");
+    response.sendError(HttpServletResponse.SC_FORBIDDEN);
+    replay(request, response);
+
+    servlet.doGet(request, response);
+    verify(request, response);
+  }
+
+  @Test
+  public void reportsMetricsWithKey() throws Exception {
+    servlet.setKey("secret");
+    StringWriter body = new StringWriter();
+    expect(request.getHeader(MetricsServlet.KEY_HEADER)).andReturn("secret");
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    expect(response.getWriter()).andReturn(new PrintWriter(body));
+    replay(request, response);
+
+    servlet.doGet(request, response);
+    verify(request, response);
+    JSONObject json = new JSONObject(body.toString());
+    assertEquals(1, json.getJSONObject("counters").getLong("requests"));
+  }
+}
@@ -17,7 +17,10 @@
  */
 package org.apache.shindig.gadgets;
 
+import org.apache.shindig.common.util.TimeSource;
+
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
 import com.google.inject.Inject;
@@ -29,10 +32,14 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -45,11 +52,16 @@ import java.util.regex.PatternSyntaxException;
  * A regular expression prefixed by "REGEXP" and a space on a line blacklists
  * all URL's that (case-insensitively) match that pattern. The regular
  * expression syntax is PCRE-based (using java.util.regex, so there are a few
- * insignificant differences). Regular expressions should be used sparingly as
- * they influence performance of every single gadget being rendered.
+ * insignificant differences). Regular expressions are grouped by the literal
+ * text they start with, usually the scheme, host and part of the path, and
+ * each group is combined into a single pattern, so a URL is only matched
+ * against the groups whose prefix it starts with.
  *
  * Lines starting with a "#" are comments.
  *
+ * The file is checked for changes every few seconds and reloaded when it
+ * changes, so entries can be added without a restart.
+ *
  * Example:
  *
  *   # Block the illegal bar.xml gadget
@@ -62,11 +74,27 @@ import java.util.regex.PatternSyntaxException;
 @Singleton
 public class BasicGadgetBlacklist implements GadgetBlacklist {
 
+  private static final Logger logger = Logger.getLogger(BasicGadgetBlacklist.class.getName());
+
   private static final char COMMENT_MARKER = '#';
   private static final String REGEXP_PREFIX = "REGEXP";
 
-  private final Set<String> exactMatches;
-  private final List<Pattern> regexpMatches;
+  /** Back references and unterminated quotes, which do not survive being combined. */
+  private static final Pattern UNCOMBINABLE = Pattern.compile("\\\\([1-9]|Q)");
+
+  /** How often the file is checked for changes, in milliseconds. */
+  static final long RELOAD_INTERVAL = 10000L;
+
+  /** The most verdicts that are remembered until the blacklist changes. */
+  static final int MAX_CACHED_VERDICTS = 10000;
+
+  private final File blacklistFile;
+  private final TimeSource timeSource;
+  private final long reloadInterval;
+
+  private volatile Rules rules;
+  private volatile long lastModified;
+  private volatile long nextCheck;
 
   /**
    * Constructs a new blacklist from the given file.
@@ -77,11 +105,17 @@ public class BasicGadgetBlacklist implements GadgetBlacklist {
    *    the file
    */
   public BasicGadgetBlacklist(File blacklistFile) throws IOException {
-    exactMatches = Sets.newHashSet();
-    regexpMatches = Lists.newArrayList();
-    if (blacklistFile.exists()) {
-      parseBlacklist(blacklistFile);
-    }
+    this(blacklistFile, new TimeSource(), RELOAD_INTERVAL);
+  }
+
+  BasicGadgetBlacklist(File blacklistFile, TimeSource timeSource, long reloadInterval)
+      throws IOException {
+    this.blacklistFile = blacklistFile;
+    this.timeSource = timeSource;
+    this.reloadInterval = reloadInterval;
+    this.lastModified = blacklistFile.lastModified();
+    this.rules = blacklistFile.exists() ? parseBlacklist(blacklistFile) : Rules.EMPTY;
+    this.nextCheck = timeSource.currentTimeMillis() + reloadInterval;
   }
 
   @Inject
@@ -90,38 +124,197 @@ public class BasicGadgetBlacklist implements GadgetBlacklist {
     this(new File(file));
   }
 
-  private void parseBlacklist(File blacklistFile) throws IOException {
+  private static Rules parseBlacklist(File blacklistFile) throws IOException {
+    Set<String> exactMatches = Sets.newHashSet();
+    List<String> regexps = Lists.newArrayList();
     BufferedReader in = new BufferedReader(new FileReader(blacklistFile));
-    String line;
-    while ((line = in.readLine()) != null) {
-      line = line.trim();
-      if (line.length() == 0 || line.charAt(0) == COMMENT_MARKER) {
-        continue;
-      }
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.charAt(0) == COMMENT_MARKER) {
+          continue;
+        }
 
-      String[] parts = line.split("\\s+");
-      if (parts.length == 1) {
-        exactMatches.add(line.toLowerCase());
-      } else if (parts.length == 2
-                 && parts[0].toUpperCase().equals(REGEXP_PREFIX)) {
-        // compile will throw PatternSyntaxException on invalid patterns.
-        regexpMatches.add(Pattern.compile(parts[1], Pattern.CASE_INSENSITIVE));
+        String[] parts = line.split("\\s+");
+        if (parts.length == 1) {
+          exactMatches.add(line.toLowerCase());
+        } else if (parts.length == 2
+                   && parts[0].toUpperCase().equals(REGEXP_PREFIX)) {
+          // compile will throw PatternSyntaxException on invalid patterns.
+          Pattern.compile(parts[1], Pattern.CASE_INSENSITIVE);
+          regexps.add(parts[1]);
+        }
       }
+    } finally {
+      in.close();
     }
+    return new Rules(exactMatches, regexps);
   }
 
   /** {@inheritDoc} */
   public boolean isBlacklisted(URI gadgetUri) {
-    String uriString = gadgetUri.toString().toLowerCase();
-    if (exactMatches.contains(uriString)) {
-      return true;
+    checkForChanges();
+    return rules.isBlacklisted(gadgetUri.toString().toLowerCase());
+  }
+
+  /**
+   * Reloads the file if it has changed. Only one thread checks at a time, the
+   * others carry on with the rules they have.
+   */
+  private void checkForChanges() {
+    long now = timeSource.currentTimeMillis();
+    if (now < nextCheck) {
+      return;
+    }
+    synchronized (this) {
+      if (now < nextCheck) {
+        return;
+      }
+      nextCheck = now + reloadInterval;
+      long modified = blacklistFile.lastModified();
+      if (modified == lastModified) {
+        return;
+      }
+      try {
+        rules = blacklistFile.exists() ? parseBlacklist(blacklistFile) : Rules.EMPTY;
+        lastModified = modified;
+        logger.info("Reloaded gadget blacklist from " + blacklistFile);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to reload gadget blacklist, keeping the old one", e);
+      } catch (PatternSyntaxException e) {
+        logger.log(Level.WARNING, "Unable to reload gadget blacklist, keeping the old one", e);
+      }
+    }
+  }
+
+  /**
+   * One version of the blacklist, with regular expressions grouped by literal
+   * prefix and the verdicts for URLs that have been checked.
+   */
+  private static class Rules {
+    static final Rules EMPTY = new Rules(Collections.<String>emptySet(),
+        Collections.<String>emptyList());
+
+    private final Set<String> exactMatches;
+    /** Combined patterns by the literal prefix that every URL they match starts with. */
+    private final Map<String, List<Pattern>> prefixed;
+    /** Distinct prefix lengths in the index, shortest first. */
+    private final int[] prefixLengths;
+    private final ConcurrentMap<String, Boolean> verdicts = Maps.newConcurrentHashMap();
+
+    Rules(Set<String> exactMatches, List<String> regexps) {
+      this.exactMatches = exactMatches;
+      Map<String, List<String>> groups = Maps.newHashMap();
+      SortedSet<Integer> lengths = Sets.newTreeSet();
+      for (String regexp : regexps) {
+        String prefix = getLiteralPrefix(regexp);
+        List<String> group = groups.get(prefix);
+        if (group == null) {
+          group = Lists.newArrayList();
+          groups.put(prefix, group);
+          lengths.add(prefix.length());
+        }
+        group.add(regexp);
+      }
+      prefixed = Maps.newHashMapWithExpectedSize(groups.size());
+      for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+        prefixed.put(group.getKey(), combine(group.getValue()));
+      }
+      prefixLengths = new int[lengths.size()];
+      int i = 0;
+      for (Integer length : lengths) {
+        prefixLengths[i++] = length;
+      }
     }
-    for (Pattern pattern : regexpMatches) {
-      if (pattern.matcher(uriString).matches()) {
+
+    boolean isBlacklisted(String uri) {
+      Boolean verdict = verdicts.get(uri);
+      if (verdict == null) {
+        verdict = match(uri);
+        if (verdicts.size() < MAX_CACHED_VERDICTS) {
+          verdicts.put(uri, verdict);
+        }
+      }
+      return verdict;
+    }
+
+    private boolean match(String uri) {
+      if (exactMatches.contains(uri)) {
         return true;
       }
+      for (int length : prefixLengths) {
+        if (length > uri.length()) {
+          break;
+        }
+        List<Pattern> patterns = prefixed.get(uri.substring(0, length));
+        if (patterns != null) {
+          for (Pattern pattern : patterns) {
+            if (pattern.matcher(uri).matches()) {
+              return true;
+            }
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Combines patterns into as few as possible. Back references are numbered by
+   * position and a quote may run to the end of the pattern, so patterns that
+   * use them would break in an alternation and are kept on their own.
+   */
+  static List<Pattern> combine(List<String> regexps) {
+    List<Pattern> patterns = Lists.newArrayList();
+    StringBuilder combined = new StringBuilder();
+    for (String regexp : regexps) {
+      if (UNCOMBINABLE.matcher(regexp).find()) {
+        patterns.add(Pattern.compile(regexp, Pattern.CASE_INSENSITIVE));
+        continue;
+      }
+      if (combined.length() > 0) {
+        combined.append('|');
+      }
+      combined.append("(?:").append(regexp).append(')');
+    }
+    if (combined.length() > 0) {
+      patterns.add(Pattern.compile(combined.toString(), Pattern.CASE_INSENSITIVE));
     }
-    return false;
+    return patterns;
   }
 
+  /**
+   * Finds the lowercased literal text that every match of the pattern starts
+   * with. Only plain characters and escaped punctuation count, and the search
+   * stops at the first construct that could match something else. Patterns
+   * with an alternation anywhere have no usable prefix.
+   */
+  static String getLiteralPrefix(String regexp) {
+    if (regexp.indexOf('|') != -1) {
+      return "";
+    }
+    StringBuilder prefix = new StringBuilder();
+    int i = 0;
+    while (i < regexp.length()) {
+      char c = regexp.charAt(i);
+      int next = i + 1;
+      if (c == '\\') {
+        if (next >= regexp.length() || Character.isLetterOrDigit(regexp.charAt(next))) {
+          break;
+        }
+        c = regexp.charAt(next);
+        next++;
+      } else if ("[](){}.*+?^$".indexOf(c) != -1) {
+        break;
+      }
+      if (next < regexp.length() && "*+?{".indexOf(regexp.charAt(next)) != -1) {
+        // The character is optional or repeated, so it is not part of every match.
+        break;
+      }
+      prefix.append(c);
+      i = next;
+    }
+    return prefix.toString().toLowerCase();
+  }
 }
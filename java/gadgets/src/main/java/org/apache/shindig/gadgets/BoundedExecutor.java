@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets;
+
+import org.apache.shindig.common.metrics.Gauge;
+import org.apache.shindig.common.metrics.Metrics;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread pool with a fixed number of threads and a bounded queue, so that one kind of work can't
+ * use up every thread in the server when a remote site slows down.
+ *
+ * Work that arrives when every thread is busy and the queue is full is refused by throwing
+ * {@link RejectedExecutionException}, which callers should turn into a quick error response.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+  /** Name of the pool used for work that has no pool of its own. */
+  public static final String DEFAULT = "shindig.executor.default";
+
+  /** Name of the pool used to process gadget metadata requests. */
+  public static final String RPC = "shindig.executor.rpc";
+
+  /** Name of the pool used to preload data for gadget renders. */
+  public static final String PRELOAD = "shindig.executor.preload";
+
+  /** Name of the pool used to fetch remote content for suspended requests. */
+  public static final String FETCH = "shindig.executor.fetch";
+
+  private final String name;
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  /**
+   * @param name The name of the pool, used to name its threads.
+   * @param threads The most threads the pool will run.
+   * @param queueSize The most tasks that may wait for a thread. With 0, tasks are only accepted
+   *     when a thread is free.
+   */
+  public BoundedExecutor(String name, int threads, int queueSize) {
+    super(threads, threads, 60L, TimeUnit.SECONDS, createQueue(queueSize),
+        new NamedThreadFactory(name));
+    this.name = name;
+    setRejectedExecutionHandler(new RejectedExecutionHandler() {
+      public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+        rejectedCount.incrementAndGet();
+        throw new RejectedExecutionException(BoundedExecutor.this.name + " is full");
+      }
+    });
+  }
+
+  private static BlockingQueue<Runnable> createQueue(int queueSize) {
+    if (queueSize > 0) {
+      return new ArrayBlockingQueue<Runnable>(queueSize);
+    }
+    return new SynchronousQueue<Runnable>();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return The number of tasks waiting for a thread.
+   */
+  public int getQueueDepth() {
+    return getQueue().size();
+  }
+
+  /**
+   * @return The number of tasks that have been refused because the pool was full.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Reports the pool as the gauges &lt;name&gt;.queue, &lt;name&gt;.active and
+   * &lt;name&gt;.rejected.
+   */
+  public void addGauges(Metrics metrics) {
+    metrics.addGauge(name + ".queue", new Gauge() {
+      public long getValue() {
+        return getQueueDepth();
+      }
+    });
+    metrics.addGauge(name + ".active", new Gauge() {
+      public long getValue() {
+        return getActiveCount();
+      }
+    });
+    metrics.addGauge(name + ".rejected", new Gauge() {
+      public long getValue() {
+        return getRejectedCount();
+      }
+    });
+  }
+
+  private static class NamedThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    NamedThreadFactory(String name) {
+      this.name = name;
+    }
+
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + '-' + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
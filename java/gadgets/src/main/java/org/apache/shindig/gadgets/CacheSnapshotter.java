@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.DefaultHttpCache;
+import org.apache.shindig.gadgets.http.HttpResponse;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a snapshot of the most used gadget specs and cached HTTP responses on local disk, so that
+ * a restarted server starts with warm caches instead of fetching every popular gadget again.
+ *
+ * The snapshot holds small, successful responses to plain GET requests, which include the xml of
+ * gadget specs and message bundles, and the urls of the most used gadget specs. When the server
+ * starts, responses that haven't expired are put back in the HTTP cache, and the specs are loaded
+ * again through the spec factory. Specs whose xml has expired are fetched again then, before the
+ * server takes traffic, rather than on the first render.
+ *
+ * Snapshots are off unless shindig.cache.snapshot.file is set.
+ */
+@Singleton
+public class CacheSnapshotter {
+  private static final Logger LOG = Logger.getLogger(CacheSnapshotter.class.getName());
+
+  private static final int VERSION = 1;
+  private static final int MAX_KEY_LENGTH = 8192;
+
+  private final Cache<String, HttpResponse> responses;
+  private final Provider<GadgetSpecFactory> specFactory;
+  private final File file;
+  private final long interval;
+  private final long startupWait;
+  private final int maxObjectSize;
+  private final Map<String, Uri> hotResponses;
+  private final Map<Uri, Boolean> hotSpecs;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param fileName The snapshot file, or an empty string to turn snapshots off.
+   * @param interval How often, in milliseconds, the snapshot is written. 0 only writes it when the
+   *     server stops.
+   * @param startupWait The longest, in milliseconds, that startup waits for the caches to be
+   *     warmed. Warming carries on in the background after that.
+   * @param maxEntries The most responses, and the most gadget specs, kept in the snapshot.
+   * @param maxObjectSize The largest response body, in bytes, kept in the snapshot.
+   */
+  @Inject
+  public CacheSnapshotter(CacheProvider cacheProvider,
+                          Provider<GadgetSpecFactory> specFactory,
+                          @Named("shindig.cache.snapshot.file") String fileName,
+                          @Named("shindig.cache.snapshot.interval") long interval,
+                          @Named("shindig.cache.snapshot.startup-wait") long startupWait,
+                          @Named("shindig.cache.snapshot.max-entries") int maxEntries,
+                          @Named("shindig.cache.snapshot.max-object-size") int maxObjectSize) {
+    this.responses = cacheProvider.createCache(DefaultHttpCache.CACHE_NAME);
+    this.specFactory = specFactory;
+    this.file = fileName == null || fileName.trim().length() == 0 ? null : new File(fileName);
+    this.interval = interval;
+    this.startupWait = startupWait;
+    this.maxObjectSize = maxObjectSize;
+    this.hotResponses = newHotMap(maxEntries);
+    this.hotSpecs = newHotMap(maxEntries);
+  }
+
+  private static <K, V> Map<K, V> newHotMap(final int maxEntries) {
+    return Collections.synchronizedMap(new LinkedHashMap<K, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+      }
+    });
+  }
+
+  public boolean isEnabled() {
+    return file != null;
+  }
+
+  /**
+   * Notes that the response to a plain GET of a url has been cached under a key.
+   */
+  public void recordResponse(String key, Uri uri) {
+    if (file != null && key.length() < MAX_KEY_LENGTH) {
+      hotResponses.put(key, uri);
+    }
+  }
+
+  /**
+   * Notes that a cached response has been used.
+   */
+  public void touchResponse(String key) {
+    if (file != null) {
+      hotResponses.get(key);
+    }
+  }
+
+  /**
+   * Notes that a gadget spec has been used.
+   */
+  public void recordGadgetSpec(Uri uri) {
+    if (file != null) {
+      hotSpecs.put(uri, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Warms the caches from the snapshot, waiting for at most the startup wait, and then starts
+   * writing snapshots.
+   */
+  public synchronized void start() {
+    if (file == null || scheduler != null) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "shindig-cache-snapshot");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    Future<?> warming = scheduler.submit(new Runnable() {
+      public void run() {
+        load();
+      }
+    });
+    try {
+      warming.get(startupWait, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      LOG.info("Still warming caches from " + file + ", carrying on in the background");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      LOG.log(Level.WARNING, "Failed to warm caches from " + file, e.getCause());
+    }
+
+    if (interval > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        public void run() {
+          write();
+        }
+      }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops writing snapshots, and writes a last one.
+   */
+  public synchronized void stop() {
+    if (scheduler == null) {
+      return;
+    }
+    scheduler.shutdownNow();
+    scheduler = null;
+    write();
+  }
+
+  /**
+   * Writes the snapshot. It is written to a temporary file first, so that a crash can't leave a
+   * partial snapshot behind.
+   */
+  void write() {
+    List<Map.Entry<String, Uri>> responseEntries;
+    synchronized (hotResponses) {
+      responseEntries = Lists.newArrayList(hotResponses.entrySet());
+    }
+    List<Uri> specUris;
+    synchronized (hotSpecs) {
+      specUris = Lists.newArrayList(hotSpecs.keySet());
+    }
+
+    File temp = new File(file.getPath() + ".tmp");
+    int written = 0;
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(
+          new BufferedOutputStream(new FileOutputStream(temp)));
+      try {
+        out.writeInt(VERSION);
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Uri> entry : responseEntries) {
+          HttpResponse response = responses.getElement(entry.getKey());
+          if (response != null && response.getHttpStatusCode() == HttpResponse.SC_OK
+              && response.getContentLength() <= maxObjectSize
+              && response.getCacheExpiration() > now) {
+            out.writeBoolean(true);
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue().toString());
+            response.writeExternal(out);
+            written++;
+          }
+        }
+        out.writeBoolean(false);
+        for (Uri uri : specUris) {
+          out.writeBoolean(true);
+          out.writeUTF(uri.toString());
+        }
+        out.writeBoolean(false);
+      } finally {
+        out.close();
+      }
+      if (!temp.renameTo(file)) {
+        // Some platforms can't rename over an existing file.
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("Unable to rename " + temp + " to " + file);
+        }
+      }
+      LOG.fine("Wrote " + written + " responses and " + specUris.size() + " gadget specs to "
+          + file);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to write cache snapshot " + file, e);
+      temp.delete();
+    }
+  }
+
+  /**
+   * Restores the responses in the snapshot that haven't expired, and loads the gadget specs.
+   */
+  void load() {
+    if (!file.exists()) {
+      return;
+    }
+    int restored = 0;
+    int expired = 0;
+    List<Uri> specUris = Lists.newArrayList();
+    try {
+      ObjectInputStream in = new ObjectInputStream(
+          new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (in.readInt() != VERSION) {
+          LOG.info("Ignoring cache snapshot " + file + " written by another version");
+          return;
+        }
+        long now = System.currentTimeMillis();
+        while (in.readBoolean()) {
+          String key = in.readUTF();
+          Uri uri = Uri.parse(in.readUTF());
+          HttpResponse response = new HttpResponse();
+          response.readExternal(in);
+          if (response.getCacheExpiration() > now) {
+            if (responses.getElement(key) == null) {
+              responses.addElement(key, response);
+            }
+            recordResponse(key, uri);
+            restored++;
+          } else {
+            expired++;
+          }
+        }
+        while (in.readBoolean()) {
+          specUris.add(Uri.parse(in.readUTF()));
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to read cache snapshot " + file, e);
+    } catch (ClassNotFoundException e) {
+      LOG.log(Level.WARNING, "Failed to read cache snapshot " + file, e);
+    }
+
+    // Parsing the specs puts them in the spec cache, and fetches any whose xml has expired.
+    int specs = 0;
+    GadgetSpecFactory factory = specFactory.get();
+    for (Uri uri : specUris) {
+      try {
+        factory.getGadgetSpec(uri.toJavaUri(), false);
+        specs++;
+      } catch (GadgetException e) {
+        LOG.log(Level.FINE, "Gadget spec " + uri + " from the snapshot is not available", e);
+      }
+    }
+    LOG.info("Warmed caches from " + file + " with " + restored + " responses and " + specs
+        + " gadget specs, " + expired + " responses had expired");
+  }
+}
@@ -50,6 +50,7 @@ public class DefaultGadgetSpecFactory implements GadgetSpecFactory {
   private final HttpFetcher fetcher;
   private final SoftExpiringCache<Uri, GadgetSpec> cache;
   private final long refresh;
+  private CacheSnapshotter snapshotter;
 
   @Inject
   public DefaultGadgetSpecFactory(HttpFetcher fetcher,
@@ -61,6 +62,14 @@ public class DefaultGadgetSpecFactory implements GadgetSpecFactory {
     this.refresh = refresh;
   }
 
+  /**
+   * Specs that are used are noted in the cache snapshot, so that they are loaded on startup.
+   */
+  @Inject(optional = true)
+  public void setSnapshotter(CacheSnapshotter snapshotter) {
+    this.snapshotter = snapshotter;
+  }
+
   public GadgetSpec getGadgetSpec(GadgetContext context) throws GadgetException {
     String rawxml = context.getParameter(RAW_GADGETSPEC_XML_PARAM_NAME);
     if (rawxml != null) {
@@ -108,6 +117,9 @@ public class DefaultGadgetSpecFactory implements GadgetSpecFactory {
     if (exception != null) {
       throw exception;
     }
+    if (snapshotter != null) {
+      snapshotter.recordGadgetSpec(uri);
+    }
     return spec;
   }
 
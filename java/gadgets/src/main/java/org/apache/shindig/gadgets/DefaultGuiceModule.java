@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets;
 
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.parse.ParseModule;
 import org.apache.shindig.gadgets.preload.HttpPreloader;
@@ -26,17 +27,20 @@ import org.apache.shindig.gadgets.render.RenderingContentRewriter;
 import org.apache.shindig.gadgets.rewrite.ContentRewriter;
 import org.apache.shindig.gadgets.rewrite.lexer.DefaultContentRewriter;
 import org.apache.shindig.gadgets.servlet.CajaContentRewriter;
+import org.apache.shindig.gadgets.templates.TemplateRewriter;
 
 import com.google.common.collect.Lists;
 import com.google.inject.AbstractModule;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.google.inject.Scopes;
 import com.google.inject.TypeLiteral;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
 
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Creates a module to supply all of the Basic* classes
@@ -47,9 +51,16 @@ public class DefaultGuiceModule extends AbstractModule {
   @Override
   protected void configure() {
 
-    ExecutorService service = Executors.newCachedThreadPool();
-    bind(Executor.class).toInstance(service);
-    bind(ExecutorService.class).toInstance(service);
+    // Each kind of work gets its own bounded pool, so that a slow remote site can only use up the
+    // threads of the work that talks to it.
+    bind(ExecutorService.class).toProvider(DefaultExecutorProvider.class).in(Scopes.SINGLETON);
+    bind(Executor.class).to(ExecutorService.class);
+    bind(ExecutorService.class).annotatedWith(Names.named(BoundedExecutor.RPC))
+        .toProvider(RpcExecutorProvider.class).in(Scopes.SINGLETON);
+    bind(ExecutorService.class).annotatedWith(Names.named(BoundedExecutor.PRELOAD))
+        .toProvider(PreloadExecutorProvider.class).in(Scopes.SINGLETON);
+    bind(ExecutorService.class).annotatedWith(Names.named(BoundedExecutor.FETCH))
+        .toProvider(FetchExecutorProvider.class).in(Scopes.SINGLETON);
 
     this.install(new ParseModule());
 
@@ -64,10 +75,13 @@ public class DefaultGuiceModule extends AbstractModule {
     private final List<ContentRewriter> rewriters;
 
     @Inject
-    public ContentRewritersProvider(DefaultContentRewriter optimizingRewriter,
+    public ContentRewritersProvider(TemplateRewriter templateRewriter,
+                                    DefaultContentRewriter optimizingRewriter,
                                     CajaContentRewriter cajaRewriter,
                                     RenderingContentRewriter renderingRewriter) {
       rewriters = Lists.newArrayList();
+      // Templates are rendered first, so that the other rewriters see the rendered markup.
+      rewriters.add(templateRewriter);
       rewriters.add(optimizingRewriter);
       rewriters.add(cajaRewriter);
       rewriters.add(renderingRewriter);
@@ -78,6 +92,58 @@ public class DefaultGuiceModule extends AbstractModule {
     }
   }
 
+  /**
+   * Supplies a bounded pool, and reports its queue depth, active threads and rejections.
+   */
+  private abstract static class BoundedExecutorProvider implements Provider<ExecutorService> {
+    private final BoundedExecutor executor;
+
+    protected BoundedExecutorProvider(BoundedExecutor executor) {
+      this.executor = executor;
+    }
+
+    @Inject(optional = true)
+    public void setMetrics(Metrics metrics) {
+      executor.addGauges(metrics);
+    }
+
+    public ExecutorService get() {
+      return executor;
+    }
+  }
+
+  private static class DefaultExecutorProvider extends BoundedExecutorProvider {
+    @Inject
+    public DefaultExecutorProvider(@Named("shindig.executor.default.threads") int threads,
+                                   @Named("shindig.executor.default.queue") int queueSize) {
+      super(new BoundedExecutor(BoundedExecutor.DEFAULT, threads, queueSize));
+    }
+  }
+
+  private static class RpcExecutorProvider extends BoundedExecutorProvider {
+    @Inject
+    public RpcExecutorProvider(@Named("shindig.executor.rpc.threads") int threads,
+                               @Named("shindig.executor.rpc.queue") int queueSize) {
+      super(new BoundedExecutor(BoundedExecutor.RPC, threads, queueSize));
+    }
+  }
+
+  private static class PreloadExecutorProvider extends BoundedExecutorProvider {
+    @Inject
+    public PreloadExecutorProvider(@Named("shindig.executor.preload.threads") int threads,
+                                   @Named("shindig.executor.preload.queue") int queueSize) {
+      super(new BoundedExecutor(BoundedExecutor.PRELOAD, threads, queueSize));
+    }
+  }
+
+  private static class FetchExecutorProvider extends BoundedExecutorProvider {
+    @Inject
+    public FetchExecutorProvider(@Named("shindig.executor.fetch.threads") int threads,
+                                 @Named("shindig.executor.fetch.queue") int queueSize) {
+      super(new BoundedExecutor(BoundedExecutor.FETCH, threads, queueSize));
+    }
+  }
+
   private static class PreloaderProvider implements Provider<List<Preloader>> {
     private final List<Preloader> preloaders;
 
@@ -30,16 +30,30 @@ import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.LocaleSpec;
 import org.apache.shindig.gadgets.spec.MessageBundle;
 
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 /**
  * Default implementation of a message bundle factory.
  *
+ * The bundles for a locale and its parents (lang_CC, lang_ALL and all_ALL) are fetched
+ * concurrently and merged once into a single flattened bundle, which is cached per spec and
+ * locale. Fetched bundles are also cached by url, so locales that share a parent only fetch it
+ * once. A bundle that can't be fetched only costs its own level: the last copy fetched from the
+ * same url is used in its place, or nothing if there is none, and the other levels are still
+ * merged.
+ *
  * Containers wishing to implement custom bundle fetching behavior should override
  * {@link #fetchBundle}.
  */
@@ -47,26 +61,41 @@ import java.util.logging.Logger;
 public class DefaultMessageBundleFactory implements MessageBundleFactory {
   private static final Locale ALL_ALL = new Locale("all", "ALL");
   public static final String CACHE_NAME = "messageBundles";
+  public static final String FETCHED_CACHE_NAME = "fetchedMessageBundles";
   static final Logger LOG = Logger.getLogger(DefaultMessageBundleFactory.class.getName());
   private final HttpFetcher fetcher;
+  private final Executor executor;
   final SoftExpiringCache<String, MessageBundle> cache;
+  final SoftExpiringCache<String, MessageBundle> fetchedCache;
   private final long refresh;
 
   @Inject
   public DefaultMessageBundleFactory(HttpFetcher fetcher,
                                      CacheProvider cacheProvider,
-                                     @Named("shindig.cache.xml.refreshInterval") long refresh) {
+                                     @Named("shindig.cache.xml.refreshInterval") long refresh,
+                                     Executor executor) {
     this.fetcher = fetcher;
+    this.executor = executor;
     Cache<String, MessageBundle> baseCache = cacheProvider.createCache(CACHE_NAME);
     this.cache = new SoftExpiringCache<String, MessageBundle>(baseCache);
+    Cache<String, MessageBundle> fetchedBaseCache = cacheProvider.createCache(FETCHED_CACHE_NAME);
+    this.fetchedCache = new SoftExpiringCache<String, MessageBundle>(fetchedBaseCache);
     this.refresh = refresh;
   }
 
+  /**
+   * Creates a factory that fetches the bundles for a locale one after the other.
+   */
+  public DefaultMessageBundleFactory(HttpFetcher fetcher, CacheProvider cacheProvider,
+      long refresh) {
+    this(fetcher, cacheProvider, refresh, null);
+  }
+
   public MessageBundle getBundle(GadgetSpec spec, Locale locale, boolean ignoreCache)
       throws GadgetException {
 
     if (ignoreCache) {
-      return getNestedBundle(spec, locale, true);
+      return getFlattenedBundle(spec, locale, true, null);
     }
 
     String key = spec.getUrl().toString() + '.' + locale.toString();
@@ -75,7 +104,11 @@ public class DefaultMessageBundleFactory implements MessageBundleFactory {
     MessageBundle bundle;
     if (cached == null || cached.isExpired) {
       try {
-        bundle = getNestedBundle(spec, locale, ignoreCache);
+        List<Uri> failed = Lists.newArrayList();
+        bundle = getFlattenedBundle(spec, locale, ignoreCache, failed);
+        if (!failed.isEmpty()) {
+          LOG.info("MessageBundle fetch failed for " + failed + " - using cached or default.");
+        }
       } catch (GadgetException e) {
         // Enforce negative caching.
         if (cached != null) {
@@ -95,35 +128,155 @@ public class DefaultMessageBundleFactory implements MessageBundleFactory {
     return bundle;
   }
 
-  private MessageBundle getNestedBundle(GadgetSpec spec, Locale locale, boolean ignoreCache)
-      throws GadgetException {
-    MessageBundle parent = getParentBundle(spec, locale, ignoreCache);
-    MessageBundle child = null;
-    LocaleSpec localeSpec = spec.getModulePrefs().getLocale(locale);
-    if (localeSpec == null) {
-      return parent == null ? MessageBundle.EMPTY : parent;
+  /**
+   * Merges the bundles for the locale and all of its parents, fetching the remote ones
+   * concurrently.
+   *
+   * @param failed Collects the urls of the bundles that could not be fetched, which are replaced
+   *     by their last fetched copy or left out. If null, the first failure is thrown instead.
+   */
+  private MessageBundle getFlattenedBundle(GadgetSpec spec, Locale locale, boolean ignoreCache,
+      List<Uri> failed) throws GadgetException {
+    List<LocaleSpec> chain = getLocaleChain(spec, locale);
+    if (chain.isEmpty()) {
+      return MessageBundle.EMPTY;
+    }
+
+    // All remote bundles but the last are fetched by the executor, the last one in this thread.
+    List<FutureTask<MessageBundle>> fetches = Lists.newArrayListWithExpectedSize(chain.size());
+    FutureTask<MessageBundle> lastFetch = null;
+    for (LocaleSpec localeSpec : chain) {
+      FutureTask<MessageBundle> fetch = null;
+      if (isRemote(localeSpec)) {
+        if (lastFetch != null) {
+          submit(lastFetch);
+        }
+        fetch = new FutureTask<MessageBundle>(new BundleFetch(localeSpec, ignoreCache));
+        lastFetch = fetch;
+      }
+      fetches.add(fetch);
+    }
+    if (lastFetch != null) {
+      // Started before waiting for any of the others, so that it overlaps with them.
+      lastFetch.run();
+    }
+
+    List<MessageBundle> bundles = Lists.newArrayListWithExpectedSize(chain.size());
+    for (int i = 0; i < chain.size(); i++) {
+      FutureTask<MessageBundle> fetch = fetches.get(i);
+      if (fetch == null) {
+        bundles.add(chain.get(i).getMessageBundle());
+      } else {
+        // Does nothing if the executor has already started it. Running it here rather than
+        // waiting means a busy executor can never hold up the request.
+        fetch.run();
+        try {
+          bundles.add(getResult(fetch));
+        } catch (GadgetException e) {
+          if (failed == null) {
+            throw e;
+          }
+          failed.add(chain.get(i).getMessages());
+          bundles.add(getStaleBundle(chain.get(i)));
+        }
+      }
     }
+    return new MessageBundle(bundles);
+  }
+
+  /**
+   * @return The distinct locale specs that apply to the locale, most general first.
+   */
+  private List<LocaleSpec> getLocaleChain(GadgetSpec spec, Locale locale) {
+    List<Locale> locales = Lists.newArrayListWithExpectedSize(3);
+    locales.add(ALL_ALL);
+    if (!locale.getLanguage().equalsIgnoreCase("all")) {
+      locales.add(new Locale(locale.getLanguage(), "ALL"));
+      if (!locale.getCountry().equalsIgnoreCase("ALL")) {
+        locales.add(locale);
+      }
+    }
+
+    List<LocaleSpec> chain = Lists.newArrayListWithExpectedSize(locales.size());
+    for (Locale level : locales) {
+      // Missing levels resolve to their closest parent, which is already in the chain.
+      LocaleSpec localeSpec = spec.getModulePrefs().getLocale(level);
+      if (localeSpec != null && !chain.contains(localeSpec)) {
+        chain.add(localeSpec);
+      }
+    }
+    return chain;
+  }
+
+  private static boolean isRemote(LocaleSpec localeSpec) {
     Uri messages = localeSpec.getMessages();
-    if (messages == null || messages.toString().length() == 0) {
-      child = localeSpec.getMessageBundle();
-    } else {
-      child = fetchBundle(localeSpec, ignoreCache);
+    return messages != null && messages.toString().length() > 0;
+  }
+
+  private void submit(FutureTask<MessageBundle> fetch) {
+    if (executor != null) {
+      try {
+        executor.execute(fetch);
+      } catch (RejectedExecutionException e) {
+        // It will be run by the requesting thread instead.
+      }
+    }
+  }
+
+  private static MessageBundle getResult(FutureTask<MessageBundle> fetch) throws GadgetException {
+    try {
+      return fetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof GadgetException) {
+        throw (GadgetException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, cause);
     }
-    return new MessageBundle(parent, child);
   }
 
-  private MessageBundle getParentBundle(GadgetSpec spec, Locale locale, boolean ignoreCache)
+  /**
+   * Gets a remote bundle, shared by every spec and locale that refers to the same url.
+   */
+  private MessageBundle getFetchedBundle(LocaleSpec localeSpec, boolean ignoreCache)
       throws GadgetException {
-    if (locale.getLanguage().equalsIgnoreCase("all")) {
-      // Top most locale already.
-      return null;
+    if (ignoreCache) {
+      return fetchBundle(localeSpec, true);
+    }
+    String key = getFetchedKey(localeSpec);
+    CachedObject<MessageBundle> cached = fetchedCache.getElement(key);
+    if (cached != null && !cached.isExpired) {
+      return cached.obj;
     }
+    MessageBundle bundle = fetchBundle(localeSpec, false);
+    fetchedCache.addElement(key, bundle, refresh);
+    return bundle;
+  }
 
-    if (locale.getCountry().equalsIgnoreCase("ALL")) {
-      return getBundle(spec, ALL_ALL, ignoreCache);
+  /**
+   * @return The last fetched copy of a remote bundle that could not be fetched again, kept for
+   *     another refresh interval, or an empty bundle if there is none.
+   */
+  private MessageBundle getStaleBundle(LocaleSpec localeSpec) {
+    String key = getFetchedKey(localeSpec);
+    CachedObject<MessageBundle> cached = fetchedCache.getElement(key);
+    if (cached == null) {
+      return MessageBundle.EMPTY;
     }
+    // Enforce negative caching, so that other locales don't try the same url again right away.
+    fetchedCache.addElement(key, cached.obj, refresh);
+    return cached.obj;
+  }
 
-    return getBundle(spec, new Locale(locale.getLanguage(), "ALL"), ignoreCache);
+  private static String getFetchedKey(LocaleSpec localeSpec) {
+    // The language direction comes from the Locale element rather than the file.
+    return localeSpec.getMessages().toString() + '.' + localeSpec.getLanguageDirection();
   }
 
   protected MessageBundle fetchBundle(LocaleSpec locale, boolean ignoreCache)
@@ -144,4 +297,18 @@ public class DefaultMessageBundleFactory implements MessageBundleFactory {
     MessageBundle bundle  = new MessageBundle(locale, response.getResponseAsString());
     return bundle;
   }
+
+  private class BundleFetch implements Callable<MessageBundle> {
+    private final LocaleSpec localeSpec;
+    private final boolean ignoreCache;
+
+    BundleFetch(LocaleSpec localeSpec, boolean ignoreCache) {
+      this.localeSpec = localeSpec;
+      this.ignoreCache = ignoreCache;
+    }
+
+    public MessageBundle call() throws GadgetException {
+      return getFetchedBundle(localeSpec, ignoreCache);
+    }
+  }
 }
@@ -18,25 +18,86 @@
  */
 package org.apache.shindig.gadgets;
 
-import com.sun.syndication.feed.synd.SyndContent;
-import com.sun.syndication.feed.synd.SyndEntry;
-import com.sun.syndication.feed.synd.SyndFeed;
-import com.sun.syndication.feed.synd.SyndPerson;
-import com.sun.syndication.io.FeedException;
-import com.sun.syndication.io.SyndFeedInput;
-
-import org.json.JSONArray;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import com.sun.syndication.io.impl.DateParser;
+import com.sun.syndication.io.impl.XmlFixerReader;
+
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.IOException;
 import java.io.StringReader;
-import java.util.List;
+import java.util.Date;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 
 /**
  * Processes RSS & Atom Feeds and converts them into JSON output.
+ *
+ * The feed is read with a SAX parser and the JSON is written as each entry is
+ * read, so no object model of the feed is built and parsing stops as soon as
+ * the requested number of entries has been read. Results are cached by feed
+ * content and options when a cache provider has been set.
  */
+@Singleton
 public class FeedProcessor {
 
+  public static final String PROCESSED_FEEDS = "processedFeeds";
+
+  private static final String CONTENT_NS = "http://purl.org/rss/1.0/modules/content/";
+  private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+  private static final SAXParserFactory PARSER_FACTORY = SAXParserFactory.newInstance();
+  static {
+    PARSER_FACTORY.setNamespaceAware(true);
+    PARSER_FACTORY.setValidating(false);
+  }
+
+  private static final DefaultHandler NO_HANDLER = new DefaultHandler();
+
+  private static final ThreadLocal<XMLReader> READERS = new ThreadLocal<XMLReader>() {
+    @Override
+    protected XMLReader initialValue() {
+      try {
+        XMLReader reader;
+        synchronized (PARSER_FACTORY) {
+          reader = PARSER_FACTORY.newSAXParser().getXMLReader();
+        }
+        // Feeds are untrusted, never fetch external entities or DTDs. XmlFixerReader takes care
+        // of the HTML entities that feeds use without declaring them.
+        setFeature(reader, "http://xml.org/sax/features/external-general-entities", false);
+        setFeature(reader, "http://xml.org/sax/features/external-parameter-entities", false);
+        setFeature(reader,
+            "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        return reader;
+      } catch (ParserConfigurationException e) {
+        throw new RuntimeException(e);
+      } catch (SAXException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  };
+
+  private Cache<String, String> feedCache;
+
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    feedCache = cacheProvider.createCache(PROCESSED_FEEDS);
+  }
+
   /**
    * Converts feed XML to JSON.
    *
@@ -46,74 +107,405 @@ public class FeedProcessor {
    * @param numEntries Number of entries to return.
    * @return The JSON representation of the feed.
    */
-  @SuppressWarnings("unchecked")
   public JSONObject process(String feedUrl, String feedXml,
       boolean getSummaries, int numEntries) throws GadgetException {
     try {
-      SyndFeed feed = new SyndFeedInput().build(new StringReader(feedXml));
-      JSONObject json = new JSONObject();
-      json.put("Title", feed.getTitle());
-      json.put("URL", feedUrl);
-      json.put("Description", feed.getDescription());
-      json.put("Link", feed.getLink());
-
-      List<SyndPerson> authors = feed.getAuthors();
-      String jsonAuthor = null;
-      if (authors != null && !authors.isEmpty()) {
-        SyndPerson author = authors.get(0);
-        if (author.getName() != null) {
-          jsonAuthor = author.getName();
-        } else if (author.getEmail() != null) {
-          jsonAuthor = author.getEmail();
-        }
+      return new JSONObject(processToString(feedUrl, feedXml, getSummaries, numEntries));
+    } catch (JSONException e) {
+      // This shouldn't ever happen.
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Converts feed XML to serialized JSON, without building a JSON object.
+   *
+   * @see #process(String, String, boolean, int)
+   */
+  public String processToString(String feedUrl, String feedXml,
+      boolean getSummaries, int numEntries) throws GadgetException {
+    String key = null;
+    if (feedCache != null && feedCache.getCapacity() != 0) {
+      key = feedUrl + '\n' + getSummaries + '\n' + numEntries + '\n'
+          + HashUtil.rawChecksum(CharsetUtil.getUtf8Bytes(feedXml));
+      String cached = feedCache.getElement(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    FeedHandler handler = new FeedHandler(getSummaries, numEntries);
+    XMLReader reader = READERS.get();
+    reader.setContentHandler(handler);
+    reader.setErrorHandler(handler);
+    try {
+      reader.parse(new InputSource(new XmlFixerReader(new StringReader(feedXml))));
+    } catch (StopParsing e) {
+      // All requested entries have been read.
+    } catch (SAXException e) {
+      throw new GadgetException(GadgetException.Code.MALFORMED_XML_DOCUMENT, e);
+    } catch (IOException e) {
+      throw new GadgetException(GadgetException.Code.MALFORMED_XML_DOCUMENT, e);
+    } finally {
+      // Don't hold on to the results until this thread's next feed.
+      reader.setContentHandler(NO_HANDLER);
+      reader.setErrorHandler(NO_HANDLER);
+    }
+    String json = handler.toJson(feedUrl);
+    if (key != null) {
+      feedCache.addElement(key, json);
+    }
+    return json;
+  }
+
+  private static void setFeature(XMLReader reader, String feature, boolean value) {
+    try {
+      reader.setFeature(feature, value);
+    } catch (SAXException e) {
+      // Not supported by this parser.
+    }
+  }
+
+  private static void appendMember(StringBuilder json, String name, String value) {
+    if (value != null) {
+      json.append(JSONObject.quote(name)).append(':').append(JSONObject.quote(value)).append(',');
+    }
+  }
+
+  private static void appendEscaped(StringBuilder buf, char[] ch, int start, int length) {
+    for (int i = start; i < start + length; i++) {
+      char c = ch[i];
+      switch (c) {
+        case '&':
+          buf.append("&amp;");
+          break;
+        case '<':
+          buf.append("&lt;");
+          break;
+        case '>':
+          buf.append("&gt;");
+          break;
+        case '"':
+          buf.append("&quot;");
+          break;
+        default:
+          buf.append(c);
       }
-      JSONArray entries = new JSONArray();
-      json.put("Entry", entries);
+    }
+  }
+
+  private static Long parseDate(String value) {
+    if (value == null) {
+      return null;
+    }
+    Date date = DateParser.parseDate(value.trim());
+    return date == null ? null : date.getTime();
+  }
+
+  /** Thrown to stop the parser once all requested entries have been read. */
+  private static class StopParsing extends SAXException {
+    StopParsing() {
+      super("Done");
+    }
+  }
+
+  private enum Field {
+    TITLE, LINK, DESCRIPTION, CONTENT, AUTHOR, AUTHOR_NAME, AUTHOR_EMAIL, UPDATED, PUBLISHED, GUID
+  }
+
+  /** The values read for the feed itself or for one entry. First value wins. */
+  private static class Fields {
+    String title;
+    String link;
+    String description;
+    String content;
+    String author;
+    String authorEmail;
+    String updated;
+    String published;
+    String guid;
+    int authors;
 
-      int entryCnt = 0;
-      for (Object obj : feed.getEntries()) {
-        SyndEntry e = (SyndEntry) obj;
-        if (entryCnt >= numEntries) {
+    void set(Field field, String value) {
+      switch (field) {
+        case TITLE:
+          title = title == null ? value : title;
+          break;
+        case LINK:
+          link = link == null ? value.trim() : link;
+          break;
+        case DESCRIPTION:
+          description = description == null ? value : description;
+          break;
+        case CONTENT:
+          content = content == null ? value : content;
+          break;
+        case AUTHOR:
+          author = author == null ? value : author;
           break;
+        case AUTHOR_NAME:
+          // Only the first Atom author counts.
+          author = author == null && authors == 1 ? value : author;
+          break;
+        case AUTHOR_EMAIL:
+          authorEmail = authorEmail == null && authors == 1 ? value : authorEmail;
+          break;
+        case UPDATED:
+          updated = updated == null ? value : updated;
+          break;
+        case PUBLISHED:
+          published = published == null ? value : published;
+          break;
+        case GUID:
+          guid = guid == null ? value.trim() : guid;
+          break;
+      }
+    }
+  }
+
+  /**
+   * Reads RSS 0.9x, 1.0 and 2.0 and Atom 0.3 and 1.0 feeds, writing the JSON of
+   * each entry when it ends.
+   */
+  private static class FeedHandler extends DefaultHandler {
+    private final boolean getSummaries;
+    private final int numEntries;
+
+    private final Fields feed = new Fields();
+    private final StringBuilder entries = new StringBuilder();
+    private int entryCount;
+    private String firstEntryAuthor;
+
+    private boolean atom;
+    private boolean rss;
+    /** Namespace of the core feed elements, null until the channel or feed element is seen. */
+    private String feedNs;
+
+    private int depth;
+    private int feedDepth;
+    private int entryDepth;
+    private int skipDepth;
+    private int authorDepth;
+    private Fields entry;
+
+    private StringBuilder text;
+    private int textDepth;
+    private Field textField;
+
+    FeedHandler(boolean getSummaries, int numEntries) {
+      this.getSummaries = getSummaries;
+      this.numEntries = numEntries;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attrs)
+        throws SAXException {
+      depth++;
+      if (skipDepth > 0) {
+        return;
+      }
+      if (text != null) {
+        // Markup inside a field, such as XHTML content.
+        text.append('<').append(qName);
+        for (int i = 0; i < attrs.getLength(); i++) {
+          String value = attrs.getValue(i);
+          text.append(' ').append(attrs.getQName(i)).append("=\"");
+          appendEscaped(text, value.toCharArray(), 0, value.length());
+          text.append('"');
+        }
+        text.append('>');
+        return;
+      }
+      if (depth == 1) {
+        startRoot(uri, localName);
+      } else if (feedNs != null && entryDepth == 0 && uri.equals(feedNs)
+          && localName.equals(atom ? "entry" : "item")) {
+        startEntry();
+      } else if (rss && feedDepth == 0 && "channel".equals(localName)) {
+        feedDepth = depth;
+        feedNs = uri;
+      } else {
+        Field field = startField(uri, localName, attrs);
+        if (field != null) {
+          text = new StringBuilder();
+          textDepth = depth;
+          textField = field;
+        }
+      }
+    }
+
+    private void startRoot(String uri, String localName) throws SAXException {
+      if ("feed".equals(localName)) {
+        atom = true;
+        feedNs = uri;
+        feedDepth = 1;
+      } else if ("rss".equals(localName) || "RDF".equals(localName)) {
+        rss = true;
+      } else {
+        throw new SAXException("Not an RSS or Atom feed: " + localName);
+      }
+    }
+
+    private void startEntry() throws StopParsing {
+      if (entryCount >= numEntries) {
+        if (feed.title != null) {
+          throw new StopParsing();
+        }
+        // Keep looking for the feed title, which is usually before the entries.
+        skipDepth = depth;
+        return;
+      }
+      entryDepth = depth;
+      entry = new Fields();
+    }
+
+    /**
+     * Works out which field an element holds, if any. Atom links and authors are
+     * handled here since they are not plain text.
+     */
+    private Field startField(String uri, String localName, Attributes attrs) {
+      Fields fields = entry != null ? entry : feed;
+      if (authorDepth > 0) {
+        if (depth != authorDepth + 1 || !uri.equals(feedNs)) {
+          return null;
         }
-        entryCnt++;
-
-        JSONObject entry = new JSONObject();
-        entry.put("Title", e.getTitle());
-        entry.put("Link", e.getLink());
-        if (getSummaries) {
-          if (e.getContents() != null && e.getContents().size() > 0) {
-            entry.put("Summary",
-                ((SyndContent)e.getContents().get(0)).getValue());
-          } else {
-            entry.put("Summary",
-                e.getDescription() != null ? e.getDescription().getValue() : "");
+        if ("name".equals(localName)) {
+          return Field.AUTHOR_NAME;
+        }
+        if ("email".equals(localName)) {
+          return Field.AUTHOR_EMAIL;
+        }
+        return null;
+      }
+      if (feedDepth == 0 || depth != (entry != null ? entryDepth : feedDepth) + 1) {
+        return null;
+      }
+      if (CONTENT_NS.equals(uri)) {
+        return "encoded".equals(localName) ? Field.CONTENT : null;
+      }
+      if (DC_NS.equals(uri)) {
+        if ("creator".equals(localName)) {
+          return Field.AUTHOR;
+        }
+        return "date".equals(localName) ? Field.PUBLISHED : null;
+      }
+      if (!uri.equals(feedNs)) {
+        return null;
+      }
+      if ("title".equals(localName)) {
+        return Field.TITLE;
+      }
+      if (atom) {
+        if ("link".equals(localName)) {
+          String rel = attrs.getValue("rel");
+          String href = attrs.getValue("href");
+          if (href != null && (rel == null || "alternate".equals(rel))) {
+            fields.set(Field.LINK, href);
           }
+        } else if ("author".equals(localName)) {
+          authorDepth = depth;
+          fields.authors++;
+        } else if ("subtitle".equals(localName) || "tagline".equals(localName)
+            || "summary".equals(localName)) {
+          return Field.DESCRIPTION;
+        } else if ("content".equals(localName)) {
+          return Field.CONTENT;
+        } else if ("updated".equals(localName) || "modified".equals(localName)) {
+          return Field.UPDATED;
+        } else if ("published".equals(localName) || "issued".equals(localName)) {
+          return Field.PUBLISHED;
         }
+        return null;
+      }
+      if ("link".equals(localName)) {
+        return Field.LINK;
+      }
+      if ("description".equals(localName)) {
+        return Field.DESCRIPTION;
+      }
+      if ("author".equals(localName)) {
+        return Field.AUTHOR;
+      }
+      if ("pubDate".equals(localName)) {
+        return Field.PUBLISHED;
+      }
+      if ("guid".equals(localName) && !"false".equals(attrs.getValue("isPermaLink"))) {
+        return Field.GUID;
+      }
+      return null;
+    }
 
-        if (e.getUpdatedDate() != null) {
-          entry.put("Date", e.getUpdatedDate().getTime());
-        } else if (e.getPublishedDate() != null) {
-          entry.put("Date", e.getPublishedDate().getTime());
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      if (text != null && skipDepth == 0) {
+        if (depth > textDepth) {
+          appendEscaped(text, ch, start, length);
         } else {
-          entry.put("Date", 0);
+          text.append(ch, start, length);
         }
+      }
+    }
 
-        // if no author at feed level, use the first entry author
-        if (jsonAuthor == null) {
-          jsonAuthor = e.getAuthor();
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+      if (skipDepth > 0) {
+        if (depth == skipDepth) {
+          skipDepth = 0;
+        }
+      } else if (text != null) {
+        if (depth == textDepth) {
+          (entry != null ? entry : feed).set(textField, text.toString());
+          text = null;
+        } else {
+          text.append("</").append(qName).append('>');
         }
+      } else if (depth == authorDepth) {
+        authorDepth = 0;
+      } else if (depth == entryDepth) {
+        endEntry();
+      }
+      depth--;
+    }
+
+    private void endEntry() {
+      if (entryCount > 0) {
+        entries.append(',');
+      }
+      entries.append('{');
+      appendMember(entries, "Title", entry.title);
+      appendMember(entries, "Link", entry.link != null ? entry.link : entry.guid);
+      if (getSummaries) {
+        String summary = entry.content != null ? entry.content : entry.description;
+        appendMember(entries, "Summary", summary != null ? summary : "");
+      }
+      Long date = parseDate(entry.updated);
+      if (date == null) {
+        date = parseDate(entry.published);
+      }
+      entries.append("\"Date\":").append(date != null ? date.longValue() : 0L).append('}');
 
-        entries.put(entry);
+      if (firstEntryAuthor == null) {
+        firstEntryAuthor = entry.author;
       }
+      entryCount++;
+      entry = null;
+      entryDepth = 0;
+    }
 
-      json.put("Author", (jsonAuthor != null) ? jsonAuthor : "");
-      return json;
-    } catch (JSONException e) {
-      // This shouldn't ever happen.
-      throw new RuntimeException(e);
-    } catch (FeedException e) {
-      throw new GadgetException(GadgetException.Code.MALFORMED_XML_DOCUMENT, e);
+    String toJson(String feedUrl) {
+      StringBuilder json = new StringBuilder(entries.length() + 256);
+      json.append('{');
+      appendMember(json, "Title", feed.title);
+      appendMember(json, "URL", feedUrl);
+      appendMember(json, "Description", feed.description);
+      appendMember(json, "Link", feed.link);
+      json.append("\"Entry\":[").append(entries).append("],");
+      String author = feed.author != null ? feed.author : feed.authorEmail;
+      if (author == null) {
+        author = firstEntryAuthor;
+      }
+      json.append("\"Author\":").append(JSONObject.quote(author != null ? author : ""));
+      return json.append('}').toString();
     }
   }
 }
@@ -22,6 +22,11 @@ import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.LocaleSpec;
 import org.apache.shindig.gadgets.spec.View;
 
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.Set;
+
 /**
  * Intermediary representation of all state associated with processing
  * of a single gadget request.
@@ -31,6 +36,7 @@ public class Gadget {
   private GadgetSpec spec;
   private Preloads preloads;
   private View currentView;
+  private final Set<String> removedFeatures = Sets.newHashSet();
   /**
    * @param context The request that the gadget is being processed for.
    */
@@ -79,6 +85,24 @@ public class Gadget {
     return currentView;
   }
 
+  /**
+   * Marks a feature that the spec requires as no longer needed, because its work has already been
+   * done on the server. The feature's javascript is then left out of the rendered gadget.
+   *
+   * @param name The name of the feature.
+   */
+  public Gadget removeFeature(String name) {
+    removedFeatures.add(name);
+    return this;
+  }
+
+  /**
+   * @return The features that have been removed with {@link #removeFeature(String)}.
+   */
+  public Set<String> getRemovedFeatures() {
+    return Collections.unmodifiableSet(removedFeatures);
+  }
+
   /**
    * Convenience function for getting the locale spec for the current context.
    *
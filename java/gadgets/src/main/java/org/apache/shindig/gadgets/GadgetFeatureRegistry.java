@@ -19,23 +19,18 @@ package org.apache.shindig.gadgets;
 
 import org.apache.shindig.gadgets.http.HttpFetcher;
 
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Logger;
 
 /**
@@ -45,16 +40,26 @@ import java.util.logging.Logger;
  * To register a feature:
  * GadgetFeatureRegistry registry = // get your global registry
  * registry.register("my-feature", null, new MyFeatureFactory());
+ *
+ * Once the first lookup is made, each feature is given an id matching its
+ * position in a dependency ordering of all features, and the transitive
+ * dependencies of every feature are stored as a set of ids. Resolving a
+ * request is then just a union of those sets.
  */
 @Singleton
 public class GadgetFeatureRegistry {
+  /** The most distinct sets of features that are remembered. */
+  static final int MAX_CACHED_FEATURE_SETS = 1024;
+
   private final Map<String, GadgetFeature> features;
   private final Map<String, GadgetFeature> core;
 
-  // Caches the transitive dependencies to enable faster lookups.
-  final Map<Set<String>, Collection<GadgetFeature>> cache = Maps.newConcurrentHashMap();
+  // Caches the ordered features for each resolved set of feature ids.
+  final Map<BitSet, Collection<GadgetFeature>> cache = Maps.newConcurrentHashMap();
+
+  private volatile boolean graphComplete = false;
 
-  private boolean graphComplete = false;
+  private volatile FeatureGraph graph;
 
   private final static Logger logger
       = Logger.getLogger("org.apache.shindig.gadgets");
@@ -70,8 +75,8 @@ public class GadgetFeatureRegistry {
   public GadgetFeatureRegistry(@Named("shindig.features.default") String featureFiles,
       HttpFetcher httpFetcher) throws GadgetException {
 
-    features = Maps.newHashMap();
-    core = Maps.newHashMap();
+    features = Maps.newLinkedHashMap();
+    core = Maps.newLinkedHashMap();
 
     if (featureFiles != null) {
       JsFeatureLoader loader = new JsFeatureLoader(httpFetcher);
@@ -84,7 +89,7 @@ public class GadgetFeatureRegistry {
    *
    * @param feature Class implementing the feature.
    */
-  public void register(GadgetFeature feature) {
+  public synchronized void register(GadgetFeature feature) {
     if (graphComplete) {
       throw new IllegalStateException("register should never be " +
           "invoked after calling getLibraries");
@@ -131,51 +136,109 @@ public class GadgetFeatureRegistry {
    */
   public Collection<GadgetFeature> getFeatures(Collection<String> needed,
                                                Collection<String> unsupported) {
-    graphComplete = true;
-
-    Set<String> neededSet;
-    if (needed.isEmpty()) {
-      neededSet = core.keySet();
-    } else {
-      neededSet = ImmutableSet.copyOf(needed);
+    FeatureGraph graph = getGraph();
+
+    Collection<String> neededNames = needed.isEmpty() ? core.keySet() : needed;
+    BitSet resolved = new BitSet(graph.ordered.size());
+    for (String feature : neededNames) {
+      Integer id = graph.ids.get(feature);
+      if (id != null) {
+        resolved.or(graph.closures[id]);
+      } else if (unsupported != null && !unsupported.contains(feature)) {
+        unsupported.add(feature);
+      }
     }
 
-    // We use the cache only for situations where all needed are available.
-    // if any are missing, the result won't be cached.
-    Collection<GadgetFeature> libCache = cache.get(neededSet);
+    // Unknown features don't change the key, so requests can't grow the cache
+    // past the number of real combinations, and that is bounded as well.
+    Collection<GadgetFeature> libCache = cache.get(resolved);
     if (libCache != null) {
       return libCache;
     }
-    List<GadgetFeature> ret = Lists.newLinkedList();
-    populateDependencies(neededSet, ret);
-    // Fill in anything that was optional but missing. These won't be cached.
-    if (unsupported != null) {
-      for (String feature : neededSet) {
-        if (!features.containsKey(feature)) {
-          unsupported.add(feature);
+    List<GadgetFeature> ret = Lists.newArrayListWithExpectedSize(resolved.cardinality());
+    for (int i = resolved.nextSetBit(0); i >= 0; i = resolved.nextSetBit(i + 1)) {
+      ret.add(graph.ordered.get(i));
+    }
+    Collection<GadgetFeature> result = Collections.unmodifiableList(ret);
+    if (cache.size() < MAX_CACHED_FEATURE_SETS) {
+      cache.put(resolved, result);
+    }
+    return result;
+  }
+
+  /**
+   * Builds the dependency graph the first time it is needed. No more features
+   * may be registered after that.
+   */
+  private FeatureGraph getGraph() {
+    FeatureGraph current = graph;
+    if (current == null) {
+      synchronized (this) {
+        current = graph;
+        if (current == null) {
+          graphComplete = true;
+          current = new FeatureGraph(features, core);
+          graph = current;
         }
       }
     }
-    if (unsupported == null || unsupported.isEmpty()) {
-      cache.put(neededSet, Collections.unmodifiableList(ret));
-      logger.info("Added to cache. Size is now: " + cache.size());
-    }
-    return ret;
+    return current;
   }
 
   /**
-   * Recursively populates {@code libraries} with libraries from dependent
-   * features. This ensures that features will always be loaded in the order
-   * that they are declared.
+   * All features in dependency order, with the transitive dependencies of
+   * each as a set of positions in that order.
    */
-  private void populateDependencies(Collection<String> needed,
-      List<GadgetFeature> deps) {
-    for (String feature : needed) {
-      GadgetFeature feat = features.get(feature);
-      if (feat != null && !deps.contains(feat)) {
-        populateDependencies(feat.getDependencies(), deps);
-        deps.add(feat);
+  private static class FeatureGraph {
+    private final List<GadgetFeature> ordered;
+    private final Map<String, Integer> ids;
+    private final BitSet[] closures;
+
+    FeatureGraph(Map<String, GadgetFeature> features, Map<String, GadgetFeature> core) {
+      ordered = Lists.newArrayListWithExpectedSize(features.size());
+      ids = Maps.newHashMap();
+      // Core features come first, then the rest in the order they were registered.
+      for (GadgetFeature feature : core.values()) {
+        visit(feature, features, Maps.<String, Boolean>newHashMap());
+      }
+      for (GadgetFeature feature : features.values()) {
+        visit(feature, features, Maps.<String, Boolean>newHashMap());
+      }
+
+      // Dependencies always have lower ids, so one pass in order finds all closures.
+      closures = new BitSet[ordered.size()];
+      for (int i = 0; i < ordered.size(); ++i) {
+        BitSet closure = new BitSet(ordered.size());
+        closure.set(i);
+        for (String dependency : ordered.get(i).getDependencies()) {
+          Integer id = ids.get(dependency);
+          if (id != null && id < i) {
+            closure.or(closures[id]);
+          }
+        }
+        closures[i] = closure;
+      }
+    }
+
+    /**
+     * Depth first walk that gives each feature an id after all of its
+     * dependencies. Dependency cycles are broken where they are found.
+     */
+    private void visit(GadgetFeature feature, Map<String, GadgetFeature> features,
+        Map<String, Boolean> visiting) {
+      String name = feature.getName();
+      if (ids.containsKey(name) || visiting.containsKey(name)) {
+        return;
+      }
+      visiting.put(name, Boolean.TRUE);
+      for (String dependency : feature.getDependencies()) {
+        GadgetFeature dep = features.get(dependency);
+        if (dep != null) {
+          visit(dep, features, visiting);
+        }
       }
+      ids.put(name, ordered.size());
+      ordered.add(feature);
     }
   }
 }
@@ -18,6 +18,8 @@
 package org.apache.shindig.gadgets;
 
 import org.apache.shindig.common.ContainerConfig;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.util.Base32;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 
@@ -40,6 +42,9 @@ import java.util.logging.Logger;
  * base32(sha1(gadget url)).
  *
  * Other domain locking schemes are possible as well.
+ *
+ * Hashes are cached by gadget url when a cache provider has been set. Specs are substituted again
+ * for every render, so the hash can't be kept with the spec itself.
  */
 @Singleton
 public class HashLockedDomainService implements LockedDomainService {
@@ -51,6 +56,10 @@ public class HashLockedDomainService implements LockedDomainService {
   public static final String LOCKED_DOMAIN_REQUIRED_KEY = "gadgets.lockedDomainRequired";
   public static final String LOCKED_DOMAIN_SUFFIX_KEY = "gadgets.lockedDomainSuffix";
 
+  public static final String LOCKED_DOMAINS = "lockedDomains";
+
+  private Cache<String, String> hashes;
+
   /**
    * Create a LockedDomainService
    * @param config per-container configuration
@@ -78,6 +87,11 @@ public class HashLockedDomainService implements LockedDomainService {
     }
   }
 
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    hashes = cacheProvider.createCache(LOCKED_DOMAINS);
+  }
+
   public boolean isEnabled() {
     return enabled;
   }
@@ -92,11 +106,17 @@ public class HashLockedDomainService implements LockedDomainService {
   public boolean gadgetCanRender(String host, GadgetSpec gadget, String container) {
     container = normalizeContainer(container);
     if (enabled) {
-      if (gadgetWantsLockedDomain(gadget) ||
+      if (wantsLockedDomain(gadget) ||
           hostRequiresLockedDomain(host) ||
           containerRequiresLockedDomain(container)) {
-        String neededHost = getLockedDomain(gadget, container);
-        return host.equals(neededHost);
+        String suffix = lockedSuffixes.get(container);
+        if (suffix == null) {
+          return false;
+        }
+        String hash = getHash(gadget);
+        // Same as host.equals(hash + suffix), without building the string.
+        return host.length() == hash.length() + suffix.length() &&
+            host.startsWith(hash) && host.endsWith(suffix);
       }
     }
     return true;
@@ -105,26 +125,36 @@ public class HashLockedDomainService implements LockedDomainService {
   public String getLockedDomainForGadget(GadgetSpec gadget, String container) {
     container = normalizeContainer(container);
     if (enabled) {
-      if (gadgetWantsLockedDomain(gadget) ||
+      if (wantsLockedDomain(gadget) ||
           containerRequiresLockedDomain(container)) {
-        return getLockedDomain(gadget, container);
+        String suffix = lockedSuffixes.get(container);
+        if (suffix == null) {
+          return null;
+        }
+        return getHash(gadget) + suffix;
       }
     }
     return null;
   }
 
-  private String getLockedDomain(GadgetSpec gadget, String container) {
-    String suffix = lockedSuffixes.get(container);
-    if (suffix == null) {
-      return null;
-    }
-    byte[] sha1 = DigestUtils.sha(gadget.getUrl().toString());
-    String hash = new String(Base32.encodeBase32(sha1));
-    return hash + suffix;
+  private boolean wantsLockedDomain(GadgetSpec gadget) {
+    return gadget.getModulePrefs().getFeatures().containsKey("locked-domain");
   }
 
-  private boolean gadgetWantsLockedDomain(GadgetSpec gadget) {
-    return gadget.getModulePrefs().getFeatures().containsKey("locked-domain");
+  private String getHash(GadgetSpec gadget) {
+    String url = gadget.getUrl().toString();
+    if (hashes != null) {
+      String cached = hashes.getElement(url);
+      if (cached != null) {
+        return cached;
+      }
+    }
+    byte[] sha1 = DigestUtils.sha(url);
+    String hash = new String(Base32.encodeBase32(sha1));
+    if (hashes != null) {
+      hashes.addElement(url, hash);
+    }
+    return hash;
   }
 
   private boolean hostRequiresLockedDomain(String host) {
@@ -21,13 +21,43 @@ package org.apache.shindig.gadgets.encoding;
 import com.ibm.icu.text.CharsetDetector;
 import com.ibm.icu.text.CharsetMatch;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Attempts to determine the encoding of a given string.
  *
- * Highly skewed towards common encodings (UTF-8 and Latin-1).
+ * Highly skewed towards common encodings (UTF-8 and Latin-1). A byte order mark or an encoding
+ * declared in an XML declaration or HTML meta tag is used before looking at the bytes, and the
+ * statistical ICU detector only ever sees a bounded prefix of the input.
  */
 public class EncodingDetector {
 
+  /** How much of the input is searched for a declared encoding. */
+  static final int MAX_DECLARATION_BYTES = 1024;
+
+  /** How much of the input ICU looks at. */
+  static final int MAX_DETECTION_BYTES = 8192;
+
+  /** The size of the buffer that input is decoded into when it is checked for UTF-8. */
+  private static final int VALIDATION_BUFFER_CHARS = 4096;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final Pattern XML_DECLARATION =
+      Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([a-z0-9._:-]+)[\"']");
+  private static final Pattern META_CHARSET =
+      Pattern.compile("<meta[^>]*charset\\s*=\\s*[\"']?([a-z0-9._:-]+)");
+
   /**
    * Returns the detected encoding of the given byte array.
    *
@@ -39,64 +69,163 @@ public class EncodingDetector {
    * @return The detected encoding.
    */
   public static String detectEncoding(byte[] input, boolean assume88591IfNotUtf8) {
-    if (looksLikeValidUtf8(input)) {
+    String declared = getDeclaredEncoding(input);
+    if (declared != null) {
+      return declared;
+    }
+
+    if (isUtf8(input)) {
       return "UTF-8";
     }
 
+    return detectNonUtf8Encoding(input, assume88591IfNotUtf8);
+  }
+
+  /**
+   * Returns the encoding of input that is known not to be UTF-8.
+   *
+   * @see #detectEncoding(byte[], boolean)
+   */
+  public static String detectNonUtf8Encoding(byte[] input, boolean assume88591IfNotUtf8) {
     if (assume88591IfNotUtf8) {
       return "ISO-8859-1";
     }
 
-    // Fall back to the incredibly slow ICU. It might be better to just skip this entirely.
+    // Fall back to the incredibly slow ICU, on no more than a prefix of the input.
+    byte[] prefix = input;
+    if (input.length > MAX_DETECTION_BYTES) {
+      prefix = new byte[MAX_DETECTION_BYTES];
+      System.arraycopy(input, 0, prefix, 0, MAX_DETECTION_BYTES);
+    }
     CharsetDetector detector = new CharsetDetector();
-    detector.setText(input);
+    detector.setText(prefix);
     CharsetMatch match = detector.detect();
     return match.getName().toUpperCase();
   }
 
   /**
-   * A pretty good test that something is UTF-8. There are many sequences that will pass here that
-   * aren't valid UTF-8 due to the requirement that the shortest possible sequence always be used.
-   * We're ok with this behavior because the main goal is speed.
+   * Finds the encoding that the input declares for itself with a byte order mark, an XML
+   * declaration or an HTML meta tag near the start.
+   *
+   * @return The declared encoding, or null if there is none or it is not supported.
    */
-  private static boolean looksLikeValidUtf8(byte[] input) {
-    int i = 0;
-    if (input.length >= 3 &&
-       (input[0] & 0xFF) == 0xEF &&
-       (input[1] & 0xFF) == 0xBB &
-       (input[2] & 0xFF) == 0xBF) {
-      // Skip BOM.
-      i = 3;
-    }
-
-    int endOfSequence;
-    for (int j = input.length; i < j; ++i) {
-      int bite = input[i];
-      if ((bite & 0x80) == 0) {
-        continue; // ASCII
+  public static String getDeclaredEncoding(byte[] input) {
+    if (hasUtf8ByteOrderMark(input)) {
+      return "UTF-8";
+    }
+    if (input.length < 2) {
+      return null;
+    }
+    if (((input[0] & 0xFF) == 0xFE && (input[1] & 0xFF) == 0xFF)
+        || ((input[0] & 0xFF) == 0xFF && (input[1] & 0xFF) == 0xFE)) {
+      return "UTF-16";
+    }
+
+    String head;
+    try {
+      // Latin-1 maps every byte to one char, which is all the declarations need.
+      head = new String(input, 0, Math.min(input.length, MAX_DECLARATION_BYTES), "ISO-8859-1")
+          .toLowerCase();
+    } catch (UnsupportedEncodingException e) {
+      // Every JVM has ISO-8859-1.
+      throw new RuntimeException(e);
+    }
+    if (head.indexOf('<') == -1) {
+      return null;
+    }
+    Matcher matcher = XML_DECLARATION.matcher(head.trim());
+    if (!matcher.find()) {
+      matcher = META_CHARSET.matcher(head);
+      if (!matcher.find()) {
+        return null;
       }
+    }
+    String encoding = matcher.group(1).toUpperCase();
+    // A document we could read as ASCII can't really be UTF-16, whatever it says.
+    if (encoding.startsWith("UTF-16")) {
+      return null;
+    }
+    try {
+      return Charset.isSupported(encoding) ? encoding : null;
+    } catch (IllegalCharsetNameException e) {
+      return null;
+    }
+  }
 
-      // Determine number of bytes in the sequence.
-      if ((bite & 0x0E0) == 0x0C0) {
-        endOfSequence = i + 1;
-      } else if ((bite & 0x0F0) == 0x0E0) {
-        endOfSequence = i + 2;
-      } else if ((bite & 0x0F8) == 0xF0) {
-        endOfSequence = i + 3;
-      } else {
-        // Not a valid utf-8 byte sequence. Skip.
+  /**
+   * Checks that input is valid UTF-8, without keeping the decoded text. Input that is all ASCII,
+   * which is most input, skips the decoder entirely.
+   */
+  public static boolean isUtf8(byte[] input) {
+    int start = hasUtf8ByteOrderMark(input) ? 3 : 0;
+    start = skipAscii(input, start);
+    if (start == input.length) {
+      return true;
+    }
+    CharsetDecoder decoder = UTF8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    ByteBuffer in = ByteBuffer.wrap(input, start, input.length - start);
+    CharBuffer out = CharBuffer.allocate(VALIDATION_BUFFER_CHARS);
+    while (true) {
+      CoderResult result = decoder.decode(in, out, true);
+      if (result.isError()) {
         return false;
       }
+      if (result.isUnderflow()) {
+        return !decoder.flush(out).isError();
+      }
+      // Only whether it decodes matters, so the output is thrown away as it fills up.
+      out.clear();
+    }
+  }
 
-      while (i < endOfSequence) {
-        i++;
-        bite = input[i];
-        if ((bite & 0xC0) != 0x80) {
-          // High bit not set, not a vlaid sequence
-          return false;
-        }
+  /**
+   * Validates and decodes UTF-8 input in a single pass.
+   *
+   * @return The decoded input without any byte order mark, or null if it is not valid UTF-8.
+   */
+  public static String decodeUtf8(byte[] input) {
+    int start = hasUtf8ByteOrderMark(input) ? 3 : 0;
+    CharsetDecoder decoder = UTF8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    try {
+      return decoder.decode(ByteBuffer.wrap(input, start, input.length - start)).toString();
+    } catch (CharacterCodingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return True if every byte of the input is ASCII.
+   */
+  public static boolean isAscii(byte[] input) {
+    return skipAscii(input, 0) == input.length;
+  }
+
+  private static boolean hasUtf8ByteOrderMark(byte[] input) {
+    return input.length >= 3 &&
+        (input[0] & 0xFF) == 0xEF &&
+        (input[1] & 0xFF) == 0xBB &&
+        (input[2] & 0xFF) == 0xBF;
+  }
+
+  /**
+   * @return The index of the first byte at or after i that isn't ASCII, or input.length.
+   */
+  private static int skipAscii(byte[] input, int i) {
+    // Checking eight bytes at a time with one test is much faster on the long ASCII runs that
+    // make up most markup and script.
+    for (int j = input.length - 8; i <= j; i += 8) {
+      if (((input[i] | input[i + 1] | input[i + 2] | input[i + 3] | input[i + 4] | input[i + 5]
+          | input[i + 6] | input[i + 7]) & 0x80) != 0) {
+        break;
       }
     }
-    return true;
+    while (i < input.length && (input[i] & 0x80) == 0) {
+      i++;
+    }
+    return i;
   }
 }
@@ -23,6 +23,9 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
+import org.apache.shindig.common.metrics.Metrics;
+import org.apache.shindig.gadgets.GadgetException;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -45,12 +48,14 @@ import java.util.zip.InflaterInputStream;
  * annotate it as a Singleton to resolve Guice injection limitations.
  */
 @Singleton
-public class BasicHttpFetcher implements HttpFetcher {
+public class BasicHttpFetcher implements HttpFetcher, StreamingHttpFetcher {
   private static final int CONNECT_TIMEOUT_MS = 5000;
   private static final int DEFAULT_MAX_OBJECT_SIZE = 1024 * 1024;
 
   private final HttpCache cache;
   private Provider<Proxy> proxyProvider;
+  private HostHealthTracker healthTracker;
+  private Metrics metrics;
 
   /**
    * Creates a new fetcher for fetching HTTP objects.  Not really suitable
@@ -78,6 +83,23 @@ public class BasicHttpFetcher implements HttpFetcher {
     this.proxyProvider = proxyProvider;
   }
 
+  /**
+   * Requests to hosts that keep failing will fail fast instead of connecting, until the tracker
+   * lets a trial request through.
+   */
+  @Inject(optional=true)
+  public void setHealthTracker(HostHealthTracker healthTracker) {
+    this.healthTracker = healthTracker;
+  }
+
+  /**
+   * Fetch latency is timed by host and by status code, as fetch.host.* and fetch.status.*.
+   */
+  @Inject(optional=true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Initializes the connection.
    *
@@ -90,6 +112,9 @@ public class BasicHttpFetcher implements HttpFetcher {
     HttpURLConnection fetcher = (HttpURLConnection) ( proxyProvider == null ?
         url.openConnection() : url.openConnection(proxyProvider.get()));
     fetcher.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    if (request.getReadTimeout() > 0) {
+      fetcher.setReadTimeout(request.getReadTimeout());
+    }
     fetcher.setRequestProperty("Accept-Encoding", "gzip, deflate");
     fetcher.setInstanceFollowRedirects(request.getFollowRedirects());
     for (Map.Entry<String, List<String>> entry : request.getHeaders().entrySet()) {
@@ -105,10 +130,28 @@ public class BasicHttpFetcher implements HttpFetcher {
    *     given HttpURLConnection.
    */
   private HttpResponse makeResponse(HttpURLConnection fetcher) throws IOException {
+    HttpResponseBuilder builder = makeResponseHead(fetcher);
+    byte[] body = IOUtils.toByteArray(getResponseStream(fetcher));
+    return builder.setResponse(body).create();
+  }
+
+  /**
+   * @return A builder holding the status code and headers of the response.
+   */
+  private HttpResponseBuilder makeResponseHead(HttpURLConnection fetcher) throws IOException {
     Map<String, List<String>> headers = Maps.newHashMap(fetcher.getHeaderFields());
     // The first header is always null here to provide the response body.
     headers.remove(null);
     int responseCode = fetcher.getResponseCode();
+    return new HttpResponseBuilder()
+        .setHttpStatusCode(responseCode)
+        .addAllHeaders(headers);
+  }
+
+  /**
+   * @return The decoded response body.
+   */
+  private InputStream getResponseStream(HttpURLConnection fetcher) throws IOException {
     // Find the response stream - the error stream may be valid in cases
     // where the input stream is not.
     InputStream baseIs = null;
@@ -137,13 +180,7 @@ public class BasicHttpFetcher implements HttpFetcher {
       Inflater inflater = new Inflater(true);
       is = new InflaterInputStream(baseIs, inflater);
     }
-
-    byte[] body = IOUtils.toByteArray(is);
-    return new HttpResponseBuilder()
-        .setHttpStatusCode(responseCode)
-        .setResponse(body)
-        .addAllHeaders(headers)
-        .create();
+    return is;
   }
 
   /** {@inheritDoc} */
@@ -153,6 +190,12 @@ public class BasicHttpFetcher implements HttpFetcher {
     if (response != null) {
       return response;
     }
+    if (healthTracker != null && !healthTracker.allowRequest(request.getUri())) {
+      return new HttpResponseBuilder()
+          .setHttpStatusCode(HttpResponse.SC_SERVICE_UNAVAILABLE)
+          .create();
+    }
+    long start = System.nanoTime();
     try {
       HttpURLConnection fetcher = getConnection(request);
       fetcher.setRequestMethod(request.getMethod());
@@ -166,13 +209,126 @@ public class BasicHttpFetcher implements HttpFetcher {
         IOUtils.copy(request.getPostBody(), fetcher.getOutputStream());
       }
       response = makeResponse(fetcher);
+      recordOutcome(request, isHostFailure(response.getHttpStatusCode()));
+      recordLatency(request, response.getHttpStatusCode(), start);
       return cache.addResponse(cacheKey, request, response);
     } catch (IOException e) {
+      recordOutcome(request, true);
+      if (e instanceof java.net.SocketTimeoutException ||
+          e instanceof java.net.SocketException) {
+        recordLatency(request, HttpResponse.SC_GATEWAY_TIMEOUT, start);
+        return HttpResponse.timeout();
+      }
+      recordLatency(request, HttpResponse.SC_INTERNAL_SERVER_ERROR, start);
+      return HttpResponse.error();
+    }
+  }
+
+  /** {@inheritDoc} */
+  public HttpResponse fetch(HttpRequest request, BodySink sink) throws GadgetException {
+    if (!"GET".equals(request.getMethod())) {
+      return fetch(request);
+    }
+    // Partial responses are never cached, the cache only ever sees the full request.
+    String range = request.getHeader("Range");
+    HttpRequest fullRequest = request;
+    if (range != null) {
+      fullRequest = new HttpRequest(request);
+      fullRequest.removeHeader("Range");
+    }
+    HttpCacheKey cacheKey = new HttpCacheKey(fullRequest);
+    HttpResponse response = cache.getResponse(cacheKey, fullRequest);
+    if (response != null) {
+      return response;
+    }
+    if (healthTracker != null && !healthTracker.allowRequest(request.getUri())) {
+      return new HttpResponseBuilder()
+          .setHttpStatusCode(HttpResponse.SC_SERVICE_UNAVAILABLE)
+          .create();
+    }
+
+    HttpURLConnection fetcher = null;
+    InputStream body = null;
+    HttpResponseBuilder builder;
+    long start = System.nanoTime();
+    try {
+      fetcher = getConnection(request);
+      if (range != null) {
+        // Byte ranges are only meaningful on the unencoded resource.
+        fetcher.setRequestProperty("Accept-Encoding", "identity");
+      }
+      builder = makeResponseHead(fetcher);
+      body = getResponseStream(fetcher);
+      if (fetcher.getContentEncoding() != null) {
+        // The length is that of the encoded body.
+        builder.removeHeader("Content-Length");
+        builder.removeHeader("Content-Encoding");
+      }
+      recordOutcome(request, isHostFailure(fetcher.getResponseCode()));
+      // Only the time to the response head, streamed bodies take as long as the client does.
+      recordLatency(request, fetcher.getResponseCode(), start);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(body);
+      recordOutcome(request, true);
       if (e instanceof java.net.SocketTimeoutException ||
           e instanceof java.net.SocketException) {
+        recordLatency(request, HttpResponse.SC_GATEWAY_TIMEOUT, start);
         return HttpResponse.timeout();
       }
+      recordLatency(request, HttpResponse.SC_INTERNAL_SERVER_ERROR, start);
       return HttpResponse.error();
     }
+
+    try {
+      HttpResponse head = builder.create();
+      if (sink.stream(head, body)) {
+        return null;
+      }
+      if (range != null && head.getHttpStatusCode() == HttpResponse.SC_PARTIAL_CONTENT) {
+        // Only part of a resource that is going to be buffered, start again without the range.
+        IOUtils.closeQuietly(body);
+        body = null;
+        return fetch(fullRequest);
+      }
+      response = builder.setResponse(IOUtils.toByteArray(body)).create();
+      if (range != null) {
+        // Whatever answered a range, even an error, may not hold for the whole resource.
+        return response;
+      }
+      return cache.addResponse(cacheKey, fullRequest, response);
+    } catch (IOException e) {
+      throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+    } finally {
+      IOUtils.closeQuietly(body);
+    }
+  }
+
+  /**
+   * Gateway errors mean the host or something in front of it is in trouble, other errors are
+   * about the request.
+   */
+  private static boolean isHostFailure(int status) {
+    return status == HttpResponse.SC_BAD_GATEWAY
+        || status == HttpResponse.SC_SERVICE_UNAVAILABLE
+        || status == HttpResponse.SC_GATEWAY_TIMEOUT;
+  }
+
+  private void recordOutcome(HttpRequest request, boolean failed) {
+    if (healthTracker != null) {
+      if (failed) {
+        healthTracker.recordFailure(request.getUri());
+      } else {
+        healthTracker.recordSuccess(request.getUri());
+      }
+    }
+  }
+
+  private void recordLatency(HttpRequest request, int status, long start) {
+    if (metrics != null) {
+      long elapsed = System.nanoTime() - start;
+      // Both come from outside the server, so they are kept apart from the fixed timers.
+      metrics.getTimer("fetch.host", request.getUri().getAuthority()).update(elapsed);
+      metrics.getTimer("fetch.status", Integer.toString(status)).update(elapsed);
+    }
   }
 }
@@ -19,6 +19,8 @@ package org.apache.shindig.gadgets.http;
 
 import org.apache.shindig.common.cache.Cache;
 import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.gadgets.AuthType;
+import org.apache.shindig.gadgets.CacheSnapshotter;
 
 import com.google.inject.Inject;
 
@@ -30,15 +32,43 @@ public class DefaultHttpCache extends AbstractHttpCache {
   public static final String CACHE_NAME = "httpResponses";
 
   private final Cache<String, HttpResponse> cache;
+  private CacheSnapshotter snapshotter;
 
   @Inject
   public DefaultHttpCache(CacheProvider cacheProvider) {
     cache = cacheProvider.createCache(CACHE_NAME);
   }
 
+  /**
+   * Responses to plain, unauthenticated GET requests are noted in the cache snapshot, so that
+   * they are put back in the cache on startup.
+   */
+  @Inject(optional = true)
+  public void setSnapshotter(CacheSnapshotter snapshotter) {
+    this.snapshotter = snapshotter;
+  }
+
+  @Override
+  public HttpResponse addResponse(HttpCacheKey key, HttpRequest request, HttpResponse response) {
+    HttpResponse added = super.addResponse(key, request, response);
+    if (snapshotter != null && snapshotter.isEnabled() && key.isCacheable() && added != null
+        && request.getAuthType() == AuthType.NONE) {
+      // Keys with anything beyond the method and url can't be rebuilt from the snapshot.
+      String keyString = key.toString();
+      if (keyString.equals(new HttpCacheKey(new HttpRequest(request.getUri())).toString())) {
+        snapshotter.recordResponse(keyString, request.getUri());
+      }
+    }
+    return added;
+  }
+
   @Override
   protected HttpResponse getResponseImpl(String key) {
-    return cache.getElement(key);
+    HttpResponse response = cache.getElement(key);
+    if (response != null && snapshotter != null) {
+      snapshotter.touchResponse(key);
+    }
+    return response;
   }
 
   @Override
@@ -0,0 +1,285 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.common.metrics.Gauge;
+import org.apache.shindig.common.metrics.Metrics;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.TimeSource;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Tracks the health of remote hosts, and acts as a circuit breaker for each of them.
+ *
+ * After a number of consecutive failures the circuit for a host opens, and requests to it fail
+ * straight away instead of waiting for a connection that won't come. Once the retry interval has
+ * passed, a single trial request is let through; if it succeeds the circuit closes again,
+ * otherwise it stays open for another interval.
+ *
+ * Only hosts that have failed are tracked, so a healthy host costs one map lookup per request.
+ * Hosts that haven't failed for a number of retry intervals are forgotten, and no more than a
+ * fixed number of hosts are tracked, so requests to made up hosts can't use up memory. A host
+ * that fails while the tracker is full isn't tracked, and is treated as healthy.
+ */
+@Singleton
+public class HostHealthTracker {
+  private static final Logger logger = Logger.getLogger(HostHealthTracker.class.getName());
+
+  public enum State {
+    /** Requests go through as normal. */
+    CLOSED,
+    /** Requests fail fast. */
+    OPEN,
+    /** A single trial request is in flight. */
+    HALF_OPEN
+  }
+
+  /** Retry intervals without a failure after which a host is forgotten. */
+  static final int IDLE_INTERVALS = 10;
+
+  private static final int DEFAULT_MAX_HOSTS = 1000;
+
+  private final TimeSource timeSource;
+  private final int failureThreshold;
+  private final long retryInterval;
+  private final ConcurrentMap<String, Host> hosts = Maps.newConcurrentHashMap();
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private int maxHosts = DEFAULT_MAX_HOSTS;
+
+  /**
+   * @param failureThreshold consecutive failures that open the circuit, 0 to never open it
+   * @param retryInterval milliseconds before an open circuit lets a trial request through
+   */
+  @Inject
+  public HostHealthTracker(TimeSource timeSource,
+      @Named("shindig.http.breaker.failures") int failureThreshold,
+      @Named("shindig.http.breaker.retry-interval") long retryInterval) {
+    this.timeSource = timeSource;
+    this.failureThreshold = failureThreshold;
+    this.retryInterval = retryInterval;
+  }
+
+  /**
+   * The most hosts that are tracked at once.
+   */
+  @Inject(optional = true)
+  public void setMaxHosts(@Named("shindig.http.breaker.max-hosts") int maxHosts) {
+    this.maxHosts = maxHosts;
+  }
+
+  /**
+   * The number of tracked hosts in each state is reported as the http.breaker.closed,
+   * http.breaker.open and http.breaker.half-open gauges, and requests that failed fast as
+   * http.breaker.rejected.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    metrics.addGauge("http.breaker.closed", new StateGauge(State.CLOSED));
+    metrics.addGauge("http.breaker.open", new StateGauge(State.OPEN));
+    metrics.addGauge("http.breaker.half-open", new StateGauge(State.HALF_OPEN));
+    metrics.addGauge("http.breaker.rejected", new Gauge() {
+      public long getValue() {
+        return getRejectedCount();
+      }
+    });
+  }
+
+  /**
+   * @return true if a request to the uri's host may be made now. Callers that get true must
+   *     report the outcome with {@link #recordSuccess} or {@link #recordFailure}.
+   */
+  public boolean allowRequest(Uri uri) {
+    Host host = hosts.get(getKey(uri));
+    if (host == null || host.allowRequest(timeSource.currentTimeMillis())) {
+      return true;
+    }
+    rejectedCount.incrementAndGet();
+    return false;
+  }
+
+  public void recordSuccess(Uri uri) {
+    String key = getKey(uri);
+    Host host = hosts.remove(key);
+    if (host != null && host.getState() != State.CLOSED) {
+      logger.info("Closing circuit for " + key);
+    }
+  }
+
+  public void recordFailure(Uri uri) {
+    if (failureThreshold <= 0) {
+      return;
+    }
+    String key = getKey(uri);
+    long now = timeSource.currentTimeMillis();
+    Host host = hosts.get(key);
+    if (host == null) {
+      if (hosts.size() >= maxHosts) {
+        removeIdleHosts(now);
+        if (hosts.size() >= maxHosts) {
+          logger.fine("Not tracking " + key + ", already tracking " + hosts.size() + " hosts");
+          return;
+        }
+      }
+      Host newHost = new Host();
+      host = hosts.putIfAbsent(key, newHost);
+      if (host == null) {
+        host = newHost;
+      }
+    }
+    if (host.recordFailure(now)) {
+      logger.warning("Opening circuit for " + key + " for " + retryInterval + "ms after "
+          + host.getFailures() + " consecutive failures");
+    }
+  }
+
+  public State getState(Uri uri) {
+    Host host = hosts.get(getKey(uri));
+    return host == null ? State.CLOSED : host.getState();
+  }
+
+  /**
+   * @return The state of every host that has failed since it last succeeded.
+   */
+  public Map<String, State> getStates() {
+    Map<String, State> states = Maps.newHashMap();
+    for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+      states.put(entry.getKey(), entry.getValue().getState());
+    }
+    return Collections.unmodifiableMap(states);
+  }
+
+  /**
+   * @return The number of hosts whose circuit is open or half open.
+   */
+  public int getOpenCount() {
+    return getCount(State.OPEN) + getCount(State.HALF_OPEN);
+  }
+
+  /**
+   * @return The number of tracked hosts in the given state. Closed hosts have failed, but not
+   *     often enough to open their circuit.
+   */
+  public int getCount(State state) {
+    int count = 0;
+    for (Host host : hosts.values()) {
+      if (host.getState() == state) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return The number of hosts being tracked.
+   */
+  public int getHostCount() {
+    return hosts.size();
+  }
+
+  private void removeIdleHosts(long now) {
+    long idleSince = now - IDLE_INTERVALS * retryInterval;
+    for (Iterator<Host> i = hosts.values().iterator(); i.hasNext();) {
+      if (i.next().getLastFailure() < idleSince) {
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * @return The number of requests that failed fast because their circuit was open.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  private static String getKey(Uri uri) {
+    String authority = uri.getAuthority();
+    return authority == null ? "" : authority.toLowerCase();
+  }
+
+  private class Host {
+    private State state = State.CLOSED;
+    private int failures;
+    private long retryAt;
+    private long lastFailure;
+
+    synchronized boolean allowRequest(long now) {
+      if (state == State.CLOSED) {
+        return true;
+      }
+      // An open circuit lets one trial through once the interval is over. A trial that never
+      // reported back is replaced after another interval.
+      if (now >= retryAt) {
+        state = State.HALF_OPEN;
+        retryAt = now + retryInterval;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * @return true if this failure opened the circuit.
+     */
+    synchronized boolean recordFailure(long now) {
+      failures++;
+      lastFailure = now;
+      if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+        boolean opened = state == State.CLOSED;
+        state = State.OPEN;
+        retryAt = now + retryInterval;
+        return opened;
+      }
+      return false;
+    }
+
+    synchronized State getState() {
+      return state;
+    }
+
+    synchronized int getFailures() {
+      return failures;
+    }
+
+    synchronized long getLastFailure() {
+      return lastFailure;
+    }
+  }
+
+  private class StateGauge implements Gauge {
+    private final State state;
+
+    StateGauge(State state) {
+      this.state = state;
+    }
+
+    public long getValue() {
+      return getCount(state);
+    }
+  }
+}
@@ -63,6 +63,9 @@ public class HttpRequest {
   // Whether to follow redirects
   private boolean followRedirects = true;
 
+  // How long to wait for the response, in milliseconds, or -1 for the fetcher's default.
+  private int readTimeout = -1;
+
   // Context for the request.
   private Uri gadget;
   private String container = ContainerConfig.DEFAULT_CONTAINER;
@@ -102,6 +105,7 @@ public class HttpRequest {
     authType = request.authType;
     rewriteMimeType = request.rewriteMimeType;
     followRedirects = request.followRedirects;
+    readTimeout = request.readTimeout;
   }
 
   public HttpRequest setMethod(String method) {
@@ -248,6 +252,15 @@ public class HttpRequest {
     return this;
   }
 
+  /**
+   * @param readTimeout How long to wait for the response, in milliseconds, once connected. If set
+   * to -1, the fetcher's default is used.
+   */
+  public HttpRequest setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+    return this;
+  }
+
   /**
    * @param authType The type of authentication being used for this request.
    */
@@ -397,6 +410,13 @@ public class HttpRequest {
     return followRedirects;
   }
 
+  /**
+   * @return How long to wait for the response, in milliseconds, or -1 for the fetcher's default.
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
   /**
    * @return The type of authentication being used for this request.
    */
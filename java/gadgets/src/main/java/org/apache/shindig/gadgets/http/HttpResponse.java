@@ -120,6 +120,10 @@ public final class HttpResponse implements Externalizable {
 
   static final String DEFAULT_ENCODING = "UTF-8";
 
+  // Bodies up to this size that have to be checked for UTF-8 are decoded while they are checked,
+  // and the text is kept. Larger bodies are checked without keeping the text.
+  static final int MAX_DECODED_BODY_BYTES = 128 * 1024;
+
   @Inject(optional = true) @Named("shindig.cache.http.negativeCacheTtl")
   private static long negativeCacheTtl = DEFAULT_NEGATIVE_CACHE_TTL;
 
@@ -415,7 +419,7 @@ public final class HttpResponse implements Externalizable {
    *
    * @return The detected encoding or DEFAULT_ENCODING.
    */
-  private static String getAndUpdateEncoding(Map<String, List<String>> headers, byte[] body) {
+  private String getAndUpdateEncoding(Map<String, List<String>> headers, byte[] body) {
     if (body == null || body.length == 0) {
       return DEFAULT_ENCODING;
     }
@@ -427,30 +431,56 @@ public final class HttpResponse implements Externalizable {
       if (BINARY_CONTENT_TYPES.contains(parts[0])) {
         return DEFAULT_ENCODING;
       }
-      if (parts.length == 2) {
-        int offset = parts[1].indexOf("charset=");
+      for (int i = 1; i < parts.length; i++) {
+        int offset = parts[i].indexOf("charset=");
         if (offset != -1) {
-          String charset = parts[1].substring(offset + 8).toUpperCase();
+          String charset = parts[i].substring(offset + 8).trim().toUpperCase();
           // Some servers include quotes around the charset:
           //   Content-Type: text/html; charset="UTF-8"
-          if (charset.charAt(0) == '"') {
+          if (charset.length() > 1 && charset.charAt(0) == '"') {
             charset = charset.substring(1, charset.length() - 1);
           }
-          return charset;
+          if (charset.length() > 0) {
+            return charset;
+          }
         }
       }
-      String encoding = EncodingDetector.detectEncoding(body, fastEncodingDetection);
+      String encoding = detectEncoding(body);
       // Record the charset in the content-type header so that its value can be cached
       // and re-used. This is a BIG performance win.
       headers.put("Content-Type", Lists.newArrayList(contentType + "; charset=" + encoding));
       return encoding;
     } else {
       // If no content type was specified, we'll assume an unknown binary type.
-      contentType = "application/octet-stream";
       return DEFAULT_ENCODING;
     }
   }
 
+  /**
+   * Detects the encoding of a body that has no charset in its Content-Type. A small body that has
+   * to be decoded to tell whether it is UTF-8 keeps the decoded text, so that it is only decoded
+   * once.
+   */
+  private String detectEncoding(byte[] body) {
+    String encoding = EncodingDetector.getDeclaredEncoding(body);
+    if (encoding != null) {
+      return encoding;
+    }
+    if (EncodingDetector.isAscii(body)) {
+      // Decoded when getResponseAsString is first called, as it may never be.
+      return "UTF-8";
+    }
+    if (body.length > MAX_DECODED_BODY_BYTES) {
+      return EncodingDetector.isUtf8(body) ? "UTF-8"
+          : EncodingDetector.detectNonUtf8Encoding(body, fastEncodingDetection);
+    }
+    responseString = EncodingDetector.decodeUtf8(body);
+    if (responseString != null) {
+      return "UTF-8";
+    }
+    return EncodingDetector.detectNonUtf8Encoding(body, fastEncodingDetection);
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (obj == this) { return true; }
@@ -498,7 +528,7 @@ public final class HttpResponse implements Externalizable {
     Map<String, List<String>> headerCopy = (Map<String, List<String>>)in.readObject();
     int bodyLength = in.readInt();
     responseBytes = new byte[bodyLength];
-    in.read(responseBytes, 0, bodyLength);
+    in.readFully(responseBytes);
 
     date = getAndUpdateDate(headerCopy);
     encoding = getAndUpdateEncoding(headerCopy, responseBytes);
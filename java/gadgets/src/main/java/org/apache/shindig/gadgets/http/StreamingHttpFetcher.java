@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A fetcher that can hand a response body to the caller as it arrives, instead of buffering all
+ * of it. Used for large resources that are passed through without being rewritten or cached.
+ */
+public interface StreamingHttpFetcher {
+
+  /**
+   * Fetch HTTP content, offering the response to the sink before its body is read.
+   *
+   * A Range header on the request is sent on to the server. If the sink declines a partial
+   * response, the full resource is fetched instead. Other answers to a ranged request are
+   * returned as they are and never cached.
+   *
+   * @param request The request to fetch.
+   * @param sink Decides whether to take the body as a stream.
+   * @return The buffered response, or null if the sink took the body.
+   * @throws GadgetException If the sink failed while streaming the body.
+   */
+  HttpResponse fetch(HttpRequest request, BodySink sink) throws GadgetException;
+
+  /**
+   * Receives response bodies as streams.
+   */
+  interface BodySink {
+    /**
+     * @param head The status and headers of the response, with an empty body.
+     * @param body The response body. Closed by the fetcher.
+     * @return False, without reading the body, to have the fetcher buffer it as usual.
+     */
+    boolean stream(HttpResponse head, InputStream body) throws IOException;
+  }
+}
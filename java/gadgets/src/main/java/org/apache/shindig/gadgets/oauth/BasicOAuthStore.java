@@ -34,15 +34,19 @@ import org.json.JSONObject;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple implementation of the {@link OAuthStore} interface. We use a
  * in-memory hash map. If initialized with a private key, then the store will
  * return an OAuthAccessor in {@code getOAuthAccessor} that uses that private
  * key if no consumer key and secret could be found.
+ *
+ * The store is safe to use from many threads. Access tokens can optionally be
+ * written through to a {@link BasicOAuthStoreTokenPersister} so that they
+ * survive a restart.
  */
 @Singleton
 public class BasicOAuthStore implements OAuthStore {
@@ -68,23 +72,37 @@ public class BasicOAuthStore implements OAuthStore {
   /**
    * Key to use when no other key is found.
    */
-  private BasicOAuthStoreConsumerKeyAndSecret defaultKey;
+  private volatile BasicOAuthStoreConsumerKeyAndSecret defaultKey;
+
+  /**
+   * Where tokens are persisted, null if they are only kept in memory.
+   */
+  private volatile BasicOAuthStoreTokenPersister tokenPersister;
   
   /** Number of times we looked up a consumer key */
-  private int consumerKeyLookupCount = 0;
+  private final AtomicInteger consumerKeyLookupCount = new AtomicInteger();
   
   /** Number of times we looked up an access token */
-  private int accessTokenLookupCount = 0;
+  private final AtomicInteger accessTokenLookupCount = new AtomicInteger();
   
   /** Number of times we added an access token */
-  private int accessTokenAddCount = 0;
+  private final AtomicInteger accessTokenAddCount = new AtomicInteger();
   
   /** Number of times we removed an access token */
-  private int accessTokenRemoveCount = 0;
+  private final AtomicInteger accessTokenRemoveCount = new AtomicInteger();
 
   public BasicOAuthStore() {
-    consumerInfos = Maps.newHashMap();
-    tokens = Maps.newHashMap();
+    consumerInfos = Maps.newConcurrentHashMap();
+    tokens = Maps.newConcurrentHashMap();
+  }
+
+  /**
+   * Persist access tokens with the given persister, and load any tokens it already holds.
+   */
+  public void setTokenPersister(BasicOAuthStoreTokenPersister tokenPersister)
+      throws GadgetException {
+    tokens.putAll(tokenPersister.loadTokens());
+    this.tokenPersister = tokenPersister;
   }
   
   public void initFromConfigString(String oauthConfigStr) throws GadgetException {
@@ -155,7 +173,7 @@ public class BasicOAuthStore implements OAuthStore {
   public ConsumerInfo getConsumerKeyAndSecret(
       SecurityToken securityToken, String serviceName, OAuthServiceProvider provider)
       throws GadgetException {
-    ++consumerKeyLookupCount;
+    consumerKeyLookupCount.incrementAndGet();
     BasicOAuthStoreConsumerIndex pk = new BasicOAuthStoreConsumerIndex();
     pk.setGadgetUri(securityToken.getAppUrl());
     pk.setServiceName(serviceName);
@@ -174,7 +192,13 @@ public class BasicOAuthStore implements OAuthStore {
       // of lines away knows that the consumerSecret value in the consumer should be treated as
       // an RSA private key and not an HMAC key.
       consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.RSA_SHA1);
-      consumer.setProperty(RSA_SHA1.PRIVATE_KEY, cks.getConsumerSecret());
+      // Hand over the already parsed key when we have one, so that it isn't decoded again for
+      // every request.
+      if (cks.getPrivateKey() != null) {
+        consumer.setProperty(RSA_SHA1.PRIVATE_KEY, cks.getPrivateKey());
+      } else {
+        consumer.setProperty(RSA_SHA1.PRIVATE_KEY, cks.getConsumerSecret());
+      }
     } else {
       consumer = new OAuthConsumer(null, cks.getConsumerKey(), cks.getConsumerSecret(), provider);
       consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
@@ -195,41 +219,49 @@ public class BasicOAuthStore implements OAuthStore {
 
   public TokenInfo getTokenInfo(SecurityToken securityToken, ConsumerInfo consumerInfo,
       String serviceName, String tokenName) {
-    ++accessTokenLookupCount;
+    accessTokenLookupCount.incrementAndGet();
     BasicOAuthStoreTokenIndex tokenKey =
         makeBasicOAuthStoreTokenIndex(securityToken, serviceName, tokenName);
     return tokens.get(tokenKey);
   }
 
   public void setTokenInfo(SecurityToken securityToken, ConsumerInfo consumerInfo,
-      String serviceName, String tokenName, TokenInfo tokenInfo) {
-    ++accessTokenAddCount;
+      String serviceName, String tokenName, TokenInfo tokenInfo) throws GadgetException {
+    accessTokenAddCount.incrementAndGet();
     BasicOAuthStoreTokenIndex tokenKey =
         makeBasicOAuthStoreTokenIndex(securityToken, serviceName, tokenName);
+    BasicOAuthStoreTokenPersister persister = tokenPersister;
+    if (persister != null) {
+      persister.storeToken(tokenKey, tokenInfo);
+    }
     tokens.put(tokenKey, tokenInfo);
   }
 
   public void removeToken(SecurityToken securityToken, ConsumerInfo consumerInfo,
-      String serviceName, String tokenName) {
-    ++accessTokenRemoveCount;
+      String serviceName, String tokenName) throws GadgetException {
+    accessTokenRemoveCount.incrementAndGet();
     BasicOAuthStoreTokenIndex tokenKey =
         makeBasicOAuthStoreTokenIndex(securityToken, serviceName, tokenName);
-    tokens.remove(tokenKey);    
+    BasicOAuthStoreTokenPersister persister = tokenPersister;
+    if (persister != null) {
+      persister.removeToken(tokenKey);
+    }
+    tokens.remove(tokenKey);
   }
 
   public int getConsumerKeyLookupCount() {
-    return consumerKeyLookupCount;
+    return consumerKeyLookupCount.get();
   }
 
   public int getAccessTokenLookupCount() {
-    return accessTokenLookupCount;
+    return accessTokenLookupCount.get();
   }
 
   public int getAccessTokenAddCount() {
-    return accessTokenAddCount;
+    return accessTokenAddCount.get();
   }
 
   public int getAccessTokenRemoveCount() {
-    return accessTokenRemoveCount;
+    return accessTokenRemoveCount.get();
   }
 }
@@ -18,6 +18,14 @@
 
 package org.apache.shindig.gadgets.oauth;
 
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+
 /**
  * @author beaton@google.com (Your Name Here)
  *
@@ -38,11 +46,32 @@ public class BasicOAuthStoreConsumerKeyAndSecret {
   /** Name of public key to use with xoauth_public_key parameter.  May be null */
   private final String keyName;
 
+  /** RSA private key parsed from the secret, null if the secret is not a usable RSA key */
+  private final PrivateKey privateKey;
+
   public BasicOAuthStoreConsumerKeyAndSecret(String key, String secret, KeyType type, String name) {
     consumerKey = key;
     consumerSecret = secret;
     keyType = type;
     keyName = name;
+    privateKey = (type == KeyType.RSA_PRIVATE) ? parsePrivateKey(secret) : null;
+  }
+
+  /**
+   * Parse a base64 encoded PKCS#8 key once, rather than on every signed request.
+   */
+  private static PrivateKey parsePrivateKey(String secret) {
+    if (secret == null) {
+      return null;
+    }
+    try {
+      byte[] encoded = Base64.decodeBase64(secret.getBytes("UTF-8"));
+      return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    } catch (GeneralSecurityException e) {
+      return null;
+    } catch (UnsupportedEncodingException e) {
+      return null;
+    }
   }
   
   public String getConsumerKey() {
@@ -60,4 +89,11 @@ public class BasicOAuthStoreConsumerKeyAndSecret {
   public String getKeyName() {
     return keyName;
   }
+
+  /**
+   * @return the parsed RSA private key, or null if this is not an RSA key or it can't be parsed.
+   */
+  public PrivateKey getPrivateKey() {
+    return privateKey;
+  }
 }
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth;
+
+import com.google.common.collect.Maps;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.oauth.OAuthStore.TokenInfo;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps OAuth access tokens in a local file, so that they survive a restart without needing a
+ * database.
+ *
+ * The file is a journal with one JSON object per line, each line either stores or removes a token.
+ * Writes only ever append a line, and the journal is compacted down to the live tokens when it is
+ * loaded. If the server stopped while compacting, the tokens are loaded from whichever complete
+ * copy of the journal was left behind.
+ */
+public class BasicOAuthStoreFileTokenPersister implements BasicOAuthStoreTokenPersister {
+
+  private static final Logger logger =
+      Logger.getLogger(BasicOAuthStoreFileTokenPersister.class.getName());
+
+  private static final String UTF8 = "UTF-8";
+
+  private static final String OP = "op";
+  private static final String OP_STORE = "store";
+  private static final String OP_REMOVE = "remove";
+  private static final String USER_ID = "userId";
+  private static final String GADGET_URI = "gadgetUri";
+  private static final String MODULE_ID = "moduleId";
+  private static final String TOKEN_NAME = "tokenName";
+  private static final String SERVICE_NAME = "serviceName";
+  private static final String ACCESS_TOKEN = "accessToken";
+  private static final String TOKEN_SECRET = "tokenSecret";
+  private static final String SESSION_HANDLE = "sessionHandle";
+  private static final String TOKEN_EXPIRE_MILLIS = "tokenExpireMillis";
+
+  private final File file;
+  private final File compacted;
+  private final File backup;
+
+  /** Open journal, guarded by this. */
+  private Writer journal;
+
+  public BasicOAuthStoreFileTokenPersister(File file) {
+    this.file = file;
+    this.compacted = new File(file.getPath() + ".tmp");
+    this.backup = new File(file.getPath() + ".bak");
+  }
+
+  public synchronized Map<BasicOAuthStoreTokenIndex, TokenInfo> loadTokens()
+      throws GadgetException {
+    Map<BasicOAuthStoreTokenIndex, TokenInfo> tokens = Maps.newHashMap();
+    closeJournal();
+    File source = getCompleteJournal();
+    if (source != null) {
+      BufferedReader reader = null;
+      try {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(source), UTF8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+          if (line.trim().length() > 0) {
+            replay(line, tokens);
+          }
+        }
+      } catch (IOException e) {
+        throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+      } finally {
+        IOUtils.closeQuietly(reader);
+      }
+    }
+    compact(tokens);
+    return tokens;
+  }
+
+  public synchronized void storeToken(BasicOAuthStoreTokenIndex index, TokenInfo tokenInfo)
+      throws GadgetException {
+    try {
+      append(toJson(index, tokenInfo));
+    } catch (JSONException e) {
+      throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+    }
+  }
+
+  public synchronized void removeToken(BasicOAuthStoreTokenIndex index) throws GadgetException {
+    try {
+      JSONObject record = toJson(index);
+      record.put(OP, OP_REMOVE);
+      append(record);
+    } catch (JSONException e) {
+      throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+    }
+  }
+
+  /**
+   * Close the journal file. It is reopened by the next write.
+   */
+  public synchronized void close() {
+    closeJournal();
+  }
+
+  /**
+   * @return the newest complete copy of the journal, or null if there is none.
+   */
+  private File getCompleteJournal() {
+    if (file.exists()) {
+      // Any backup is older, and any compacted copy may be only partly written.
+      return file;
+    }
+    if (backup.exists()) {
+      // Compaction stopped after moving the journal aside.
+      return backup;
+    }
+    if (compacted.exists()) {
+      // Compaction of a journal that was deleted rather than moved aside.
+      return compacted;
+    }
+    return null;
+  }
+
+  private void replay(String line, Map<BasicOAuthStoreTokenIndex, TokenInfo> tokens) {
+    try {
+      JSONObject record = new JSONObject(line);
+      BasicOAuthStoreTokenIndex index = new BasicOAuthStoreTokenIndex();
+      index.setUserId(record.optString(USER_ID, null));
+      index.setGadgetUri(record.optString(GADGET_URI, null));
+      index.setModuleId(record.getLong(MODULE_ID));
+      index.setTokenName(record.optString(TOKEN_NAME, null));
+      index.setServiceName(record.optString(SERVICE_NAME, null));
+      if (OP_REMOVE.equals(record.getString(OP))) {
+        tokens.remove(index);
+      } else {
+        tokens.put(index, new TokenInfo(record.optString(ACCESS_TOKEN, null),
+            record.optString(TOKEN_SECRET, null), record.optString(SESSION_HANDLE, null),
+            record.optLong(TOKEN_EXPIRE_MILLIS, 0)));
+      }
+    } catch (JSONException e) {
+      // Most likely a line that was only partly written when the server stopped.
+      logger.log(Level.WARNING, "Ignoring bad OAuth token record in " + file, e);
+    }
+  }
+
+  /**
+   * Rewrite the journal so that it only holds the live tokens. The new journal is written next to
+   * the old one and then renamed over it. Where a file can't be renamed over another, the old
+   * journal is first moved aside to a backup, which is only deleted once the new journal is in
+   * place, so there is a complete journal on disk throughout.
+   */
+  private void compact(Map<BasicOAuthStoreTokenIndex, TokenInfo> tokens) throws GadgetException {
+    Writer writer = null;
+    try {
+      makeParentDirs();
+      writer = new OutputStreamWriter(new FileOutputStream(compacted), UTF8);
+      for (Map.Entry<BasicOAuthStoreTokenIndex, TokenInfo> entry : tokens.entrySet()) {
+        writer.write(toJson(entry.getKey(), entry.getValue()).toString());
+        writer.write('\n');
+      }
+      writer.close();
+      writer = null;
+      if (!compacted.renameTo(file)) {
+        if (file.exists()) {
+          if (backup.exists() && !backup.delete()) {
+            throw new IOException("Could not delete " + backup);
+          }
+          if (!file.renameTo(backup)) {
+            throw new IOException("Could not rename " + file + " to " + backup);
+          }
+        }
+        if (!compacted.renameTo(file)) {
+          throw new IOException("Could not rename " + compacted + " to " + file);
+        }
+      }
+      if (backup.exists() && !backup.delete()) {
+        logger.warning("Could not delete " + backup);
+      }
+    } catch (IOException e) {
+      throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+    } catch (JSONException e) {
+      throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+    } finally {
+      IOUtils.closeQuietly(writer);
+    }
+  }
+
+  private JSONObject toJson(BasicOAuthStoreTokenIndex index) throws JSONException {
+    JSONObject record = new JSONObject();
+    record.put(USER_ID, index.getUserId());
+    record.put(GADGET_URI, index.getGadgetUri());
+    record.put(MODULE_ID, index.getModuleId());
+    record.put(TOKEN_NAME, index.getTokenName());
+    record.put(SERVICE_NAME, index.getServiceName());
+    return record;
+  }
+
+  private JSONObject toJson(BasicOAuthStoreTokenIndex index, TokenInfo tokenInfo)
+      throws JSONException {
+    JSONObject record = toJson(index);
+    record.put(OP, OP_STORE);
+    record.put(ACCESS_TOKEN, tokenInfo.getAccessToken());
+    record.put(TOKEN_SECRET, tokenInfo.getTokenSecret());
+    record.put(SESSION_HANDLE, tokenInfo.getSessionHandle());
+    record.put(TOKEN_EXPIRE_MILLIS, tokenInfo.getTokenExpireMillis());
+    return record;
+  }
+
+  private void append(JSONObject record) throws GadgetException {
+    try {
+      if (journal == null) {
+        makeParentDirs();
+        journal = new OutputStreamWriter(new FileOutputStream(file, true), UTF8);
+      }
+      journal.write(record.toString());
+      journal.write('\n');
+      journal.flush();
+    } catch (IOException e) {
+      closeJournal();
+      throw new GadgetException(GadgetException.Code.OAUTH_STORAGE_ERROR, e);
+    }
+  }
+
+  private void makeParentDirs() {
+    File parent = file.getAbsoluteFile().getParentFile();
+    if (parent != null && !parent.exists()) {
+      parent.mkdirs();
+    }
+  }
+
+  private void closeJournal() {
+    IOUtils.closeQuietly(journal);
+    journal = null;
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.oauth;
+
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.oauth.OAuthStore.TokenInfo;
+
+import java.util.Map;
+
+/**
+ * Persistent storage for the access tokens held by {@link BasicOAuthStore}. The store keeps all
+ * tokens in memory and writes every change through to the persister, so implementations only need
+ * to be able to reload the tokens when the server starts.
+ */
+public interface BasicOAuthStoreTokenPersister {
+
+  /**
+   * @return all of the tokens that have been stored and not removed.
+   */
+  Map<BasicOAuthStoreTokenIndex, TokenInfo> loadTokens() throws GadgetException;
+
+  /**
+   * Store a token, replacing any existing token with the same index.
+   */
+  void storeToken(BasicOAuthStoreTokenIndex index, TokenInfo tokenInfo) throws GadgetException;
+
+  /**
+   * Remove a token.
+   */
+  void removeToken(BasicOAuthStoreTokenIndex index) throws GadgetException;
+}
@@ -46,6 +46,7 @@ public class OAuthModule extends AbstractModule {
   private static final String OAUTH_CONFIG = "config/oauth.json";
   private static final String OAUTH_SIGNING_KEY_FILE = "shindig.signing.key-file";
   private static final String OAUTH_SIGNING_KEY_NAME = "shindig.signing.key-name";
+  private static final String OAUTH_TOKEN_STORE_FILE = "shindig.oauth.token-store-file";
 
   @Override
   protected void configure() {
@@ -85,10 +86,25 @@ public class OAuthModule extends AbstractModule {
     @Inject
     public OAuthStoreProvider(
         @Named(OAUTH_SIGNING_KEY_FILE) String signingKeyFile,
-        @Named(OAUTH_SIGNING_KEY_NAME) String signingKeyName) {
+        @Named(OAUTH_SIGNING_KEY_NAME) String signingKeyName,
+        @Named(OAUTH_TOKEN_STORE_FILE) String tokenStoreFile) {
       store = new BasicOAuthStore();
       loadDefaultKey(signingKeyFile, signingKeyName);
       loadConsumers();
+      loadTokens(tokenStoreFile);
+    }
+
+    private void loadTokens(String tokenStoreFile) {
+      if (StringUtils.isBlank(tokenStoreFile)) {
+        logger.info("OAuth access tokens are only kept in memory");
+        return;
+      }
+      try {
+        logger.info("Using file " + tokenStoreFile + " to store OAuth access tokens");
+        store.setTokenPersister(new BasicOAuthStoreFileTokenPersister(new File(tokenStoreFile)));
+      } catch (Throwable t) {
+        logger.log(Level.WARNING, "Failed to load OAuth access tokens from " + tokenStoreFile, t);
+      }
     }
 
     private void loadDefaultKey(String signingKeyFile, String signingKeyName) {
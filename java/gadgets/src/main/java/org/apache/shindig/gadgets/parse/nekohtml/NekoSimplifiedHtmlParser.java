@@ -42,28 +42,60 @@ import java.util.Stack;
  * text nodes to keep DOM model simplified. Much of this code is based on
  * org.cyberneko.html.filters.Writer
  *
- * TODO: Create a reusable instance in ThreadLocal
+ * Each thread keeps its own scanner, tag balancer, configuration and handler, which are reset
+ * before every parse rather than built again. A pipeline that fails part way through a document
+ * is thrown away.
  */
 @Singleton
 public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
   private static final Set<String> elements =
       ImmutableSet.of("html", "body", "head", "link", "img", "style", "script", "embed");
 
+  /** Text buffers bigger than this, in chars, are not kept between documents. */
+  private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
   private final DOMImplementation documentFactory;
+  private final boolean reusePipelines;
+
+  private final ThreadLocal<Pipeline> pipelines = new ThreadLocal<Pipeline>() {
+    @Override
+    protected Pipeline initialValue() {
+      return new Pipeline();
+    }
+  };
 
   @Inject
   public NekoSimplifiedHtmlParser(DOMImplementation documentFactory) {
+    this(documentFactory, true);
+  }
+
+  /**
+   * @param reusePipelines false to build a new pipeline for every document, for comparison.
+   */
+  NekoSimplifiedHtmlParser(DOMImplementation documentFactory, boolean reusePipelines) {
     this.documentFactory = documentFactory;
+    this.reusePipelines = reusePipelines;
   }
 
   @Override
   protected Document parseDomImpl(String source) {
-    HTMLScanner htmlScanner = new HTMLScanner();
-    HTMLTagBalancer tagBalancer = new HTMLTagBalancer();
-    DocumentHandler handler = new DocumentHandler(source);
-    tagBalancer.setDocumentHandler(handler);
-    htmlScanner.setDocumentHandler(tagBalancer);
+    Pipeline pipeline = reusePipelines ? pipelines.get() : new Pipeline();
+    boolean done = false;
+    try {
+      Document document = pipeline.parse(source);
+      done = true;
+      return document;
+    } catch (IOException ioe) {
+      return null;
+    } finally {
+      if (!done && reusePipelines) {
+        // Whatever state it was left in, don't parse with it again.
+        pipelines.remove();
+      }
+    }
+  }
 
+  private static HTMLConfiguration createConfiguration() {
     HTMLConfiguration config = new HTMLConfiguration();
     // Maintain original case for elements and attributes
     config.setProperty("http://cyberneko.org/html/properties/names/elems", "match");
@@ -73,21 +105,43 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
     // Get notified of entity and character references
     config.setFeature("http://apache.org/xml/features/scanner/notify-char-refs", true);
     config.setFeature("http://cyberneko.org/html/features/scanner/notify-builtin-refs", true);
-    tagBalancer.reset(config);
-    htmlScanner.reset(config);
-    XMLInputSource inputSource = new XMLInputSource(null, null, null);
-    inputSource.setEncoding("UTF-8");
-    inputSource.setCharacterStream(new StringReader(source));
-    try {
-      htmlScanner.setInputSource(inputSource);
-      htmlScanner.scanDocument(true);
-      Document document = handler.getDocument();
-      DocumentFragment fragment = handler.getFragment();
-      normalizeFragment(document, fragment);
-      HtmlSerializer.attach(document, new NekoSerializer(), source);
-      return document;
-    } catch (IOException ioe) {
-      return null;
+    return config;
+  }
+
+  /**
+   * The Neko components that parse a document into a DocumentHandler.
+   */
+  private class Pipeline {
+    private final HTMLConfiguration config = createConfiguration();
+    private final HTMLScanner htmlScanner = new HTMLScanner();
+    private final HTMLTagBalancer tagBalancer = new HTMLTagBalancer();
+    private final DocumentHandler handler = new DocumentHandler();
+    private final XMLInputSource inputSource = new XMLInputSource(null, null, null);
+
+    Pipeline() {
+      tagBalancer.setDocumentHandler(handler);
+      htmlScanner.setDocumentHandler(tagBalancer);
+      inputSource.setEncoding("UTF-8");
+    }
+
+    Document parse(String source) throws IOException {
+      handler.reset(source);
+      tagBalancer.reset(config);
+      htmlScanner.reset(config);
+      inputSource.setCharacterStream(new StringReader(source));
+      try {
+        htmlScanner.setInputSource(inputSource);
+        htmlScanner.scanDocument(true);
+        Document document = handler.getDocument();
+        DocumentFragment fragment = handler.getFragment();
+        normalizeFragment(document, fragment);
+        HtmlSerializer.attach(document, new NekoSerializer(), source);
+        return document;
+      } finally {
+        // Don't keep the last document alive until the next parse.
+        inputSource.setCharacterStream(null);
+        handler.release();
+      }
     }
   }
 
@@ -96,15 +150,41 @@ public class NekoSimplifiedHtmlParser extends GadgetHtmlParser {
    */
   private class DocumentHandler implements XMLDocumentHandler {
     private final Stack<Node> elementStack = new Stack<Node>();
-    private final StringBuilder builder;
+    private StringBuilder builder = new StringBuilder();
     private boolean inEntity = false;
 
 
     private DocumentFragment documentFragment;
     private Document document;
 
-    public DocumentHandler(String content) {
-      builder = new StringBuilder(content.length() / 10);
+    /**
+     * Prepares the handler for a new document.
+     */
+    public void reset(String content) {
+      if (builder.capacity() > MAX_RETAINED_BUFFER) {
+        builder = new StringBuilder(content.length() / 10);
+      } else {
+        builder.setLength(0);
+        builder.ensureCapacity(content.length() / 10);
+      }
+      elementStack.clear();
+      inEntity = false;
+      document = null;
+      documentFragment = null;
+    }
+
+    /**
+     * Drops the references to the last document.
+     */
+    public void release() {
+      elementStack.clear();
+      document = null;
+      documentFragment = null;
+      if (builder.capacity() > MAX_RETAINED_BUFFER) {
+        builder = new StringBuilder();
+      } else {
+        builder.setLength(0);
+      }
     }
 
     public DocumentFragment getFragment() {
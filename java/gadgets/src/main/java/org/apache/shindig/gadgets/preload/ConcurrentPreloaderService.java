@@ -17,54 +17,112 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.common.metrics.Gauge;
+import org.apache.shindig.common.metrics.Metrics;
+import org.apache.shindig.gadgets.BoundedExecutor;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Preloads will be fetched concurrently using the injected ExecutorService, and they can be read
  * lazily using the returned map of futures.
  *
- * The last preloaded object always executes in the current thread to avoid creating unnecessary
- * additional threads when we're blocking the current request anyway.
+ * All preloads run on the executor, so the render can carry on while they complete. Each request
+ * has a budget for all of its preloads, and the render waits no longer than the preload timeout
+ * for any one of them. A preload that misses either is cancelled when it is read, and reads as a
+ * timed out response.
  */
 public class ConcurrentPreloaderService implements PreloaderService {
   private final ExecutorService executor;
   private final List<? extends Preloader> preloaders;
+  private final long requestTimeout;
+  private final long preloadTimeout;
+  private final PreloadStatistics statistics = new PreloadStatistics();
 
+  /**
+   * @param requestTimeout Milliseconds that all preloads for a request may take, 0 for no limit.
+   * @param preloadTimeout Milliseconds to wait for any one preload, 0 for no limit.
+   */
   @Inject
-  public ConcurrentPreloaderService(ExecutorService executor, List<Preloader> preloaders) {
+  public ConcurrentPreloaderService(@Named(BoundedExecutor.PRELOAD) ExecutorService executor,
+      List<Preloader> preloaders,
+      @Named("shindig.preload.request-timeout") long requestTimeout,
+      @Named("shindig.preload.timeout") long preloadTimeout) {
     this.executor = executor;
     this.preloaders = preloaders;
+    this.requestTimeout = requestTimeout;
+    this.preloadTimeout = preloadTimeout;
+  }
+
+  /**
+   * The preload statistics are reported as the preload.wait.count, preload.wait.millis and
+   * preload.timeouts gauges.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    metrics.addGauge("preload.wait.count", new Gauge() {
+      public long getValue() {
+        return statistics.getWaitCount();
+      }
+    });
+    metrics.addGauge("preload.wait.millis", new Gauge() {
+      public long getValue() {
+        return statistics.getWaitMillis();
+      }
+    });
+    metrics.addGauge("preload.timeouts", new Gauge() {
+      public long getValue() {
+        return statistics.getTimeoutCount();
+      }
+    });
+  }
+
+  /**
+   * Creates a service whose preloads may take as long as they like.
+   */
+  public ConcurrentPreloaderService(ExecutorService executor, List<Preloader> preloaders) {
+    this(executor, preloaders, 0, 0);
   }
 
   public Preloads preload(GadgetContext context, GadgetSpec gadget) {
-    ConcurrentPreloads preloads = new ConcurrentPreloads();
+    ConcurrentPreloads preloads = new ConcurrentPreloads(statistics, preloadTimeout);
     Map<String, Callable<PreloadedData>> tasks = Maps.newHashMap();
     for (Preloader preloader : preloaders) {
       tasks.putAll(preloader.createPreloadTasks(context, gadget));
     }
 
-    int processed = tasks.size();
+    long deadline = requestTimeout > 0
+        ? System.currentTimeMillis() + requestTimeout : ConcurrentPreloads.NO_DEADLINE;
     for (Map.Entry<String, Callable<PreloadedData>> entry : tasks.entrySet()) {
-      processed -= 1;
-      if (processed == 0) {
-        // The last preload fires in the current thread.
-        FutureTask<PreloadedData> futureTask = new FutureTask<PreloadedData>(entry.getValue());
-        futureTask.run();
-        preloads.add(entry.getKey(), futureTask);
-      } else {
-        preloads.add(entry.getKey(), executor.submit(entry.getValue()));
+      Future<PreloadedData> future;
+      try {
+        future = executor.submit(entry.getValue());
+      } catch (RejectedExecutionException e) {
+        // Too busy to preload, so this reads as timed out rather than holding up the render.
+        future = new FutureTask<PreloadedData>(entry.getValue());
+        future.cancel(false);
       }
+      preloads.add(entry.getKey(), future, deadline);
     }
     return preloads;
   }
+
+  /**
+   * @return Statistics for all preloads run by this service.
+   */
+  public PreloadStatistics getStatistics() {
+    return statistics;
+  }
 }
@@ -18,21 +18,52 @@
  */
 package org.apache.shindig.gadgets.preload;
 
+import org.apache.shindig.gadgets.FetchResponseUtils;
+import org.apache.shindig.gadgets.http.HttpResponse;
+
 import com.google.common.collect.Maps;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 
 /**
  * Preloads data by processing all Runnables concurrently.
+ *
+ * Each preload may have a deadline, and there may be a limit on how long a read waits. A preload
+ * that hasn't finished in time is cancelled, and reads as a timed out response rather than
+ * blocking the render.
  */
 class ConcurrentPreloads implements Preloads {
-  private final Map<String, Future<PreloadedData>> preloads;
+  private static final Logger logger = Logger.getLogger(ConcurrentPreloads.class.getName());
+
+  /** Deadline for preloads that may take as long as they like. */
+  static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  private final Map<String, PendingPreload> preloads;
+  private final PreloadStatistics statistics;
+  private final long readTimeout;
 
   ConcurrentPreloads() {
-    preloads = Maps.newHashMap();
+    this(new PreloadStatistics(), 0);
+  }
+
+  /**
+   * @param statistics Where waits and timeouts are counted.
+   * @param readTimeout The longest that reading one preload may wait, 0 for no limit.
+   */
+  ConcurrentPreloads(PreloadStatistics statistics, long readTimeout) {
+    this.preloads = Maps.newHashMap();
+    this.statistics = statistics;
+    this.readTimeout = readTimeout;
   }
 
   /**
@@ -42,7 +73,18 @@ class ConcurrentPreloads implements Preloads {
    * @param futureData A future that will return the preloaded data.
    */
   ConcurrentPreloads add(String key, Future<PreloadedData> futureData) {
-    preloads.put(key, futureData);
+    return add(key, futureData, NO_DEADLINE);
+  }
+
+  /**
+   * Add an active preloading process that must finish by the given time.
+   *
+   * @param key The key that this preload will be stored under.
+   * @param futureData A future that will return the preloaded data.
+   * @param deadline Time in milliseconds since the epoch when the preload is given up on.
+   */
+  ConcurrentPreloads add(String key, Future<PreloadedData> futureData, long deadline) {
+    preloads.put(key, new PendingPreload(futureData, deadline));
     return this;
   }
 
@@ -51,15 +93,30 @@ class ConcurrentPreloads implements Preloads {
   }
 
   public PreloadedData getData(String key) throws PreloadException {
-    Future<PreloadedData> future = preloads.get(key);
+    PendingPreload pending = preloads.get(key);
 
-    if (future == null) {
+    if (pending == null || pending.future == null) {
       return null;
     }
 
+    Future<PreloadedData> future = pending.future;
+    long start = System.currentTimeMillis();
+    long deadline = pending.deadline;
+    if (readTimeout > 0) {
+      deadline = Math.min(deadline, start + readTimeout);
+    }
     try {
-      // TODO: Determine if timeouts should be supported.
-      return future.get();
+      if (deadline == NO_DEADLINE) {
+        return future.get();
+      }
+      return future.get(Math.max(deadline - start, 0), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      statistics.recordTimeout();
+      logger.info("Preload " + key + " missed its deadline and was cancelled.");
+      return TimedOutPreload.INSTANCE;
+    } catch (CancellationException e) {
+      return TimedOutPreload.INSTANCE;
     } catch (InterruptedException e) {
       // Thread was interrupted. We might want to throw a RTE here, but this is probably only going
       // to happen if we're shutting down the server anyway.
@@ -71,6 +128,34 @@ class ConcurrentPreloads implements Preloads {
         throw (PreloadException) cause;
       }
       throw new PreloadException(cause);
+    } finally {
+      statistics.recordWait(System.currentTimeMillis() - start);
+    }
+  }
+
+  private static class PendingPreload {
+    private final Future<PreloadedData> future;
+    private final long deadline;
+
+    PendingPreload(Future<PreloadedData> future, long deadline) {
+      this.future = future;
+      this.deadline = deadline;
+    }
+  }
+
+  /**
+   * Stands in for a preload that was cancelled. It looks like a timed out makeRequest response, so
+   * gadgets see an error rather than a missing preload.
+   */
+  static class TimedOutPreload implements PreloadedData {
+    static final TimedOutPreload INSTANCE = new TimedOutPreload();
+
+    public Object toJson() {
+      try {
+        return FetchResponseUtils.getResponseAsJson(HttpResponse.timeout(), "");
+      } catch (JSONException e) {
+        return new JSONObject();
+      }
     }
   }
 }
@@ -0,0 +1,59 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.preload;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how long renders wait for preloaded data, and how often a preload misses its deadline.
+ */
+public class PreloadStatistics {
+  private final AtomicLong waitCount = new AtomicLong();
+  private final AtomicLong waitMillis = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+
+  void recordWait(long millis) {
+    waitCount.incrementAndGet();
+    waitMillis.addAndGet(millis);
+  }
+
+  void recordTimeout() {
+    timeoutCount.incrementAndGet();
+  }
+
+  /**
+   * @return The number of times preloaded data was read.
+   */
+  public long getWaitCount() {
+    return waitCount.get();
+  }
+
+  /**
+   * @return The total time spent waiting for preloaded data, in milliseconds.
+   */
+  public long getWaitMillis() {
+    return waitMillis.get();
+  }
+
+  /**
+   * @return The number of preloads that were cancelled because they missed their deadline.
+   */
+  public long getTimeoutCount() {
+    return timeoutCount.get();
+  }
+}
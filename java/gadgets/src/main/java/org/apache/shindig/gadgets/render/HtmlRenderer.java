@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.render;
 
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.common.uri.UriBuilder;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
@@ -41,6 +42,7 @@ public class HtmlRenderer {
   private final ContentFetcherFactory fetcher;
   private final PreloaderService preloader;
   private final ContentRewriterRegistry rewriter;
+  private Metrics metrics;
 
   @Inject
   public HtmlRenderer(ContentFetcherFactory fetcher,
@@ -51,6 +53,23 @@ public class HtmlRenderer {
     this.rewriter = rewriter;
   }
 
+  /**
+   * Starting the preloads is timed as render.preload, fetching the content of proxied views as
+   * render.fetch, and rewriting as render.rewrite.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  private long time(String stage, long start) {
+    long now = System.nanoTime();
+    if (metrics != null) {
+      metrics.getTimer(stage).update(now - start);
+    }
+    return now;
+  }
+
   /**
    * Render the gadget into a string by performing the following steps:
    *
@@ -70,11 +89,15 @@ public class HtmlRenderer {
       GadgetContext context = gadget.getContext();
       GadgetSpec spec = gadget.getSpec();
 
+      long start = System.nanoTime();
       Preloads preloads = preloader.preload(context, spec);
       gadget.setPreloads(preloads);
+      start = time("render.preload", start);
 
       if (view.getHref() == null) {
-        return rewriter.rewriteGadget(gadget, view.getContent());
+        String content = rewriter.rewriteGadget(gadget, view.getContent());
+        time("render.rewrite", start);
+        return content;
       } else {
         // TODO: Add current url to GadgetContext to support transitive proxying.
         UriBuilder uri = new UriBuilder(view.getHref());
@@ -89,11 +112,14 @@ public class HtmlRenderer {
             .setContainer(context.getContainer())
             .setGadget(spec.getUrl());
         HttpResponse response = fetcher.fetch(request);
+        start = time("render.fetch", start);
         if (response.getHttpStatusCode() != HttpResponse.SC_OK) {
           throw new RenderingException("Unable to reach remote host. HTTP status " +
               response.getHttpStatusCode());
         }
-        return rewriter.rewriteGadget(gadget, response.getResponseAsString());
+        String content = rewriter.rewriteGadget(gadget, response.getResponseAsString());
+        time("render.rewrite", start);
+        return content;
       }
     } catch (GadgetException e) {
       throw new RenderingException(e.getMessage(), e);
@@ -19,6 +19,7 @@
 package org.apache.shindig.gadgets.render;
 
 import org.apache.shindig.common.ContainerConfig;
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
@@ -48,6 +49,7 @@ public class Renderer {
   private final HtmlRenderer renderer;
   private final ContainerConfig containerConfig;
   private final LockedDomainService lockedDomainService;
+  private Metrics metrics;
 
   @Inject
   public Renderer(Processor processor,
@@ -60,6 +62,14 @@ public class Renderer {
     this.lockedDomainService = lockedDomainService;
   }
 
+  /**
+   * Whole renders are timed as render.total, and processing the spec as render.process.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * Attempts to render the requested gadget.
    *
@@ -68,12 +78,28 @@ public class Renderer {
    * TODO: Localize error messages.
    */
   public RenderingResults render(GadgetContext context) {
+    if (metrics == null) {
+      return renderUntimed(context);
+    }
+    long start = System.nanoTime();
+    try {
+      return renderUntimed(context);
+    } finally {
+      metrics.getTimer("render.total").updateSince(start);
+    }
+  }
+
+  private RenderingResults renderUntimed(GadgetContext context) {
     if (!validateParent(context)) {
       return RenderingResults.error("Unsupported parent parameter. Check your container code.");
     }
 
     try {
+      long start = System.nanoTime();
       Gadget gadget = processor.process(context);
+      if (metrics != null) {
+        metrics.getTimer("render.process").updateSince(start);
+      }
 
       if (gadget.getCurrentView() == null) {
         return RenderingResults.error("Unable to locate an appropriate view in this gadget. " +
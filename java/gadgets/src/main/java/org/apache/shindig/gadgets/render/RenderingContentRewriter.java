@@ -40,7 +40,6 @@ import org.apache.shindig.gadgets.rewrite.ContentRewriter;
 import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.rewrite.RewriterResults;
 import org.apache.shindig.gadgets.spec.Feature;
-import org.apache.shindig.gadgets.spec.GadgetSpec;
 import org.apache.shindig.gadgets.spec.LocaleSpec;
 import org.apache.shindig.gadgets.spec.MessageBundle;
 import org.apache.shindig.gadgets.spec.ModulePrefs;
@@ -212,7 +211,6 @@ public class RenderingContentRewriter implements ContentRewriter {
     // TODO: If there isn't any js in the document, we can skip this. Unfortunately, that means
     // both script tags (easy to detect) and event handlers (much more complex).
     GadgetContext context = gadget.getContext();
-    GadgetSpec spec = gadget.getSpec();
     String forcedLibs = context.getParameter("libs");
 
     // List of libraries we need
@@ -246,7 +244,7 @@ public class RenderingContentRewriter implements ContentRewriter {
     // Inline any libs that weren't forced. The ugly context switch between inline and external
     // Js is needed to allow both inline and external scripts declared in feature.xml.
     String container = context.getContainer();
-    Collection<GadgetFeature> features = getFeatures(spec, forced);
+    Collection<GadgetFeature> features = getFeatures(gadget, forced);
 
     // Precalculate the maximum length in order to avoid excessive garbage generation.
     int size = 0;
@@ -297,15 +295,17 @@ public class RenderingContentRewriter implements ContentRewriter {
   }
 
   /**
-   * Get all features needed to satisfy this rendering request.
+   * Get all features needed to satisfy this rendering request. Features that an earlier rewriter
+   * has made unnecessary are left out, unless they are forced.
    *
    * @param forced Forced libraries; added in addition to those found in the spec. Defaults to
    * "core".
    */
-  private Collection<GadgetFeature> getFeatures(GadgetSpec spec, Collection<String> forced)
+  private Collection<GadgetFeature> getFeatures(Gadget gadget, Collection<String> forced)
       throws GadgetException {
-    Map<String, Feature> features = spec.getModulePrefs().getFeatures();
+    Map<String, Feature> features = gadget.getSpec().getModulePrefs().getFeatures();
     Set<String> libs = Sets.newHashSet(features.keySet());
+    libs.removeAll(gadget.getRemovedFeatures());
     if (!forced.isEmpty()) {
       libs.addAll(forced);
     }
@@ -32,12 +32,20 @@ public class CSSContentRewriter implements ContentRewriter {
 
   private final ContentRewriterFeatureFactory rewriterFeatureFactory;
   private final String proxyBaseNoGadget;
+  private final CachingCssRewriter cssRewriter;
+
+  public CSSContentRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
+      String proxyBaseNoGadget) {
+    this(rewriterFeatureFactory, proxyBaseNoGadget, new CachingCssRewriter());
+  }
 
   @Inject
   public CSSContentRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
-      @Named("shindig.content-rewrite.proxy-url")String proxyBaseNoGadget) {
+      @Named("shindig.content-rewrite.proxy-url")String proxyBaseNoGadget,
+      CachingCssRewriter cssRewriter) {
     this.rewriterFeatureFactory = rewriterFeatureFactory;
     this.proxyBaseNoGadget = proxyBaseNoGadget;
+    this.cssRewriter = cssRewriter;
   }
 
   public RewriterResults rewrite(Gadget gadget, MutableContent content) {
@@ -50,8 +58,9 @@ public class CSSContentRewriter implements ContentRewriter {
       return null;      
     }
     ContentRewriterFeature feature = rewriterFeatureFactory.get(request);
-    content.setContent(CssRewriter.rewrite(content.getContent(), request.getUri(),
-        createLinkRewriter(request.getGadget(), feature)));
+    content.setContent(cssRewriter.rewrite(content.getContent(), request.getUri(),
+        createLinkRewriter(request.getGadget(), feature),
+        getLinkRewriterKey(request.getGadget(), feature), feature.shouldMinifyCss()));
 
     return RewriterResults.cacheableIndefinitely();
   }
@@ -59,5 +68,13 @@ public class CSSContentRewriter implements ContentRewriter {
   protected LinkRewriter createLinkRewriter(Uri gadgetUri, ContentRewriterFeature feature) {
     return new ProxyingLinkRewriter(gadgetUri, feature, proxyBaseNoGadget);
   }
+
+  /**
+   * @return the key that identifies the output of the link rewriter made by
+   *     {@link #createLinkRewriter}, for caching rewritten stylesheets.
+   */
+  protected String getLinkRewriterKey(Uri gadgetUri, ContentRewriterFeature feature) {
+    return CachingCssRewriter.getLinkRewriterKey(gadgetUri, feature, proxyBaseNoGadget);
+  }
 }
 
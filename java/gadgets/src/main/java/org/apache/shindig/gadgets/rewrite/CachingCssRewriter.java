@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Rewrites the links in stylesheets with {@link CssRewriter}, minifying them if asked to.
+ *
+ * Results are cached by stylesheet content and rewrite configuration when a cache provider has
+ * been set, so each distinct stylesheet is only lexed once rather than on every proxied response
+ * or rendered style tag.
+ */
+@Singleton
+public class CachingCssRewriter {
+
+  public static final String REWRITTEN_STYLESHEETS = "rewrittenStylesheets";
+
+  private Cache<String, String> cache;
+
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    cache = cacheProvider.createCache(REWRITTEN_STYLESHEETS);
+  }
+
+  /**
+   * @param content the stylesheet
+   * @param source the location of the stylesheet, which links are relative to
+   * @param linkRewriter the rewriter for the links in the stylesheet
+   * @param linkRewriterKey identifies everything that the output of the link rewriter depends on,
+   *     other than the link and source. See {@link #getLinkRewriterKey}.
+   * @param minify whether to minify the rewritten stylesheet
+   * @return the rewritten stylesheet
+   */
+  public String rewrite(String content, Uri source, LinkRewriter linkRewriter,
+      String linkRewriterKey, boolean minify) {
+    String key = null;
+    if (cache != null && cache.getCapacity() != 0) {
+      key = source.toString() + '\n' + linkRewriterKey + '\n' + minify + '\n'
+          + HashUtil.rawChecksum(CharsetUtil.getUtf8Bytes(content));
+      String cached = cache.getElement(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    String rewritten = CssRewriter.rewrite(content, source, linkRewriter);
+    if (minify) {
+      rewritten = CssMinifier.minify(rewritten);
+    }
+    if (key != null) {
+      cache.addElement(key, rewritten);
+    }
+    return rewritten;
+  }
+
+  /**
+   * @return the key for a {@link ProxyingLinkRewriter} with the given configuration.
+   */
+  public static String getLinkRewriterKey(Uri gadgetUri, ContentRewriterFeature feature,
+      String proxyUrl) {
+    return gadgetUri + "\n" + feature.getFingerprint() + '\n' + feature.getExpires() + '\n'
+        + proxyUrl;
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minifies scripts with {@link JsMinifier}, falling back to the original script if it can not be
+ * minified safely.
+ *
+ * Results are cached by a checksum of the script when a cache provider has been set, so each
+ * distinct script is only minified once rather than on every proxied response or rendering.
+ */
+@Singleton
+public class CachingJsMinifier {
+
+  public static final String MINIFIED_SCRIPTS = "minifiedScripts";
+
+  private static final Logger logger = Logger.getLogger(CachingJsMinifier.class.getName());
+
+  private Cache<String, String> cache;
+
+  @Inject(optional = true)
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    cache = cacheProvider.createCache(MINIFIED_SCRIPTS);
+  }
+
+  /**
+   * @param js the script
+   * @return the minified script, or the original script if it could not be minified
+   */
+  public String minify(String js) {
+    String key = null;
+    if (cache != null && cache.getCapacity() != 0) {
+      key = HashUtil.rawChecksum(CharsetUtil.getUtf8Bytes(js));
+      String cached = cache.getElement(key);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    String minified;
+    try {
+      minified = JsMinifier.minify(js);
+    } catch (IllegalArgumentException e) {
+      // Cache the original too, so broken scripts aren't scanned again.
+      logger.log(Level.FINE, "Not minifying script", e);
+      minified = js;
+    }
+    if (key != null) {
+      cache.addElement(key, minified);
+    }
+    return minified;
+  }
+}
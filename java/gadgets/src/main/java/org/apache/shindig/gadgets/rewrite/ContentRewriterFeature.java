@@ -31,7 +31,8 @@ import java.util.regex.Pattern;
 
 /**
  * Parser for the "content-rewrite" feature. The supported params are
- * include-urls,exclude-urls,include-tags. Default values are container specific.
+ * include-urls,exclude-urls,include-tags,expires,minify-css,minify-js. Default values are
+ * container specific.
  *
  * TODO: This really needs to be fixed, because it makes GadgetSpec mutable. It is *ONLY* needed
  * by code in the rewrite package, and that code isn't even being used, and can't be used the way
@@ -44,6 +45,8 @@ public class ContentRewriterFeature {
   private static final String EXCLUDE_URLS = "exclude-urls";
   private static final String INCLUDE_TAGS = "include-tags";
   private static final String EXPIRES = "expires";
+  private static final String MINIFY_CSS = "minify-css";
+  private static final String MINIFY_JS = "minify-js";
 
   public static final String EXPIRES_DEFAULT = "HTTP";
 
@@ -59,6 +62,10 @@ public class ContentRewriterFeature {
   // If null then dont enforce a min TTL for proxied content. Use contents headers
   private Integer expires;
 
+  private boolean minifyCss;
+
+  private boolean minifyJs;
+
   private Integer fingerprint;
 
   /**
@@ -74,6 +81,26 @@ public class ContentRewriterFeature {
                                 String defaultExclude,
                                 String defaultExpires,
       Set<String> defaultTags) {
+    this(spec, defaultInclude, defaultExclude, defaultExpires, defaultTags, false, false);
+  }
+
+  /**
+   * Constructor which takes a gadget spec and the default container settings
+   *
+   * @param spec
+   * @param defaultInclude As a regex
+   * @param defaultExclude As a regex
+   * @param defaultExpires Either "HTTP" or a ttl in seconds
+   * @param defaultTags    Set of default tags that can be rewritten
+   * @param defaultMinifyCss Whether rewritten stylesheets are minified
+   * @param defaultMinifyJs Whether rewritten scripts are minified
+   */
+  public ContentRewriterFeature(GadgetSpec spec, String defaultInclude,
+                                String defaultExclude,
+                                String defaultExpires,
+      Set<String> defaultTags,
+      boolean defaultMinifyCss,
+      boolean defaultMinifyJs) {
     Feature f = null;
     if (spec != null) {
       f = spec.getModulePrefs().getFeatures().get("content-rewrite");
@@ -82,6 +109,8 @@ public class ContentRewriterFeature {
     String excludeRegex = normalizeParam(defaultExclude, null);
 
     this.includeTags = ImmutableSortedSet.copyOf(defaultTags);
+    this.minifyCss = defaultMinifyCss;
+    this.minifyJs = defaultMinifyJs;
 
     List<String> expiresOptions = Lists.newArrayListWithCapacity(3);
     if (f != null) {
@@ -108,6 +137,15 @@ public class ContentRewriterFeature {
       if (f.getParams().containsKey(EXPIRES)) {
         expiresOptions.add(normalizeParam(f.getParams().get(EXPIRES), null));
       }
+
+      String minifyCssParam = normalizeParam(f.getParams().get(MINIFY_CSS), null);
+      if (minifyCssParam != null) {
+        minifyCss = Boolean.parseBoolean(minifyCssParam);
+      }
+      String minifyJsParam = normalizeParam(f.getParams().get(MINIFY_JS), null);
+      if (minifyJsParam != null) {
+        minifyJs = Boolean.parseBoolean(minifyJsParam);
+      }
     }
 
     expiresOptions.add(defaultExpires);
@@ -185,6 +223,20 @@ public class ContentRewriterFeature {
     return expires;
   }
 
+  /**
+   * @return true if rewritten stylesheets should be minified
+   */
+  public boolean shouldMinifyCss() {
+    return minifyCss;
+  }
+
+  /**
+   * @return true if rewritten scripts should be minified
+   */
+  public boolean shouldMinifyJs() {
+    return minifyJs;
+  }
+
   /**
    * @return fingerprint of rewriting rule for cache-busting
    */
@@ -196,6 +248,12 @@ public class ContentRewriterFeature {
       for (String s : includeTags) {
         result = 31 * result + s.hashCode();
       }
+      if (minifyCss) {
+        result = 31 * result + 1;
+      }
+      if (minifyJs) {
+        result = 31 * result + 2;
+      }
       fingerprint =  result;
     }
     return fingerprint;
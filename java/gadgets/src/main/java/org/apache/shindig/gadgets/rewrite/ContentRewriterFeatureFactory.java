@@ -44,17 +44,32 @@ public class ContentRewriterFeatureFactory {
   private final String excludeUrls;
   private final String expires;
   private final Set<String> includeTags;
+  private final boolean minifyCss;
+  private final boolean minifyJs;
 
   private ContentRewriterFeature defaultFeature;
 
+  public ContentRewriterFeatureFactory(
+      GadgetSpecFactory specFactory,
+      String includeUrls,
+      String excludeUrls,
+      String expires,
+      String includeTags) {
+    this(specFactory, includeUrls, excludeUrls, expires, includeTags, false, false);
+  }
+
   @Inject
   public ContentRewriterFeatureFactory(
       GadgetSpecFactory specFactory,
       @Named("shindig.content-rewrite.include-urls")String includeUrls,
       @Named("shindig.content-rewrite.exclude-urls")String excludeUrls,
       @Named("shindig.content-rewrite.expires")String expires,
-      @Named("shindig.content-rewrite.include-tags")String includeTags) {
+      @Named("shindig.content-rewrite.include-tags")String includeTags,
+      @Named("shindig.content-rewrite.minify-css")boolean minifyCss,
+      @Named("shindig.content-rewrite.minify-js")boolean minifyJs) {
     this.specFactory = specFactory;
+    this.minifyCss = minifyCss;
+    this.minifyJs = minifyJs;
     this.includeUrls = includeUrls;
     this.excludeUrls = excludeUrls;
     this.expires = expires;
@@ -65,7 +80,7 @@ public class ContentRewriterFeatureFactory {
       }
     }
     defaultFeature = new ContentRewriterFeature(null, includeUrls, excludeUrls, expires,
-        this.includeTags);
+        this.includeTags, minifyCss, minifyJs);
   }
 
   public ContentRewriterFeature getDefault() {
@@ -94,7 +109,8 @@ public class ContentRewriterFeatureFactory {
         (ContentRewriterFeature)spec.getAttribute("content-rewriter");
     if (rewriterFeature != null) return rewriterFeature;
     rewriterFeature
-        = new ContentRewriterFeature(spec, includeUrls, excludeUrls, expires, includeTags);
+        = new ContentRewriterFeature(spec, includeUrls, excludeUrls, expires, includeTags,
+            minifyCss, minifyJs);
     spec.setAttribute("content-rewriter", rewriterFeature);
     return rewriterFeature;
   }
@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import java.util.LinkedList;
+
+/**
+ * Minifies stylesheets by removing comments and redundant whitespace and shortening values.
+ *
+ * Only changes that can not alter the meaning of the stylesheet are made. Strings, url()
+ * arguments and escapes are copied untouched, whitespace is only removed where the grammar makes
+ * it insignificant, and values are only shortened inside declarations. Comments that start with
+ * "/*!" are kept, as they usually carry a license.
+ */
+public final class CssMinifier {
+
+  private CssMinifier() {
+  }
+
+  /**
+   * @param css the stylesheet
+   * @return the minified stylesheet
+   */
+  public static String minify(String css) {
+    StringBuilder out = new StringBuilder(css.length());
+    // One entry per open block, true for blocks of declarations, false for blocks of rules
+    LinkedList<Boolean> blocks = new LinkedList<Boolean>();
+    // Start of the selector, at-rule or declaration being written
+    int statementStart = 0;
+    boolean pendingSpace = false;
+    // Whether a comment was dropped since the last character written
+    boolean pendingComment = false;
+    // Whether whitespace after the last character written is insignificant
+    boolean spaceless = true;
+    boolean inValue = false;
+    boolean shortenColors = false;
+
+    int len = css.length();
+    int i = 0;
+    while (i < len) {
+      char c = css.charAt(i);
+
+      if (c == '/' && i + 1 < len && css.charAt(i + 1) == '*') {
+        int end = css.indexOf("*/", i + 2);
+        end = (end < 0) ? len : end + 2;
+        if (i + 2 < len && css.charAt(i + 2) == '!') {
+          if (pendingSpace && !spaceless) {
+            out.append(' ');
+          }
+          out.append(css, i, end);
+          spaceless = false;
+          pendingSpace = false;
+          pendingComment = false;
+        } else {
+          // Unlike whitespace, a comment is not a descendant combinator: "div/**/.x" is "div.x"
+          pendingComment = true;
+        }
+        i = end;
+        continue;
+      }
+
+      if (isWhitespace(c)) {
+        pendingSpace = true;
+        i++;
+        continue;
+      }
+
+      boolean propertyColon = c == ':' && !inValue && !blocks.isEmpty() && blocks.getFirst();
+      if (c == '{' || c == '}' || c == ';' || c == ',' || propertyColon) {
+        if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';') {
+          out.setLength(out.length() - 1);
+        }
+        if (c == '{') {
+          blocks.addFirst(!containsRules(out.substring(statementStart).trim()));
+        } else if (c == '}' && !blocks.isEmpty()) {
+          blocks.removeFirst();
+        }
+        out.append(c);
+        if (propertyColon) {
+          inValue = true;
+          shortenColors = !out.substring(statementStart).toLowerCase().contains("filter");
+        } else if (c != ',') {
+          inValue = false;
+          statementStart = out.length();
+        }
+        spaceless = true;
+        pendingSpace = false;
+        pendingComment = false;
+        i++;
+        continue;
+      }
+
+      if (pendingSpace && !spaceless) {
+        out.append(' ');
+      } else if (pendingComment && !spaceless && wouldJoin(out.charAt(out.length() - 1), c)) {
+        // The dropped comment kept two tokens apart, an empty one still does
+        out.append("/**/");
+      }
+      pendingSpace = false;
+      pendingComment = false;
+      spaceless = false;
+
+      if (c == '"' || c == '\'') {
+        int end = endOfString(css, i);
+        out.append(css, i, end);
+        i = end;
+      } else if (c == '\\') {
+        int end = Math.min(i + 2, len);
+        out.append(css, i, end);
+        i = end;
+      } else if (c == '(' && endsWithIgnoreCase(out, "url")) {
+        int end = endOfUrl(css, i);
+        out.append(css, i, end);
+        i = end;
+      } else if (c == '#' && inValue && shortenColors) {
+        int end = i + 1;
+        while (end < len && isHexDigit(css.charAt(end))) {
+          end++;
+        }
+        if (end - i == 7 && (end == len || !isNameChar(css.charAt(end)))
+            && css.charAt(i + 1) == css.charAt(i + 2)
+            && css.charAt(i + 3) == css.charAt(i + 4)
+            && css.charAt(i + 5) == css.charAt(i + 6)) {
+          out.append('#').append(css.charAt(i + 1)).append(css.charAt(i + 3))
+              .append(css.charAt(i + 5));
+        } else {
+          out.append(css, i, end);
+        }
+        i = end;
+      } else if (c == '0' && inValue && i + 2 < len && css.charAt(i + 1) == '.'
+          && Character.isDigit(css.charAt(i + 2)) && startsNumber(out)) {
+        // 0.5em -> .5em
+        i++;
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+    return out.toString();
+  }
+
+  /**
+   * @return whether the block opened by the prelude holds rules rather than declarations
+   */
+  private static boolean containsRules(String prelude) {
+    String lower = prelude.toLowerCase();
+    return lower.startsWith("@media") || lower.startsWith("@supports")
+        || lower.startsWith("@document") || lower.startsWith("@-moz-document")
+        || (lower.startsWith("@") && lower.contains("keyframes"));
+  }
+
+  /**
+   * @return whether a number written next would start a new token, rather than continue one
+   */
+  private static boolean startsNumber(StringBuilder out) {
+    if (out.length() == 0) {
+      return true;
+    }
+    char last = out.charAt(out.length() - 1);
+    return last == ':' || last == ' ' || last == ',' || last == '(' || last == '/';
+  }
+
+  private static int endOfString(String css, int start) {
+    char quote = css.charAt(start);
+    int i = start + 1;
+    while (i < css.length()) {
+      char c = css.charAt(i);
+      if (c == '\\') {
+        i += 2;
+      } else if (c == quote) {
+        return i + 1;
+      } else if (c == '\n') {
+        // Unterminated string, which ends at the line
+        return i;
+      } else {
+        i++;
+      }
+    }
+    return css.length();
+  }
+
+  private static int endOfUrl(String css, int start) {
+    int i = start + 1;
+    while (i < css.length()) {
+      char c = css.charAt(i);
+      if (c == '"' || c == '\'') {
+        i = endOfString(css, i);
+      } else if (c == '\\') {
+        i += 2;
+      } else if (c == ')') {
+        return i + 1;
+      } else {
+        i++;
+      }
+    }
+    return css.length();
+  }
+
+  private static boolean endsWithIgnoreCase(StringBuilder out, String suffix) {
+    int start = out.length() - suffix.length();
+    if (start < 0) {
+      return false;
+    }
+    return out.substring(start).equalsIgnoreCase(suffix);
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static boolean isHexDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+  }
+
+  /**
+   * @return whether the two characters would be read as part of one token if nothing was between
+   *     them
+   */
+  private static boolean wouldJoin(char last, char next) {
+    return isNameChar(last) && (isNameChar(next) || next == '\\'
+        || (next == '.' && Character.isDigit(last)));
+  }
+
+  private static boolean isNameChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == '_';
+  }
+}
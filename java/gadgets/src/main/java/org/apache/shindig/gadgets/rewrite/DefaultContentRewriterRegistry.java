@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.http.HttpRequest;
@@ -38,6 +39,7 @@ import java.util.List;
 public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
   protected final List<ContentRewriter> rewriters;
   protected final GadgetHtmlParser htmlParser;
+  private Metrics metrics;
 
   @Inject
   public DefaultContentRewriterRegistry(List<ContentRewriter> rewriters,
@@ -49,6 +51,14 @@ public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
     this.htmlParser = htmlParser;
   }
 
+  /**
+   * Each rewriter is timed as rewrite.<class name>.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   /** {@inheritDoc} */
   public String rewriteGadget(Gadget gadget, View currentView) throws GadgetException {
     if (currentView == null) {
@@ -58,7 +68,9 @@ public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
     MutableContent mc = new MutableContent(htmlParser, currentView.getContent());
 
     for (ContentRewriter rewriter : rewriters) {
+      long start = System.nanoTime();
       rewriter.rewrite(gadget, mc);
+      time(rewriter, start);
     }
     return mc.getContent();
   }
@@ -72,7 +84,9 @@ public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
     MutableContent mc = new MutableContent(htmlParser, content);
 
     for (ContentRewriter rewriter : rewriters) {
+      long start = System.nanoTime();
       rewriter.rewrite(gadget, mc);
+      time(rewriter, start);
     }
 
     return mc.getContent();
@@ -84,7 +98,9 @@ public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
 
     boolean wasRewritten = false;
     for (ContentRewriter rewriter : rewriters) {
+      long start = System.nanoTime();
       wasRewritten |= (rewriter.rewrite(req, resp, mc) != null);
+      time(rewriter, start);
     }
 
     if (wasRewritten) {
@@ -93,6 +109,12 @@ public class DefaultContentRewriterRegistry implements ContentRewriterRegistry {
     return resp;
   }
 
+  private void time(ContentRewriter rewriter, long start) {
+    if (metrics != null) {
+      metrics.getTimer("rewrite." + rewriter.getClass().getName()).updateSince(start);
+    }
+  }
+
   protected List<ContentRewriter> getRewriters() {
     return rewriters;
   }
@@ -70,17 +70,30 @@ public class HTMLContentRewriter  implements ContentRewriter {
       "embed", ImmutableSet.of("src")
   );
 
+  /** Script types that hold JavaScript, anything else is data or a template. */
+  private final static Set<String> JAVASCRIPT_TYPES = ImmutableSet.of("text/javascript",
+      "application/javascript", "application/x-javascript", "text/ecmascript",
+      "application/ecmascript", "text/jscript", "text/x-javascript");
+
   private final ContentRewriterFeatureFactory rewriterFeatureFactory;
   private final String proxyBaseNoGadget;
   private final String concatBaseNoGadget;
+  private final CachingJsMinifier jsMinifier;
+
+  public HTMLContentRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
+      String proxyBaseNoGadget, String concatBaseNoGadget) {
+    this(rewriterFeatureFactory, proxyBaseNoGadget, concatBaseNoGadget, new CachingJsMinifier());
+  }
 
   @Inject
   public HTMLContentRewriter(ContentRewriterFeatureFactory rewriterFeatureFactory,
       @Named("shindig.content-rewrite.proxy-url")String proxyBaseNoGadget,
-      @Named("shindig.content-rewrite.concat-url")String concatBaseNoGadget) {
+      @Named("shindig.content-rewrite.concat-url")String concatBaseNoGadget,
+      CachingJsMinifier jsMinifier) {
     this.rewriterFeatureFactory = rewriterFeatureFactory;
     this.concatBaseNoGadget = concatBaseNoGadget;
     this.proxyBaseNoGadget = proxyBaseNoGadget;
+    this.jsMinifier = jsMinifier;
   }
 
   public RewriterResults rewrite(HttpRequest request, HttpResponse original,
@@ -162,6 +175,9 @@ public class HTMLContentRewriter  implements ContentRewriter {
       List<String> extractedUrls = CssRewriter.rewrite(new StringReader(styleText),
           contentBase, linkRewriter, sw, true);
       styleText = sw.toString().trim();
+      if (feature.shouldMinifyCss()) {
+        styleText = CssMinifier.minify(styleText);
+      }
       if (styleText.length() == 0 || (styleText.length() < 25 &&
         styleText.replace("<!--", "").replace("//-->", "").
             replace("-->", "").trim().length() == 0)) {
@@ -246,12 +262,40 @@ public class HTMLContentRewriter  implements ContentRewriter {
       } else {
         concatenateTags(feature, concatenateable, concatBase, contentBase, "src");
         concatenateable.clear();
+        if (!scriptTag.hasAttribute("src") && feature.shouldMinifyJs() &&
+            isJavaScript(scriptTag)) {
+          mutated |= minifyInlineScript(scriptTag);
+        }
       }
     }
     concatenateTags(feature, concatenateable, concatBase, contentBase, "src");
     return mutated;
   }
 
+  private static boolean isJavaScript(Element scriptTag) {
+    String type = scriptTag.getAttribute("type");
+    int params = type.indexOf(';');
+    if (params != -1) {
+      type = type.substring(0, params);
+    }
+    type = type.trim().toLowerCase();
+    return type.length() == 0 || JAVASCRIPT_TYPES.contains(type);
+  }
+
+  private boolean minifyInlineScript(Element scriptTag) {
+    String script = scriptTag.getTextContent();
+    // Leave scripts hidden in HTML comments alone, browsers treat the markers as line comments
+    if (script.contains("<!--")) {
+      return false;
+    }
+    String minified = jsMinifier.minify(script);
+    if (minified.equals(script)) {
+      return false;
+    }
+    scriptTag.setTextContent(minified);
+    return true;
+  }
+
   protected boolean rewriteContentReferences(List<Element> elementList,
       ContentRewriterFeature feature, Uri gadgetUri, Uri contentBase) {
     boolean mutated = false;
@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
+/**
+ * Minifies JavaScript by removing comments and whitespace, following Douglas Crockford's JSMin.
+ *
+ * Like JSMin this works on characters rather than a parse tree, so identifiers are not renamed
+ * and statements are not rewritten. Whitespace is only removed where it can not separate tokens,
+ * and line breaks are kept where semicolon insertion could depend on them. Strings, template
+ * literals with their substitutions, and regular expressions are copied character for character.
+ * A slash starts a regular expression after an operator, a bracket or a keyword such as return.
+ * Scripts that use conditional compilation are returned unchanged, as that lives in comments.
+ */
+public final class JsMinifier {
+
+  private static final int EOF = -1;
+
+  // Keywords that can be followed by a regular expression, but not by a division.
+  private static final Set<String> REGEX_KEYWORDS = ImmutableSet.of("return", "typeof",
+      "instanceof", "in", "of", "new", "delete", "void", "throw", "case", "do", "else", "yield",
+      "await");
+
+  private final String js;
+  private final StringBuilder out;
+  private int pos;
+  private int theA;
+  private int theB;
+  private int theX = EOF;
+  private int theY = EOF;
+  private int lookahead = EOF;
+
+  private JsMinifier(String js) {
+    this.js = js;
+    this.out = new StringBuilder(js.length());
+  }
+
+  /**
+   * @param js the script
+   * @return the minified script
+   * @throws IllegalArgumentException if the script has an unterminated comment, string, template
+   *     or regular expression, which would make the minified output differ in meaning.
+   */
+  public static String minify(String js) {
+    if (js.contains("@cc_on")) {
+      return js;
+    }
+    JsMinifier minifier = new JsMinifier(js);
+    minifier.run();
+    return minifier.out.toString();
+  }
+
+  private void run() {
+    if (peek() == '\uFEFF') {
+      get();
+    }
+    theA = '\n';
+    action(3);
+    while (theA != EOF) {
+      switch (theA) {
+        case ' ':
+          action(isAlphanum(theB) ? 1 : 2);
+          break;
+        case '\n':
+          switch (theB) {
+            case '{': case '[': case '(': case '+': case '-': case '!': case '~':
+              action(1);
+              break;
+            case ' ':
+              action(3);
+              break;
+            default:
+              action(isAlphanum(theB) ? 1 : 2);
+          }
+          break;
+        default:
+          switch (theB) {
+            case ' ':
+              action(isAlphanum(theA) ? 1 : 3);
+              break;
+            case '\n':
+              switch (theA) {
+                case '}': case ']': case ')': case '+': case '-': case '"': case '\'': case '`':
+                  action(1);
+                  break;
+                default:
+                  action(isAlphanum(theA) ? 1 : 3);
+              }
+              break;
+            default:
+              action(1);
+          }
+      }
+    }
+    // The output starts with the line break that primes theA
+    if (out.length() > 0 && out.charAt(0) == '\n') {
+      out.deleteCharAt(0);
+    }
+  }
+
+  /**
+   * 1: Output A, copy B to A, get the next B.
+   * 2: Copy B to A, get the next B. (Delete A).
+   * 3: Get the next B. (Delete B).
+   * Strings, templates and regular expressions are copied whole.
+   */
+  private void action(int d) {
+    if (d <= 1) {
+      put(theA);
+      if ((theY == '\n' || theY == ' ') && isOperator(theA) && isOperator(theB)) {
+        // Keep "a + +b" and "a - -b" from becoming increments
+        put(theY);
+      }
+    }
+    if (d <= 2) {
+      theA = theB;
+      if (theA == '\'' || theA == '"') {
+        put(theA);
+        copyString(theA);
+      } else if (theA == '`') {
+        put(theA);
+        copyTemplate();
+      }
+    }
+    theB = next();
+    if (theB == '/' && (isRegexPrefix(theA) || followsKeyword())) {
+      put(theA);
+      if (theA == '/' || theA == '*') {
+        put(' ');
+      }
+      put(theB);
+      copyRegex();
+      theA = '/';
+      int p = peek();
+      if (p == '/' || p == '*') {
+        throw new IllegalArgumentException("Unterminated set in regular expression");
+      }
+      theB = next();
+    }
+  }
+
+  /**
+   * @return true if theA ends a keyword, or is the space after one
+   */
+  private boolean followsKeyword() {
+    if (theA != ' ' && theA != '\n' && !isAlphanum(theA)) {
+      return false;
+    }
+    int start = out.length();
+    while (start > 0 && isAlphanum(out.charAt(start - 1))) {
+      start--;
+    }
+    if (start > 0 && out.charAt(start - 1) == '.') {
+      // A property, not a keyword
+      return false;
+    }
+    String word = out.substring(start);
+    if (isAlphanum(theA)) {
+      word += (char) theA;
+    }
+    return REGEX_KEYWORDS.contains(word);
+  }
+
+  /**
+   * Copies the rest of a string, after its opening quote, up to the closing quote. The closing
+   * quote is read but not written.
+   */
+  private void copyString(int quote) {
+    for (;;) {
+      int c = read();
+      if (c == quote) {
+        return;
+      }
+      if (c == EOF || c == '\n' || c == '\r') {
+        throw new IllegalArgumentException("Unterminated string literal");
+      }
+      put(c);
+      if (c == '\\') {
+        copyEscaped();
+      }
+    }
+  }
+
+  /**
+   * Copies the rest of a template, after its opening backtick, up to the closing backtick.
+   * Substitutions are copied as they are. The closing backtick is read but not written.
+   */
+  private void copyTemplate() {
+    for (;;) {
+      int c = read();
+      if (c == '`') {
+        return;
+      }
+      if (c == EOF) {
+        throw new IllegalArgumentException("Unterminated template literal");
+      }
+      put(c);
+      if (c == '\\') {
+        copyEscaped();
+      } else if (c == '$' && peek() == '{') {
+        put(read());
+        copySubstitution();
+      }
+    }
+  }
+
+  /**
+   * Copies the rest of a template substitution, after its opening brace, up to and including the
+   * closing brace. Strings, templates, comments and regular expressions in it are skipped over,
+   * so their braces and backticks are not counted.
+   */
+  private void copySubstitution() {
+    int depth = 0;
+    int last = '{';
+    for (;;) {
+      int c = read();
+      if (c == EOF) {
+        throw new IllegalArgumentException("Unterminated template literal");
+      }
+      put(c);
+      switch (c) {
+        case '{':
+          depth++;
+          break;
+        case '}':
+          if (depth == 0) {
+            return;
+          }
+          depth--;
+          break;
+        case '\'': case '"':
+          copyString(c);
+          put(c);
+          break;
+        case '`':
+          copyTemplate();
+          put(c);
+          break;
+        case '/':
+          int p = peek();
+          if (p == '/' || p == '*') {
+            copyComment();
+          } else if (isRegexPrefix(last)) {
+            copyRegex();
+            put(c);
+          }
+          break;
+        default:
+          break;
+      }
+      if (c > ' ') {
+        last = c;
+      }
+    }
+  }
+
+  /**
+   * Copies a comment, after its first slash.
+   */
+  private void copyComment() {
+    boolean block = read() == '*';
+    put(block ? '*' : '/');
+    int prev = EOF;
+    for (;;) {
+      int c = read();
+      if (c == EOF) {
+        if (block) {
+          throw new IllegalArgumentException("Unterminated comment");
+        }
+        return;
+      }
+      put(c);
+      if (block ? prev == '*' && c == '/' : c == '\n' || c == '\r') {
+        return;
+      }
+      prev = c;
+    }
+  }
+
+  /**
+   * Copies the rest of a regular expression, after its opening slash, up to the closing slash.
+   * The closing slash is read but not written.
+   */
+  private void copyRegex() {
+    for (;;) {
+      int c = read();
+      if (c == '/') {
+        return;
+      }
+      if (c == EOF) {
+        throw new IllegalArgumentException("Unterminated regular expression");
+      }
+      put(c);
+      if (c == '[') {
+        for (;;) {
+          c = read();
+          if (c == EOF) {
+            throw new IllegalArgumentException("Unterminated set in regular expression");
+          }
+          put(c);
+          if (c == ']') {
+            break;
+          }
+          if (c == '\\') {
+            copyEscaped();
+          }
+        }
+      } else if (c == '\\') {
+        copyEscaped();
+      }
+    }
+  }
+
+  /**
+   * Copies the character after a backslash.
+   */
+  private void copyEscaped() {
+    int c = read();
+    if (c == EOF) {
+      throw new IllegalArgumentException("Unterminated escape sequence");
+    }
+    put(c);
+  }
+
+  /**
+   * @return the next character, skipping comments
+   */
+  private int next() {
+    int c = get();
+    if (c == '/') {
+      switch (peek()) {
+        case '/':
+          for (;;) {
+            c = get();
+            if (c <= '\n') {
+              break;
+            }
+          }
+          break;
+        case '*':
+          get();
+          while (c != ' ') {
+            switch (get()) {
+              case '*':
+                if (peek() == '/') {
+                  get();
+                  c = ' ';
+                }
+                break;
+              case EOF:
+                throw new IllegalArgumentException("Unterminated comment");
+              default:
+                break;
+            }
+          }
+          break;
+        default:
+          break;
+      }
+    }
+    theY = theX;
+    theX = c;
+    return c;
+  }
+
+  /**
+   * @return the next character, with line breaks as \n and other control characters as spaces
+   */
+  private int get() {
+    return simplify(read());
+  }
+
+  /**
+   * @return the next character as it is, for copying literals
+   */
+  private int read() {
+    int c = lookahead;
+    lookahead = EOF;
+    if (c == EOF && pos < js.length()) {
+      c = js.charAt(pos++);
+    }
+    return c;
+  }
+
+  private int peek() {
+    lookahead = read();
+    return simplify(lookahead);
+  }
+
+  private static int simplify(int c) {
+    if (c >= ' ' || c == '\n' || c == EOF) {
+      return c;
+    }
+    if (c == '\r') {
+      return '\n';
+    }
+    return ' ';
+  }
+
+  private void put(int c) {
+    out.append((char) c);
+  }
+
+  private static boolean isAlphanum(int c) {
+    return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z')
+        || c == '_' || c == '$' || c == '\\' || c > 126;
+  }
+
+  private static boolean isOperator(int c) {
+    return c == '+' || c == '-' || c == '*' || c == '/';
+  }
+
+  private static boolean isRegexPrefix(int c) {
+    switch (c) {
+      case '(': case ',': case '=': case ':': case '[': case '!': case '&': case '|': case '?':
+      case '+': case '-': case '~': case '*': case '/': case '{': case '}': case ';': case '\n':
+        return true;
+      default:
+        return false;
+    }
+  }
+}
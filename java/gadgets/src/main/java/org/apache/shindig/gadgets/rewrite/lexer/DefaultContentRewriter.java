@@ -23,9 +23,10 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.GadgetSpecFactory;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.rewrite.CachingCssRewriter;
+import org.apache.shindig.gadgets.rewrite.CachingJsMinifier;
 import org.apache.shindig.gadgets.rewrite.ContentRewriter;
 import org.apache.shindig.gadgets.rewrite.ContentRewriterFeature;
-import org.apache.shindig.gadgets.rewrite.CssRewriter;
 import org.apache.shindig.gadgets.rewrite.LinkRewriter;
 import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.rewrite.ProxyingLinkRewriter;
@@ -41,6 +42,7 @@ import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -71,6 +73,14 @@ public class DefaultContentRewriter implements ContentRewriter {
 
   private final String concatUrl;
 
+  private final boolean minifyCss;
+
+  private final CachingCssRewriter cssRewriter;
+
+  private final boolean minifyJs;
+
+  private final CachingJsMinifier jsMinifier;
+
   @Inject
   public DefaultContentRewriter(
       GadgetSpecFactory specFactory,
@@ -79,13 +89,21 @@ public class DefaultContentRewriter implements ContentRewriter {
       @Named("shindig.content-rewrite.expires")String expires,
       @Named("shindig.content-rewrite.include-tags")String includeTags,
       @Named("shindig.content-rewrite.proxy-url")String proxyUrl,
-      @Named("shindig.content-rewrite.concat-url")String concatUrl) {
+      @Named("shindig.content-rewrite.concat-url")String concatUrl,
+      @Named("shindig.content-rewrite.minify-css")boolean minifyCss,
+      CachingCssRewriter cssRewriter,
+      @Named("shindig.content-rewrite.minify-js")boolean minifyJs,
+      CachingJsMinifier jsMinifier) {
     this.specFactory = specFactory;
     this.includeUrls = includeUrls;
     this.excludeUrls = excludeUrls;
     this.expires = expires;
     this.proxyUrl = proxyUrl;
     this.concatUrl = concatUrl;
+    this.minifyCss = minifyCss;
+    this.cssRewriter = cssRewriter;
+    this.minifyJs = minifyJs;
+    this.jsMinifier = jsMinifier;
     this.includeTags = Sets.newHashSet();
     for (String s : includeTags.split(",")) {
       if (s != null && s.trim().length() > 0) {
@@ -142,7 +160,8 @@ public class DefaultContentRewriter implements ContentRewriter {
     }
 
     ContentRewriterFeature rewriterFeature
-        = new ContentRewriterFeature(spec, includeUrls, excludeUrls, expires, includeTags);
+        = new ContentRewriterFeature(spec, includeUrls, excludeUrls, expires, includeTags,
+            minifyCss, minifyJs);
 
     if (!rewriterFeature.isRewriteEnabled()) {
       return false;
@@ -161,19 +180,29 @@ public class DefaultContentRewriter implements ContentRewriter {
           transformerMap.put(tag, rewriter);
         }
         if (rewriterFeature.getIncludedTags().contains("style")) {
-          transformerMap.put("style", new StyleTagRewriter(source, linkRewriter));
+          transformerMap.put("style", new StyleTagRewriter(source, linkRewriter, cssRewriter,
+              getLinkRewriterKey(spec, rewriterFeature), rewriterFeature.shouldMinifyCss()));
         }
       }
       if (getConcatUrl() != null && rewriterFeature.getIncludedTags().contains("script")) {
-        transformerMap
-            .put("script", new JavascriptTagMerger(spec, rewriterFeature, getConcatUrl(), source));
+        transformerMap.put("script", new JavascriptTagMerger(spec, rewriterFeature,
+            getConcatUrl(), source, rewriterFeature.shouldMinifyJs() ? jsMinifier : null));
       }
       HtmlRewriter.rewrite(new StringReader(mc.getContent()), source, transformerMap, w);
       return true;
     } else if (isCSS(mimeType)) {
       if (getProxyUrl() != null) {
-        CssRewriter.rewrite(new StringReader(mc.getContent()), source,
-            createLinkRewriter(spec, rewriterFeature), w, false);
+        String css = cssRewriter.rewrite(mc.getContent(), source,
+            createLinkRewriter(spec, rewriterFeature), getLinkRewriterKey(spec, rewriterFeature),
+            rewriterFeature.shouldMinifyCss());
+        write(css, w);
+        return true;
+      } else {
+        return false;
+      }
+    } else if (isJavascript(mimeType)) {
+      if (rewriterFeature.shouldMinifyJs()) {
+        write(jsMinifier.minify(mc.getContent()), w);
         return true;
       } else {
         return false;
@@ -182,6 +211,16 @@ public class DefaultContentRewriter implements ContentRewriter {
     return false;
   }
 
+  private void write(String content, Writer w) {
+    try {
+      w.write(content);
+      w.flush();
+    } catch (IOException ioe) {
+      // Only ever writing to memory
+      throw new RuntimeException(ioe);
+    }
+  }
+
   private boolean isHTML(String mime) {
     return mime != null && (mime.toLowerCase().contains("html"));
   }
@@ -190,6 +229,10 @@ public class DefaultContentRewriter implements ContentRewriter {
     return mime != null && (mime.toLowerCase().contains("css"));
   }
 
+  private boolean isJavascript(String mime) {
+    return mime != null && (mime.toLowerCase().contains("javascript"));
+  }
+
   // TODO: This needs to be per-container
   protected String getProxyUrl() {
     return proxyUrl;
@@ -204,4 +247,12 @@ public class DefaultContentRewriter implements ContentRewriter {
       ContentRewriterFeature rewriterFeature) {
     return new ProxyingLinkRewriter(spec.getUrl(), rewriterFeature, getProxyUrl());
   }
+
+  /**
+   * @return the key that identifies the output of the link rewriter made by
+   *     {@link #createLinkRewriter}, for caching rewritten stylesheets.
+   */
+  protected String getLinkRewriterKey(GadgetSpec spec, ContentRewriterFeature rewriterFeature) {
+    return CachingCssRewriter.getLinkRewriterKey(spec.getUrl(), rewriterFeature, getProxyUrl());
+  }
 }
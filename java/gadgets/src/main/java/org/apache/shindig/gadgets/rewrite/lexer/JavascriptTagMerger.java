@@ -20,6 +20,7 @@ package org.apache.shindig.gadgets.rewrite.lexer;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.common.util.Utf8UrlCoder;
+import org.apache.shindig.gadgets.rewrite.CachingJsMinifier;
 import org.apache.shindig.gadgets.rewrite.ContentRewriterFeature;
 import org.apache.shindig.gadgets.servlet.ProxyBase;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
@@ -50,6 +51,8 @@ public class JavascriptTagMerger implements HtmlTagTransformer {
 
   private final Uri relativeUrlBase;
 
+  private final CachingJsMinifier jsMinifier;
+
   private boolean isTagOpen = true;
 
   /**
@@ -59,6 +62,18 @@ public class JavascriptTagMerger implements HtmlTagTransformer {
    */
   public JavascriptTagMerger(GadgetSpec spec, ContentRewriterFeature rewriterFeature,
                              String concatBase, Uri relativeUrlBase) {
+    this(spec, rewriterFeature, concatBase, relativeUrlBase, null);
+  }
+
+  /**
+   * @param concatBase Base url of the Concat servlet. Expected to be of the
+   *                   form www.host.com/concat?
+   * @param relativeUrlBase to resolve relative urls
+   * @param jsMinifier minifier for inline scripts, or null to leave them as they are
+   */
+  public JavascriptTagMerger(GadgetSpec spec, ContentRewriterFeature rewriterFeature,
+                             String concatBase, Uri relativeUrlBase,
+                             CachingJsMinifier jsMinifier) {
     // Force the mime-type to mimic browser expectation so rewriters
     // can function properly
     this.concatBase = concatBase
@@ -71,6 +86,7 @@ public class JavascriptTagMerger implements HtmlTagTransformer {
         + '&';
 
     this.relativeUrlBase = relativeUrlBase;
+    this.jsMinifier = jsMinifier;
   }
 
   @SuppressWarnings("unchecked")
@@ -112,7 +128,7 @@ public class JavascriptTagMerger implements HtmlTagTransformer {
       } else {
         flushConcat(concat, builder);
         builder.append("<script type=\"text/javascript\">")
-            .append(((Token<HtmlTokenType>) o).text).append("</script>");
+            .append(minify(((Token<HtmlTokenType>) o).text)).append("</script>");
       }
     }
     flushConcat(concat, builder);
@@ -155,6 +171,14 @@ public class JavascriptTagMerger implements HtmlTagTransformer {
     }
   }
 
+  private String minify(String script) {
+    // Leave scripts hidden in HTML comments alone, browsers treat the markers as line comments
+    if (jsMinifier == null || script.contains("<!--")) {
+      return script;
+    }
+    return jsMinifier.minify(script);
+  }
+
   private String stripQuotes(String s) {
     return s.replaceAll("\"", "").replaceAll("'","");
   }
@@ -19,7 +19,7 @@
 package org.apache.shindig.gadgets.rewrite.lexer;
 
 import org.apache.shindig.common.uri.Uri;
-import org.apache.shindig.gadgets.rewrite.CssRewriter;
+import org.apache.shindig.gadgets.rewrite.CachingCssRewriter;
 import org.apache.shindig.gadgets.rewrite.LinkRewriter;
 
 import com.google.caja.lexer.HtmlTokenType;
@@ -32,18 +32,34 @@ public class StyleTagRewriter implements HtmlTagTransformer {
 
   private Uri source;
   private LinkRewriter linkRewriter;
+  private CachingCssRewriter cssRewriter;
+  private String linkRewriterKey;
+  private boolean minify;
 
   private StringBuffer sb;
 
   public StyleTagRewriter(Uri source, LinkRewriter linkRewriter) {
+    this(source, linkRewriter, new CachingCssRewriter(), null, false);
+  }
+
+  /**
+   * @param linkRewriterKey identifies the output of the link rewriter for caching, see
+   *     {@link CachingCssRewriter#rewrite}
+   * @param minify whether to minify the rewritten CSS
+   */
+  public StyleTagRewriter(Uri source, LinkRewriter linkRewriter, CachingCssRewriter cssRewriter,
+      String linkRewriterKey, boolean minify) {
     this.source = source;
     this.linkRewriter = linkRewriter;
+    this.cssRewriter = cssRewriter;
+    this.linkRewriterKey = linkRewriterKey;
+    this.minify = minify;
     sb = new StringBuffer(500);
   }
 
   public void accept(Token<HtmlTokenType> token, Token<HtmlTokenType> lastToken) {
     if (token.type == HtmlTokenType.UNESCAPED) {
-      sb.append(CssRewriter.rewrite(token.text, source, linkRewriter));
+      sb.append(cssRewriter.rewrite(token.text, source, linkRewriter, linkRewriterKey, minify));
     } else {
       sb.append(HtmlRewriter.producePreTokenSeparator(token, lastToken));
       sb.append(token.text);
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import org.apache.shindig.common.servlet.GuiceServletContextListener;
+import org.apache.shindig.gadgets.CacheSnapshotter;
+
+import com.google.inject.Injector;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Warms the caches from the last snapshot when the web application starts, and writes a snapshot
+ * when it stops. Must be listed after GuiceServletContextListener in web.xml.
+ */
+public class CacheSnapshotListener implements ServletContextListener {
+
+  public void contextInitialized(ServletContextEvent event) {
+    CacheSnapshotter snapshotter = getSnapshotter(event);
+    if (snapshotter != null) {
+      snapshotter.start();
+    }
+  }
+
+  public void contextDestroyed(ServletContextEvent event) {
+    CacheSnapshotter snapshotter = getSnapshotter(event);
+    if (snapshotter != null) {
+      snapshotter.stop();
+    }
+  }
+
+  private static CacheSnapshotter getSnapshotter(ServletContextEvent event) {
+    Injector injector = (Injector)
+        event.getServletContext().getAttribute(GuiceServletContextListener.INJECTOR_ATTRIBUTE);
+    if (injector == null) {
+      return null;
+    }
+    return injector.getInstance(CacheSnapshotter.class);
+  }
+}
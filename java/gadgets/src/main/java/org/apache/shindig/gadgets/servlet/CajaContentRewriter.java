@@ -18,9 +18,20 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.cache.SoftExpiringCache;
+import org.apache.shindig.common.cache.SoftExpiringCache.CachedObject;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.CharsetUtil;
+import org.apache.shindig.common.util.HashUtil;
 import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.HttpFetcher;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
 import org.apache.shindig.gadgets.rewrite.ContentRewriter;
 import org.apache.shindig.gadgets.rewrite.MutableContent;
 import org.apache.shindig.gadgets.rewrite.RewriterResults;
@@ -34,17 +45,87 @@ import com.google.caja.reporting.Message;
 import com.google.caja.reporting.MessageContext;
 import com.google.caja.reporting.MessageQueue;
 import com.google.caja.reporting.SimpleMessageQueue;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
 import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
+/**
+ * Cajoles gadgets that ask for it.
+ *
+ * Cajoled output is cached by the gadget url and a checksum of its content, and gadgets that are
+ * being cajoled by one request are not cajoled again by concurrent ones. Output that includes
+ * external scripts is only cached for as long as the shortest lived of the scripts, and failures
+ * are cached for the negative cache ttl, during which the last good output is still used if there
+ * is one. External scripts are fetched through the HttpFetcher, so they are cached with everything
+ * else, and all of a gadget's fetches together have to finish within the configured timeout.
+ * Scripts without a length are read no further than the size limit, and scripts that are said to
+ * be longer aren't read at all.
+ */
+@Singleton
 public class CajaContentRewriter implements ContentRewriter {
+  static final String CAJOLED_DOCUMENTS = "cajoledDocuments";
+
+  /** The largest external script that will be cajoled. */
+  static final int MAX_EXTERNAL_BYTES = 1024 * 1024;
+
+  /**
+   * Identifies the cajoler configuration. Change it whenever the rewriter or the uri callback
+   * change what they produce, so that output cached under the old behavior isn't used.
+   */
+  private static final String CAJOLER_CONFIG = "default-gadget-rewriter;rewrite-all";
+
+  /** How long output without external scripts is cached, it only depends on the key. */
+  static final long NO_EXPIRATION = Long.MAX_VALUE / 2;
+
   private final Logger logger = Logger.getLogger(CajaContentRewriter.class.getName());
 
+  final SoftExpiringCache<String, CajoledDocument> cache;
+  private final HttpFetcher fetcher;
+  private final StreamingHttpFetcher streamingFetcher;
+  private final Executor executor;
+  private final long fetchTimeout;
+  private final long negativeCacheTtl;
+  private final ConcurrentMap<String, FutureTask<CajoledDocument>> inProgress =
+      Maps.newConcurrentHashMap();
+
+  /**
+   * @param fetchTimeout How long, in milliseconds, a gadget's external scripts together may take
+   *     to fetch. 0 is no limit.
+   * @param negativeCacheTtl How long, in milliseconds, a gadget that couldn't be cajoled is left
+   *     alone before it is tried again.
+   */
+  @Inject
+  public CajaContentRewriter(CacheProvider cacheProvider, HttpFetcher fetcher, Executor executor,
+                             @Named("shindig.caja.fetch-timeout") long fetchTimeout,
+                             @Named("shindig.cache.http.negativeCacheTtl") long negativeCacheTtl) {
+    Cache<String, CajoledDocument> baseCache = cacheProvider.createCache(CAJOLED_DOCUMENTS);
+    this.cache = new SoftExpiringCache<String, CajoledDocument>(baseCache);
+    this.fetcher = fetcher;
+    this.streamingFetcher =
+        fetcher instanceof StreamingHttpFetcher ? (StreamingHttpFetcher) fetcher : null;
+    this.executor = executor;
+    this.fetchTimeout = fetchTimeout;
+    this.negativeCacheTtl = negativeCacheTtl;
+  }
+
   public RewriterResults rewrite(HttpRequest req, HttpResponse resp, MutableContent content) {
     return null;
   }
@@ -54,54 +135,261 @@ public class CajaContentRewriter implements ContentRewriter {
         "1".equals(gadget.getContext().getParameter("caja"))) {
 
       final URI retrievedUri = gadget.getContext().getUrl();
-      UriCallback cb = new UriCallback() {
-        public UriCallbackOption getOption(ExternalReference externalReference, String string) {
-          return UriCallbackOption.REWRITE;
+      final String original = content.getContent();
+      String key = retrievedUri.toString() + '\n' + CAJOLER_CONFIG + '\n' +
+          HashUtil.rawChecksum(CharsetUtil.getUtf8Bytes(original));
+      CachedObject<CajoledDocument> cached = cache.getElement(key);
+      CajoledDocument document;
+      if (cached == null || cached.isExpired) {
+        document = cajoleOnce(key, retrievedUri, original, cached == null ? null : cached.obj);
+      } else {
+        document = cached.obj;
+      }
+      if (document == null || document.content == null) {
+        return RewriterResults.notCacheable();
+      }
+      content.setContent(document.content);
+    }
+    return null;
+  }
+
+  /**
+   * Cajoles the content, or waits for a concurrent request that is already cajoling it.
+   *
+   * @param stale The expired output for the same key, if there is one.
+   * @return The output, or null if the request was interrupted.
+   */
+  private CajoledDocument cajoleOnce(final String key, final URI retrievedUri,
+      final String original, final CajoledDocument stale) {
+    Callable<CajoledDocument> cajoling = new Callable<CajoledDocument>() {
+      public CajoledDocument call() {
+        CajoledDocument document = cajole(retrievedUri, original);
+        if (document.content == null && stale != null && stale.content != null) {
+          logger.info("Unable to cajole " + retrievedUri + " again - using cached.");
+          document = new CajoledDocument(stale.content, negativeCacheTtl);
         }
+        cache.addElement(key, document, document.maxAge);
+        return document;
+      }
+    };
+    FutureTask<CajoledDocument> task = new FutureTask<CajoledDocument>(cajoling);
+    FutureTask<CajoledDocument> running = inProgress.putIfAbsent(key, task);
+    if (running == null) {
+      running = task;
+      try {
+        task.run();
+      } finally {
+        inProgress.remove(key, task);
+      }
+    }
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      // Failures surface as they would have without the task.
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
 
-        public Reader retrieve(ExternalReference externalReference, String string)
-            throws UriCallbackException {
-          logger.info("Retrieving " + externalReference.toString());
-          try {
-            Reader in = new InputStreamReader(
-                externalReference.getUri().toURL().openConnection().getInputStream(), "UTF-8");
-            char[] buf = new char[4096];
-            StringBuilder sb = new StringBuilder();
-            for (int n; (n = in.read(buf)) > 0;) {
-              sb.append(buf, 0, n);
-            }
-            return new StringReader(sb.toString());
-          } catch (java.net.MalformedURLException ex) {
-            throw new UriCallbackException(externalReference, ex);
-          } catch (IOException ex) {
-            throw new UriCallbackException(externalReference, ex);
-          }
+  /**
+   * @return The cajoled content and how long it may be cached, which is the negative cache ttl if
+   *     the content couldn't be cajoled.
+   */
+  CajoledDocument cajole(final URI retrievedUri, String original) {
+    final long deadline = fetchTimeout > 0 ? System.currentTimeMillis() + fetchTimeout : 0;
+    // The output is only good for as long as every script that went into it.
+    final AtomicLong maxAge = new AtomicLong(NO_EXPIRATION);
+    UriCallback cb = new UriCallback() {
+      public UriCallbackOption getOption(ExternalReference externalReference, String string) {
+        return UriCallbackOption.REWRITE;
+      }
+
+      public Reader retrieve(ExternalReference externalReference, String string)
+          throws UriCallbackException {
+        logger.info("Retrieving " + externalReference.toString());
+        try {
+          HttpResponse response =
+              fetchScriptResponse(Uri.fromJavaUri(externalReference.getUri()), deadline);
+          maxAge.set(Math.min(maxAge.get(), Math.max(0, response.getCacheTtl())));
+          return new StringReader(response.getResponseAsString());
+        } catch (GadgetException e) {
+          throw new UriCallbackException(externalReference, e);
+        } catch (IllegalArgumentException e) {
+          // Not an absolute http url.
+          throw new UriCallbackException(externalReference, e);
         }
+      }
+
+      public URI rewrite(ExternalReference externalReference, String string) {
+        return retrievedUri.resolve(externalReference.getUri());
+      }
+    };
+
+    MessageQueue mq = new SimpleMessageQueue();
+    DefaultGadgetRewriter rw = new DefaultGadgetRewriter(mq);
+    CharProducer input = CharProducer.Factory.create(
+        new StringReader(original),
+        FilePosition.instance(new InputSource(retrievedUri), 2, 1, 1));
+    StringBuilder output = new StringBuilder();
+
+    try {
+      rw.rewriteContent(retrievedUri, input, cb, output);
+    } catch (GadgetRewriteException e) {
+      throwCajolingException(e, mq);
+      return new CajoledDocument(null, negativeCacheTtl);
+    } catch (IOException e) {
+      throwCajolingException(e, mq);
+      return new CajoledDocument(null, negativeCacheTtl);
+    }
+    return new CajoledDocument(output.toString(), maxAge.get());
+  }
 
-        public URI rewrite(ExternalReference externalReference, String string) {
-          return retrievedUri.resolve(externalReference.getUri());
+  /**
+   * Fetches an external script, giving up at the deadline.
+   *
+   * @param deadline When to give up, in milliseconds since the epoch. 0 is never.
+   * @return The script.
+   * @throws GadgetException If the script couldn't be fetched in time, or isn't usable.
+   */
+  String fetchScript(Uri uri, long deadline) throws GadgetException {
+    return fetchScriptResponse(uri, deadline).getResponseAsString();
+  }
+
+  private HttpResponse fetchScriptResponse(Uri uri, long deadline) throws GadgetException {
+    final HttpRequest request = new HttpRequest(uri);
+    final ScriptSink sink = new ScriptSink();
+    HttpResponse response;
+    if (deadline == 0) {
+      response = fetch(request, sink);
+    } else {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+            "Timed out fetching " + uri);
+      }
+      // Cancelling the task can't interrupt a blocked read, so the read has to time out as well.
+      request.setReadTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+      FutureTask<HttpResponse> task = new FutureTask<HttpResponse>(new Callable<HttpResponse>() {
+        public HttpResponse call() throws GadgetException {
+          return fetch(request, sink);
+        }
+      });
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // The executor is saturated, fetch on this thread without the deadline.
+        task.run();
+      }
+      try {
+        response = task.get(remaining, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        task.cancel(true);
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+            "Timed out fetching " + uri);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof GadgetException) {
+          throw (GadgetException) e.getCause();
         }
-      };
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e.getCause());
+      }
+    }
 
-      MessageQueue mq = new SimpleMessageQueue();
-      DefaultGadgetRewriter rw = new DefaultGadgetRewriter(mq);
-      CharProducer input = CharProducer.Factory.create(
-          new StringReader(content.getContent()),
-          FilePosition.instance(new InputSource(retrievedUri), 2, 1, 1));
-      StringBuilder output = new StringBuilder();
+    if (response == null) {
+      response = sink.response;
+    }
+    if (response.getHttpStatusCode() != HttpResponse.SC_OK || sink.tooLong ||
+        response.getContentLength() > MAX_EXTERNAL_BYTES) {
+      throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+          "Unusable response from " + uri + ", status " + response.getHttpStatusCode() +
+          (sink.tooLong ? ", too long" : ", length " + response.getContentLength()));
+    }
+    return response;
+  }
+
+  /**
+   * @return The buffered response, or null if the sink took it.
+   */
+  private HttpResponse fetch(HttpRequest request, ScriptSink sink) throws GadgetException {
+    if (streamingFetcher != null) {
+      return streamingFetcher.fetch(request, sink);
+    }
+    return fetcher.fetch(request);
+  }
 
+  /**
+   * Leaves scripts of a known, acceptable length to the fetcher to buffer and cache, and reads
+   * any other script no further than the size limit.
+   */
+  private static class ScriptSink implements StreamingHttpFetcher.BodySink {
+    private HttpResponse response;
+    private boolean tooLong;
+
+    public boolean stream(HttpResponse head, InputStream body) throws IOException {
+      long length = getContentLength(head);
+      if (head.getHttpStatusCode() != HttpResponse.SC_OK || length > MAX_EXTERNAL_BYTES) {
+        // Unusable, so there's no need to read the body.
+        tooLong = length > MAX_EXTERNAL_BYTES;
+        response = head;
+        return true;
+      }
+      if (length >= 0) {
+        return false;
+      }
+
+      // One byte more than the limit tells whether the script is too long.
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while (out.size() <= MAX_EXTERNAL_BYTES &&
+          (read = body.read(buffer, 0, Math.min(buffer.length,
+              MAX_EXTERNAL_BYTES + 1 - out.size()))) != -1) {
+        out.write(buffer, 0, read);
+      }
+      tooLong = out.size() > MAX_EXTERNAL_BYTES;
+      response = new HttpResponseBuilder(head).setResponse(out.toByteArray()).create();
+      return true;
+    }
+
+    /**
+     * @return The length the response claims, or -1 if it doesn't say.
+     */
+    private static long getContentLength(HttpResponse head) {
+      String length = head.getHeader("Content-Length");
+      if (length == null) {
+        return -1;
+      }
       try {
-        rw.rewriteContent(retrievedUri, input, cb, output);
-      } catch (GadgetRewriteException e) {
-        throwCajolingException(e, mq);
-        return RewriterResults.notCacheable();
-      } catch (IOException e) {
-        throwCajolingException(e, mq);
-        return RewriterResults.notCacheable();
-      }      
-      content.setContent(output.toString());
+        return Long.parseLong(length.trim());
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+  }
+
+  /**
+   * The output of cajoling some content, and how long it may be cached.
+   */
+  static class CajoledDocument {
+    /** The cajoled content, or null if it couldn't be cajoled. */
+    final String content;
+    final long maxAge;
+
+    CajoledDocument(String content, long maxAge) {
+      this.content = content;
+      this.maxAge = maxAge;
     }
-    return null;
   }
 
   private void throwCajolingException(Exception cause, MessageQueue mq) {
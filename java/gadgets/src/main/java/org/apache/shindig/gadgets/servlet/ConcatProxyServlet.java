@@ -25,6 +25,7 @@ import com.google.inject.Inject;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.*;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Locale;
 import java.util.logging.Level;
@@ -41,12 +42,22 @@ public class ConcatProxyServlet extends InjectedServlet {
       = Logger.getLogger(ConcatProxyServlet.class.getName());
 
   private transient ProxyHandler proxyHandler;
+  private transient RequestSuspender requestSuspender = new BlockingRequestSuspender();
 
   @Inject
   public void setProxyHandler(ProxyHandler proxyHandler) {
     this.proxyHandler = proxyHandler;
   }
 
+  /**
+   * When requests are suspended, the request is dispatched again from the start each time a part
+   * has been fetched, so the output is held back until every part is there.
+   */
+  @Inject(optional = true)
+  public void setRequestSuspender(RequestSuspender requestSuspender) {
+    this.requestSuspender = requestSuspender;
+  }
+
   @Override
   protected void doGet(HttpServletRequest request, HttpServletResponse response)
       throws IOException {
@@ -63,33 +74,42 @@ public class ConcatProxyServlet extends InjectedServlet {
           Integer.valueOf(request.getParameter(ProxyBase.REFRESH_PARAM)));
     }
     response.setHeader("Content-Disposition", "attachment;filename=p.txt");
+    HttpServletResponse output = response;
+    BufferingResponseWrapper buffer = null;
+    if (requestSuspender.isAsynchronous()) {
+      buffer = new BufferingResponseWrapper(response);
+      output = buffer;
+    }
     for (int i = 1; i < Integer.MAX_VALUE; i++) {
       String url = request.getParameter(Integer.toString(i));
       if (url == null) {
         break;
       }
       try {
-        response.getOutputStream().println("/* ---- Start " + url + " ---- */");
+        output.getOutputStream().println("/* ---- Start " + url + " ---- */");
 
-        ResponseWrapper wrapper = new ResponseWrapper(response);
+        ResponseWrapper wrapper = new ResponseWrapper(output);
         proxyHandler.fetch(new RequestWrapper(request, url), wrapper);
 
         if (wrapper.getStatus() != HttpServletResponse.SC_OK) {
-          response.getOutputStream().println(
+          output.getOutputStream().println(
               formatHttpError(wrapper.getStatus(), wrapper.getErrorMessage()));
         }
 
-        response.getOutputStream().println("/* ---- End " + url + " ---- */");
+        output.getOutputStream().println("/* ---- End " + url + " ---- */");
       } catch (GadgetException ge) {
         if (ge.getCode() != GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT) {
           outputError(ge, url, response);
           return;
         } else {
-          response.getOutputStream().println("/* ---- End " + url + " 404 ---- */");
+          output.getOutputStream().println("/* ---- End " + url + " 404 ---- */");
         }
       }
     }
     response.setStatus(200);
+    if (buffer != null) {
+      buffer.writeTo(response.getOutputStream());
+    }
   }
 
   private String formatHttpError(int status, String errorMessage) {
@@ -260,6 +280,41 @@ public class ConcatProxyServlet extends InjectedServlet {
     }
   }
 
+  /**
+   * Holds the output back, so that nothing is written until every part has been fetched.
+   */
+  private static class BufferingResponseWrapper extends HttpServletResponseWrapper {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        buffer.write(b);
+      }
+
+      @Override
+      public void write(byte b[], int off, int len) {
+        buffer.write(b, off, len);
+      }
+    };
+
+    private BufferingResponseWrapper(HttpServletResponse httpServletResponse) {
+      super(httpServletResponse);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      return outputStream;
+    }
+
+    @Override
+    public void flushBuffer() {
+    }
+
+    private void writeTo(ServletOutputStream out) throws IOException {
+      buffer.writeTo(out);
+    }
+  }
+
   /**
    * Small ServletOutputStream class, overriding just enough to ensure
    * there's no output.
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.CacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.HashUtil;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.apache.commons.io.IOUtils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Makes proxied images smaller, using only the JDK's image libraries.
+ *
+ * PNG images are re-encoded, GIF images are converted to PNG, and JPEG images are recompressed at
+ * a configured quality. Metadata is never written out, and images are scaled down to fit a
+ * requested size. JPEG images with an ICC profile or an EXIF orientation are left alone, since
+ * they would display differently without it. An optimized image is only served if it is smaller
+ * than the original, and the outcome is cached by source url, requested size and a checksum of the
+ * original.
+ */
+@Singleton
+public class ImageOptimizer {
+  private static final Logger logger = Logger.getLogger(ImageOptimizer.class.getName());
+
+  static final String OPTIMIZED_IMAGES = "optimizedImages";
+
+  /** Images smaller than this are not worth re-encoding unless they are resized. */
+  static final int MIN_OPTIMIZE_BYTES = 1024;
+
+  private static final String PNG = "image/png";
+  private static final String JPEG = "image/jpeg";
+  private static final String GIF = "image/gif";
+
+  private static final int JPEG_APP1 = 0xe1;
+  private static final int JPEG_APP2 = 0xe2;
+  private static final int JPEG_SOS = 0xda;
+  private static final int JPEG_EOI = 0xd9;
+  private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+  private static final byte[] ICC_HEADER =
+      {'I', 'C', 'C', '_', 'P', 'R', 'O', 'F', 'I', 'L', 'E', 0};
+  private static final int EXIF_ORIENTATION = 0x0112;
+
+  /** Cached for images that couldn't be made any smaller. */
+  private static final OptimizedImage NOT_SMALLER = new OptimizedImage(null, null);
+
+  private final float jpegQuality;
+  private final int maxPixels;
+  private Cache<String, OptimizedImage> cache;
+
+  /**
+   * @param jpegQuality The quality, from 1 to 100, that JPEG images are recompressed at.
+   * @param maxPixels The largest image, in pixels, that will be decoded.
+   */
+  @Inject
+  public ImageOptimizer(@Named("shindig.image.jpeg-quality") int jpegQuality,
+                        @Named("shindig.image.max-pixels") int maxPixels) {
+    this.jpegQuality = Math.max(1, Math.min(100, jpegQuality)) / 100f;
+    this.maxPixels = maxPixels;
+  }
+
+  @Inject
+  public void setCacheProvider(CacheProvider cacheProvider) {
+    cache = cacheProvider.createCache(OPTIMIZED_IMAGES);
+  }
+
+  /**
+   * Optimizes an image response.
+   *
+   * @param url The url the image was fetched from.
+   * @param response The image.
+   * @param width The width to scale the image down to fit, or 0 for any width.
+   * @param height The height to scale the image down to fit, or 0 for any height.
+   * @return The optimized image, or the original response if it isn't an image that could be
+   *     made smaller.
+   */
+  public HttpResponse optimize(Uri url, HttpResponse response, int width, int height) {
+    String contentType = getImageType(response.getHeader("Content-Type"));
+    if (contentType == null || response.getHttpStatusCode() != HttpResponse.SC_OK) {
+      return response;
+    }
+    width = Math.max(width, 0);
+    height = Math.max(height, 0);
+    boolean resize = width > 0 || height > 0;
+    if (!resize && response.getContentLength() < MIN_OPTIMIZE_BYTES) {
+      return response;
+    }
+
+    byte[] original;
+    try {
+      original = IOUtils.toByteArray(response.getResponse());
+    } catch (IOException e) {
+      // Can't happen, the body is in memory.
+      return response;
+    }
+
+    String key = null;
+    OptimizedImage optimized = null;
+    if (cache != null && cache.getCapacity() != 0) {
+      key = url.toString() + '\n' + width + '\n' + height + '\n' + HashUtil.rawChecksum(original);
+      optimized = cache.getElement(key);
+    }
+    if (optimized == null) {
+      optimized = optimize(url, original, contentType, width, height);
+      if (key != null) {
+        cache.addElement(key, optimized);
+      }
+    }
+
+    if (optimized == NOT_SMALLER) {
+      return response;
+    }
+    return new HttpResponseBuilder(response)
+        .setResponse(optimized.bytes)
+        .setHeader("Content-Type", optimized.contentType)
+        .create();
+  }
+
+  private OptimizedImage optimize(Uri url, byte[] original, String contentType, int width,
+      int height) {
+    if (JPEG.equals(contentType) && hasDisplayMetadata(original)) {
+      return NOT_SMALLER;
+    }
+    try {
+      BufferedImage image = read(original);
+      if (image == null) {
+        return NOT_SMALLER;
+      }
+      image = scaleToFit(image, width, height);
+
+      byte[] bytes;
+      String resultType;
+      if (JPEG.equals(contentType)) {
+        bytes = writeJpeg(image);
+        resultType = JPEG;
+      } else {
+        // GIF has no more compact lossless encoding than PNG, and PNG can represent all of it.
+        bytes = writePng(image);
+        resultType = PNG;
+      }
+      if (bytes == null || bytes.length >= original.length) {
+        return NOT_SMALLER;
+      }
+      return new OptimizedImage(resultType, bytes);
+    } catch (IOException e) {
+      logger.log(Level.FINE, "Unable to optimize image " + url, e);
+    } catch (RuntimeException e) {
+      // The image decoders throw all sorts of runtime exceptions on bad input.
+      logger.log(Level.FINE, "Unable to optimize image " + url, e);
+    }
+    return NOT_SMALLER;
+  }
+
+  /**
+   * @return The first and only frame of the image, or null if the image is animated, too big,
+   *     or in a format that can't be read.
+   */
+  private BufferedImage read(byte[] original) throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(original));
+    Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+    if (!readers.hasNext()) {
+      return null;
+    }
+    ImageReader reader = readers.next();
+    try {
+      reader.setInput(input, false, true);
+      if (reader.getNumImages(true) != 1) {
+        return null;
+      }
+      // Check the size before decoding, a small file can hold a huge image.
+      if ((long) reader.getWidth(0) * reader.getHeight(0) > maxPixels) {
+        return null;
+      }
+      return reader.read(0);
+    } finally {
+      reader.dispose();
+      input.close();
+    }
+  }
+
+  /**
+   * Scales the image down, keeping its aspect ratio, so that it fits in width by height.
+   */
+  private static BufferedImage scaleToFit(BufferedImage image, int width, int height) {
+    int originalWidth = image.getWidth();
+    int originalHeight = image.getHeight();
+    double scale = 1.0;
+    if (width > 0) {
+      scale = Math.min(scale, (double) width / originalWidth);
+    }
+    if (height > 0) {
+      scale = Math.min(scale, (double) height / originalHeight);
+    }
+    if (scale >= 1.0) {
+      return image;
+    }
+    int targetWidth = Math.max(1, (int) Math.round(originalWidth * scale));
+    int targetHeight = Math.max(1, (int) Math.round(originalHeight * scale));
+    int type = image.getColorModel().hasAlpha()
+        ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+    BufferedImage result = image;
+    int currentWidth = originalWidth;
+    int currentHeight = originalHeight;
+    do {
+      // Halving at most at each step keeps bilinear filtering from skipping pixels.
+      currentWidth = Math.max(currentWidth / 2, targetWidth);
+      currentHeight = Math.max(currentHeight / 2, targetHeight);
+      BufferedImage next = new BufferedImage(currentWidth, currentHeight, type);
+      Graphics2D graphics = next.createGraphics();
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+          RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(result, 0, 0, currentWidth, currentHeight, null);
+      graphics.dispose();
+      result = next;
+    } while (currentWidth != targetWidth || currentHeight != targetHeight);
+    return result;
+  }
+
+  private static byte[] writePng(BufferedImage image) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!ImageIO.write(image, "png", out)) {
+      return null;
+    }
+    return out.toByteArray();
+  }
+
+  private byte[] writeJpeg(BufferedImage image) throws IOException {
+    if (image.getColorModel().hasAlpha()) {
+      BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(),
+          BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = opaque.createGraphics();
+      graphics.drawImage(image, 0, 0, null);
+      graphics.dispose();
+      image = opaque;
+    }
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+    if (!writers.hasNext()) {
+      return null;
+    }
+    ImageWriter writer = writers.next();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageOutputStream output = ImageIO.createImageOutputStream(out);
+    try {
+      ImageWriteParam param = writer.getDefaultWriteParam();
+      param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      param.setCompressionQuality(jpegQuality);
+      writer.setOutput(output);
+      // No metadata, so none of the original's EXIF or comments are carried over. Images whose
+      // metadata changes how they display aren't re-encoded at all.
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+      output.close();
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return True if the JPEG has an ICC profile, or an EXIF orientation other than the default.
+   */
+  private static boolean hasDisplayMetadata(byte[] jpeg) {
+    // The metadata segments come after the start of image marker and before the start of scan.
+    int pos = 2;
+    while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xff) == 0xff) {
+      int marker = jpeg[pos + 1] & 0xff;
+      if (marker == 0xff) {
+        // Fill byte.
+        pos++;
+        continue;
+      }
+      if (marker == JPEG_SOS || marker == JPEG_EOI) {
+        break;
+      }
+      int length = readUnsignedShort(jpeg, pos + 2, true);
+      int start = pos + 4;
+      int end = pos + 2 + length;
+      if (length < 2 || end > jpeg.length) {
+        break;
+      }
+      if (marker == JPEG_APP2 && startsWith(jpeg, start, end, ICC_HEADER)) {
+        return true;
+      }
+      if (marker == JPEG_APP1 && startsWith(jpeg, start, end, EXIF_HEADER) &&
+          getExifOrientation(jpeg, start + EXIF_HEADER.length, end) > 1) {
+        return true;
+      }
+      pos = end;
+    }
+    return false;
+  }
+
+  /**
+   * @return The orientation in the first IFD of the TIFF structure of an EXIF segment, or 0 if
+   *     there is none.
+   */
+  private static int getExifOrientation(byte[] data, int tiff, int end) {
+    if (tiff + 8 > end) {
+      return 0;
+    }
+    boolean bigEndian;
+    if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+      bigEndian = true;
+    } else if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+      bigEndian = false;
+    } else {
+      return 0;
+    }
+    long offset = readUnsignedInt(data, tiff + 4, bigEndian);
+    if (offset < 8 || tiff + offset + 2 > end) {
+      return 0;
+    }
+    int ifd = tiff + (int) offset;
+    int entries = readUnsignedShort(data, ifd, bigEndian);
+    for (int i = 0; i < entries; i++) {
+      int entry = ifd + 2 + i * 12;
+      if (entry + 12 > end) {
+        break;
+      }
+      if (readUnsignedShort(data, entry, bigEndian) == EXIF_ORIENTATION) {
+        // A SHORT, left justified in the value field.
+        return readUnsignedShort(data, entry + 8, bigEndian);
+      }
+    }
+    return 0;
+  }
+
+  private static int readUnsignedShort(byte[] data, int pos, boolean bigEndian) {
+    int first = data[pos] & 0xff;
+    int second = data[pos + 1] & 0xff;
+    return bigEndian ? first << 8 | second : second << 8 | first;
+  }
+
+  private static long readUnsignedInt(byte[] data, int pos, boolean bigEndian) {
+    long first = readUnsignedShort(data, pos, bigEndian);
+    long second = readUnsignedShort(data, pos + 2, bigEndian);
+    return bigEndian ? first << 16 | second : second << 16 | first;
+  }
+
+  private static boolean startsWith(byte[] data, int start, int end, byte[] prefix) {
+    if (end - start < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (data[start + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The canonical type of the images that can be optimized, or null for anything else.
+   */
+  private static String getImageType(String contentType) {
+    if (contentType == null) {
+      return null;
+    }
+    int semicolon = contentType.indexOf(';');
+    if (semicolon != -1) {
+      contentType = contentType.substring(0, semicolon);
+    }
+    contentType = contentType.trim().toLowerCase();
+    if (contentType.equals(PNG)) {
+      return PNG;
+    }
+    if (contentType.equals(GIF)) {
+      return GIF;
+    }
+    if (contentType.equals(JPEG) || contentType.equals("image/jpg") ||
+        contentType.equals("image/pjpeg")) {
+      return JPEG;
+    }
+    return null;
+  }
+
+  private static class OptimizedImage {
+    private final String contentType;
+    private final byte[] bytes;
+
+    private OptimizedImage(String contentType, byte[] bytes) {
+      this.contentType = contentType;
+      this.bytes = bytes;
+    }
+  }
+}
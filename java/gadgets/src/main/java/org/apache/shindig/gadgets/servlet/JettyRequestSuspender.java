@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import org.apache.shindig.gadgets.BoundedExecutor;
+import org.apache.shindig.gadgets.GadgetException;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import org.mortbay.util.ajax.Continuation;
+import org.mortbay.util.ajax.ContinuationSupport;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Suspends requests with Jetty 6 continuations while their work runs on the fetch pool.
+ *
+ * With a connector that supports continuations, such as the SelectChannelConnector, the request's
+ * thread goes back to the container while the work runs. With other connectors the request's
+ * thread waits, as it would without this class.
+ *
+ * To use this, bind RequestSuspender to this class in a module that is only installed when
+ * running in Jetty.
+ */
+@Singleton
+public class JettyRequestSuspender implements RequestSuspender {
+  private static final String OUTCOME_ATTRIBUTE = JettyRequestSuspender.class.getName() + '.';
+
+  private final ExecutorService executor;
+  private final long timeout;
+
+  /**
+   * @param executor Runs the work.
+   * @param timeout The longest, in milliseconds, that a request is suspended for.
+   */
+  @Inject
+  public JettyRequestSuspender(@Named(BoundedExecutor.FETCH) ExecutorService executor,
+                               @Named("shindig.servlet.suspend-timeout") long timeout) {
+    this.executor = executor;
+    this.timeout = timeout;
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> T execute(HttpServletRequest request, String key, Callable<T> work)
+      throws GadgetException {
+    String attribute = OUTCOME_ATTRIBUTE + key;
+    Outcome<T> outcome = (Outcome<T>) request.getAttribute(attribute);
+    if (outcome != null) {
+      // The work finished, or timed out, and this is the dispatch that it resumed. The
+      // continuation is cleared so that the request can be suspended again for other work.
+      outcome.continuation.reset();
+      return outcome.get();
+    }
+
+    outcome = new Outcome<T>(work);
+    outcome.continuation = ContinuationSupport.getContinuation(request, outcome);
+    outcome.continuation.reset();
+    request.setAttribute(attribute, outcome);
+    try {
+      executor.execute(outcome);
+    } catch (RejectedExecutionException e) {
+      request.removeAttribute(attribute);
+      throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, e);
+    }
+
+    synchronized (outcome) {
+      if (!outcome.done) {
+        // Throws Jetty's RetryRequest when the connector supports continuations, otherwise
+        // waits on the outcome until the work is done.
+        outcome.continuation.suspend(timeout);
+      }
+    }
+    return outcome.get();
+  }
+
+  public boolean isAsynchronous() {
+    return true;
+  }
+
+  /**
+   * The result of work for a request. The outcome is also the continuation's mutex, and is
+   * locked around suspending and resuming so that a resume can't be missed.
+   */
+  private static class Outcome<T> implements Runnable {
+    private final Callable<T> work;
+    private Continuation continuation;
+    private boolean done;
+    private boolean abandoned;
+    private T result;
+    private Exception error;
+
+    private Outcome(Callable<T> work) {
+      this.work = work;
+    }
+
+    public void run() {
+      T value = null;
+      Exception failure = null;
+      try {
+        value = work.call();
+      } catch (Exception e) {
+        failure = e;
+      }
+      synchronized (this) {
+        result = value;
+        error = failure;
+        done = true;
+        if (!abandoned) {
+          continuation.resume();
+        }
+      }
+    }
+
+    private synchronized T get() throws GadgetException {
+      if (!done) {
+        // Work that finishes late must not resume the request while it waits for other work.
+        abandoned = true;
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT,
+            "Timed out waiting for the response");
+      }
+      if (error instanceof GadgetException) {
+        throw (GadgetException) error;
+      }
+      if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      }
+      if (error != null) {
+        throw new GadgetException(GadgetException.Code.INTERNAL_SERVER_ERROR, error);
+      }
+      return result;
+    }
+  }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.shindig.gadgets.servlet;
 
+import org.apache.shindig.gadgets.BoundedExecutor;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.UrlGenerator;
@@ -31,6 +32,7 @@ import org.apache.shindig.gadgets.spec.View;
 
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.name.Named;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -44,6 +46,7 @@ import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Processes JSON-RPC requests by retrieving all necessary meta data in parallel and coalescing into
@@ -55,7 +58,8 @@ public class JsonRpcHandler {
   private final UrlGenerator urlGenerator;
 
   @Inject
-  public JsonRpcHandler(ExecutorService executor, Processor processor, UrlGenerator urlGenerator) {
+  public JsonRpcHandler(@Named(BoundedExecutor.RPC) ExecutorService executor, Processor processor,
+      UrlGenerator urlGenerator) {
     this.executor = executor;
     this.processor = processor;
     this.urlGenerator = urlGenerator;
@@ -87,14 +91,24 @@ public class JsonRpcHandler {
     // service instead of a threaded one we would just block.
     CompletionService<JSONObject> processor =  new ExecutorCompletionService<JSONObject>(executor);
 
+    JSONObject response = new JSONObject();
+
+    int numJobs = 0;
     for (GadgetContext context : gadgets) {
-      processor.submit(new Job(context));
+      try {
+        processor.submit(new Job(context));
+        numJobs++;
+      } catch (RejectedExecutionException e) {
+        // The server is overloaded, so fail this gadget straight away rather than queue it.
+        try {
+          response.append("gadgets", createErrorJson(context, "Server is busy, please retry."));
+        } catch (JSONException je) {
+          throw new RpcException("Unable to write JSON", je);
+        }
+      }
     }
 
-    JSONObject response = new JSONObject();
-
-    int numJobs = gadgets.size();
-    do {
+    while (numJobs > 0) {
       try {
         JSONObject gadget = processor.take().get();
         response.append("gadgets", gadget);
@@ -107,12 +121,8 @@ public class JsonRpcHandler {
         RpcException e = (RpcException)ee.getCause();
         // Just one gadget failed; mark it as such.
         try {
-          GadgetContext context = e.getContext();
-          JSONObject errorObj = new JSONObject();
-          errorObj.put("url", context.getUrl())
-                  .put("moduleId", context.getModuleId());
-          errorObj.append("errors", e.getCause().getLocalizedMessage());
-          response.append("gadgets", errorObj);
+          response.append("gadgets",
+              createErrorJson(e.getContext(), e.getCause().getLocalizedMessage()));
         } catch (JSONException je) {
           throw new RpcException("Unable to write JSON", je);
         }
@@ -121,10 +131,18 @@ public class JsonRpcHandler {
       } finally {
         numJobs--;
       }
-    } while (numJobs > 0);
+    }
     return response;
   }
 
+  private JSONObject createErrorJson(GadgetContext context, String message) throws JSONException {
+    JSONObject errorObj = new JSONObject();
+    errorObj.put("url", context.getUrl())
+            .put("moduleId", context.getModuleId());
+    errorObj.append("errors", message);
+    return errorObj;
+  }
+
   private class Job implements Callable<JSONObject> {
     private final GadgetContext context;
 
@@ -39,6 +39,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -64,6 +65,8 @@ public class MakeRequestHandler extends ProxyBase {
 
   private final ContentFetcherFactory contentFetcherFactory;
   private final ContentRewriterRegistry contentRewriterRegistry;
+  private FeedProcessor feedProcessor = new FeedProcessor();
+  private RequestSuspender requestSuspender = new BlockingRequestSuspender();
 
   @Inject
   public MakeRequestHandler(ContentFetcherFactory contentFetcherFactory,
@@ -72,16 +75,35 @@ public class MakeRequestHandler extends ProxyBase {
     this.contentRewriterRegistry = contentRewriterRegistry;
   }
 
+  @Inject
+  public void setFeedProcessor(FeedProcessor feedProcessor) {
+    this.feedProcessor = feedProcessor;
+  }
+
+  /**
+   * Fetches are run through the suspender, so that requests don't hold a thread while the remote
+   * site responds.
+   */
+  @Inject(optional = true)
+  public void setRequestSuspender(RequestSuspender requestSuspender) {
+    this.requestSuspender = requestSuspender;
+  }
+
   /**
    * Executes a request, returning the response as JSON to be handled by makeRequest.
    */
   @Override
   public void fetch(HttpServletRequest request, HttpServletResponse response)
       throws GadgetException, IOException {
-    HttpRequest rcr = buildHttpRequest(request);
+    final HttpRequest rcr = buildHttpRequest(request);
 
-    // Serialize the response
-    HttpResponse results = contentFetcherFactory.fetch(rcr);
+    // Fetch the response
+    HttpResponse results = requestSuspender.execute(request, rcr.getUri().toString(),
+        new Callable<HttpResponse>() {
+          public HttpResponse call() throws GadgetException {
+            return contentFetcherFactory.fetch(rcr);
+          }
+        });
 
     // Rewrite the response
     if (contentRewriterRegistry != null) {
@@ -219,6 +241,6 @@ public class MakeRequestHandler extends ProxyBase {
       throws GadgetException {
     boolean getSummaries = Boolean.parseBoolean(getParameter(req, GET_SUMMARIES_PARAM, "false"));
     int numEntries = Integer.parseInt(getParameter(req, NUM_ENTRIES_PARAM, DEFAULT_NUM_ENTRIES));
-    return new FeedProcessor().process(url, xml, getSummaries, numEntries).toString();
+    return feedProcessor.processToString(url, xml, getSummaries, numEntries);
   }
 }
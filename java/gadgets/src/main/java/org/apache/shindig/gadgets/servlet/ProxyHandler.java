@@ -24,6 +24,7 @@ import org.apache.shindig.gadgets.LockedDomainService;
 import org.apache.shindig.gadgets.http.HttpFetcher;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
 import org.apache.shindig.gadgets.rewrite.ContentRewriterRegistry;
 
 import com.google.common.collect.Sets;
@@ -31,14 +32,17 @@ import com.google.common.collect.ImmutableSet;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -56,7 +60,21 @@ public class ProxyHandler extends ProxyBase {
       "vary", "expires", "date", "pragma", "cache-control"
   );
 
+  // Streamed responses are passed through byte for byte, so their length and ranges still hold.
+  private static final Set<String> DISALLOWED_STREAMED_RESPONSE_HEADERS = ImmutableSet.copyOf(
+      Sets.difference(DISALLOWED_RESPONSE_HEADERS, ImmutableSet.of("content-length",
+          "accept-ranges")));
+
+  // Types that no rewriter touches, and that are commonly large.
+  private static final String[] STREAMED_CONTENT_TYPES = {
+      "audio/", "video/", "application/x-shockwave-flash", "application/octet-stream",
+      "application/pdf", "application/zip"
+  };
+
+  private static final int DEFAULT_STREAMING_THRESHOLD = 1024 * 1024;
+
   private final HttpFetcher fetcher;
+  private final StreamingHttpFetcher streamingFetcher;
   private final LockedDomainService lockedDomainService;
   private final ContentRewriterRegistry contentRewriterRegistry;
 
@@ -65,10 +83,56 @@ public class ProxyHandler extends ProxyBase {
                       LockedDomainService lockedDomainService,
                       ContentRewriterRegistry contentRewriterRegistry) {
     this.fetcher = fetcher;
+    this.streamingFetcher =
+        fetcher instanceof StreamingHttpFetcher ? (StreamingHttpFetcher) fetcher : null;
     this.lockedDomainService = lockedDomainService;
     this.contentRewriterRegistry = contentRewriterRegistry;
   }
 
+  private int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+  private ImageOptimizer imageOptimizer;
+  private RequestSuspender requestSuspender = new BlockingRequestSuspender();
+
+  /**
+   * Responses of a type that isn't rewritten and at least this many bytes long, or of unknown
+   * length, are streamed to the client instead of being buffered and cached. Negative values turn
+   * streaming off.
+   */
+  @Inject(optional = true)
+  public void setStreamingThreshold(@Named("shindig.proxy.streaming-threshold") int threshold) {
+    this.streamingThreshold = threshold;
+  }
+
+  /**
+   * Proxied images are made smaller, and scaled down to the size given by the resize parameters.
+   */
+  @Inject(optional = true)
+  public void setImageOptimizer(ImageOptimizer imageOptimizer) {
+    this.imageOptimizer = imageOptimizer;
+  }
+
+  /**
+   * Fetches are run through the suspender, so that requests don't hold a thread while the remote
+   * site responds. Responses are not streamed when requests are suspended, because nothing can be
+   * written to a suspended request as the body arrives.
+   */
+  @Inject(optional = true)
+  public void setRequestSuspender(RequestSuspender requestSuspender) {
+    this.requestSuspender = requestSuspender;
+  }
+
+  private static int getIntParameter(HttpServletRequest request, String name) {
+    String value = request.getParameter(name);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
   private boolean getIgnoreCache(HttpServletRequest request) {
     String ignoreCache = request.getParameter(IGNORE_CACHE_PARAM);
     if (ignoreCache == null) {
@@ -129,31 +193,117 @@ public class ProxyHandler extends ProxyBase {
       throw new GadgetException(GadgetException.Code.INVALID_PARAMETER, msg);
     }
 
-    HttpRequest rcr = buildHttpRequest(request);
-    HttpResponse results = fetcher.fetch(rcr);
+    final HttpRequest rcr = buildHttpRequest(request);
+    HttpResponse results;
+    if (streamingFetcher != null && streamingThreshold >= 0 && rcr.getRewriteMimeType() == null
+        && !requestSuspender.isAsynchronous()) {
+      String range = request.getHeader("Range");
+      if (range != null) {
+        rcr.addHeader("Range", range);
+      }
+      results = streamingFetcher.fetch(rcr, new ResponseStreamer(request, response));
+      if (results == null) {
+        return;
+      }
+    } else {
+      results = requestSuspender.execute(request, rcr.getUri().toString(),
+          new Callable<HttpResponse>() {
+            public HttpResponse call() throws GadgetException {
+              return fetcher.fetch(rcr);
+            }
+          });
+    }
     if (contentRewriterRegistry != null) {
       results = contentRewriterRegistry.rewriteHttpResponse(rcr, results);
     }
+    if (imageOptimizer != null) {
+      results = imageOptimizer.optimize(rcr.getUri(), results,
+          getIntParameter(request, RESIZE_WIDTH_PARAM),
+          getIntParameter(request, RESIZE_HEIGHT_PARAM));
+    }
 
     setResponseHeaders(request, response, results);
+    copyResponseHeaders(results, response, DISALLOWED_RESPONSE_HEADERS);
+
+    if (rcr.getRewriteMimeType() != null) {
+      response.setContentType(rcr.getRewriteMimeType());
+    }
+
+    if (results.getHttpStatusCode() != HttpResponse.SC_OK) {
+      response.sendError(results.getHttpStatusCode());
+    }
+
+    IOUtils.copy(results.getResponse(), response.getOutputStream());
+  }
 
+  private static void copyResponseHeaders(HttpResponse results, HttpServletResponse response,
+      Set<String> disallowed) {
     for (Map.Entry<String, List<String>> entry : results.getHeaders().entrySet()) {
       String name = entry.getKey();
-      if (!DISALLOWED_RESPONSE_HEADERS.contains(name.toLowerCase())) {
+      if (!disallowed.contains(name.toLowerCase())) {
         for (String value : entry.getValue()) {
           response.addHeader(name, value);
         }
       }
     }
+  }
 
-    if (rcr.getRewriteMimeType() != null) {
-      response.setContentType(rcr.getRewriteMimeType());
+  /**
+   * @return True if the response is big enough and never rewritten, so that it can be passed
+   *     through to the client as it arrives.
+   */
+  boolean shouldStream(HttpResponse head) {
+    int status = head.getHttpStatusCode();
+    if (status != HttpResponse.SC_OK && status != HttpResponse.SC_PARTIAL_CONTENT) {
+      return false;
     }
+    String contentType = head.getHeader("Content-Type");
+    if (contentType == null) {
+      return false;
+    }
+    contentType = contentType.toLowerCase();
+    boolean streamedType = false;
+    for (String type : STREAMED_CONTENT_TYPES) {
+      if (contentType.startsWith(type)) {
+        streamedType = true;
+        break;
+      }
+    }
+    if (!streamedType) {
+      return false;
+    }
+    String length = head.getHeader("Content-Length");
+    if (length == null || status == HttpResponse.SC_PARTIAL_CONTENT) {
+      return true;
+    }
+    try {
+      return Long.parseLong(length.trim()) >= streamingThreshold;
+    } catch (NumberFormatException e) {
+      return true;
+    }
+  }
 
-    if (results.getHttpStatusCode() != HttpResponse.SC_OK) {
-      response.sendError(results.getHttpStatusCode());
+  /**
+   * Copies large pass-through responses to the client with a small fixed buffer.
+   */
+  private class ResponseStreamer implements StreamingHttpFetcher.BodySink {
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+
+    private ResponseStreamer(HttpServletRequest request, HttpServletResponse response) {
+      this.request = request;
+      this.response = response;
     }
 
-    IOUtils.copy(results.getResponse(), response.getOutputStream());
+    public boolean stream(HttpResponse head, InputStream body) throws IOException {
+      if (!shouldStream(head)) {
+        return false;
+      }
+      response.setStatus(head.getHttpStatusCode());
+      setResponseHeaders(request, response, head);
+      copyResponseHeaders(head, response, DISALLOWED_STREAMED_RESPONSE_HEADERS);
+      IOUtils.copy(body, response.getOutputStream());
+      return true;
+    }
   }
 }
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import org.apache.shindig.gadgets.GadgetException;
+
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Runs the slow part of a request, usually a fetch from a remote site, so that the request's
+ * thread doesn't have to wait for it when the servlet container can suspend requests.
+ *
+ * A suspending implementation may end the current dispatch of the request by throwing a container
+ * specific runtime exception, which callers must let through. The container then dispatches the
+ * request again once the work is done, and the same call returns the result. Servlets using this
+ * must therefore not write any output before their last call to execute.
+ */
+@ImplementedBy(BlockingRequestSuspender.class)
+public interface RequestSuspender {
+
+  /**
+   * Runs work for a request, or returns its result if the work has already been run for this
+   * request.
+   *
+   * @param request The request the work is done for.
+   * @param key Identifies the work within the request.
+   * @param work The work.
+   * @return The result of the work.
+   * @throws GadgetException If the work failed, could not be started or did not finish in time.
+   */
+  <T> T execute(HttpServletRequest request, String key, Callable<T> work) throws GadgetException;
+
+  /**
+   * @return True if requests are really suspended, false if work is run on the request's thread.
+   */
+  boolean isAsynchronous();
+}
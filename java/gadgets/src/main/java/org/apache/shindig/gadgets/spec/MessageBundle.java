@@ -27,8 +27,10 @@ import org.json.JSONObject;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -78,15 +80,23 @@ public class MessageBundle {
    * @param child The bundle containing overriding messages.
    */
   public MessageBundle(MessageBundle parent, MessageBundle child) {
+    this(Arrays.asList(parent, child));
+  }
+
+  /**
+   * Create a MessageBundle by merging a chain of bundles in one pass.
+   *
+   * @param bundles The bundles, most general first. Later bundles override earlier ones, and null
+   *     entries are skipped.
+   */
+  public MessageBundle(List<MessageBundle> bundles) {
     Map<String, String> merged = Maps.newHashMap();
     String dir = null;
-    if (parent != null) {
-      merged.putAll(parent.messages);
-      dir = parent.languageDirection;
-    }
-    if (child != null) {
-      merged.putAll(child.messages);
-      dir = child.languageDirection;
+    for (MessageBundle bundle : bundles) {
+      if (bundle != null) {
+        merged.putAll(bundle.messages);
+        dir = bundle.languageDirection;
+      }
     }
     messages = Collections.unmodifiableMap(merged);
     jsonString = new JSONObject(messages).toString();
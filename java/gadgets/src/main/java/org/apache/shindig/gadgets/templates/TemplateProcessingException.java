@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.templates;
+
+/**
+ * Thrown when a template can't be rendered on the server, and has to be left for the client side
+ * template processor.
+ */
+public class TemplateProcessingException extends Exception {
+  public TemplateProcessingException(Throwable t) {
+    super(t);
+  }
+
+  public TemplateProcessingException(String message) {
+    super(message);
+  }
+
+  public TemplateProcessingException(String message, Throwable t) {
+    super(message, t);
+  }
+}
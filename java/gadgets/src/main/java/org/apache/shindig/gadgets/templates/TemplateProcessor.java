@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.templates;
+
+import org.apache.shindig.common.xml.XmlException;
+import org.apache.shindig.common.xml.XmlUtil;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders OpenSocial templates on the server.
+ *
+ * Only the common subset of the template language is handled: ${} expressions that are simple
+ * property paths, and the if and repeat attributes. The data available to the expressions is the
+ * top level data context, and the Cur, Index and Count variables while repeating. Anything else,
+ * such as custom tags, the My and Msg variables or operators in expressions, makes the processor
+ * throw a TemplateProcessingException so that the template is left to the client.
+ */
+public class TemplateProcessor {
+  private static final String TEMPLATE_PREFIX
+      = "<!DOCTYPE root [<!ENTITY nbsp \"&#160;\">]><root>";
+  private static final String TEMPLATE_SUFFIX = "</root>";
+
+  static final String ATTR_IF = "if";
+  static final String ATTR_REPEAT = "repeat";
+
+  /** Attributes that have a meaning to the client side processor that we don't implement. */
+  private static final Set<String> UNSUPPORTED_ATTRIBUTES = ImmutableSet.of("context", "var");
+
+  private static final Set<String> CURRENT_NAMES = ImmutableSet.of("Cur", "cur", "$cur");
+
+  private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]*)\\}");
+  private static final Pattern WHOLE_EXPRESSION = Pattern.compile("\\s*\\$\\{([^}]*)\\}\\s*");
+  private static final Pattern PATH
+      = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\.[A-Za-z_$][\\w$]*|\\[\\d+\\])*");
+  private static final Pattern SEGMENT = Pattern.compile("\\.?([A-Za-z_$][\\w$]*)|\\[(\\d+)\\]");
+
+  /**
+   * Renders a template.
+   *
+   * @param template The markup of the template, as found in the template script element.
+   * @param data The top level data context that expressions are evaluated against.
+   * @param document The document that the output will be added to.
+   * @return The rendered nodes.
+   * @throws TemplateProcessingException If the template can only be rendered on the client.
+   */
+  public DocumentFragment render(String template, JSONObject data, Document document)
+      throws TemplateProcessingException {
+    Element root;
+    try {
+      root = XmlUtil.parse(TEMPLATE_PREFIX + template + TEMPLATE_SUFFIX);
+    } catch (XmlException e) {
+      throw new TemplateProcessingException("Template is not well formed xml", e);
+    }
+    DocumentFragment output = document.createDocumentFragment();
+    renderChildren(root, output, new Scope(data, data, 0, 0), document);
+    return output;
+  }
+
+  private void renderChildren(Node template, Node output, Scope scope, Document document)
+      throws TemplateProcessingException {
+    for (Node child = template.getFirstChild(); child != null; child = child.getNextSibling()) {
+      switch (child.getNodeType()) {
+        case Node.ELEMENT_NODE:
+          renderElement((Element) child, output, scope, document);
+          break;
+        case Node.TEXT_NODE:
+        case Node.CDATA_SECTION_NODE:
+          output.appendChild(document.createTextNode(substitute(child.getNodeValue(), scope)));
+          break;
+        default:
+          // Comments and processing instructions are not rendered.
+          break;
+      }
+    }
+  }
+
+  private void renderElement(Element template, Node output, Scope scope, Document document)
+      throws TemplateProcessingException {
+    if (template.getNodeName().indexOf(':') != -1) {
+      throw new TemplateProcessingException(
+          "Custom tag " + template.getNodeName() + " is only supported on the client");
+    }
+    if (!template.hasAttribute(ATTR_REPEAT)) {
+      renderSingleElement(template, output, scope, document);
+      return;
+    }
+
+    Object items = evaluateAttribute(template.getAttribute(ATTR_REPEAT), scope);
+    if (items instanceof JSONArray) {
+      JSONArray array = (JSONArray) items;
+      int count = array.length();
+      for (int i = 0; i < count; i++) {
+        renderSingleElement(template, output, new Scope(scope.top, array.opt(i), i, count),
+            document);
+      }
+    } else if (items != null && items != JSONObject.NULL) {
+      // Repeating over a single value renders it once, as on the client.
+      renderSingleElement(template, output, new Scope(scope.top, items, 0, 1), document);
+    }
+  }
+
+  private void renderSingleElement(Element template, Node output, Scope scope, Document document)
+      throws TemplateProcessingException {
+    if (template.hasAttribute(ATTR_IF)
+        && !isTrue(evaluateAttribute(template.getAttribute(ATTR_IF), scope))) {
+      return;
+    }
+
+    Element element = document.createElement(template.getNodeName());
+    NamedNodeMap attributes = template.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Attr attribute = (Attr) attributes.item(i);
+      String name = attribute.getName();
+      if (UNSUPPORTED_ATTRIBUTES.contains(name)) {
+        throw new TemplateProcessingException(
+            "Attribute " + name + " is only supported on the client");
+      }
+      if (!name.equals(ATTR_IF) && !name.equals(ATTR_REPEAT) && !name.startsWith("xmlns")) {
+        element.setAttribute(name, substitute(attribute.getValue(), scope));
+      }
+    }
+    renderChildren(template, element, scope, document);
+    output.appendChild(element);
+  }
+
+  /**
+   * Evaluates an if or repeat attribute, which may or may not be wrapped in ${}.
+   */
+  private Object evaluateAttribute(String value, Scope scope) throws TemplateProcessingException {
+    Matcher matcher = WHOLE_EXPRESSION.matcher(value);
+    if (matcher.matches()) {
+      return evaluate(matcher.group(1), scope);
+    }
+    return evaluate(value, scope);
+  }
+
+  /**
+   * Replaces all ${} expressions in text with their values.
+   */
+  private String substitute(String text, Scope scope) throws TemplateProcessingException {
+    if (text.indexOf("${") == -1) {
+      return text;
+    }
+    Matcher matcher = EXPRESSION.matcher(text);
+    StringBuilder buf = new StringBuilder(text.length());
+    int last = 0;
+    while (matcher.find()) {
+      buf.append(text, last, matcher.start());
+      buf.append(toText(evaluate(matcher.group(1), scope)));
+      last = matcher.end();
+    }
+    buf.append(text, last, text.length());
+    return buf.toString();
+  }
+
+  private Object evaluate(String expression, Scope scope) throws TemplateProcessingException {
+    String path = expression.trim();
+    if (!PATH.matcher(path).matches()) {
+      throw new TemplateProcessingException(
+          "Expression " + expression + " is only supported on the client");
+    }
+
+    Matcher segments = SEGMENT.matcher(path);
+    segments.find();
+    String first = segments.group(1);
+    Object value;
+    if ("Top".equals(first)) {
+      value = scope.top;
+    } else if (CURRENT_NAMES.contains(first)) {
+      value = scope.current;
+    } else if ("Index".equals(first)) {
+      value = scope.index;
+    } else if ("Count".equals(first)) {
+      value = scope.count;
+    } else if (scope.current instanceof JSONObject && ((JSONObject) scope.current).has(first)) {
+      // Unqualified names are looked up in the current data first, then in the top level data.
+      value = ((JSONObject) scope.current).opt(first);
+    } else if (scope.top.has(first)) {
+      value = scope.top.opt(first);
+    } else {
+      throw new TemplateProcessingException("Data " + first + " is not available on the server");
+    }
+
+    while (segments.find()) {
+      value = getProperty(value, segments.group(1), segments.group(2));
+    }
+    return value;
+  }
+
+  private static Object getProperty(Object value, String name, String index) {
+    if (value instanceof JSONObject) {
+      return name == null ? ((JSONObject) value).opt(index) : ((JSONObject) value).opt(name);
+    }
+    if (value instanceof JSONArray) {
+      JSONArray array = (JSONArray) value;
+      if (index != null) {
+        return array.opt(Integer.parseInt(index));
+      }
+      return "length".equals(name) ? array.length() : null;
+    }
+    if (value instanceof String && "length".equals(name)) {
+      return ((String) value).length();
+    }
+    return null;
+  }
+
+  private static String toText(Object value) throws TemplateProcessingException {
+    if (value == null || value == JSONObject.NULL) {
+      return "";
+    }
+    if (value instanceof JSONObject || value instanceof JSONArray) {
+      throw new TemplateProcessingException("Objects are only converted to text on the client");
+    }
+    if (value instanceof Double || value instanceof Float) {
+      // Match javascript, which doesn't print a fraction for whole numbers.
+      double number = ((Number) value).doubleValue();
+      if (number == Math.rint(number) && !Double.isInfinite(number)
+          && Math.abs(number) < Long.MAX_VALUE) {
+        return String.valueOf((long) number);
+      }
+    }
+    return value.toString();
+  }
+
+  /**
+   * @return Whether the value is true in javascript.
+   */
+  private static boolean isTrue(Object value) {
+    if (value == null || value == JSONObject.NULL) {
+      return false;
+    }
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Number) {
+      double number = ((Number) value).doubleValue();
+      return number != 0 && !Double.isNaN(number);
+    }
+    if (value instanceof String) {
+      return ((String) value).length() > 0;
+    }
+    return true;
+  }
+
+  /**
+   * The variables that expressions can refer to.
+   */
+  private static class Scope {
+    private final JSONObject top;
+    private final Object current;
+    private final int index;
+    private final int count;
+
+    private Scope(JSONObject top, Object current, int index, int count) {
+      this.top = top;
+      this.current = current;
+      this.index = index;
+      this.count = count;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.templates;
+
+import org.apache.shindig.common.xml.DomUtil;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.preload.PreloadException;
+import org.apache.shindig.gadgets.preload.PreloadedData;
+import org.apache.shindig.gadgets.preload.Preloads;
+import org.apache.shindig.gadgets.rewrite.ContentRewriter;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.rewrite.RewriterResults;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Inject;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Renders the inline OpenSocial templates of a gadget on the server, using the gadget's preloaded
+ * data as the data context. This saves the client from compiling the templates and, usually, from
+ * a second round trip to fetch the data.
+ *
+ * Templates that the server can't render are left for the client. If every template has been
+ * rendered and there is no other script in the gadget, the templates feature is dropped from the
+ * rendered gadget.
+ */
+public class TemplateRewriter implements ContentRewriter {
+  private static final Logger LOG = Logger.getLogger(TemplateRewriter.class.getName());
+
+  public static final String TEMPLATES_FEATURE = "opensocial-templates";
+
+  static final Set<String> TEMPLATE_TYPES = ImmutableSet.of("text/os-template", "text/template");
+
+  /** Named templates define custom tags, and are only used by the client. */
+  private static final Set<String> CLIENT_ONLY_ATTRIBUTES
+      = ImmutableSet.of("name", "tag", "beforeData");
+
+  private static final String ATTR_REQUIRE_DATA = "requireData";
+
+  private final TemplateProcessor processor;
+
+  @Inject
+  public TemplateRewriter(TemplateProcessor processor) {
+    this.processor = processor;
+  }
+
+  public RewriterResults rewrite(HttpRequest request, HttpResponse original,
+      MutableContent content) {
+    // Templates are only rendered in gadgets.
+    return null;
+  }
+
+  public RewriterResults rewrite(Gadget gadget, MutableContent content) {
+    if (!gadget.getSpec().getModulePrefs().getFeatures().containsKey(TEMPLATES_FEATURE)) {
+      return null;
+    }
+    Document document = content.getDocument();
+    if (document == null) {
+      return null;
+    }
+
+    List<Element> scripts
+        = DomUtil.getElementsByTagNameCaseInsensitive(document, ImmutableSet.of("script"));
+    JSONObject data = null;
+    boolean rendered = false;
+    boolean clientNeeded = false;
+    for (Element script : scripts) {
+      if (!TEMPLATE_TYPES.contains(script.getAttribute("type").trim().toLowerCase())) {
+        // Data scripts, and any other script, may use the client side template library.
+        clientNeeded = true;
+        continue;
+      }
+      if (data == null) {
+        data = getData(gadget);
+      }
+      if (!canRender(script, data)) {
+        clientNeeded = true;
+        continue;
+      }
+      try {
+        DocumentFragment output = processor.render(script.getTextContent(), data, document);
+        Element container = document.createElement("div");
+        container.appendChild(output);
+        script.getParentNode().replaceChild(container, script);
+        rendered = true;
+      } catch (TemplateProcessingException e) {
+        LOG.log(Level.FINE, "Leaving template in " + gadget.getSpec().getUrl()
+            + " for the client", e);
+        clientNeeded = true;
+      }
+    }
+
+    if (!rendered) {
+      return null;
+    }
+    if (!clientNeeded) {
+      gadget.removeFeature(TEMPLATES_FEATURE);
+    }
+    content.documentChanged();
+    // The output depends on the data of the request.
+    return RewriterResults.notCacheable();
+  }
+
+  /**
+   * @return Whether the template is one that the server may render with the given data.
+   */
+  private static boolean canRender(Element script, JSONObject data) {
+    for (String attribute : CLIENT_ONLY_ATTRIBUTES) {
+      if (script.hasAttribute(attribute)) {
+        return false;
+      }
+    }
+    String required = script.getAttribute(ATTR_REQUIRE_DATA).trim();
+    if (required.length() > 0) {
+      for (String key : required.split("[\\s,]+")) {
+        if (!data.has(key)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The preloaded data of the gadget, by key. Failed preloads are left out.
+   */
+  private static JSONObject getData(Gadget gadget) {
+    JSONObject data = new JSONObject();
+    Preloads preloads = gadget.getPreloads();
+    if (preloads == null) {
+      return data;
+    }
+    for (String key : preloads.getKeys()) {
+      try {
+        PreloadedData preloaded = preloads.getData(key);
+        if (preloaded != null) {
+          data.put(key, preloaded.toJson());
+        }
+      } catch (PreloadException e) {
+        LOG.log(Level.FINE, "Preload " + key + " is not available to templates", e);
+      } catch (JSONException e) {
+        LOG.log(Level.FINE, "Preload " + key + " is not available to templates", e);
+      }
+    }
+    return data;
+  }
+}
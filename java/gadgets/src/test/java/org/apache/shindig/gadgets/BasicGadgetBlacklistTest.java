@@ -18,6 +18,8 @@
  */
 package org.apache.shindig.gadgets;
 
+import org.apache.shindig.common.util.FakeTimeSource;
+
 import junit.framework.TestCase;
 
 import java.io.BufferedWriter;
@@ -38,12 +40,20 @@ public class BasicGadgetBlacklistTest extends TestCase {
   }
 
   private GadgetBlacklist createBlacklist(String contents) throws IOException {
+    return new BasicGadgetBlacklist(createFile(contents));
+  }
+
+  private File createFile(String contents) throws IOException {
     File temp = File.createTempFile("blacklist_test", ".txt");
     temp.deleteOnExit();
-    BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+    writeFile(temp, contents);
+    return temp;
+  }
+
+  private void writeFile(File file, String contents) throws IOException {
+    BufferedWriter out = new BufferedWriter(new FileWriter(file));
     out.write(contents);
     out.close();
-    return new BasicGadgetBlacklist(temp);
   }
 
   public void testEmptyBlacklist() throws Exception {
@@ -86,4 +96,57 @@ public class BasicGadgetBlacklistTest extends TestCase {
     }
   }
 
+  public void testManyRegexpsWithDifferentPrefixes() throws Exception {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      contents.append("REGEXP http://host").append(i).append("\\.com/.*\n");
+    }
+    contents.append("REGEXP http://[^/]*baz.com/.*\n");
+    contents.append("REGEXP .*/evil\\.xml\n");
+    contents.append("REGEXP http://(a|b)\\.org/(x+)/\\2\\.xml\n");
+    GadgetBlacklist bl = createBlacklist(contents.toString());
+    assertTrue(bl.isBlacklisted(new URI("http://host42.com/gadget.xml")));
+    assertTrue(bl.isBlacklisted(new URI("http://HOST99.com/gadget.xml")));
+    assertFalse(bl.isBlacklisted(new URI("http://host100.com/gadget.xml")));
+    assertFalse(bl.isBlacklisted(new URI("http://host1.org/gadget.xml")));
+    assertTrue(bl.isBlacklisted(new URI("http://www.baz.com/gadget.xml")));
+    assertTrue(bl.isBlacklisted(new URI("http://other.com/evil.xml")));
+    assertTrue(bl.isBlacklisted(new URI("http://b.org/xx/xx.xml")));
+    assertFalse(bl.isBlacklisted(new URI("http://b.org/xx/x.xml")));
+  }
+
+  public void testLiteralPrefix() {
+    assertEquals("http://bla", BasicGadgetBlacklist.getLiteralPrefix("http://bla.com/.*"));
+    assertEquals("http://bla.com/",
+        BasicGadgetBlacklist.getLiteralPrefix("http://BLA\\.com/.*"));
+    assertEquals("http", BasicGadgetBlacklist.getLiteralPrefix("https?://foo.com/"));
+    assertEquals("", BasicGadgetBlacklist.getLiteralPrefix("http://a.com/|http://b.com/"));
+    assertEquals("", BasicGadgetBlacklist.getLiteralPrefix("\\w+"));
+  }
+
+  public void testReloadsChangedFile() throws Exception {
+    File file = createFile("http://foo.com/a.xml");
+    FakeTimeSource timeSource = new FakeTimeSource();
+    GadgetBlacklist bl = new BasicGadgetBlacklist(file, timeSource, 1000L);
+    URI uri = new URI("http://foo.com/b.xml");
+    assertFalse(bl.isBlacklisted(uri));
+
+    writeFile(file, "REGEXP http://foo\\.com/.*");
+    file.setLastModified(file.lastModified() + 10000L);
+    assertFalse(bl.isBlacklisted(uri));
+
+    timeSource.incrementSeconds(2);
+    assertTrue(bl.isBlacklisted(uri));
+  }
+
+  public void testInvalidReloadKeepsOldBlacklist() throws Exception {
+    File file = createFile("http://foo.com/a.xml");
+    FakeTimeSource timeSource = new FakeTimeSource();
+    GadgetBlacklist bl = new BasicGadgetBlacklist(file, timeSource, 1000L);
+
+    writeFile(file, "REGEXP +http://foo.com/.*");
+    file.setLastModified(file.lastModified() + 10000L);
+    timeSource.incrementSeconds(2);
+    assertTrue(bl.isBlacklisted(new URI("http://foo.com/a.xml")));
+  }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.shindig.common.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for BoundedExecutor.
+ */
+public class BoundedExecutorTest {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final BoundedExecutor executor = new BoundedExecutor("test", 2, 1);
+
+  @After
+  public void tearDown() {
+    release.countDown();
+    executor.shutdownNow();
+  }
+
+  private Runnable blocker(final CountDownLatch started) {
+    return new Runnable() {
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // Shutting down.
+        }
+      }
+    };
+  }
+
+  @Test
+  public void refusesWorkWhenFull() throws Exception {
+    CountDownLatch started = new CountDownLatch(2);
+    executor.execute(blocker(started));
+    executor.execute(blocker(started));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    executor.execute(blocker(new CountDownLatch(1)));
+
+    assertEquals(2, executor.getActiveCount());
+    assertEquals(1, executor.getQueueDepth());
+
+    try {
+      executor.execute(blocker(new CountDownLatch(1)));
+      fail("Pool should be full");
+    } catch (RejectedExecutionException e) {
+      // good
+    }
+    assertEquals(1, executor.getRejectedCount());
+  }
+
+  @Test
+  public void reportsGauges() throws Exception {
+    Metrics metrics = new Metrics();
+    executor.addGauges(metrics);
+    CountDownLatch started = new CountDownLatch(1);
+    executor.execute(blocker(started));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    Map<String, Number> values = metrics.getValues();
+    assertEquals(0L, values.get("gauge.test.queue"));
+    assertEquals(1L, values.get("gauge.test.active"));
+    assertEquals(0L, values.get("gauge.test.rejected"));
+  }
+
+  @Test
+  public void threadsAreNamed() throws Exception {
+    final String[] name = new String[1];
+    executor.submit(new Runnable() {
+      public void run() {
+        name[0] = Thread.currentThread().getName();
+      }
+    }).get();
+    assertTrue(name[0].startsWith("test-"));
+  }
+}
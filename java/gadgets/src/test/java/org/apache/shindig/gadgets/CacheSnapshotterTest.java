@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.DefaultHttpCache;
+import org.apache.shindig.gadgets.http.HttpCacheKey;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.List;
+
+public class CacheSnapshotterTest {
+  private static final Uri SPEC_URL = Uri.parse("http://example.org/gadget.xml");
+  private static final Uri BUNDLE_URL = Uri.parse("http://example.org/messages.xml");
+
+  private final FakeSpecFactory specFactory = new FakeSpecFactory();
+  private final Provider<GadgetSpecFactory> specFactoryProvider =
+      new Provider<GadgetSpecFactory>() {
+        public GadgetSpecFactory get() {
+          return specFactory;
+        }
+      };
+  private File file;
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("snapshot", ".ser");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private CacheSnapshotter newSnapshotter(LruCacheProvider cacheProvider, String fileName) {
+    return new CacheSnapshotter(cacheProvider, specFactoryProvider, fileName, 0, 1000, 10, 1024);
+  }
+
+  private static String keyFor(Uri uri) {
+    return new HttpCacheKey(new HttpRequest(uri)).toString();
+  }
+
+  @Test
+  public void snapshotRestoresResponsesAndLoadsSpecs() throws Exception {
+    LruCacheProvider before = new LruCacheProvider(10);
+    Cache<String, HttpResponse> cache = before.createCache(DefaultHttpCache.CACHE_NAME);
+    cache.addElement(keyFor(BUNDLE_URL), new HttpResponse("<messagebundle/>"));
+    CacheSnapshotter snapshotter = newSnapshotter(before, file.getPath());
+    snapshotter.recordResponse(keyFor(BUNDLE_URL), BUNDLE_URL);
+    snapshotter.recordGadgetSpec(SPEC_URL);
+    snapshotter.write();
+    assertTrue(file.exists());
+
+    LruCacheProvider after = new LruCacheProvider(10);
+    newSnapshotter(after, file.getPath()).load();
+
+    HttpResponse restored = after.<String, HttpResponse>createCache(DefaultHttpCache.CACHE_NAME)
+        .getElement(keyFor(BUNDLE_URL));
+    assertEquals("<messagebundle/>", restored.getResponseAsString());
+    assertEquals(Lists.newArrayList(SPEC_URL.toJavaUri()), specFactory.loaded);
+  }
+
+  @Test
+  public void unusableResponsesAreLeftOut() throws Exception {
+    Uri expiredUrl = Uri.parse("http://example.org/expired.xml");
+    Uri largeUrl = Uri.parse("http://example.org/large.xml");
+    Uri errorUrl = Uri.parse("http://example.org/error.xml");
+
+    LruCacheProvider before = new LruCacheProvider(10);
+    Cache<String, HttpResponse> cache = before.createCache(DefaultHttpCache.CACHE_NAME);
+    cache.addElement(keyFor(expiredUrl), new HttpResponseBuilder()
+        .setResponseString("expired")
+        .setStrictNoCache()
+        .create());
+    cache.addElement(keyFor(largeUrl), new HttpResponse(new String(new char[2048])));
+    cache.addElement(keyFor(errorUrl), HttpResponse.error());
+    CacheSnapshotter snapshotter = newSnapshotter(before, file.getPath());
+    snapshotter.recordResponse(keyFor(expiredUrl), expiredUrl);
+    snapshotter.recordResponse(keyFor(largeUrl), largeUrl);
+    snapshotter.recordResponse(keyFor(errorUrl), errorUrl);
+    snapshotter.write();
+
+    LruCacheProvider after = new LruCacheProvider(10);
+    newSnapshotter(after, file.getPath()).load();
+
+    Cache<String, HttpResponse> restored = after.createCache(DefaultHttpCache.CACHE_NAME);
+    assertNull(restored.getElement(keyFor(expiredUrl)));
+    assertNull(restored.getElement(keyFor(largeUrl)));
+    assertNull(restored.getElement(keyFor(errorUrl)));
+  }
+
+  @Test
+  public void missingSnapshotIsIgnored() throws Exception {
+    newSnapshotter(new LruCacheProvider(10), file.getPath()).load();
+    assertTrue(specFactory.loaded.isEmpty());
+  }
+
+  @Test
+  public void disabledWithoutFile() throws Exception {
+    CacheSnapshotter snapshotter = newSnapshotter(new LruCacheProvider(10), "");
+    assertFalse(snapshotter.isEnabled());
+    snapshotter.start();
+    snapshotter.stop();
+    assertFalse(file.exists());
+  }
+
+  private static class FakeSpecFactory implements GadgetSpecFactory {
+    private final List<URI> loaded = Lists.newArrayList();
+
+    public GadgetSpec getGadgetSpec(GadgetContext context) {
+      throw new UnsupportedOperationException();
+    }
+
+    public GadgetSpec getGadgetSpec(URI gadgetUri, boolean ignoreCache) {
+      loaded.add(gadgetUri);
+      return null;
+    }
+  }
+}
@@ -41,6 +41,11 @@ import org.easymock.EasyMock;
 import org.junit.Test;
 
 import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -165,12 +170,14 @@ public class DefaultMessageBundleFactoryTest {
 
     final AtomicLong time = new AtomicLong();
 
-    bundleFactory.cache.setTimeSource(new TimeSource() {
+    TimeSource timeSource = new TimeSource() {
       @Override
       public long currentTimeMillis() {
         return time.get();
       }
-    });
+    };
+    bundleFactory.cache.setTimeSource(timeSource);
+    bundleFactory.fetchedCache.setTimeSource(timeSource);
 
     time.set(System.currentTimeMillis());
 
@@ -182,7 +189,9 @@ public class DefaultMessageBundleFactoryTest {
 
     verify(fetcher);
 
-    assertSame("Did not respond from cache when refresh failed.", bundle0, bundle1);
+    assertEquals("Did not respond from cache when refresh failed.", bundle0.getMessages(),
+        bundle1.getMessages());
+    assertEquals(MSG_0_VALUE, bundle1.getMessages().get(MSG_0_NAME));
   }
 
   @Test
@@ -197,7 +206,49 @@ public class DefaultMessageBundleFactoryTest {
 
     verify(fetcher);
 
-    assertEquals(0, bundle.getMessages().size());
+    // Only the fetched level is empty, the inline parents are still there.
+    assertEquals(3, bundle.getMessages().size());
+    assertEquals(MSG_0_ALT_VALUE, bundle.getMessages().get(MSG_0_NAME));
+  }
+
+  @Test
+  public void badResponseOnlyCostsItsOwnLevel() throws Exception {
+    String spec = "<Module>" +
+        "<ModulePrefs title='foo'>" +
+        " <Locale lang='all' country='ALL' messages='http://example.org/all.xml'/>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' messages='http://example.org/en.xml'/>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' country='" + LOCALE.getCountry() + "' " +
+        "  messages='" + BUNDLE_URI + "'/>" +
+        "</ModulePrefs>" +
+        "<Content type='html'/>" +
+        "</Module>";
+    final String allBundle = "<messagebundle>" +
+        "  <msg name='" + MSG_0_NAME + "'>" + MSG_0_VALUE + "</msg>" +
+        "  <msg name='" + MSG_1_NAME + "'>" + MSG_0_VALUE + "</msg>" +
+        "</messagebundle>";
+    final String localeBundle = "<messagebundle>" +
+        "  <msg name='" + MSG_2_NAME + "'>" + MSG_2_VALUE + "</msg>" +
+        "</messagebundle>";
+    HttpFetcher missingParent = new HttpFetcher() {
+      public HttpResponse fetch(HttpRequest request) {
+        if (request.getUri().equals(BUNDLE_URI)) {
+          return new HttpResponse(localeBundle);
+        }
+        if (request.getUri().getPath().equals("/all.xml")) {
+          return new HttpResponse(allBundle);
+        }
+        return new HttpResponseBuilder().setHttpStatusCode(HttpResponse.SC_NOT_FOUND).create();
+      }
+    };
+    DefaultMessageBundleFactory factory
+        = new DefaultMessageBundleFactory(missingParent, cacheProvider, MAX_AGE);
+
+    MessageBundle bundle = factory.getBundle(new GadgetSpec(SPEC_URI, spec), LOCALE, false);
+
+    assertEquals(3, bundle.getMessages().size());
+    assertEquals(MSG_0_VALUE, bundle.getMessages().get(MSG_0_NAME));
+    assertEquals(MSG_0_VALUE, bundle.getMessages().get(MSG_1_NAME));
+    assertEquals(MSG_2_VALUE, bundle.getMessages().get(MSG_2_NAME));
   }
 
   @Test
@@ -212,6 +263,99 @@ public class DefaultMessageBundleFactoryTest {
     assertEquals(MAX_AGE / 1000, capturingFetcher.request.getCacheTtl());
   }
 
+  @Test
+  public void remoteBundlesAreFetchedConcurrently() throws Exception {
+    String spec = "<Module>" +
+        "<ModulePrefs title='foo'>" +
+        " <Locale lang='all' country='ALL' messages='http://example.org/all.xml'/>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "'>" +
+        "  <msg name='" + MSG_2_NAME + "'>" + MSG_2_VALUE + "</msg>" +
+        " </Locale>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' country='" + LOCALE.getCountry() + "' " +
+        "  messages='" + BUNDLE_URI + "'/>" +
+        "</ModulePrefs>" +
+        "<Content type='html'/>" +
+        "</Module>";
+    String allBundle = "<messagebundle>" +
+        "  <msg name='" + MSG_0_NAME + "'>" + MSG_0_ALT_VALUE + "</msg>" +
+        "</messagebundle>";
+    final String overridingBundle = "<messagebundle>" +
+        "  <msg name='" + MSG_0_NAME + "'>" + MSG_0_VALUE + "</msg>" +
+        "</messagebundle>";
+    // Neither fetch can finish until both have started.
+    final CyclicBarrier bothFetching = new CyclicBarrier(2);
+    CountingFetcher countingFetcher = new CountingFetcher(allBundle) {
+      @Override
+      public HttpResponse fetch(HttpRequest request) {
+        super.fetch(request);
+        try {
+          bothFetching.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new RuntimeException("Bundles were not fetched concurrently", e);
+        }
+        if (request.getUri().equals(BUNDLE_URI)) {
+          return new HttpResponse(overridingBundle);
+        }
+        return new HttpResponse(body);
+      }
+    };
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      DefaultMessageBundleFactory factory = new DefaultMessageBundleFactory(countingFetcher,
+          cacheProvider, MAX_AGE, executor);
+      MessageBundle bundle = factory.getBundle(new GadgetSpec(SPEC_URI, spec), LOCALE, false);
+
+      assertEquals(2, countingFetcher.count.get());
+      assertEquals(MSG_0_VALUE, bundle.getMessages().get(MSG_0_NAME));
+      assertEquals(MSG_2_VALUE, bundle.getMessages().get(MSG_2_NAME));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void siblingLocalesShareParentBundle() throws Exception {
+    String spec = "<Module>" +
+        "<ModulePrefs title='foo'>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' messages='" + BUNDLE_URI + "'/>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' country='US'>" +
+        "  <msg name='" + MSG_2_NAME + "'>" + MSG_2_VALUE + "</msg>" +
+        " </Locale>" +
+        " <Locale lang='" + LOCALE.getLanguage() + "' country='GB'>" +
+        "  <msg name='" + MSG_2_NAME + "'>" + MSG_0_VALUE + "</msg>" +
+        " </Locale>" +
+        "</ModulePrefs>" +
+        "<Content type='html'/>" +
+        "</Module>";
+    CountingFetcher countingFetcher = new CountingFetcher(BASIC_BUNDLE);
+    DefaultMessageBundleFactory factory
+        = new DefaultMessageBundleFactory(countingFetcher, cacheProvider, MAX_AGE);
+    GadgetSpec gadget = new GadgetSpec(SPEC_URI, spec);
+
+    MessageBundle us = factory.getBundle(gadget, new Locale("en", "US"), false);
+    MessageBundle gb = factory.getBundle(gadget, new Locale("en", "GB"), false);
+
+    assertEquals(1, countingFetcher.count.get());
+    assertEquals(MSG_1_VALUE, us.getMessages().get(MSG_1_NAME));
+    assertEquals(MSG_1_VALUE, gb.getMessages().get(MSG_1_NAME));
+    assertEquals(MSG_2_VALUE, us.getMessages().get(MSG_2_NAME));
+    assertEquals(MSG_0_VALUE, gb.getMessages().get(MSG_2_NAME));
+  }
+
+  private static class CountingFetcher implements HttpFetcher {
+    final AtomicInteger count = new AtomicInteger();
+    final String body;
+
+    CountingFetcher(String body) {
+      this.body = body;
+    }
+
+    public HttpResponse fetch(HttpRequest request) {
+      count.incrementAndGet();
+      return new HttpResponse(body);
+    }
+  }
+
   private static class CapturingFetcher implements HttpFetcher {
     HttpRequest request;
 
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets;
+
+import com.sun.syndication.feed.synd.SyndFeed;
+import com.sun.syndication.io.SyndFeedInput;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringReader;
+
+/**
+ * Compares building the whole ROME object model of a feed with the streaming
+ * FeedProcessor, for a feed saved to a file. Real feeds of a few hundred KB,
+ * read for the default 3 entries, show the difference best.
+ */
+public class FeedProcessorBenchmark {
+  private static final String FEED_URL = "http://www.example.com/feed";
+
+  private final String content;
+  private final int numEntries;
+  private int numRuns;
+  private boolean warmup;
+
+  private FeedProcessorBenchmark(String file, int numEntries, int numRuns) throws Exception {
+    File inputFile = new File(file);
+    if (!inputFile.exists() || !inputFile.canRead()) {
+      System.err.println("Input file: " + file + " not found or can't be read.");
+      System.exit(1);
+    }
+    content = new String(IOUtils.toByteArray(new FileInputStream(file)), "UTF-8");
+    this.numEntries = numEntries;
+
+    this.numRuns = 100;
+    warmup = true;
+    timeRome();
+    timeStreaming();
+    // Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    timeRome();
+    timeStreaming();
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private void timeRome() throws Exception {
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; ++i) {
+      SyndFeed feed = new SyndFeedInput().build(new StringReader(content));
+      feed.getEntries().size();
+    }
+    long millis = System.currentTimeMillis() - start;
+    output("ROME object model [" + millis + " ms total: " + ((double) millis) / numRuns
+        + "ms/run]");
+  }
+
+  private void timeStreaming() throws Exception {
+    FeedProcessor processor = new FeedProcessor();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; ++i) {
+      processor.processToString(FEED_URL, content, true, numEntries);
+    }
+    long millis = System.currentTimeMillis() - start;
+    output("Streaming, " + numEntries + " entries [" + millis + " ms total: "
+        + ((double) millis) / numRuns + "ms/run]");
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 3) {
+      System.err.println("Args: <feed-file> <num-entries> <num-runs>");
+      System.exit(1);
+    }
+    try {
+      new FeedProcessorBenchmark(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -20,6 +20,9 @@ package org.apache.shindig.gadgets;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -85,6 +88,26 @@ public class FeedProcessorTest {
       "<summary>" + FEED_ENTRY_SUMMARY + "</summary>" +
       "</entry>" +
       "</feed>";
+  private final static String DATA_RDF =
+      "<?xml version=\"1.0\"?>" +
+      "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
+      " xmlns=\"http://purl.org/rss/1.0/\"" +
+      " xmlns:content=\"http://purl.org/rss/1.0/modules/content/\"" +
+      " xmlns:dc=\"http://purl.org/dc/elements/1.1/\">" +
+      "<channel rdf:about=\"http://example.org/\">" +
+      "<title>" + FEED_TITLE + "</title>" +
+      "<link>http://example.org/</link>" +
+      "<description>Example RDF Feed</description>" +
+      "</channel>" +
+      "<item rdf:about=\"" + FEED_ENTRY_LINK + "\">" +
+      "<title>" + FEED_ENTRY_TITLE + "</title>" +
+      "<link>" + FEED_ENTRY_LINK + "</link>" +
+      "<description>Short</description>" +
+      "<content:encoded>&lt;b&gt;" + FEED_ENTRY_SUMMARY + "&lt;/b&gt;</content:encoded>" +
+      "<dc:creator>" + FEED_AUTHOR + "</dc:creator>" +
+      "<dc:date>" + DATE_ATOM + "</dc:date>" +
+      "</item>" +
+      "</rdf:RDF>";
   private final static String BAD_XML = "broken xml !!!! & ><";
   private final static String INVALID_XML = "<data><foo/></data>";
 
@@ -185,4 +208,48 @@ public class FeedProcessorTest {
   public void parseInvalidXml() throws GadgetException {
     processor.process(URL_RSS, INVALID_XML, false, 1);
   }
+
+  @Test
+  public void parseRdf() throws Exception {
+    JSONObject feed = processor.process(URL_RSS, DATA_RDF, true, 1);
+    assertEquals(FEED_TITLE, feed.getString("Title"));
+    assertEquals(FEED_AUTHOR, feed.getString("Author"));
+
+    JSONObject entry = feed.getJSONArray("Entry").getJSONObject(0);
+    assertEquals(FEED_ENTRY_TITLE, entry.getString("Title"));
+    assertEquals(FEED_ENTRY_LINK, entry.getString("Link"));
+    assertEquals("<b>" + FEED_ENTRY_SUMMARY + "</b>", entry.getString("Summary"));
+    assertEquals(TIMESTAMP, entry.getLong("Date"));
+  }
+
+  @Test
+  public void parseXhtmlContent() throws Exception {
+    String xml = DATA_ATOM.replace("<summary>" + FEED_ENTRY_SUMMARY + "</summary>",
+        "<content type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">" +
+        "<p class=\"a\">1 &lt; 2</p></div></content>");
+    JSONObject feed = processor.process(URL_ATOM, xml, true, 1);
+    JSONObject entry = feed.getJSONArray("Entry").getJSONObject(0);
+    assertEquals("<div><p class=\"a\">1 &lt; 2</p></div>", entry.getString("Summary"));
+  }
+
+  @Test
+  public void stopsReadingAfterRequestedEntries() throws Exception {
+    // Anything after the requested entries is never read.
+    String xml = DATA_RSS.substring(0, DATA_RSS.lastIndexOf("<item>")) + "<item>" + BAD_XML;
+    JSONObject feed = processor.process(URL_RSS, xml, true, 1);
+    assertEquals(1, feed.getJSONArray("Entry").length());
+    assertEquals(FEED_TITLE, feed.getString("Title"));
+  }
+
+  @Test
+  public void processedFeedsAreCached() throws Exception {
+    FeedProcessor cachingProcessor = new FeedProcessor();
+    cachingProcessor.setCacheProvider(new LruCacheProvider(10));
+    String first = cachingProcessor.processToString(URL_ATOM, DATA_ATOM, true, 1);
+    assertSame(first, cachingProcessor.processToString(URL_ATOM, DATA_ATOM, true, 1));
+    assertEquals(2, new JSONObject(cachingProcessor.processToString(URL_ATOM, DATA_ATOM, true, 2))
+        .getJSONArray("Entry").length());
+    assertEquals(1, new JSONObject(cachingProcessor.processToString(URL_ATOM, DATA_ATOM, false, 1))
+        .getJSONArray("Entry").length());
+  }
 }
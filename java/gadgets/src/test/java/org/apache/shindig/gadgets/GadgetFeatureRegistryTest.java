@@ -137,4 +137,41 @@ public class GadgetFeatureRegistryTest {
       assertTrue(feature + " not returned.", found.contains(feature));
     }
   }
+
+  @Test
+  public void unknownFeaturesDoNotGrowCache() throws Exception {
+    registry.register(makeFeature(FEATURE_NAME, CONTENT, null));
+    for (int i = 0; i < 10; ++i) {
+      registry.getFeatures(Arrays.asList(FEATURE_NAME, "unknown" + i));
+    }
+    assertEquals(1, registry.cache.size());
+  }
+
+  @Test
+  public void cacheIsBounded() throws Exception {
+    List<String> names = Lists.newArrayList();
+    for (int i = 0; i < 12; ++i) {
+      names.add("feature" + i);
+      registry.register(makeFeature("feature" + i, CONTENT, null));
+    }
+    // Every combination of 11 features is more than the cache holds.
+    for (int mask = 0; mask < (1 << 11); ++mask) {
+      List<String> needed = Lists.newArrayList(names.get(11));
+      for (int i = 0; i < 11; ++i) {
+        if ((mask & (1 << i)) != 0) {
+          needed.add(names.get(i));
+        }
+      }
+      assertEquals(needed.size() + 1, registry.getFeatures(needed).size());
+    }
+    assertEquals(GadgetFeatureRegistry.MAX_CACHED_FEATURE_SETS, registry.cache.size());
+  }
+
+  @Test
+  public void dependencyCyclesAreBroken() throws Exception {
+    registry.register(makeFeature("a", CONTENT, "b"));
+    registry.register(makeFeature("b", CONTENT, "a"));
+    Collection<GadgetFeature> features = registry.getFeatures(Arrays.asList("a"));
+    assertEquals(3, features.size());
+  }
 }
@@ -25,8 +25,11 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.isA;
 
 import org.apache.shindig.common.ContainerConfig;
+import org.apache.shindig.common.cache.Cache;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.apache.shindig.gadgets.spec.Substitutions;
 
 import java.util.Arrays;
 
@@ -174,4 +177,24 @@ public class HashLockedDomainServiceTest extends EasyMockTestCase {
     assertTrue(lockedDomainService.gadgetCanRender(
         "8uhr00296d2o3sfhqilj387krjmgjv3v-a.example.com:8080", wantsLocked, "other"));
   }
+
+  public void testHashCachedByUrl() {
+    replay();
+
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    lockedDomainService = new HashLockedDomainService(enabledConfig, true);
+    lockedDomainService.setCacheProvider(cacheProvider);
+    GadgetSpec spec = makeSpec(true, "http://somehost.com/somegadget.xml");
+
+    String target = lockedDomainService.getLockedDomainForGadget(spec, "default");
+    Cache<String, String> hashes =
+        cacheProvider.createCache(HashLockedDomainService.LOCKED_DOMAINS);
+    assertEquals(1, hashes.getSize());
+
+    GadgetSpec substituted = spec.substitute(new Substitutions());
+    assertEquals(target, lockedDomainService.getLockedDomainForGadget(substituted, "default"));
+    assertTrue(lockedDomainService.gadgetCanRender(target, substituted, "default"));
+    assertFalse(lockedDomainService.gadgetCanRender(target + "x", substituted, "default"));
+    assertEquals(1, hashes.getSize());
+  }
 }
@@ -19,6 +19,9 @@
 package org.apache.shindig.gadgets.encoding;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -72,4 +75,76 @@ public class EncodingDetectorTest {
 
     assertEquals("UTF-8", EncodingDetector.detectEncoding(data, true));
   }
+
+  @Test
+  public void truncatedUtf8IsNotUtf8() throws Exception {
+    byte[] data = "Mang\u00E1".getBytes("UTF-8");
+    byte[] truncated = new byte[data.length - 1];
+    System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+    assertEquals("ISO-8859-1", EncodingDetector.detectEncoding(truncated, true));
+    assertFalse(EncodingDetector.isUtf8(truncated));
+  }
+
+  @Test
+  public void longAsciiIsUtf8() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; ++i) {
+      text.append("Hello, world ").append(i);
+    }
+    byte[] data = text.toString().getBytes("US-ASCII");
+
+    assertEquals("UTF-8", EncodingDetector.detectEncoding(data, true));
+    assertTrue(EncodingDetector.isUtf8(data));
+  }
+
+  @Test
+  public void overlongSequenceIsNotUtf8() {
+    // '/' encoded in two bytes.
+    byte[] data = new byte[] {'a', (byte)0xC0, (byte)0xAF, 'b'};
+
+    assertFalse(EncodingDetector.isUtf8(data));
+  }
+
+  @Test
+  public void longUtf8IsCheckedInPieces() throws Exception {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 5000; ++i) {
+      text.append("Mang\u00E1 \u4F60\u597D ");
+    }
+    byte[] data = text.toString().getBytes("UTF-8");
+    assertTrue(EncodingDetector.isUtf8(data));
+
+    data[data.length - 1] = (byte)0xE4;
+    assertFalse(EncodingDetector.isUtf8(data));
+  }
+
+  @Test
+  public void decodeUtf8ReturnsTextOnlyForUtf8() throws Exception {
+    String text = "Mang\u00E1 \u4F60\u597D";
+    assertEquals(text, EncodingDetector.decodeUtf8(text.getBytes("UTF-8")));
+    assertNull(EncodingDetector.decodeUtf8(new byte[] {'a', (byte)0xC0, (byte)0xAF}));
+  }
+
+  @Test
+  public void xmlDeclarationIsUsed() throws Exception {
+    byte[] data = "<?xml version=\"1.0\" encoding=\"windows-1252\"?><feed/>".getBytes("US-ASCII");
+
+    assertEquals("WINDOWS-1252", EncodingDetector.detectEncoding(data, true));
+  }
+
+  @Test
+  public void metaHttpEquivIsUsed() throws Exception {
+    byte[] data = ("<html><head><meta http-equiv=\"Content-Type\" " +
+                   "content=\"text/html; charset=Shift_JIS\"></head></html>").getBytes("US-ASCII");
+
+    assertEquals("SHIFT_JIS", EncodingDetector.detectEncoding(data, true));
+  }
+
+  @Test
+  public void unsupportedDeclarationIsIgnored() throws Exception {
+    byte[] data = "<meta charset=\"no-such-charset\">hello".getBytes("US-ASCII");
+
+    assertEquals("UTF-8", EncodingDetector.detectEncoding(data, true));
+  }
 }
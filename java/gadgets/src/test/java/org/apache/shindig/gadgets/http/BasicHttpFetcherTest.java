@@ -17,12 +17,25 @@
  */
 package org.apache.shindig.gadgets.http;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 import org.apache.shindig.common.cache.CacheProvider;
 import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.uri.UriBuilder;
+import org.apache.shindig.common.util.TimeSource;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 public class BasicHttpFetcherTest extends AbstractHttpFetcherTest {
+  private static final Uri BASE_URL = Uri.parse("http://localhost:9003/");
 
   @Before
   public void setUp() {
@@ -30,4 +43,95 @@ public class BasicHttpFetcherTest extends AbstractHttpFetcherTest {
     HttpCache cache = new DefaultHttpCache(cacheProvider);
     fetcher = new BasicHttpFetcher(cache, Integer.MAX_VALUE);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testStreamedFetch() throws Exception {
+    String content = "Hello, world!";
+    Uri uri = new UriBuilder(BASE_URL).addQueryParameter("body", content).toUri();
+    RecordingSink sink = new RecordingSink(true);
+
+    HttpResponse response = ((BasicHttpFetcher) fetcher).fetch(new HttpRequest(uri), sink);
+
+    assertNull(response);
+    assertEquals(200, sink.head.getHttpStatusCode());
+    assertEquals(content, sink.body);
+  }
+
+  @Test
+  public void testDeclinedStreamIsBuffered() throws Exception {
+    String content = "Hello, world!";
+    Uri uri = new UriBuilder(BASE_URL).addQueryParameter("body", content).toUri();
+    RecordingSink sink = new RecordingSink(false);
+
+    HttpResponse response = ((BasicHttpFetcher) fetcher).fetch(new HttpRequest(uri), sink);
+
+    assertEquals(200, response.getHttpStatusCode());
+    assertEquals(content, response.getResponseAsString());
+    assertNull(sink.body);
+  }
+
+  @Test
+  public void testRangedAnswerIsNotCached() throws Exception {
+    Uri uri = new UriBuilder(BASE_URL)
+        .addQueryParameter("body", "Hello, world!")
+        .addQueryParameter(EchoServer.RANGE_STATUS_PARAM, "416")
+        .toUri();
+    HttpRequest ranged = new HttpRequest(uri).addHeader("Range", "bytes=100-");
+    HttpResponse response = ((BasicHttpFetcher) fetcher).fetch(ranged, new RecordingSink(false));
+    assertEquals(416, response.getHttpStatusCode());
+
+    // The error only applies to the range, not to the resource.
+    response = fetcher.fetch(new HttpRequest(uri));
+    assertEquals(200, response.getHttpStatusCode());
+    assertEquals("Hello, world!", response.getResponseAsString());
+  }
+
+  @Test
+  public void testSlowResponseTimesOut() throws Exception {
+    Uri uri = new UriBuilder(BASE_URL)
+        .addQueryParameter("body", "slow")
+        .addQueryParameter(EchoServer.DELAY_PARAM, "2000")
+        .toUri();
+    HttpRequest request = new HttpRequest(uri).setReadTimeout(100);
+    long start = System.currentTimeMillis();
+    HttpResponse response = fetcher.fetch(request);
+    assertEquals(HttpResponse.SC_GATEWAY_TIMEOUT, response.getHttpStatusCode());
+    assertTrue(System.currentTimeMillis() - start < 2000);
+  }
+
+  @Test
+  public void testOpenCircuitFailsFast() throws Exception {
+    HostHealthTracker tracker = new HostHealthTracker(new TimeSource(), 1, 60000L);
+    ((BasicHttpFetcher) fetcher).setHealthTracker(tracker);
+    Uri failing = new UriBuilder(BASE_URL)
+        .addQueryParameter("body", "down")
+        .addQueryParameter("status", "503")
+        .toUri();
+    assertEquals(503, fetcher.fetch(new HttpRequest(failing)).getHttpStatusCode());
+
+    // The host is not asked again while its circuit is open.
+    Uri healthy = new UriBuilder(BASE_URL).addQueryParameter("body", "up").toUri();
+    HttpResponse response = fetcher.fetch(new HttpRequest(healthy));
+    assertEquals(503, response.getHttpStatusCode());
+    assertEquals("", response.getResponseAsString());
+    assertEquals(1, tracker.getRejectedCount());
+  }
+
+  private static class RecordingSink implements StreamingHttpFetcher.BodySink {
+    private final boolean accept;
+    private HttpResponse head;
+    private String body;
+
+    private RecordingSink(boolean accept) {
+      this.accept = accept;
+    }
+
+    public boolean stream(HttpResponse head, InputStream body) throws IOException {
+      this.head = head;
+      if (accept) {
+        this.body = IOUtils.toString(body, "UTF-8");
+      }
+      return accept;
+    }
+  }
+}
@@ -38,6 +38,8 @@ public class EchoServer extends FakeHttpServer {
   public static final String STATUS_PARAM = "status";
   public static final String BODY_PARAM = "body";
   public static final String HEADER_PARAM = "header";
+  public static final String RANGE_STATUS_PARAM = "rangeStatus";
+  public static final String DELAY_PARAM = "delay";
 
   @Override
   protected void addServlets() throws Exception {
@@ -60,6 +62,16 @@ public class EchoServer extends FakeHttpServer {
       if (req.getParameter(STATUS_PARAM) != null) {
         code = Integer.parseInt(req.getParameter(STATUS_PARAM));
       }
+      if (req.getHeader("Range") != null && req.getParameter(RANGE_STATUS_PARAM) != null) {
+        code = Integer.parseInt(req.getParameter(RANGE_STATUS_PARAM));
+      }
+      if (req.getParameter(DELAY_PARAM) != null) {
+        try {
+          Thread.sleep(Long.parseLong(req.getParameter(DELAY_PARAM)));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
       resp.setStatus(code);
       
       String[] headers = req.getParameterValues(HEADER_PARAM);
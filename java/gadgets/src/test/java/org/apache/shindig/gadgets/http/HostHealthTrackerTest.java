@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.metrics.Metrics;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.FakeTimeSource;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * Tests for HostHealthTracker.
+ */
+public class HostHealthTrackerTest {
+  private static final Uri URI = Uri.parse("http://example.org/gadget.xml");
+  private static final Uri OTHER_PATH = Uri.parse("http://EXAMPLE.org/bundle.xml");
+  private static final Uri OTHER_HOST = Uri.parse("http://example.com/gadget.xml");
+
+  private final FakeTimeSource timeSource = new FakeTimeSource();
+  private final HostHealthTracker tracker = new HostHealthTracker(timeSource, 3, 10000L);
+
+  private void failRequests(Uri uri, int times) {
+    for (int i = 0; i < times; i++) {
+      assertTrue(tracker.allowRequest(uri));
+      tracker.recordFailure(uri);
+    }
+  }
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    failRequests(URI, 2);
+    assertEquals(HostHealthTracker.State.CLOSED, tracker.getState(URI));
+    failRequests(URI, 1);
+    assertEquals(HostHealthTracker.State.OPEN, tracker.getState(URI));
+    assertFalse(tracker.allowRequest(OTHER_PATH));
+    assertTrue(tracker.allowRequest(OTHER_HOST));
+    assertEquals(1, tracker.getOpenCount());
+    assertEquals(1, tracker.getRejectedCount());
+  }
+
+  @Test
+  public void successResetsFailures() {
+    failRequests(URI, 2);
+    tracker.recordSuccess(URI);
+    failRequests(URI, 2);
+    assertEquals(HostHealthTracker.State.CLOSED, tracker.getState(URI));
+    assertEquals(0, tracker.getOpenCount());
+  }
+
+  @Test
+  public void singleTrialAfterRetryInterval() {
+    failRequests(URI, 3);
+    timeSource.incrementSeconds(11);
+    assertTrue(tracker.allowRequest(URI));
+    assertEquals(HostHealthTracker.State.HALF_OPEN, tracker.getState(URI));
+    assertFalse(tracker.allowRequest(URI));
+
+    tracker.recordSuccess(URI);
+    assertEquals(HostHealthTracker.State.CLOSED, tracker.getState(URI));
+    assertTrue(tracker.allowRequest(URI));
+  }
+
+  @Test
+  public void failedTrialReopens() {
+    failRequests(URI, 3);
+    timeSource.incrementSeconds(11);
+    assertTrue(tracker.allowRequest(URI));
+    tracker.recordFailure(URI);
+    assertEquals(HostHealthTracker.State.OPEN, tracker.getState(URI));
+    assertFalse(tracker.allowRequest(URI));
+    timeSource.incrementSeconds(11);
+    assertTrue(tracker.allowRequest(URI));
+  }
+
+  @Test
+  public void zeroThresholdNeverOpens() {
+    HostHealthTracker disabled = new HostHealthTracker(timeSource, 0, 10000L);
+    for (int i = 0; i < 10; i++) {
+      disabled.recordFailure(URI);
+    }
+    assertTrue(disabled.allowRequest(URI));
+  }
+
+  @Test
+  public void trackedHostsAreBounded() {
+    tracker.setMaxHosts(2);
+    failRequests(URI, 3);
+    failRequests(OTHER_HOST, 1);
+    Uri third = Uri.parse("http://example.net/gadget.xml");
+    failRequests(third, 3);
+    assertEquals(2, tracker.getHostCount());
+    assertTrue(tracker.allowRequest(third));
+
+    // Hosts that stop failing are forgotten to make room.
+    timeSource.incrementSeconds(HostHealthTracker.IDLE_INTERVALS * 10 + 1);
+    failRequests(third, 3);
+    assertEquals(1, tracker.getHostCount());
+    assertEquals(HostHealthTracker.State.OPEN, tracker.getState(third));
+  }
+
+  @Test
+  public void statesAreReportedAsGauges() {
+    Metrics metrics = new Metrics();
+    tracker.setMetrics(metrics);
+    failRequests(URI, 3);
+    failRequests(OTHER_HOST, 1);
+    tracker.allowRequest(URI);
+
+    Map<String, Number> values = metrics.getValues();
+    assertEquals(1L, values.get("gauge.http.breaker.closed"));
+    assertEquals(1L, values.get("gauge.http.breaker.open"));
+    assertEquals(0L, values.get("gauge.http.breaker.half-open"));
+    assertEquals(1L, values.get("gauge.http.breaker.rejected"));
+  }
+}
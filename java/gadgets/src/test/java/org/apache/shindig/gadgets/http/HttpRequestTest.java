@@ -118,7 +118,8 @@ public class HttpRequestTest {
         .setSecurityToken(new AnonymousSecurityToken())
         .setOAuthArguments(oauthArguments)
         .setAuthType(AuthType.OAUTH)
-        .setFollowRedirects(false);
+        .setFollowRedirects(false)
+        .setReadTimeout(500);
 
     HttpRequest request2 = new HttpRequest(request).setUri(Uri.parse("http://example.org/foo"));
 
@@ -136,5 +137,6 @@ public class HttpRequestTest {
         request2.getOAuthArguments().getSignViewer());
     assertEquals(AuthType.OAUTH, request.getAuthType());
     assertFalse(request.getFollowRedirects());
+    assertEquals(request.getReadTimeout(), request2.getReadTimeout());
   }
 }
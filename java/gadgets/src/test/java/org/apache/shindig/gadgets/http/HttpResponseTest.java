@@ -114,6 +114,50 @@ public class HttpResponseTest extends TestCase {
     assertEquals(LATIN1_STRING, response.getResponseAsString());
   }
 
+  public void testEncodingDetectionUtf8NoCharsetSpecified() throws Exception {
+    String body = "<html>Mang\u00E1 \u4F60\u597D</html>";
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/html")
+        .setResponse(body.getBytes("UTF-8"))
+        .create();
+    assertEquals("UTF-8", response.getEncoding());
+    assertEquals("text/html; charset=UTF-8", response.getHeader("Content-Type"));
+    assertEquals(body, response.getResponseAsString());
+  }
+
+  public void testEncodingDetectionLargeUtf8NoCharsetSpecified() throws Exception {
+    StringBuilder text = new StringBuilder();
+    while (text.length() < HttpResponse.MAX_DECODED_BODY_BYTES) {
+      text.append("Mang\u00E1 \u4F60\u597D ");
+    }
+    String body = text.toString();
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/html")
+        .setResponse(body.getBytes("UTF-8"))
+        .create();
+    assertEquals("UTF-8", response.getEncoding());
+    assertEquals(body, response.getResponseAsString());
+  }
+
+  public void testEncodingDetectionUsesMetaCharset() throws Exception {
+    byte[] data = "<html><head><meta charset=\"iso-8859-1\"></head>Mang\u00E1</html>"
+        .getBytes("ISO-8859-1");
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/html")
+        .setResponse(data)
+        .create();
+    assertEquals("ISO-8859-1", response.getEncoding());
+    assertTrue(response.getResponseAsString().contains("Mang\u00E1"));
+  }
+
+  public void testGetEncodingWithOtherParameters() throws Exception {
+    HttpResponse response = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/plain; format=flowed; charset=TEST-CHARACTER-SET")
+        .setResponse(new byte[] {'j', 'u', 'n', 'k'})
+        .create();
+    assertEquals("TEST-CHARACTER-SET", response.getEncoding());
+  }
+
   public void testEncodingDetectionUtf8WithBomNoContentHeader() throws Exception {
     HttpResponse response = new HttpResponseBuilder()
         .setResponse(UTF8_DATA)
@@ -19,9 +19,13 @@
 package org.apache.shindig.gadgets.oauth;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.collect.Lists;
+
 import net.oauth.OAuthConsumer;
 import net.oauth.OAuthServiceProvider;
 import net.oauth.signature.RSA_SHA1;
@@ -31,10 +35,25 @@ import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.oauth.BasicOAuthStoreConsumerKeyAndSecret.KeyType;
 import org.apache.shindig.gadgets.oauth.OAuthStore.ConsumerInfo;
 import org.apache.shindig.gadgets.oauth.OAuthStore.TokenInfo;
+import org.apache.shindig.gadgets.oauth.testing.FakeOAuthServiceProvider;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
 public class BasicOAuthStoreTest {
+
+  private static final Logger logger = Logger.getLogger(BasicOAuthStoreTest.class.getName());
   
   private static final String SAMPLE_FILE =
     "{" +
@@ -88,7 +107,7 @@ public class BasicOAuthStoreTest {
   }
   
   @Test
-  public void testGetAndSetAndRemoveToken() {
+  public void testGetAndSetAndRemoveToken() throws Exception {
     FakeGadgetToken t = new FakeGadgetToken();
     ConsumerInfo consumer = new ConsumerInfo(null, null);
     t.setAppUrl("http://localhost:8080/gadgets/files/samplecontainer/examples/oauth.xml");
@@ -136,4 +155,124 @@ public class BasicOAuthStoreTest {
     assertEquals(provider, consumer.getConsumer().serviceProvider);
     assertEquals("keyname", consumer.getKeyName());
   }
+
+  @Test
+  public void testRsaKeyIsParsedOnce() throws Exception {
+    BasicOAuthStoreConsumerKeyAndSecret cks = new BasicOAuthStoreConsumerKeyAndSecret(
+        "somekey", FakeOAuthServiceProvider.PRIVATE_KEY_TEXT, KeyType.RSA_PRIVATE, "keyname");
+    store.setDefaultKey(cks);
+    FakeGadgetToken t = new FakeGadgetToken();
+    t.setAppUrl("http://localhost:8080/not-in-store.xml");
+    OAuthServiceProvider provider = new OAuthServiceProvider("req", "authorize", "access");
+
+    ConsumerInfo first = store.getConsumerKeyAndSecret(t, "", provider);
+    ConsumerInfo second = store.getConsumerKeyAndSecret(t, "", provider);
+    Object key = first.getConsumer().getProperty(RSA_SHA1.PRIVATE_KEY);
+    assertTrue(key instanceof PrivateKey);
+    assertTrue(key == second.getConsumer().getProperty(RSA_SHA1.PRIVATE_KEY));
+  }
+
+  @Test
+  public void testTokensArePersisted() throws Exception {
+    File file = File.createTempFile("oauthtokens", ".txt");
+    file.deleteOnExit();
+    BasicOAuthStoreFileTokenPersister persister = new BasicOAuthStoreFileTokenPersister(file);
+    store.setTokenPersister(persister);
+
+    FakeGadgetToken t = new FakeGadgetToken();
+    ConsumerInfo consumer = new ConsumerInfo(null, null);
+    t.setAppUrl("http://localhost:8080/gadgets/files/samplecontainer/examples/oauth.xml");
+    t.setViewerId("viewer-one");
+    store.setTokenInfo(t, consumer, "service", "token", new TokenInfo("token", "secret", "h", 5));
+    store.setTokenInfo(t, consumer, "service", "other", new TokenInfo("other", "s", null, 0));
+    store.setTokenInfo(t, consumer, "service", "token", new TokenInfo("new", "secret2", null, 7));
+    store.removeToken(t, consumer, "service", "other");
+    persister.close();
+
+    // A new store, as after a restart
+    BasicOAuthStore restarted = new BasicOAuthStore();
+    restarted.setTokenPersister(new BasicOAuthStoreFileTokenPersister(file));
+    TokenInfo info = restarted.getTokenInfo(t, consumer, "service", "token");
+    assertEquals("new", info.getAccessToken());
+    assertEquals("secret2", info.getTokenSecret());
+    assertNull(info.getSessionHandle());
+    assertEquals(7, info.getTokenExpireMillis());
+    assertNull(restarted.getTokenInfo(t, consumer, "service", "other"));
+  }
+
+  @Test
+  public void testTokensSurviveInterruptedCompaction() throws Exception {
+    File file = File.createTempFile("oauthtokens", ".txt");
+    file.deleteOnExit();
+    File backup = new File(file.getPath() + ".bak");
+    backup.deleteOnExit();
+    File compacted = new File(file.getPath() + ".tmp");
+    compacted.deleteOnExit();
+    BasicOAuthStoreFileTokenPersister persister = new BasicOAuthStoreFileTokenPersister(file);
+    store.setTokenPersister(persister);
+
+    FakeGadgetToken t = new FakeGadgetToken();
+    ConsumerInfo consumer = new ConsumerInfo(null, null);
+    t.setAppUrl("http://localhost:8080/gadgets/files/samplecontainer/examples/oauth.xml");
+    t.setViewerId("viewer-one");
+    store.setTokenInfo(t, consumer, "service", "token", new TokenInfo("token", "secret", "h", 5));
+    persister.close();
+
+    // The server stopped after moving the journal aside, part way through the compacted copy.
+    assertTrue(file.renameTo(backup));
+    Writer writer = new OutputStreamWriter(new FileOutputStream(compacted), "UTF-8");
+    writer.write("{\"op\":\"sto");
+    writer.close();
+
+    BasicOAuthStore restarted = new BasicOAuthStore();
+    restarted.setTokenPersister(new BasicOAuthStoreFileTokenPersister(file));
+    assertEquals("token", restarted.getTokenInfo(t, consumer, "service", "token").getAccessToken());
+    assertTrue(file.exists());
+    assertFalse(backup.exists());
+    assertFalse(compacted.exists());
+
+    // The journal was deleted before the compacted copy, which is complete, was renamed.
+    assertTrue(file.renameTo(compacted));
+    restarted = new BasicOAuthStore();
+    restarted.setTokenPersister(new BasicOAuthStoreFileTokenPersister(file));
+    assertEquals("token", restarted.getTokenInfo(t, consumer, "service", "token").getAccessToken());
+    assertTrue(file.exists());
+  }
+
+  @Test
+  public void testConcurrentAccess() throws Exception {
+    final int threads = 16;
+    final int iterations = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> results = Lists.newArrayList();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < threads; i++) {
+      final String viewer = "viewer-" + i;
+      results.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          FakeGadgetToken t = new FakeGadgetToken();
+          t.setAppUrl("http://rsagadget/test.xml");
+          t.setViewerId(viewer);
+          OAuthServiceProvider provider = new OAuthServiceProvider("req", "authorize", "access");
+          for (int j = 0; j < iterations; j++) {
+            ConsumerInfo consumer = store.getConsumerKeyAndSecret(t, "", provider);
+            String tokenName = "token" + (j % 10);
+            store.setTokenInfo(t, consumer, "", tokenName, new TokenInfo(viewer, "s", null, 0));
+            assertEquals(viewer, store.getTokenInfo(t, consumer, "", tokenName).getAccessToken());
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> result : results) {
+      result.get();
+    }
+    executor.shutdown();
+    long time = System.currentTimeMillis() - start;
+    assertEquals(threads * iterations, store.getConsumerKeyLookupCount());
+    assertEquals(threads * iterations, store.getAccessTokenLookupCount());
+    assertEquals(threads * iterations, store.getAccessTokenAddCount());
+    logger.info(threads + " threads did " + (threads * iterations * 3) + " store operations in "
+        + time + "ms");
+  }
 }
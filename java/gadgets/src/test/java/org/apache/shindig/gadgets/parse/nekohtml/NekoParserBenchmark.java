@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.parse.nekohtml;
+
+import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.ParseModule;
+
+import org.apache.commons.io.IOUtils;
+
+import org.w3c.dom.DOMImplementation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares NekoSimplifiedHtmlParser with a new pipeline per document against reused per-thread
+ * pipelines, over a corpus of HTML files. Reports parse throughput and, on JVMs that can count
+ * them, the bytes allocated per document.
+ */
+public class NekoParserBenchmark {
+  private static final DOMImplementation DOCUMENT_PROVIDER =
+      new ParseModule.DOMImplementationProvider().get();
+
+  private final List<String> corpus = new ArrayList<String>();
+  private int numRuns;
+  private boolean warmup;
+
+  private NekoParserBenchmark(File input, int numRuns) throws Exception {
+    File[] files = input.isDirectory() ? input.listFiles() : new File[] { input };
+    for (File file : files) {
+      if (file.isFile() && file.canRead()) {
+        corpus.add(new String(IOUtils.toByteArray(new FileInputStream(file)), "UTF-8"));
+      }
+    }
+    if (corpus.isEmpty()) {
+      System.err.println("No readable HTML files in " + input);
+      System.exit(1);
+    }
+
+    GadgetHtmlParser fresh = new NekoSimplifiedHtmlParser(DOCUMENT_PROVIDER, false);
+    GadgetHtmlParser reused = new NekoSimplifiedHtmlParser(DOCUMENT_PROVIDER, true);
+
+    this.numRuns = 100;
+    warmup = true;
+    time("New pipeline per document", fresh);
+    time("Reused pipeline", reused);
+    // Sleep to let JIT kick in
+    Thread.sleep(10000L);
+    this.numRuns = numRuns;
+    warmup = false;
+    time("New pipeline per document", fresh);
+    time("Reused pipeline", reused);
+  }
+
+  private void output(String string) {
+    if (!warmup) {
+      System.out.println(string);
+    }
+  }
+
+  private void time(String name, GadgetHtmlParser parser) throws Exception {
+    long allocatedStart = getAllocatedBytes();
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; ++i) {
+      for (String content : corpus) {
+        parser.parseDom(content);
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+    long allocated = getAllocatedBytes() - allocatedStart;
+    int docs = numRuns * corpus.size();
+
+    output(name + " [" + millis + " ms total: " + ((double) docs * 1000) / Math.max(millis, 1)
+        + " docs/s]");
+    if (allocatedStart >= 0) {
+      output(name + " [" + allocated / docs + " bytes allocated/doc]");
+    }
+  }
+
+  /**
+   * @return bytes allocated by this thread so far, or -1 if the JVM can't tell.
+   */
+  private static long getAllocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    try {
+      Method method = threads.getClass().getMethod("getThreadAllocatedBytes", long.class);
+      method.setAccessible(true);
+      return (Long) method.invoke(threads, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      System.err.println("Args: <html-file-or-directory> <num-runs>");
+      System.exit(1);
+    }
+    try {
+      new NekoParserBenchmark(new File(args[0]), Integer.parseInt(args[1]));
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
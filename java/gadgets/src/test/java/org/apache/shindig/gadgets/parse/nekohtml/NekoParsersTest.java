@@ -79,6 +79,24 @@ public class NekoParsersTest extends TestCase {
     parseAndCompareBalanced(content, expected, simple);
   }
 
+  public void testReusedPipelineKeepsNoState() throws Exception {
+    // The same thread's pipeline parses each of these in turn.
+    String doc = load("test.html");
+    String docExpected = load("test-expected.html");
+    String fragment = load("test-fragment.html");
+    String fragmentExpected = load("test-fragment-expected.html");
+    parseAndCompareBalanced(doc, docExpected, simple);
+    parseAndCompareBalanced(fragment, fragmentExpected, simple);
+    assertNull(simple.parseDom(load("test-fulldocnodoctype.html")).getDoctype());
+    parseAndCompareBalanced(doc, docExpected, simple);
+    parseAndCompareBalanced(fragment, fragmentExpected, simple);
+  }
+
+  private String load(String name) throws Exception {
+    return IOUtils.toString(this.getClass().getClassLoader().getResourceAsStream(
+        "org/apache/shindig/gadgets/parse/nekohtml/" + name));
+  }
+
   private void parseAndCompareBalanced(String content, String expected, GadgetHtmlParser parser)
       throws Exception {
     Document document = parser.parseDom(content);
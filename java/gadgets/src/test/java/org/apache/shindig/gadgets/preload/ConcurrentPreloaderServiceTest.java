@@ -19,16 +19,18 @@ package org.apache.shindig.gadgets.preload;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertSame;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 import org.apache.shindig.common.testing.TestExecutorService;
 import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 
+import org.json.JSONObject;
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -85,7 +87,7 @@ public class ConcurrentPreloaderServiceTest {
   }
 
   @Test
-  public void multiplePreloadsFiresJustOneInCurrentThread() throws Exception {
+  public void preloadsDoNotRunInCurrentThread() throws Exception {
     preloader.tasks.put(PRELOAD_STRING_KEY,
         new TestPreloadCallable(new DataPreload(PRELOAD_STRING_VALUE)));
 
@@ -98,37 +100,36 @@ public class ConcurrentPreloaderServiceTest {
     PreloaderService service = new ConcurrentPreloaderService(Executors.newFixedThreadPool(5),
         Arrays.<Preloader>asList(preloader));
 
-    service.preload(null, null);
-
-    TestPreloadCallable ranInSameThread = null;
-    for (Callable<PreloadedData> callable : preloader.tasks.values()) {
-      TestPreloadCallable preloadCallable = (TestPreloadCallable)callable;
-      if (ranInSameThread != null) {
-        fail("More than one request ran in the current thread.");
-      }
+    Preloads preloads = service.preload(null, null);
 
-      if (preloadCallable.executedThread == Thread.currentThread()) {
-        ranInSameThread = preloadCallable;
-      }
+    for (Map.Entry<String, Callable<PreloadedData>> entry : preloader.tasks.entrySet()) {
+      preloads.getData(entry.getKey());
+      TestPreloadCallable preloadCallable = (TestPreloadCallable)entry.getValue();
+      assertNotNull(preloadCallable.executedThread);
+      assertNotSame("Preload ran in the current thread.",
+          Thread.currentThread(), preloadCallable.executedThread);
     }
-
-    assertNotNull("No preloads executed in the current thread. ", ranInSameThread);
   }
 
   @Test
-  public void singlePreloadExecutesInCurrentThread() throws Exception {
+  public void slowPreloadTimesOut() throws Exception {
     preloader.tasks.put(PRELOAD_STRING_KEY,
-        new TestPreloadCallable(new DataPreload(PRELOAD_STRING_VALUE)));
-
-    PreloaderService service = new ConcurrentPreloaderService(Executors.newCachedThreadPool(),
-        Arrays.<Preloader>asList(preloader));
+        new TestPreloadCallable(new DataPreload(PRELOAD_STRING_VALUE), 10000L));
+    preloader.tasks.put(PRELOAD_NUMERIC_KEY,
+        new TestPreloadCallable(new DataPreload(PRELOAD_NUMERIC_VALUE)));
 
-    service.preload(null, null);
+    ConcurrentPreloaderService service = new ConcurrentPreloaderService(
+        Executors.newCachedThreadPool(), Arrays.<Preloader>asList(preloader), 200L, 100L);
 
-    TestPreloadCallable callable = (TestPreloadCallable)preloader.tasks.get(PRELOAD_STRING_KEY);
+    long start = System.currentTimeMillis();
+    Preloads preloads = service.preload(null, null);
+    JSONObject timedOut = (JSONObject) preloads.getData(PRELOAD_STRING_KEY).toJson();
+    assertEquals(HttpResponse.SC_GATEWAY_TIMEOUT, timedOut.getInt("rc"));
+    assertEquals(PRELOAD_NUMERIC_VALUE, preloads.getData(PRELOAD_NUMERIC_KEY).toJson());
+    assertTrue(System.currentTimeMillis() - start < 5000L);
 
-    assertSame("Single request not run in current thread",
-        Thread.currentThread(), callable.executedThread);
+    assertEquals(1, service.getStatistics().getTimeoutCount());
+    assertEquals(2, service.getStatistics().getWaitCount());
   }
 
   @Test(expected = PreloadException.class)
@@ -150,14 +151,23 @@ public class ConcurrentPreloaderServiceTest {
 
   private static class TestPreloadCallable implements Callable<PreloadedData> {
     private final PreloadedData preload;
-    public Thread executedThread;
+    private final long delay;
+    public volatile Thread executedThread;
 
     public TestPreloadCallable(PreloadedData preload) {
+      this(preload, 0L);
+    }
+
+    public TestPreloadCallable(PreloadedData preload, long delay) {
       this.preload = preload;
+      this.delay = delay;
     }
 
     public PreloadedData call() throws Exception {
       executedThread = Thread.currentThread();
+      if (delay > 0) {
+        Thread.sleep(delay);
+      }
       if (preload == null) {
         throw new PreloadException("No preload for this test.");
       }
@@ -18,18 +18,24 @@
 package org.apache.shindig.gadgets.process;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import org.apache.shindig.common.ContainerConfig;
 import org.apache.shindig.common.ContainerConfigException;
 import org.apache.shindig.common.JsonContainerConfig;
+import org.apache.shindig.common.cache.CacheStatistics;
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.Gadget;
 import org.apache.shindig.gadgets.GadgetBlacklist;
 import org.apache.shindig.gadgets.GadgetContext;
 import org.apache.shindig.gadgets.GadgetException;
 import org.apache.shindig.gadgets.GadgetSpecFactory;
+import org.apache.shindig.gadgets.HashLockedDomainService;
 import org.apache.shindig.gadgets.spec.GadgetSpec;
+import org.apache.shindig.gadgets.spec.Substitutions;
 import org.apache.shindig.gadgets.variables.VariableSubstituter;
 
 import org.json.JSONArray;
@@ -39,6 +45,7 @@ import org.junit.Test;
 
 import java.net.URI;
 import java.util.Arrays;
+import java.util.Collection;
 
 public class ProcessorTest {
   private static final Uri SPEC_URL = Uri.parse("http://example.org/gadget.xml");
@@ -146,6 +153,29 @@ public class ProcessorTest {
     processor.process(makeContext("html", Uri.parse("file://foo")));
   }
 
+  @Test
+  public void lockedDomainHashedOncePerGadget() throws Exception {
+    substituter.copySpec = true;
+    containerConfig.json.put(HashLockedDomainService.LOCKED_DOMAIN_SUFFIX_KEY, "-a.example.com");
+    containerConfig.json.put(HashLockedDomainService.LOCKED_DOMAIN_REQUIRED_KEY, "true");
+    LruCacheProvider cacheProvider = new LruCacheProvider(10);
+    HashLockedDomainService lockedDomainService
+        = new HashLockedDomainService(containerConfig, true);
+    lockedDomainService.setCacheProvider(cacheProvider);
+
+    Gadget first = processor.process(makeContext("html"));
+    String host = lockedDomainService.getLockedDomainForGadget(first.getSpec(), "default");
+    Gadget second = processor.process(makeContext("html"));
+    assertNotSame(first.getSpec(), second.getSpec());
+    assertTrue(lockedDomainService.gadgetCanRender(host, second.getSpec(), "default"));
+    assertEquals(host, lockedDomainService.getLockedDomainForGadget(second.getSpec(), "default"));
+
+    CacheStatistics hashes = (CacheStatistics) cacheProvider.<String, String>createCache(
+        HashLockedDomainService.LOCKED_DOMAINS);
+    assertEquals(1, hashes.getMissCount());
+    assertEquals(2, hashes.getHitCount());
+  }
+
   private static class FakeBlacklist implements GadgetBlacklist {
     private boolean wasChecked;
     private boolean isBlacklisted;
@@ -163,6 +193,11 @@ public class ProcessorTest {
       super(null);
     }
 
+    @Override
+    public Collection<String> getContainers() {
+      return Arrays.asList(ContainerConfig.DEFAULT_CONTAINER);
+    }
+
     @Override
     public Object getJson(String container, String parameter) {
       return json.opt(parameter);
@@ -185,6 +220,7 @@ public class ProcessorTest {
 
   private static class FakeVariableSubstituter extends VariableSubstituter {
     private boolean wasSubstituted;
+    private boolean copySpec;
 
     public FakeVariableSubstituter() {
       super(null);
@@ -193,6 +229,9 @@ public class ProcessorTest {
     @Override
     public GadgetSpec substitute(GadgetContext context, GadgetSpec spec) {
       wasSubstituted = true;
+      if (copySpec) {
+        return spec.substitute(new Substitutions());
+      }
       return spec;
     }
   }
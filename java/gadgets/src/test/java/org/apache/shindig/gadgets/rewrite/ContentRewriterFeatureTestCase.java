@@ -17,6 +17,8 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+
 import com.google.common.collect.Sets;
 
 import java.util.Set;
@@ -112,4 +114,39 @@ public class ContentRewriterFeatureTestCase extends BaseRewriterTestCase {
     assertNotNull(defaultRewriterFeature.getExpires() == 12345);
   }
 
+  public void testMinifyCssContainerDefault() throws Exception {
+    defaultRewriterFeature = new ContentRewriterFeature(createSpecWithoutRewrite(), ".*", "", "0",
+        tags, true, false);
+    assertTrue(defaultRewriterFeature.shouldMinifyCss());
+    ContentRewriterFeature unminified = new ContentRewriterFeature(createSpecWithoutRewrite(), ".*",
+        "", "0", tags);
+    assertFalse(unminified.shouldMinifyCss());
+    assertFalse(unminified.getFingerprint() == defaultRewriterFeature.getFingerprint());
+  }
+
+  public void testSpecMinifyCssOverridesContainerDefault() throws Exception {
+    GadgetSpec spec = new GadgetSpec(SPEC_URL, "<Module><ModulePrefs title='title'>" +
+        "<Optional feature='content-rewrite'><Param name='minify-css'>true</Param></Optional>" +
+        "</ModulePrefs><Content type='html'>Hello!</Content></Module>");
+    defaultRewriterFeature = new ContentRewriterFeature(spec, ".*", "", "0", tags, false, false);
+    assertTrue(defaultRewriterFeature.shouldMinifyCss());
+  }
+
+  public void testMinifyJsContainerDefault() throws Exception {
+    defaultRewriterFeature = new ContentRewriterFeature(createSpecWithoutRewrite(), ".*", "", "0",
+        tags, false, true);
+    assertTrue(defaultRewriterFeature.shouldMinifyJs());
+    assertFalse(defaultRewriterFeature.shouldMinifyCss());
+    ContentRewriterFeature minifiedCss = new ContentRewriterFeature(createSpecWithoutRewrite(),
+        ".*", "", "0", tags, true, false);
+    assertFalse(minifiedCss.getFingerprint() == defaultRewriterFeature.getFingerprint());
+  }
+
+  public void testSpecMinifyJsOverridesContainerDefault() throws Exception {
+    GadgetSpec spec = new GadgetSpec(SPEC_URL, "<Module><ModulePrefs title='title'>" +
+        "<Optional feature='content-rewrite'><Param name='minify-js'>false</Param></Optional>" +
+        "</ModulePrefs><Content type='html'>Hello!</Content></Module>");
+    defaultRewriterFeature = new ContentRewriterFeature(spec, ".*", "", "0", tags, false, true);
+    assertFalse(defaultRewriterFeature.shouldMinifyJs());
+  }
 }
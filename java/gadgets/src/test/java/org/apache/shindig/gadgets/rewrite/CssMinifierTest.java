@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for CssMinifier.
+ */
+public class CssMinifierTest extends TestCase {
+
+  private static void assertMinified(String expected, String css) {
+    assertEquals(expected, CssMinifier.minify(css));
+  }
+
+  public void testCommentsAndWhitespaceRemoved() {
+    assertMinified("div > p,a:hover{color:red;margin:0 auto}",
+        "/* header */\n div  >  p ,\n a:hover  {\n  color : red ;\n  margin: 0  auto ;\n }\n");
+  }
+
+  public void testLicenseCommentKept() {
+    assertMinified("/*! license */ p{color:red}", "/*! license */\np { color: red; }");
+  }
+
+  public void testCommentIsNotWhitespace() {
+    // A comment doesn't make a descendant selector, "div/**/.x" is the compound "div.x"
+    assertMinified("div.x,div .y{color:red}", "div/**/.x, div /**/.y { color: red }");
+    // but it does keep two names from running together
+    assertMinified("a/**/b{margin:1px/**/2px}", "a/* c */b { margin: 1px/**/2px }");
+  }
+
+  public void testSelectorWhitespaceKept() {
+    // "a :first-child" and "a:first-child" select different elements
+    assertMinified("a :first-child{color:red}", "a :first-child { color: red }");
+  }
+
+  public void testStringsAndUrlsUntouched() {
+    assertMinified("p{content:\"a ; b }\";background:url( 'x y.png' ) no-repeat}",
+        "p { content: \"a ; b }\"; background: url( 'x y.png' )  no-repeat; }");
+  }
+
+  public void testColorsShortened() {
+    assertMinified("p{color:#fff;border-color:#AbC #abcdef #aabbccdd}",
+        "p { color: #ffffff; border-color: #AAbbCC #abcdef #aabbccdd }");
+  }
+
+  public void testIdSelectorsNotShortened() {
+    assertMinified("#aabbcc{color:#abc}", "#aabbcc { color: #aabbcc }");
+  }
+
+  public void testFilterColorsNotShortened() {
+    assertMinified("p{filter:progid:DXImageTransform.Microsoft.gradient(startColorstr=#ffffff)}",
+        "p { filter: progid:DXImageTransform.Microsoft.gradient(startColorstr=#ffffff) }");
+  }
+
+  public void testLeadingZerosRemoved() {
+    assertMinified("p{margin:.5em 10.5px 0;font:12px/.8 serif}",
+        "p { margin: 0.5em 10.5px 0; font: 12px/0.8 serif }");
+  }
+
+  public void testNestedBlocks() {
+    assertMinified("@media screen and (max-width: 100px){a:hover{color:#fff}}",
+        "@media screen and (max-width: 100px) {\n  a:hover { color: #ffffff }\n}");
+  }
+
+  public void testEscapesUntouched() {
+    assertMinified("p{width:10px\\9}", "p { width: 10px\\9; }");
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+
+import com.google.common.collect.Sets;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+
+/**
+ * Compare size and throughput of plain, minified and cached stylesheet rewriting.
+ */
+public class CssRewriterBenchmark {
+
+  private final String content;
+  private final int numRuns;
+  private final Uri source = Uri.parse("http://www.example.org/dir/style.css");
+  private final LinkRewriter linkRewriter;
+  private final String linkRewriterKey;
+  private boolean warmup;
+
+  private CssRewriterBenchmark(String file, int numRuns) throws Exception {
+    File inputFile = new File(file);
+    if (!inputFile.exists() || !inputFile.canRead()) {
+      System.err.println("Input file: " + file + " not found or can't be read.");
+      System.exit(1);
+    }
+    content = new String(IOUtils.toByteArray(new FileInputStream(file)), "UTF-8");
+    this.numRuns = numRuns;
+
+    Uri gadgetUri = Uri.parse("http://www.example.org/dir/g.xml");
+    ContentRewriterFeature feature = new ContentRewriterFeature(null, ".*", "", "HTTP",
+        Sets.newHashSet("style"));
+    String proxyUrl = "http://www.example.org/gadgets/proxy?url=";
+    linkRewriter = new ProxyingLinkRewriter(gadgetUri, feature, proxyUrl);
+    linkRewriterKey = CachingCssRewriter.getLinkRewriterKey(gadgetUri, feature, proxyUrl);
+
+    CachingCssRewriter uncached = new CachingCssRewriter();
+    CachingCssRewriter cached = new CachingCssRewriter();
+    cached.setCacheProvider(new LruCacheProvider(10));
+
+    warmup = true;
+    run(uncached, false);
+    run(uncached, true);
+    run(cached, true);
+    warmup = false;
+
+    String plain = uncached.rewrite(content, source, linkRewriter, linkRewriterKey, false);
+    String minified = uncached.rewrite(content, source, linkRewriter, linkRewriterKey, true);
+    System.out.println("Original " + content.length() + " chars, rewritten " + plain.length()
+        + " chars, minified " + minified.length() + " chars ("
+        + (100 - (minified.length() * 100L) / plain.length()) + "% smaller)");
+    System.out.println("Rewrite------");
+    run(uncached, false);
+    System.out.println("Rewrite and minify------");
+    run(uncached, true);
+    System.out.println("Cached rewrite and minify------");
+    run(cached, true);
+  }
+
+  private void output(String content) {
+    if (!warmup) {
+      System.out.println(content);
+    }
+  }
+
+  private void run(CachingCssRewriter cssRewriter, boolean minify) {
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < numRuns; i++) {
+      cssRewriter.rewrite(content, source, linkRewriter, linkRewriterKey, minify);
+    }
+    long time = System.currentTimeMillis() - startTime;
+    output("[" + time + " ms total: " + ((double) time) / numRuns + "ms/run]");
+  }
+
+  public static void main(String[] args) {
+    // Run with a real gadget stylesheet, eg. one fetched from a popular gadget.
+    if (args.length != 2) {
+      System.err.println("Args: <input-file> <num-runs>");
+      System.exit(1);
+    }
+
+    String fileArg = args[0];
+    String runsArg = args[1];
+    int numRuns = -1;
+    try {
+      numRuns = Integer.parseInt(runsArg);
+    } catch (Exception e) {
+      System.err.println("Invalid num-runs argument: " + runsArg + ", reason: " + e);
+    }
+    try {
+      new CssRewriterBenchmark(fileArg, numRuns);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.gadgets.rewrite;
 
+import org.apache.shindig.common.cache.LruCacheProvider;
 import org.apache.shindig.common.uri.Uri;
 
 import com.google.common.collect.Lists;
@@ -74,4 +75,33 @@ public class CssRewriterTest extends BaseRewriterTestCase {
     assertEquals(stringList, Lists.newArrayList("www.example.org/some.css",
         "www.example.org/someother.css", "www.example.org/another.css"));
   }
+
+  public void testMinifiedRewrite() {
+    String original = "div {\n  background-image: url('http://a.b.com/bullet.gif');\n}\n";
+    String rewritten = "div{background-image:url(\"http://www.test.com/dir/proxy?url=http%3A%2F%2Fa.b.com%2Fbullet.gif&gadget=http%3A%2F%2Fwww.example.org%2Fdir%2Fg.xml&fp=-182800334\")}";
+    assertEquals(rewritten, new CachingCssRewriter().rewrite(original, dummyUri,
+        defaultLinkRewriter, "key", true));
+  }
+
+  public void testRewriteCached() {
+    final List<String> links = Lists.newArrayList();
+    LinkRewriter countingRewriter = new LinkRewriter() {
+      public String rewrite(String link, Uri context) {
+        links.add(link);
+        return link;
+      }
+    };
+    CachingCssRewriter cssRewriter = new CachingCssRewriter();
+    cssRewriter.setCacheProvider(new LruCacheProvider(10));
+    String original = "div { background-image: url(http://a.b.com/bullet.gif) }";
+
+    String first = cssRewriter.rewrite(original, dummyUri, countingRewriter, "key", false);
+    assertEquals(first, cssRewriter.rewrite(original, dummyUri, countingRewriter, "key", false));
+    assertEquals(1, links.size());
+
+    cssRewriter.rewrite(original, dummyUri, countingRewriter, "other", false);
+    cssRewriter.rewrite(original, dummyUri, countingRewriter, "key", true);
+    cssRewriter.rewrite(original + " ", dummyUri, countingRewriter, "key", false);
+    assertEquals(4, links.size());
+  }
 }
@@ -157,6 +157,25 @@ public class HTMLContentRewriterTest extends BaseRewriterTestCase {
         "div { color : black; }");
   }
 
+  public void testOnlyJavaScriptIsMinified() throws Exception {
+    ContentRewriterFeature minifyJs = new ContentRewriterFeature(createSpecWithoutRewrite(), ".*",
+        "", "HTTP", HTMLContentRewriter.TAGS, false, true);
+    rewriter = new HTMLContentRewriter(mockContentRewriterFeatureFactory(minifyJs),
+        DEFAULT_PROXY_BASE, DEFAULT_CONCAT_BASE);
+    String template = "\n  <div repeat='${Top.friends}'>\n    Hello   ${Cur.name}  !\n  </div>\n";
+    String content = "<html><head></head><body>" +
+        "<script type='text/os-template'>" + template + "</script>" +
+        "<script type='text/javascript; charset=UTF-8'>var  a = 1;\n</script>" +
+        "<script>var  b = 2;\n</script>" +
+        "</body></html>";
+    Document doc = rewriteContent(rewriter, content).getDocument();
+
+    XPathWrapper wrapper = new XPathWrapper(doc);
+    assertEquals(template, wrapper.getValue("/html/body/script[1]"));
+    assertEquals("var a=1;", wrapper.getValue("/html/body/script[2]"));
+    assertEquals("var b=2;", wrapper.getValue("/html/body/script[3]"));
+  }
+
   public void testNoRewriteUnknownMimeType() {
     // Strict mock as we expect no calls
     MutableContent mc = mock(MutableContent.class, true);
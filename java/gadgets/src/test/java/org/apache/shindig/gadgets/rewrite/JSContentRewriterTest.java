@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+
+/**
+ * Tests for JSContentRewriter.
+ */
+public class JSContentRewriterTest extends BaseRewriterTestCase {
+  private static final String SCRIPT = "// Say hello\nfunction hello(name) {\n  alert('Hi ' + name);\n}\n";
+
+  private HttpRequest request;
+  private HttpResponse response;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    request = new HttpRequest(Uri.parse("http://www.example.org/path/hello.js"));
+    request.setGadget(SPEC_URL);
+    request.setRewriteMimeType("text/javascript");
+    response = new HttpResponseBuilder().setResponseString(SCRIPT).create();
+  }
+
+  private JSContentRewriter createRewriter(boolean minifyJs) {
+    ContentRewriterFeature feature = new ContentRewriterFeature(null, ".*", "", "HTTP", tags,
+        false, minifyJs);
+    return new JSContentRewriter(mockContentRewriterFeatureFactory(feature),
+        new CachingJsMinifier());
+  }
+
+  public void testMinified() throws Exception {
+    MutableContent mc = new MutableContent(null, SCRIPT);
+    assertNotNull(createRewriter(true).rewrite(request, response, mc));
+    assertEquals("function hello(name){alert('Hi '+name);}", mc.getContent());
+  }
+
+  public void testNotMinifiedUnlessEnabled() throws Exception {
+    MutableContent mc = new MutableContent(null, SCRIPT);
+    assertNull(createRewriter(false).rewrite(request, response, mc));
+    assertEquals(SCRIPT, mc.getContent());
+  }
+
+  public void testBrokenScriptLeftAlone() throws Exception {
+    String broken = "var s = 'unterminated;\n";
+    MutableContent mc = new MutableContent(null, broken);
+    createRewriter(true).rewrite(request, response, mc);
+    assertEquals(broken, mc.getContent());
+  }
+
+  public void testNoRewriteUnknownMimeType() throws Exception {
+    request.setRewriteMimeType("text/css");
+    MutableContent mc = new MutableContent(null, SCRIPT);
+    assertNull(createRewriter(true).rewrite(request, response, mc));
+  }
+}
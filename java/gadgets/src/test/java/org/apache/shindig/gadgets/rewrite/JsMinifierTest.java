@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.rewrite;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for JsMinifier.
+ */
+public class JsMinifierTest extends TestCase {
+
+  private static void assertMinified(String expected, String js) {
+    assertEquals(expected, JsMinifier.minify(js));
+  }
+
+  public void testCommentsAndWhitespaceRemoved() {
+    assertMinified("var a=1;function f(x,y){return x*y;}",
+        "// comment\nvar a = 1;\n/* block\n comment */\nfunction f(x, y) {\n\treturn x * y;\n}\n");
+  }
+
+  public void testStringsUntouched() {
+    assertMinified("var s='a // b /* c */  d',t=\"\\\"  \\\"\";",
+        "var s = 'a // b /* c */  d', t = \"\\\"  \\\"\";");
+  }
+
+  public void testRegularExpressionsUntouched() {
+    assertMinified("var r=/ab+c\\/[/ ]/g.test(s);", "var r = /ab+c\\/[/ ]/g.test(s);");
+  }
+
+  public void testRegularExpressionAfterKeyword() {
+    assertMinified("function f(s){return /a  b/.test(s)||typeof /c d/;}",
+        "function f(s) {\n  return /a  b/.test(s) || typeof /c d/;\n}");
+  }
+
+  public void testDivisionNotTakenForRegularExpression() {
+    assertMinified("x=a/b/c;y=o.return/2/d;", "x = a / b / c;\ny = o.return / 2 / d;");
+  }
+
+  public void testControlCharactersInLiteralsUntouched() {
+    assertMinified("var s='a\tb\u000bc',r=/\t\f/,t=`a\r\nb`;",
+        "var s = 'a\tb\u000bc', r = /\t\f/, t = `a\r\nb`;");
+  }
+
+  public void testNestedTemplatesUntouched() {
+    String template = "`a ${ b ? `x  ${ c + '}' }` : /* ` } */ d }  e`";
+    assertMinified("var t=" + template + ";", "var t = " + template + ";");
+  }
+
+  public void testUnterminatedTemplateRejected() {
+    try {
+      JsMinifier.minify("var t = `a ${ `b` ;");
+      fail("Unterminated template should not be minified");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testUnaryOperatorsKeptApart() {
+    assertMinified("var x=a- -b,y=a+ ++b;", "var x = a - -b, y = a + ++b;");
+  }
+
+  public void testLineBreaksKeptForSemicolonInsertion() {
+    assertMinified("a=b\n++c\nif(x){y()}\nz()", "a = b\n++c\nif (x) {\n  y()\n}\nz()");
+  }
+
+  public void testConditionalCompilationLeftAlone() {
+    String js = "/*@cc_on @if (@_jscript) alert('IE'); @end @*/  var  x;";
+    assertMinified(js, js);
+  }
+
+  public void testUnterminatedStringRejected() {
+    try {
+      JsMinifier.minify("var s = 'unterminated;\nvar t = 1;");
+      fail("Unterminated string should not be minified");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testUnterminatedCommentRejected() {
+    try {
+      JsMinifier.minify("var s = 1; /* unterminated");
+      fail("Unterminated comment should not be minified");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.common.util.TimeSource;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.HttpFetcher;
+import org.apache.shindig.gadgets.http.HttpRequest;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CajaContentRewriterTest {
+  private static final Uri GADGET_URL = Uri.parse("http://example.org/gadget.xml");
+  private static final Uri OTHER_GADGET_URL = Uri.parse("http://example.org/other.xml");
+  private static final Uri SCRIPT_URL = Uri.parse("http://example.org/script.js");
+  private static final String GADGET =
+      "<Module><ModulePrefs title=''><Require feature='caja'/></ModulePrefs><Content/></Module>";
+  private static final String CONTENT = "<b>Hello, world!</b>";
+  private static final long NEGATIVE_CACHE_TTL = 60000L;
+
+  private static final Executor THREAD_PER_TASK = new Executor() {
+    public void execute(Runnable command) {
+      new Thread(command).start();
+    }
+  };
+
+  private static final Executor REJECTING = new Executor() {
+    public void execute(Runnable command) {
+      throw new RejectedExecutionException();
+    }
+  };
+
+  private final FakeHttpFetcher fetcher = new FakeHttpFetcher();
+  private final AtomicLong time = new AtomicLong(System.currentTimeMillis());
+  private CountingRewriter rewriter = new CountingRewriter(fetcher, THREAD_PER_TASK, 10000L);
+
+  private void useFakeTime() {
+    rewriter.cache.setTimeSource(new TimeSource() {
+      @Override
+      public long currentTimeMillis() {
+        return time.get();
+      }
+    });
+  }
+
+  private static Gadget makeGadget(final Uri url) throws GadgetException {
+    GadgetContext context = new GadgetContext() {
+      @Override
+      public URI getUrl() {
+        return url.toJavaUri();
+      }
+    };
+    return new Gadget().setContext(context).setSpec(new GadgetSpec(url, GADGET));
+  }
+
+  private String rewrite(Uri url, String content) throws GadgetException {
+    MutableContent mc = new MutableContent(null, content);
+    rewriter.rewrite(makeGadget(url), mc);
+    return mc.getContent();
+  }
+
+  private static HttpResponse makeResponse(int status, String body) {
+    return new HttpResponseBuilder().setHttpStatusCode(status).setResponseString(body).create();
+  }
+
+  @Test
+  public void cajoledContentIsCached() throws Exception {
+    assertEquals("cajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals("cajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(1, rewriter.cajoled.get());
+  }
+
+  @Test
+  public void cacheKeyIncludesUrlAndContent() throws Exception {
+    rewrite(GADGET_URL, CONTENT);
+    assertEquals("cajoled <i>changed</i>", rewrite(GADGET_URL, "<i>changed</i>"));
+    assertEquals(2, rewriter.cajoled.get());
+    rewrite(OTHER_GADGET_URL, CONTENT);
+    assertEquals(3, rewriter.cajoled.get());
+  }
+
+  @Test
+  public void failedCajolingIsCachedForNegativeTtl() throws Exception {
+    useFakeTime();
+    rewriter.result = null;
+    assertEquals(CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(1, rewriter.cajoled.get());
+
+    time.addAndGet(NEGATIVE_CACHE_TTL + 1);
+    rewriter.result = "cajoled ";
+    assertEquals("cajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(2, rewriter.cajoled.get());
+  }
+
+  @Test
+  public void cajoledContentExpiresWithItsScripts() throws Exception {
+    useFakeTime();
+    rewriter.maxAge = 1000L;
+    rewrite(GADGET_URL, CONTENT);
+    time.addAndGet(999L);
+    rewrite(GADGET_URL, CONTENT);
+    assertEquals(1, rewriter.cajoled.get());
+
+    time.addAndGet(2L);
+    rewriter.result = "recajoled ";
+    assertEquals("recajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(2, rewriter.cajoled.get());
+  }
+
+  @Test
+  public void failedRecajolingKeepsLastOutput() throws Exception {
+    useFakeTime();
+    rewriter.maxAge = 1000L;
+    rewrite(GADGET_URL, CONTENT);
+    time.addAndGet(1001L);
+    rewriter.result = null;
+    assertEquals("cajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(2, rewriter.cajoled.get());
+
+    // Not tried again until the negative ttl has passed.
+    time.addAndGet(1001L);
+    assertEquals("cajoled " + CONTENT, rewrite(GADGET_URL, CONTENT));
+    assertEquals(2, rewriter.cajoled.get());
+  }
+
+  @Test
+  public void concurrentRendersShareOneCajole() throws Exception {
+    rewriter.entered = new CountDownLatch(1);
+    rewriter.release = new CountDownLatch(1);
+    final String[] results = new String[2];
+    Thread first = new Thread() {
+      @Override
+      public void run() {
+        try {
+          results[0] = rewrite(GADGET_URL, CONTENT);
+        } catch (GadgetException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    Thread second = new Thread() {
+      @Override
+      public void run() {
+        try {
+          results[1] = rewrite(GADGET_URL, CONTENT);
+        } catch (GadgetException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+
+    first.start();
+    rewriter.entered.await();
+    second.start();
+    // Wait for the second render to block on the first one's cajoling.
+    while (second.getState() != Thread.State.WAITING && second.isAlive()) {
+      Thread.sleep(1);
+    }
+    rewriter.release.countDown();
+    first.join();
+    second.join();
+
+    assertEquals(1, rewriter.cajoled.get());
+    assertEquals("cajoled " + CONTENT, results[0]);
+    assertEquals("cajoled " + CONTENT, results[1]);
+  }
+
+  @Test
+  public void cajolingFailureIsPropagated() throws Exception {
+    IllegalStateException failure = new IllegalStateException("broken");
+    rewriter.failure = failure;
+    try {
+      rewrite(GADGET_URL, CONTENT);
+      fail("Cajoling should have failed");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void fetchesScript() throws Exception {
+    fetcher.response = makeResponse(HttpResponse.SC_OK, "var a;");
+    assertEquals("var a;", rewriter.fetchScript(SCRIPT_URL, 0));
+    assertEquals("var a;", rewriter.fetchScript(SCRIPT_URL, System.currentTimeMillis() + 10000L));
+  }
+
+  @Test(expected = GadgetException.class)
+  public void errorResponseIsRefused() throws Exception {
+    fetcher.response = makeResponse(HttpResponse.SC_NOT_FOUND, "var a;");
+    rewriter.fetchScript(SCRIPT_URL, 0);
+  }
+
+  @Test(expected = GadgetException.class)
+  public void longScriptIsRefused() throws Exception {
+    StringBuilder script = new StringBuilder(CajaContentRewriter.MAX_EXTERNAL_BYTES + 1);
+    for (int i = 0; i <= CajaContentRewriter.MAX_EXTERNAL_BYTES; ++i) {
+      script.append(' ');
+    }
+    fetcher.response = makeResponse(HttpResponse.SC_OK, script.toString());
+    rewriter.fetchScript(SCRIPT_URL, 0);
+  }
+
+  @Test
+  public void slowFetchTimesOut() throws Exception {
+    fetcher.response = makeResponse(HttpResponse.SC_OK, "var a;");
+    fetcher.release = new CountDownLatch(1);
+    long start = System.currentTimeMillis();
+    try {
+      rewriter.fetchScript(SCRIPT_URL, start + 50L);
+      fail("Fetch should have timed out");
+    } catch (GadgetException e) {
+      assertTrue(System.currentTimeMillis() - start < 5000L);
+    } finally {
+      fetcher.release.countDown();
+    }
+  }
+
+  @Test
+  public void fetchWithDeadlineHasReadTimeout() throws Exception {
+    fetcher.response = makeResponse(HttpResponse.SC_OK, "var a;");
+    rewriter.fetchScript(SCRIPT_URL, System.currentTimeMillis() + 10000L);
+    assertTrue(fetcher.request.getReadTimeout() > 0);
+    assertTrue(fetcher.request.getReadTimeout() <= 10000);
+
+    rewriter.fetchScript(SCRIPT_URL, 0);
+    assertEquals(-1, fetcher.request.getReadTimeout());
+  }
+
+  @Test(expected = GadgetException.class)
+  public void passedDeadlineIsRefused() throws Exception {
+    fetcher.response = makeResponse(HttpResponse.SC_OK, "var a;");
+    rewriter.fetchScript(SCRIPT_URL, System.currentTimeMillis() - 1);
+  }
+
+  @Test
+  public void rejectedFetchRunsInline() throws Exception {
+    rewriter = new CountingRewriter(fetcher, REJECTING, 10000L);
+    fetcher.response = makeResponse(HttpResponse.SC_OK, "var a;");
+    assertEquals("var a;", rewriter.fetchScript(SCRIPT_URL, System.currentTimeMillis() + 10000L));
+    assertSame(Thread.currentThread(), fetcher.thread);
+  }
+
+  @Test
+  public void scriptOfKnownLengthIsBufferedByFetcher() throws Exception {
+    FakeStreamingFetcher streaming = new FakeStreamingFetcher("6");
+    streaming.buffered = makeResponse(HttpResponse.SC_OK, "var a;");
+    rewriter = new CountingRewriter(streaming, THREAD_PER_TASK, 10000L);
+    assertEquals("var a;", rewriter.fetchScript(SCRIPT_URL, 0));
+    assertEquals(0, streaming.body.read);
+  }
+
+  @Test
+  public void scriptSaidToBeTooLongIsNotRead() throws Exception {
+    FakeStreamingFetcher streaming =
+        new FakeStreamingFetcher(Integer.toString(CajaContentRewriter.MAX_EXTERNAL_BYTES + 1));
+    rewriter = new CountingRewriter(streaming, THREAD_PER_TASK, 10000L);
+    try {
+      rewriter.fetchScript(SCRIPT_URL, 0);
+      fail("Script should have been refused");
+    } catch (GadgetException e) {
+      assertEquals(0, streaming.body.read);
+    }
+  }
+
+  @Test
+  public void scriptOfUnknownLengthIsReadUpToLimit() throws Exception {
+    FakeStreamingFetcher streaming = new FakeStreamingFetcher(null);
+    rewriter = new CountingRewriter(streaming, THREAD_PER_TASK, 10000L);
+    try {
+      rewriter.fetchScript(SCRIPT_URL, System.currentTimeMillis() + 10000L);
+      fail("Script should have been refused");
+    } catch (GadgetException e) {
+      assertEquals(CajaContentRewriter.MAX_EXTERNAL_BYTES + 1, streaming.body.read);
+    }
+  }
+
+  @Test
+  public void shortScriptOfUnknownLengthIsRead() throws Exception {
+    FakeStreamingFetcher streaming = new FakeStreamingFetcher(null);
+    streaming.body.length = 6;
+    rewriter = new CountingRewriter(streaming, THREAD_PER_TASK, 10000L);
+    assertEquals("aaaaaa", rewriter.fetchScript(SCRIPT_URL, 0));
+    assertEquals(6, streaming.body.read);
+  }
+
+  private static class CountingRewriter extends CajaContentRewriter {
+    private final AtomicInteger cajoled = new AtomicInteger();
+    private String result = "cajoled ";
+    private long maxAge = CajaContentRewriter.NO_EXPIRATION;
+    private RuntimeException failure;
+    private CountDownLatch entered;
+    private CountDownLatch release;
+
+    private CountingRewriter(HttpFetcher fetcher, Executor executor, long fetchTimeout) {
+      super(new LruCacheProvider(10), fetcher, executor, fetchTimeout, NEGATIVE_CACHE_TTL);
+    }
+
+    @Override
+    CajoledDocument cajole(URI retrievedUri, String original) {
+      cajoled.incrementAndGet();
+      if (entered != null) {
+        entered.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      if (result == null) {
+        return new CajoledDocument(null, NEGATIVE_CACHE_TTL);
+      }
+      return new CajoledDocument(result + original, maxAge);
+    }
+  }
+
+  private static class FakeHttpFetcher implements HttpFetcher {
+    private HttpResponse response;
+    private CountDownLatch release;
+    private Thread thread;
+    private HttpRequest request;
+
+    public HttpResponse fetch(HttpRequest request) {
+      thread = Thread.currentThread();
+      this.request = request;
+      if (release != null) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return response;
+    }
+  }
+
+  private static class FakeStreamingFetcher implements HttpFetcher, StreamingHttpFetcher {
+    private final HttpResponse head;
+    private final CountingStream body = new CountingStream();
+    private HttpResponse buffered;
+
+    private FakeStreamingFetcher(String contentLength) {
+      HttpResponseBuilder builder = new HttpResponseBuilder();
+      if (contentLength != null) {
+        builder.addHeader("Content-Length", contentLength);
+      }
+      head = builder.create();
+    }
+
+    public HttpResponse fetch(HttpRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    public HttpResponse fetch(HttpRequest request, BodySink sink) throws GadgetException {
+      try {
+        if (sink.stream(head, body)) {
+          return null;
+        }
+      } catch (IOException e) {
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+      }
+      return buffered;
+    }
+  }
+
+  /**
+   * An endless body, or one of a given length, that counts the bytes read from it.
+   */
+  private static class CountingStream extends InputStream {
+    private int length = -1;
+    private int read;
+
+    @Override
+    public int read() {
+      if (read == length) {
+        return -1;
+      }
+      read++;
+      return 'a';
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.cache.LruCacheProvider;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.http.HttpResponse;
+import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+public class ImageOptimizerTest {
+  private static final Uri IMAGE_URL = Uri.parse("http://example.org/image");
+
+  private ImageOptimizer optimizer;
+
+  @Before
+  public void setUp() {
+    optimizer = new ImageOptimizer(75, 1000000);
+    optimizer.setCacheProvider(new LruCacheProvider(10));
+  }
+
+  private static BufferedImage makeImage(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(Color.BLUE);
+    graphics.fillRect(0, 0, width, height);
+    graphics.setColor(Color.YELLOW);
+    graphics.fillOval(width / 4, height / 4, width / 2, height / 2);
+    graphics.dispose();
+    return image;
+  }
+
+  private static byte[] toJpeg(BufferedImage image, float quality) throws Exception {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+    ImageWriter writer = writers.next();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageOutputStream output = ImageIO.createImageOutputStream(out);
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    writer.setOutput(output);
+    writer.write(null, new IIOImage(image, null, null), param);
+    output.close();
+    writer.dispose();
+    return out.toByteArray();
+  }
+
+  private static byte[] toFormat(BufferedImage image, String format) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, format, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * @return The JPEG with a segment inserted right after the start of image marker.
+   */
+  private static byte[] withSegment(byte[] jpeg, int marker, byte[] payload) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(jpeg, 0, 2);
+    out.write(0xff);
+    out.write(marker);
+    out.write((payload.length + 2) >> 8);
+    out.write((payload.length + 2) & 0xff);
+    out.write(payload, 0, payload.length);
+    out.write(jpeg, 2, jpeg.length - 2);
+    return out.toByteArray();
+  }
+
+  /**
+   * @return A little endian EXIF segment with just an orientation in its first IFD.
+   */
+  private static byte[] makeExif(int orientation) {
+    return new byte[] {
+        'E', 'x', 'i', 'f', 0, 0,
+        'I', 'I', 42, 0, 8, 0, 0, 0,
+        1, 0,
+        0x12, 0x01, 3, 0, 1, 0, 0, 0, (byte) orientation, 0, 0, 0,
+        0, 0, 0, 0};
+  }
+
+  private static HttpResponse makeResponse(byte[] data, String contentType) {
+    return new HttpResponseBuilder()
+        .addHeader("Content-Type", contentType)
+        .setResponse(data)
+        .create();
+  }
+
+  private static BufferedImage readImage(HttpResponse response) throws Exception {
+    return ImageIO.read(response.getResponse());
+  }
+
+  @Test
+  public void jpegIsRecompressed() throws Exception {
+    byte[] original = toJpeg(makeImage(200, 200), 1.0f);
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    HttpResponse optimized = optimizer.optimize(IMAGE_URL, response, 0, 0);
+
+    assertTrue(optimized.getContentLength() < original.length);
+    assertEquals("image/jpeg", optimized.getHeader("Content-Type"));
+    assertEquals(200, readImage(optimized).getWidth());
+  }
+
+  @Test
+  public void rotatedJpegIsPassedThrough() throws Exception {
+    byte[] original = withSegment(toJpeg(makeImage(200, 200), 1.0f), 0xe1, makeExif(6));
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 0, 0));
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 50, 50));
+  }
+
+  @Test
+  public void jpegWithDefaultOrientationIsRecompressed() throws Exception {
+    byte[] original = withSegment(toJpeg(makeImage(200, 200), 1.0f), 0xe1, makeExif(1));
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    HttpResponse optimized = optimizer.optimize(IMAGE_URL, response, 0, 0);
+
+    assertTrue(optimized.getContentLength() < original.length);
+  }
+
+  @Test
+  public void jpegWithColorProfileIsPassedThrough() throws Exception {
+    byte[] profile = "ICC_PROFILE\0\1\1profile data".getBytes("ISO-8859-1");
+    byte[] original = withSegment(toJpeg(makeImage(200, 200), 1.0f), 0xe2, profile);
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 0, 0));
+  }
+
+  @Test
+  public void imageIsScaledDownToFit() throws Exception {
+    byte[] original = toFormat(makeImage(400, 200), "png");
+    HttpResponse response = makeResponse(original, "image/png");
+
+    HttpResponse optimized = optimizer.optimize(IMAGE_URL, response, 48, 48);
+
+    BufferedImage image = readImage(optimized);
+    assertEquals(48, image.getWidth());
+    assertEquals(24, image.getHeight());
+    assertEquals("image/png", optimized.getHeader("Content-Type"));
+  }
+
+  @Test
+  public void imageIsNeverScaledUp() throws Exception {
+    byte[] original = toFormat(makeImage(20, 20), "png");
+    HttpResponse response = makeResponse(original, "image/png");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 100, 100));
+  }
+
+  @Test
+  public void gifIsConvertedToPng() throws Exception {
+    byte[] original = toFormat(makeImage(300, 300), "gif");
+    HttpResponse response = makeResponse(original, "image/gif");
+
+    HttpResponse optimized = optimizer.optimize(IMAGE_URL, response, 30, 0);
+
+    assertEquals("image/png", optimized.getHeader("Content-Type"));
+    assertEquals(30, readImage(optimized).getWidth());
+  }
+
+  @Test
+  public void largerResultIsNotServed() throws Exception {
+    // Noise doesn't compress, so a recompressed copy at a higher quality is bigger.
+    BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(0);
+    for (int x = 0; x < 100; ++x) {
+      for (int y = 0; y < 100; ++y) {
+        image.setRGB(x, y, random.nextInt());
+      }
+    }
+    byte[] original = toJpeg(image, 0.1f);
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 0, 0));
+  }
+
+  @Test
+  public void tooManyPixelsIsPassedThrough() throws Exception {
+    optimizer = new ImageOptimizer(75, 100);
+    byte[] original = toJpeg(makeImage(200, 200), 1.0f);
+    HttpResponse response = makeResponse(original, "image/jpeg");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 10, 10));
+  }
+
+  @Test
+  public void otherTypesArePassedThrough() throws Exception {
+    HttpResponse response = makeResponse(new byte[5000], "application/octet-stream");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 10, 10));
+  }
+
+  @Test
+  public void garbageIsPassedThrough() throws Exception {
+    HttpResponse response = makeResponse(new byte[5000], "image/png");
+
+    assertSame(response, optimizer.optimize(IMAGE_URL, response, 10, 10));
+  }
+}
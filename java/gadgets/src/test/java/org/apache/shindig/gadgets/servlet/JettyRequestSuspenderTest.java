@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.apache.shindig.common.testing.FakeHttpServletRequest;
+import org.apache.shindig.gadgets.GadgetException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for JettyRequestSuspender. Outside of a Jetty connector the request waits for the work,
+ * which is enough to test how results and failures are passed back.
+ */
+public class JettyRequestSuspenderTest {
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final FakeHttpServletRequest request = new FakeHttpServletRequest();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Callable<String> work(final String result, final long delay) {
+    return new Callable<String>() {
+      public String call() throws Exception {
+        calls.incrementAndGet();
+        Thread.sleep(delay);
+        return result;
+      }
+    };
+  }
+
+  @Test
+  public void resultReturned() throws Exception {
+    JettyRequestSuspender suspender = new JettyRequestSuspender(executor, 5000L);
+    assertEquals("done", suspender.execute(request, "key", work("done", 10)));
+  }
+
+  @Test
+  public void workRunOncePerKey() throws Exception {
+    JettyRequestSuspender suspender = new JettyRequestSuspender(executor, 5000L);
+    assertEquals("one", suspender.execute(request, "one", work("one", 0)));
+    assertEquals("one", suspender.execute(request, "one", work("other", 0)));
+    assertEquals("two", suspender.execute(request, "two", work("two", 0)));
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  public void failurePassedBack() throws Exception {
+    JettyRequestSuspender suspender = new JettyRequestSuspender(executor, 5000L);
+    try {
+      suspender.execute(request, "key", new Callable<String>() {
+        public String call() throws GadgetException {
+          throw new GadgetException(GadgetException.Code.INVALID_PARAMETER);
+        }
+      });
+      fail("Failure was not passed back");
+    } catch (GadgetException e) {
+      assertEquals(GadgetException.Code.INVALID_PARAMETER, e.getCode());
+    }
+  }
+
+  @Test
+  public void timeout() throws Exception {
+    JettyRequestSuspender suspender = new JettyRequestSuspender(executor, 50L);
+    try {
+      suspender.execute(request, "key", work("late", 2000));
+      fail("Request did not time out");
+    } catch (GadgetException e) {
+      assertEquals(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e.getCode());
+    }
+  }
+}
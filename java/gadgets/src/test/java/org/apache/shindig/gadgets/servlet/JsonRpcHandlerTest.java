@@ -45,6 +45,7 @@ import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 public class JsonRpcHandlerTest {
   private static final Uri SPEC_URL = Uri.parse("http://example.org/g.xml");
@@ -227,6 +228,29 @@ public class JsonRpcHandlerTest {
     assertTrue("Second gadget not returned!", second);
   }
 
+  @Test
+  public void testRejectedGadgetsFailFast() throws Exception {
+    JSONArray gadgets = new JSONArray()
+        .put(createGadget(SPEC_URL.toString(), 0, null))
+        .put(createGadget(SPEC_URL2.toString(), 1, null));
+    JSONObject input = new JSONObject()
+        .put("context", createContext("en", "US"))
+        .put("gadgets", gadgets);
+
+    JsonRpcHandler handler = new JsonRpcHandler(new TestExecutorService() {
+      @Override
+      public void execute(Runnable command) {
+        throw new RejectedExecutionException("full");
+      }
+    }, processor, urlGenerator);
+
+    JSONArray outGadgets = handler.process(input).getJSONArray("gadgets");
+    assertEquals(2, outGadgets.length());
+    for (int i = 0, j = outGadgets.length(); i < j; ++i) {
+      assertEquals(1, outGadgets.getJSONObject(i).getJSONArray("errors").length());
+    }
+  }
+
   private static class FakeProcessor extends Processor {
     private final Map<URI, ProcessingException> exceptions = Maps.newHashMap();
     private final Map<URI, String> gadgets = Maps.newHashMap();
@@ -24,10 +24,14 @@ import com.google.common.collect.Maps;
 
 import org.apache.shindig.common.uri.Uri;
 import org.apache.shindig.gadgets.GadgetException;
+import org.apache.shindig.gadgets.http.HttpFetcher;
 import org.apache.shindig.gadgets.http.HttpRequest;
 import org.apache.shindig.gadgets.http.HttpResponse;
 import org.apache.shindig.gadgets.http.HttpResponseBuilder;
+import org.apache.shindig.gadgets.http.StreamingHttpFetcher;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -142,4 +146,81 @@ public class ProxyHandlerTest extends ServletTestFixture {
 
     verify();
   }
+
+  public void testLargeMediaIsStreamed() throws Exception {
+    String url = "http://example.org/movie.mp4";
+    String domain = "example.org";
+    byte[] data = new byte[1000];
+    HttpResponse head = new HttpResponseBuilder()
+        .setHttpStatusCode(HttpResponse.SC_PARTIAL_CONTENT)
+        .addHeader("Content-Type", "video/mp4")
+        .addHeader("Content-Length", "1000")
+        .addHeader("Content-Range", "bytes 1000-1999/5000")
+        .create();
+    FakeStreamingFetcher streamingFetcher = new FakeStreamingFetcher(head, data);
+    ProxyHandler handler = new ProxyHandler(streamingFetcher, lockedDomainService,
+        rewriterRegistry);
+
+    expect(lockedDomainService.isSafeForOpenProxy(domain)).andReturn(true).atLeastOnce();
+    setupProxyRequestMock(domain, url);
+    expect(request.getHeader("Range")).andReturn("bytes=1000-1999");
+    replay();
+
+    handler.fetch(request, recorder);
+
+    assertEquals("bytes=1000-1999", streamingFetcher.request.getHeader("Range"));
+    assertEquals(HttpResponse.SC_PARTIAL_CONTENT, recorder.getHttpStatusCode());
+    assertEquals("bytes 1000-1999/5000", recorder.getHeader("Content-Range"));
+    assertEquals("1000", recorder.getHeader("Content-Length"));
+    assertEquals(data.length, recorder.getResponseAsBytes().length);
+    assertFalse(rewriter.responseWasRewritten());
+  }
+
+  public void testSmallResponseIsBuffered() throws Exception {
+    String url = "http://example.org/file.html";
+    String domain = "example.org";
+    HttpResponse head = new HttpResponseBuilder()
+        .addHeader("Content-Type", "text/html")
+        .create();
+    FakeStreamingFetcher streamingFetcher =
+        new FakeStreamingFetcher(head, DATA_ONE.getBytes("UTF-8"));
+    ProxyHandler handler = new ProxyHandler(streamingFetcher, lockedDomainService,
+        rewriterRegistry);
+
+    expect(lockedDomainService.isSafeForOpenProxy(domain)).andReturn(true).atLeastOnce();
+    setupProxyRequestMock(domain, url);
+    replay();
+
+    handler.fetch(request, recorder);
+
+    assertEquals(DATA_ONE, recorder.getResponseAsString());
+    assertTrue(rewriter.responseWasRewritten());
+  }
+
+  private static class FakeStreamingFetcher implements HttpFetcher, StreamingHttpFetcher {
+    private final HttpResponse head;
+    private final byte[] body;
+    private HttpRequest request;
+
+    private FakeStreamingFetcher(HttpResponse head, byte[] body) {
+      this.head = head;
+      this.body = body;
+    }
+
+    public HttpResponse fetch(HttpRequest request) {
+      return new HttpResponseBuilder(head).setResponse(body).create();
+    }
+
+    public HttpResponse fetch(HttpRequest request, BodySink sink) throws GadgetException {
+      this.request = request;
+      try {
+        if (sink.stream(head, new ByteArrayInputStream(body))) {
+          return null;
+        }
+      } catch (IOException e) {
+        throw new GadgetException(GadgetException.Code.FAILED_TO_RETRIEVE_CONTENT, e);
+      }
+      return fetch(request);
+    }
+  }
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.gadgets.templates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.shindig.common.PropertiesModule;
+import org.apache.shindig.common.uri.Uri;
+import org.apache.shindig.gadgets.Gadget;
+import org.apache.shindig.gadgets.GadgetContext;
+import org.apache.shindig.gadgets.parse.GadgetHtmlParser;
+import org.apache.shindig.gadgets.parse.ParseModule;
+import org.apache.shindig.gadgets.preload.NullPreloads;
+import org.apache.shindig.gadgets.preload.PreloadedData;
+import org.apache.shindig.gadgets.preload.Preloads;
+import org.apache.shindig.gadgets.rewrite.MutableContent;
+import org.apache.shindig.gadgets.spec.GadgetSpec;
+
+import com.google.common.collect.Maps;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for TemplateRewriter and TemplateProcessor.
+ */
+public class TemplateRewriterTest {
+  private static final Uri SPEC_URL = Uri.parse("http://example.org/gadget.xml");
+  private static final String TEMPLATES_SPEC = "<Module><ModulePrefs title=''>"
+      + "<Require feature='opensocial-templates'/></ModulePrefs><Content type='html'/></Module>";
+
+  private final Map<String, Object> preloadData = Maps.newHashMap();
+  private TemplateRewriter rewriter;
+  private GadgetHtmlParser parser;
+
+  @Before
+  public void setUp() throws Exception {
+    Injector injector = Guice.createInjector(new ParseModule(), new PropertiesModule());
+    parser = injector.getInstance(GadgetHtmlParser.class);
+    rewriter = new TemplateRewriter(new TemplateProcessor());
+
+    JSONObject viewer = new JSONObject();
+    viewer.put("name", "Ada");
+    viewer.put("age", 36);
+    preloadData.put("viewer", viewer);
+
+    JSONArray friends = new JSONArray();
+    friends.put(new JSONObject().put("name", "Bob"));
+    friends.put(new JSONObject().put("name", "Cy"));
+    preloadData.put("friends", friends);
+  }
+
+  private Gadget makeGadget(String xml) throws Exception {
+    Preloads preloads = new Preloads() {
+      public PreloadedData getData(final String key) {
+        return new PreloadedData() {
+          public Object toJson() {
+            return preloadData.get(key);
+          }
+        };
+      }
+
+      public Set<String> getKeys() {
+        return preloadData.keySet();
+      }
+    };
+    return new Gadget()
+        .setContext(new GadgetContext())
+        .setPreloads(preloads)
+        .setSpec(new GadgetSpec(SPEC_URL, xml));
+  }
+
+  private static String template(String markup) {
+    return "<script type='text/os-template'>" + markup + "</script>";
+  }
+
+  private String rewrite(Gadget gadget, String content) {
+    MutableContent mc = new MutableContent(parser, content);
+    rewriter.rewrite(gadget, mc);
+    return mc.getContent();
+  }
+
+  @Test
+  public void expressionsRendered() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String rewritten = rewrite(gadget,
+        template("<span title='${viewer.age}'>Hello ${Top.viewer.name}!</span>"));
+
+    assertFalse(rewritten.contains("os-template"));
+    assertTrue(rewritten.contains("Hello Ada!"));
+    assertTrue(rewritten.contains("36"));
+    assertTrue(gadget.getRemovedFeatures().contains(TemplateRewriter.TEMPLATES_FEATURE));
+  }
+
+  @Test
+  public void repeatAndIf() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String rewritten = rewrite(gadget, template(
+        "<ul><li repeat='${friends}'>${Index}/${Count}:${Cur.name}</li></ul>"
+        + "<b if='${viewer.missing}'>hidden</b><i if='${friends.length}'>${friends[1].name}</i>"));
+
+    assertTrue(rewritten.contains("0/2:Bob"));
+    assertTrue(rewritten.contains("1/2:Cy"));
+    assertFalse(rewritten.contains("hidden"));
+    assertTrue(rewritten.contains(">Cy</i>"));
+  }
+
+  @Test
+  public void unsupportedTemplateLeftForClient() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String rewritten = rewrite(gadget, template("<os:Name person='${viewer}'/>")
+        + template("<b>${viewer.name}</b>"));
+
+    assertTrue(rewritten.contains("os:Name"));
+    assertTrue(rewritten.contains("<b>Ada</b>"));
+    assertTrue(gadget.getRemovedFeatures().isEmpty());
+  }
+
+  @Test
+  public void missingDataLeftForClient() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String content = template("${owner.name}");
+    assertNull(rewriter.rewrite(gadget, new MutableContent(parser, content)));
+    assertTrue(gadget.getRemovedFeatures().isEmpty());
+  }
+
+  @Test
+  public void namedTemplatesLeftForClient() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String content = "<script type='text/os-template' tag='my:Tag'>${viewer.name}</script>";
+    assertNull(rewriter.rewrite(gadget, new MutableContent(parser, content)));
+  }
+
+  @Test
+  public void otherScriptsKeepFeature() throws Exception {
+    Gadget gadget = makeGadget(TEMPLATES_SPEC);
+    String rewritten = rewrite(gadget, template("${viewer.name}")
+        + "<script type='text/os-data'></script>");
+
+    assertTrue(rewritten.contains("Ada"));
+    assertTrue(gadget.getRemovedFeatures().isEmpty());
+  }
+
+  @Test
+  public void gadgetsWithoutFeatureIgnored() throws Exception {
+    Gadget gadget = makeGadget("<Module><ModulePrefs title=''/><Content type='html'/></Module>")
+        .setPreloads(new NullPreloads());
+    String content = template("${viewer.name}");
+    assertNull(rewriter.rewrite(gadget, new MutableContent(parser, content)));
+    assertEquals(0, gadget.getRemovedFeatures().size());
+  }
+}
@@ -29,6 +29,7 @@ import org.apache.shindig.social.opensocial.model.Activity;
 import org.apache.shindig.social.opensocial.model.MediaItem;
 
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -43,6 +44,8 @@ import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.MapKey;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
 import javax.persistence.PostLoad;
 import javax.persistence.PrePersist;
@@ -57,15 +60,48 @@ import javax.persistence.Version;
  */
 @Entity
 @Table(name = "activity")
+@NamedQueries(value = {
+    @NamedQuery(name = ActivityDb.FINDBY_ACTIVITY_ID,
+        query = "select a from ActivityDb a where a.userId = :userid and a.id = :activityid ") })
 public class ActivityDb implements Activity, DbObject {
 
-  public static final String FINDBY_ACTIVITY_ID = null;
+  public static final String FINDBY_ACTIVITY_ID = "q.activity.findbyactivityid";
 
-  public static final String PARAM_USERID = null;
+  public static final String PARAM_USERID = "userid";
 
-  public static final String PARAM_ACTIVITYID = null;
+  public static final String PARAM_ACTIVITYID = "activityid";
 
-  public static final String JPQL_FINDBY_ACTIVITIES = null;
+  /**
+   * Select activities, to be followed by an in clause on a.id and a clause on a.userId.
+   */
+  public static final String JPQL_FINDBY_ACTIVITIES = "select a from ActivityDb a where ";
+
+  /**
+   * Select the activities of the friends of a set of users, to be followed by an in clause on
+   * f.person.id.
+   */
+  public static final String JPQL_FINDBY_FRIENDS = "select distinct a from ActivityDb a, "
+      + "FriendDb f where a.userId = f.friend.id and ";
+
+  /**
+   * Select the activities of the members of a group, to be followed by an in clause on g.owner.id
+   * and a clause on g.id.
+   */
+  public static final String JPQL_FINDBY_GROUP = "select distinct a from ActivityDb a, "
+      + "GroupDb g join g.members m where a.userId = m.id and ";
+
+  /**
+   * Fetch the media items and template parameters of a set of activities, to be followed by an in
+   * clause on a.objectId.
+   */
+  public static final String JPQL_FETCH_RELATIONSHIPS = "select a from ActivityDb a "
+      + "left join fetch a.mediaItems left join fetch a.templateParamsDb where ";
+
+  /**
+   * Orders activities newest first. The activity id breaks ties, so that pages that start after
+   * a given activity neither skip nor repeat any.
+   */
+  public static final String JPQL_ORDER_NEWEST_FIRST = " order by a.postedTime desc, a.id desc";
 
   /**
    * The internal object ID used for references to this object. Should be generated by the
@@ -205,8 +241,8 @@ public class ActivityDb implements Activity, DbObject {
   protected Map<String, ActivityTemplateParamsDb> templateParamsDb;
 
   /**
-   * The transient store for templateParamers loaded by the postLoad hook and persisted by the
-   * prePersist hook.
+   * The transient store for templateParamers, loaded from templateParamsDb on first use and
+   * persisted by the prePersist hook.
    */
   @Transient
   protected Map<String, String> templateParams;
@@ -471,6 +507,15 @@ public class ActivityDb implements Activity, DbObject {
    * @see org.apache.shindig.social.opensocial.model.Activity#getTemplateParams()
    */
   public Map<String, String> getTemplateParams() {
+    if (templateParams == null) {
+      Map<String, String> params = new ConcurrentHashMap<String, String>();
+      if (templateParamsDb != null) {
+        for (Entry<String, ActivityTemplateParamsDb> e : templateParamsDb.entrySet()) {
+          params.put(e.getKey(), e.getValue().value);
+        }
+      }
+      templateParams = params;
+    }
     return templateParams;
   }
 
@@ -560,6 +605,14 @@ public class ActivityDb implements Activity, DbObject {
    */
   @PrePersist
   public void populateDbFields() {
+    // new activities may have neither map
+    if (templateParamsDb == null) {
+      templateParamsDb = new HashMap<String, ActivityTemplateParamsDb>();
+    }
+    if (templateParams == null) {
+      // the parameters were never read or set, so the db fields are already current
+      return;
+    }
     // add new entries
     for (Entry<String, String> e : templateParams.entrySet()) {
       ActivityTemplateParamsDb a = templateParamsDb.get(e.getKey());
@@ -587,15 +640,13 @@ public class ActivityDb implements Activity, DbObject {
   }
 
   /**
-   * Hook into the post load event in JPA to take the database fields and load the transient fields
-   * prior to making the object available to java
+   * Hook into the post load event in JPA to reset the transient fields, they are loaded from the
+   * database fields when they are first used, so that loading an activity does not read its
+   * template parameters.
    */
   @PostLoad
   public void loadTransientFields() {
-    templateParams = new ConcurrentHashMap<String, String>();
-    for (Entry<String, ActivityTemplateParamsDb> e : templateParamsDb.entrySet()) {
-      templateParams.put(e.getKey(), e.getValue().value);
-    }
+    templateParams = null;
   }
 
 }
@@ -52,13 +52,33 @@ public class ApplicationDataMapDb extends ConcurrentHashMap<String, String> impl
    */
   private static final long serialVersionUID = 8017568825925047318L;
 
-  public static final String FINDBY_ALL_GROUP = null;
+  /**
+   * Select the data maps of all the contacts of a set of users, to be followed by an in clause on
+   * f.person.id and a clause on a.id. The model does not distinguish between contacts and friends.
+   */
+  public static final String FINDBY_ALL_GROUP = "select am from ApplicationDataMapDb am "
+      + "join am.application a, FriendDb f where am.personId = f.friend.id and ";
 
-  public static final String FINDBY_FRIENDS_GROUP = null;
+  /**
+   * Select the data maps of the friends of a set of users, to be followed by an in clause on
+   * f.person.id and a clause on a.id.
+   */
+  public static final String FINDBY_FRIENDS_GROUP = "select am from ApplicationDataMapDb am "
+      + "join am.application a, FriendDb f where am.personId = f.friend.id and ";
 
-  public static final String FINDBY_GROUP_GROUP = null;
+  /**
+   * Select the data maps of the members of groups owned by a set of users, to be followed by an
+   * in clause on g.owner.id and clauses on g.id and a.id.
+   */
+  public static final String FINDBY_GROUP_GROUP = "select am from ApplicationDataMapDb am "
+      + "join am.application a, GroupDb g join g.members m where am.personId = m.id and ";
 
-  public static final String FINDBY_SELF_GROUP = null;
+  /**
+   * Select the data maps of a set of users, to be followed by an in clause on am.personId and a
+   * clause on a.id.
+   */
+  public static final String FINDBY_SELF_GROUP = "select am from ApplicationDataMapDb am "
+      + "join am.application a where ";
 
   /**
    * The internal object ID used for references to this object. Should be generated by the
@@ -108,6 +108,20 @@ public class FriendDb implements DbObject {
     this.friend = friend;
   }
 
+  /**
+   * @return the score, which ranks the friend among the top friends of the person
+   */
+  public int getScore() {
+    return score;
+  }
+
+  /**
+   * @param score the score to set
+   */
+  public void setScore(int score) {
+    this.score = score;
+  }
+
   /**
    * @return the properties
    */
@@ -187,13 +187,30 @@ public class PersonDb implements Person, DbObject {
 
   };
 
-  public static final String JPQL_FINDALLPERSON = null;
+  /**
+   * The from clause to select all the contacts of a set of users as p, to be followed by a where
+   * clause with an in clause on f.person.id. The model does not distinguish between contacts and
+   * friends.
+   */
+  public static final String JPQL_FINDALLPERSON = " from FriendDb f join f.friend p ";
 
-  public static final String JPQL_FINDPERSON_BY_FRIENDS = null;
+  /**
+   * The from clause to select all the friends of a set of users as p, to be followed by a where
+   * clause with an in clause on f.person.id.
+   */
+  public static final String JPQL_FINDPERSON_BY_FRIENDS = " from FriendDb f join f.friend p ";
 
-  public static final Object JPQL_FINDPERSON_BY_GROUP = null;
+  /**
+   * The from clause to select the members of groups owned by a set of users as p, to be followed
+   * by a where clause with an in clause on g.owner.id and a clause on g.id.
+   */
+  public static final String JPQL_FINDPERSON_BY_GROUP = " from GroupDb g join g.members p ";
 
-  public static final Object JPQL_FINDPERSON = null;
+  /**
+   * The from clause to select a set of people as p, to be followed by a where clause with an in
+   * clause on p.id.
+   */
+  public static final String JPQL_FINDPERSON = " from PersonDb p ";
 
   /**
    * The internal object ID used for references to this object. Should be generated by the
@@ -1197,18 +1214,32 @@ public class PersonDb implements Person, DbObject {
     }
   }
 
+  /**
+   * Load the multi valued string fields from a list of properties, used when the person was not
+   * loaded as an entity.
+   *
+   * @param properties the properties of this person
+   */
+  public void loadProperties(List<PersonPropertyDb> properties) {
+    this.properties = properties;
+    loadTransientFields();
+  }
+
   @PostLoad
   public void loadTransientFields() {
 
-    drinkerDb = drinker.toString();
-    genderDb = gender.toString();
-    networkPresenceDb = networkPresence.toString();
-    smokerDb = smoker.toString();
-
-    drinker = new EnumDb<Drinker>(Drinker.valueOf(drinkerDb));
-    gender = Gender.valueOf(genderDb);
-    networkPresence = new EnumDb<NetworkPresence>(NetworkPresence.valueOf(networkPresenceDb));
-    smoker = new EnumDb<Smoker>(Smoker.valueOf(smokerDb));
+    if (drinkerDb != null) {
+      drinker = new EnumDb<Drinker>(Drinker.valueOf(drinkerDb));
+    }
+    if (genderDb != null) {
+      gender = Gender.valueOf(genderDb);
+    }
+    if (networkPresenceDb != null) {
+      networkPresence = new EnumDb<NetworkPresence>(NetworkPresence.valueOf(networkPresenceDb));
+    }
+    if (smokerDb != null) {
+      smoker = new EnumDb<Smoker>(Smoker.valueOf(smokerDb));
+    }
 
     List<String> lookingFor = Lists.newArrayList();
     this.activities = Lists.newArrayList();
@@ -37,6 +37,7 @@ import com.google.inject.name.Named;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.eclipse.persistence.config.BatchWriting;
 import org.eclipse.persistence.config.PersistenceUnitProperties;
 import org.eclipse.persistence.config.TargetServer;
 
@@ -100,6 +101,15 @@ public class Bootstrap {
     properties.put(JDBC_READ_CONNECTIONS_MIN, minRead);
     properties.put(JDBC_WRITE_CONNECTIONS_MIN, minWrite);
 
+    // Cache prepared statements, the SPI pads in clauses so that there are few distinct
+    // statements.
+    properties.put(PersistenceUnitProperties.CACHE_STATEMENTS, "true");
+    properties.put(PersistenceUnitProperties.CACHE_STATEMENTS_SIZE, "200");
+
+    // Send the inserts and deletes of a flush to the database in batches, rather than one
+    // statement at a time.
+    properties.put(PersistenceUnitProperties.BATCH_WRITING, BatchWriting.JDBC);
+
     // Configure logging. FINE ensures all SQL is shown
     properties.put(LOGGING_LEVEL, "FINE");
     properties.put(LOGGING_TIMESTAMP, "true");
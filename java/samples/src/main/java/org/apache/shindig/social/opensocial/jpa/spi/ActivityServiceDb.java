@@ -17,33 +17,50 @@
  */
 package org.apache.shindig.social.opensocial.jpa.spi;
 
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+
 import org.apache.shindig.auth.SecurityToken;
 import org.apache.shindig.common.util.ImmediateFuture;
 import org.apache.shindig.social.ResponseError;
 import org.apache.shindig.social.opensocial.jpa.ActivityDb;
-import org.apache.shindig.social.opensocial.jpa.ApplicationDataMapDb;
+import org.apache.shindig.social.opensocial.jpa.MediaItemDb;
 import org.apache.shindig.social.opensocial.model.Activity;
+import org.apache.shindig.social.opensocial.model.MediaItem;
 import org.apache.shindig.social.opensocial.spi.ActivityService;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import org.apache.shindig.social.opensocial.spi.GroupId;
 import org.apache.shindig.social.opensocial.spi.RestfulCollection;
 import org.apache.shindig.social.opensocial.spi.SocialSpiException;
 import org.apache.shindig.social.opensocial.spi.UserId;
 
-import com.google.inject.Inject;
-
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Future;
 
 /**
- *
+ * Implements the ActivityService from the SPI binding to the JPA model. The activities of all the
+ * users in a group are read with one query, newest first, a page at a time.
  */
 public class ActivityServiceDb implements ActivityService {
 
+  /**
+   * A filter that starts a page after a given activity, for paging through a stream that changes
+   * while it is read. The filter value is the posted time of the last activity on the previous
+   * page, optionally followed by a colon and its id.
+   */
+  public static final String POSTED_BEFORE_FILTER = "postedBefore";
+
+  /**
+   * The number of activities on a page when the caller doesn't say.
+   */
+  static final int DEFAULT_PAGE_SIZE = 20;
+
   private EntityManager entityManager;
 
   @Inject
@@ -51,44 +68,174 @@ public class ActivityServiceDb implements ActivityService {
     this.entityManager = entityManager;
   }
 
-  /* (non-Javadoc)
-   * @see org.apache.shindig.social.opensocial.spi.ActivityService#createActivity(org.apache.shindig.social.opensocial.spi.UserId, org.apache.shindig.social.opensocial.spi.GroupId, java.lang.String, java.util.Set, org.apache.shindig.social.opensocial.model.Activity, org.apache.shindig.auth.SecurityToken)
+  /**
+   * {@inheritDoc}
    */
   public Future<Void> createActivity(UserId userId, GroupId groupId, String appId,
       Set<String> fields, Activity activity, SecurityToken token) throws SocialSpiException {
-    // TODO Auto-generated method stub
-    return null;
+    String uid = SPIUtils.getUserList(userId, token);
+    if (uid == null) {
+      throw new SocialSpiException(ResponseError.BAD_REQUEST, "No user to create activity for");
+    }
+    ActivityDb activityDb = toActivityDb(activity);
+    activityDb.setUserId(uid);
+    if (activityDb.getAppId() == null) {
+      activityDb.setAppId(appId);
+    }
+    if (activityDb.getId() == null) {
+      activityDb.setId(UUID.randomUUID().toString());
+    }
+    if (activityDb.getPostedTime() == null) {
+      activityDb.setPostedTime(System.currentTimeMillis());
+    }
+    if (activityDb.getMediaItems() != null) {
+      // media items are not cascaded, they go in the same flush as the activity.
+      for (MediaItem mediaItem : activityDb.getMediaItems()) {
+        entityManager.persist(mediaItem);
+      }
+    }
+    entityManager.persist(activityDb);
+    entityManager.flush();
+    return ImmediateFuture.newInstance(null);
   }
 
-  /* (non-Javadoc)
-   * @see org.apache.shindig.social.opensocial.spi.ActivityService#deleteActivities(org.apache.shindig.social.opensocial.spi.UserId, org.apache.shindig.social.opensocial.spi.GroupId, java.lang.String, java.util.Set, org.apache.shindig.auth.SecurityToken)
+  /**
+   * {@inheritDoc}
    */
   public Future<Void> deleteActivities(UserId userId, GroupId groupId, String appId,
       Set<String> activityIds, SecurityToken token) throws SocialSpiException {
-    // TODO Auto-generated method stub
-    return null;
+    // read all of the activities in one query, and remove them in one flush.
+    for (Activity activity : getActivities(userId, activityIds, token)) {
+      entityManager.remove(activity);
+    }
+    entityManager.flush();
+    return ImmediateFuture.newInstance(null);
   }
 
-  /* (non-Javadoc)
-   * @see org.apache.shindig.social.opensocial.spi.ActivityService#getActivities(java.util.Set, org.apache.shindig.social.opensocial.spi.GroupId, java.lang.String, java.util.Set, org.apache.shindig.auth.SecurityToken)
+  /**
+   * {@inheritDoc}
+   *
+   * Returns the first page of activities, newest first.
    */
   public Future<RestfulCollection<Activity>> getActivities(Set<UserId> userIds, GroupId groupId,
       String appId, Set<String> fields, SecurityToken token) throws SocialSpiException {
-    // TODO Auto-generated method stub
-    return null;
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(DEFAULT_PAGE_SIZE);
+    return getActivities(userIds, groupId, appId, fields, options, token);
   }
 
-  /* (non-Javadoc)
-   * @see org.apache.shindig.social.opensocial.spi.ActivityService#getActivities(org.apache.shindig.social.opensocial.spi.UserId, org.apache.shindig.social.opensocial.spi.GroupId, java.lang.String, java.util.Set, java.util.Set, org.apache.shindig.auth.SecurityToken)
+  /**
+   * Get a page of the activities of the users in a group, newest first.
+   *
+   * @param userIds the users
+   * @param groupId the group of the users whose activities are returned
+   * @param appId only activities of this application, and those of no application, are returned.
+   *          May be null for the activities of all applications.
+   * @param fields the fields to return
+   * @param collectionOptions first and max select the page, or the {@link #POSTED_BEFORE_FILTER}
+   *          filter starts the page after a given activity
+   * @param token the security token of the request
+   * @return the activities
+   * @throws SocialSpiException if the group is not recognized
+   */
+  public Future<RestfulCollection<Activity>> getActivities(Set<UserId> userIds, GroupId groupId,
+      String appId, Set<String> fields, CollectionOptions collectionOptions, SecurityToken token)
+      throws SocialSpiException {
+    List<String> paramList = SPIUtils.getUserList(userIds, token);
+    int nUsers = paramList.size();
+    if (nUsers == 0 || groupId.getType() == GroupId.Type.deleted) {
+      return ImmediateFuture.newInstance(new RestfulCollection<Activity>(
+          Lists.<Activity>newArrayList()));
+    }
+
+    String[] postedBefore = getPostedBefore(collectionOptions);
+
+    // the name identifies everything that changes the text of the query, the values are all
+    // positional parameters.
+    StringBuilder queryName = new StringBuilder("activity.");
+    queryName.append(groupId.getType()).append('.').append(JPQLUtils.getInClauseBucket(nUsers));
+    queryName.append('.').append(appId != null);
+    queryName.append('.').append(postedBefore == null ? 0 : postedBefore.length);
+
+    String query = JPQLUtils.getCachedQuery(queryName.toString());
+    if (query == null) {
+      StringBuilder sb = new StringBuilder();
+      int lastPos = 1;
+      switch (groupId.getType()) {
+      case all:
+      case friends:
+        // activities of all friends of the users
+        sb.append(ActivityDb.JPQL_FINDBY_FRIENDS);
+        lastPos = JPQLUtils.addInClause(sb, "f", "person.id", lastPos, nUsers);
+        break;
+      case groupId:
+        // activities of the members of the group
+        sb.append(ActivityDb.JPQL_FINDBY_GROUP);
+        lastPos = JPQLUtils.addInClause(sb, "g", "owner.id", lastPos, nUsers);
+        sb.append(" and g.id = ?").append(lastPos);
+        lastPos++;
+        break;
+      case self:
+        sb.append(ActivityDb.JPQL_FINDBY_ACTIVITIES);
+        lastPos = JPQLUtils.addInClause(sb, "a", "userId", lastPos, nUsers);
+        break;
+      default:
+        throw new SocialSpiException(ResponseError.BAD_REQUEST, "Group ID not recognized");
+      }
+      if (appId != null) {
+        sb.append(" and (a.appId = ?").append(lastPos).append(" or a.appId is null)");
+        lastPos++;
+      }
+      if (postedBefore != null) {
+        if (postedBefore.length == 1) {
+          sb.append(" and a.postedTime < ?").append(lastPos);
+        } else {
+          sb.append(" and (a.postedTime < ?").append(lastPos);
+          sb.append(" or (a.postedTime = ?").append(lastPos);
+          sb.append(" and a.id < ?").append(lastPos + 1).append("))");
+        }
+      }
+      sb.append(ActivityDb.JPQL_ORDER_NEWEST_FIRST);
+      query = JPQLUtils.cacheQuery(queryName.toString(), sb.toString());
+    }
+
+    // the parameters have to be added in the same order as the query was built
+    List<Object> params = Lists.<Object>newArrayList(paramList);
+    JPQLUtils.padInParameters(params, nUsers);
+    if (groupId.getType() == GroupId.Type.groupId) {
+      params.add(groupId.getGroupId());
+    }
+    if (appId != null) {
+      params.add(appId);
+    }
+    CollectionOptions page = new CollectionOptions();
+    page.setMax(collectionOptions.getMax());
+    if (postedBefore == null) {
+      page.setFirst(collectionOptions.getFirst());
+    } else {
+      params.add(Long.valueOf(postedBefore[0]));
+      if (postedBefore.length > 1) {
+        params.add(postedBefore[1]);
+      }
+    }
+
+    List<Activity> activities = JPQLUtils.getListQuery(entityManager, query, params, page);
+    fetchRelationships(activities);
+    return ImmediateFuture.newInstance(new RestfulCollection<Activity>(activities));
+  }
+
+  /**
+   * {@inheritDoc}
    */
   public Future<RestfulCollection<Activity>> getActivities(UserId userId, GroupId groupId,
       String appId, Set<String> fields, Set<String> activityIds, SecurityToken token)
       throws SocialSpiException {
-    return ImmediateFuture.newInstance(new RestfulCollection<Activity>(getActivities(userId, activityIds, token)));
+    return ImmediateFuture.newInstance(new RestfulCollection<Activity>(getActivities(userId,
+        activityIds, token)));
   }
 
-  /* (non-Javadoc)
-   * @see org.apache.shindig.social.opensocial.spi.ActivityService#getActivity(org.apache.shindig.social.opensocial.spi.UserId, org.apache.shindig.social.opensocial.spi.GroupId, java.lang.String, java.util.Set, java.lang.String, org.apache.shindig.auth.SecurityToken)
+  /**
+   * {@inheritDoc}
    */
   public Future<Activity> getActivity(UserId userId, GroupId groupId, String appId,
       Set<String> fields, String activityId, SecurityToken token) throws SocialSpiException {
@@ -99,7 +246,110 @@ public class ActivityServiceDb implements ActivityService {
     throw new SocialSpiException(ResponseError.BAD_REQUEST,"Cant find activity");
   }
 
-  
+  /**
+   * Get the position to start a page from, given by the {@link #POSTED_BEFORE_FILTER} filter.
+   *
+   * @param collectionOptions the options
+   * @return the posted time and optionally the id of the activity to start after, or null if the
+   *         page is selected by position
+   * @throws SocialSpiException if the posted time is not a number
+   */
+  private String[] getPostedBefore(CollectionOptions collectionOptions)
+      throws SocialSpiException {
+    if (!POSTED_BEFORE_FILTER.equals(collectionOptions.getFilter())
+        || collectionOptions.getFilterValue() == null) {
+      return null;
+    }
+    String[] postedBefore = collectionOptions.getFilterValue().split(":", 2);
+    try {
+      Long.parseLong(postedBefore[0]);
+    } catch (NumberFormatException e) {
+      throw new SocialSpiException(ResponseError.BAD_REQUEST, "Invalid " + POSTED_BEFORE_FILTER
+          + " value " + collectionOptions.getFilterValue());
+    }
+    return postedBefore;
+  }
+
+  /**
+   * Read the media items and template parameters of a page of activities with one more query, by
+   * the ids of the activities on the page, rather than one query per activity. A batch read hint
+   * on the page query would not do, it reads the relationships of every activity the page query
+   * selects, ignoring the first and max results of the page.
+   *
+   * The activities are refreshed from the rows read so that the relationships are set on the
+   * instances that are already managed, any unflushed changes to them are lost.
+   *
+   * @param activities the page of activities
+   */
+  private void fetchRelationships(List<Activity> activities) {
+    int nActivities = activities.size();
+    if (nActivities == 0) {
+      return;
+    }
+    String queryName = "activity.fetch." + JPQLUtils.getInClauseBucket(nActivities);
+    String query = JPQLUtils.getCachedQuery(queryName);
+    if (query == null) {
+      StringBuilder sb = new StringBuilder(ActivityDb.JPQL_FETCH_RELATIONSHIPS);
+      JPQLUtils.addInClause(sb, "a", "objectId", 1, nActivities);
+      query = JPQLUtils.cacheQuery(queryName, sb.toString());
+    }
+    List<Long> ids = Lists.newArrayListWithExpectedSize(nActivities);
+    for (Activity activity : activities) {
+      ids.add(((ActivityDb) activity).getObjectId());
+    }
+    JPQLUtils.padInParameters(ids, nActivities);
+
+    // the rows of the two collections multiply, which is fine for the few media items and
+    // parameters of an activity.
+    Query q = entityManager.createQuery(query);
+    for (int i = 0; i < ids.size(); i++) {
+      q.setParameter(i + 1, ids.get(i));
+    }
+    q.setHint(JPQLUtils.REFRESH_HINT, "true");
+    q.getResultList();
+  }
+
+  /**
+   * Get an entity for a new activity, copying the activity if it is not already an entity.
+   *
+   * @param activity the activity to create
+   * @return the entity to persist
+   */
+  private ActivityDb toActivityDb(Activity activity) {
+    if (activity instanceof ActivityDb) {
+      return (ActivityDb) activity;
+    }
+    ActivityDb activityDb = new ActivityDb(activity.getId(), activity.getUserId());
+    activityDb.setAppId(activity.getAppId());
+    activityDb.setBody(activity.getBody());
+    activityDb.setBodyId(activity.getBodyId());
+    activityDb.setExternalId(activity.getExternalId());
+    activityDb.setPostedTime(activity.getPostedTime());
+    activityDb.setPriority(activity.getPriority());
+    activityDb.setStreamFaviconUrl(activity.getStreamFaviconUrl());
+    activityDb.setStreamSourceUrl(activity.getStreamSourceUrl());
+    activityDb.setStreamTitle(activity.getStreamTitle());
+    activityDb.setStreamUrl(activity.getStreamUrl());
+    activityDb.setTemplateParams(activity.getTemplateParams());
+    activityDb.setTitle(activity.getTitle());
+    activityDb.setTitleId(activity.getTitleId());
+    activityDb.setUpdated(activity.getUpdated());
+    activityDb.setUrl(activity.getUrl());
+    if (activity.getMediaItems() != null) {
+      List<MediaItem> mediaItems = Lists.newArrayList();
+      for (MediaItem mediaItem : activity.getMediaItems()) {
+        if (mediaItem instanceof MediaItemDb) {
+          mediaItems.add(mediaItem);
+        } else {
+          mediaItems.add(new MediaItemDb(mediaItem.getMimeType(), mediaItem.getType(),
+              mediaItem.getUrl()));
+        }
+      }
+      activityDb.setMediaItems(mediaItems);
+    }
+    return activityDb;
+  }
+
   /**
    * @param userId
    * @param groupId
@@ -113,11 +363,11 @@ public class ActivityServiceDb implements ActivityService {
     String uid = SPIUtils.getUserList(userId, token);
     q.setParameter(ActivityDb.PARAM_USERID, uid);
     q.setParameter(ActivityDb.PARAM_ACTIVITYID, activityId);
-    q.setFirstResult(1);
+    q.setFirstResult(0);
     q.setMaxResults(1);
     List<?> activities = q.getResultList();
     if ( activities != null && activities.size() > 0 ) {
-      return (Activity) activities.get(1);
+      return (Activity) activities.get(0);
     }
     return null;
   }
@@ -132,15 +382,23 @@ public class ActivityServiceDb implements ActivityService {
    */
   private List<Activity> getActivities(UserId userId, Set<String> activityIds,
       SecurityToken token) {
-    StringBuilder sb = new StringBuilder();
-    sb.append(ActivityDb.JPQL_FINDBY_ACTIVITIES);
     List<String> paramList = SPIUtils.toList(activityIds);
-    String uid = SPIUtils.getUserList(userId, token);
-    int lastPos = JPQLUtils.addInClause(sb, "a", "id", 1, paramList.size());
-    sb.append(" and a.userid = ?").append(lastPos);
-    lastPos++;
-    paramList.add(uid);
-    List<Activity> a = JPQLUtils.getListQuery(entityManager, sb.toString(), paramList, null);
+    int nActivities = paramList.size();
+    if (nActivities == 0) {
+      return new ArrayList<Activity>();
+    }
+    String queryName = "activity.byid." + JPQLUtils.getInClauseBucket(nActivities);
+    String query = JPQLUtils.getCachedQuery(queryName);
+    if (query == null) {
+      StringBuilder sb = new StringBuilder();
+      sb.append(ActivityDb.JPQL_FINDBY_ACTIVITIES);
+      int lastPos = JPQLUtils.addInClause(sb, "a", "id", 1, nActivities);
+      sb.append(" and a.userId = ?").append(lastPos);
+      query = JPQLUtils.cacheQuery(queryName, sb.toString());
+    }
+    JPQLUtils.padInParameters(paramList, nActivities);
+    paramList.add(SPIUtils.getUserList(userId, token));
+    List<Activity> a = JPQLUtils.getListQuery(entityManager, query, paramList, null);
     return a;
   }
 
@@ -17,6 +17,7 @@
  */
 package org.apache.shindig.social.opensocial.jpa.spi;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
@@ -43,6 +44,12 @@ import javax.persistence.EntityManager;
  */
 public class AppDataServiceDb implements AppDataService {
 
+  /**
+   * The values of each data map are read when the map is loaded, so read them for all the maps
+   * in one query.
+   */
+  private static final List<String> BATCH_ATTRIBUTES = ImmutableList.of("am.valuesDb");
+
   private EntityManager entityManager;
 
   @Inject
@@ -79,47 +86,66 @@ public class AppDataServiceDb implements AppDataService {
       SecurityToken token) {
     List<String> paramList = Lists.newArrayList();
     paramList.add(SPIUtils.getUserList(userId, token));
-    int lastParam = 1;
-    StringBuilder sb = new StringBuilder();
-
-    switch (groupId.getType()) {
-    case all:
-      // userId translates into all contacts
-      sb.append(ApplicationDataMapDb.FINDBY_ALL_GROUP);
-      sb.append(" and am.personId = ?").append(lastParam);
-      lastParam++;
-      break;
-    case deleted:
-      // ignored
-      break;
-    case friends:
-      sb.append(ApplicationDataMapDb.FINDBY_FRIENDS_GROUP);
-      sb.append(" and am.personId = ?").append(lastParam);
-      lastParam++;
-      // userId translates into all friends
-      break;
-    case groupId:
-      sb.append(ApplicationDataMapDb.FINDBY_GROUP_GROUP);
-      sb.append(" and am.personId = ?").append(lastParam);
-      lastParam++;
-      sb.append(" and g.id = ?").append(lastParam);
-      paramList.add(groupId.getGroupId());
-      lastParam++;
-      // userId translates into friends within a group
-      break;
-    default: // including self
-      // userId is the user Id
-      sb.append(ApplicationDataMapDb.FINDBY_SELF_GROUP);
-      sb.append(" and am.personId = ?").append(lastParam);
-      lastParam++;
-      break;
+    return getDataMaps(paramList, groupId, appId);
+  }
 
+  /**
+   * Get the data maps for a set of users.
+   *
+   * @param paramList the user ids, this list is used for the query parameters
+   * @param groupId the group of the users whose data maps are selected
+   * @param appId the application
+   * @return the data maps
+   */
+  private List<ApplicationDataMapDb> getDataMaps(List<String> paramList, GroupId groupId,
+      String appId) {
+    int nUsers = paramList.size();
+    if (nUsers == 0 || groupId.getType() == GroupId.Type.deleted) {
+      // deleted is ignored
+      return Lists.newArrayList();
+    }
+    String queryName = "appdata." + groupId.getType() + "." + JPQLUtils.getInClauseBucket(nUsers);
+    String query = JPQLUtils.getCachedQuery(queryName);
+    if (query == null) {
+      int lastParam = 1;
+      StringBuilder sb = new StringBuilder();
+
+      switch (groupId.getType()) {
+      case all:
+        // userId translates into all contacts
+        sb.append(ApplicationDataMapDb.FINDBY_ALL_GROUP);
+        lastParam = JPQLUtils.addInClause(sb, "f", "person.id", lastParam, nUsers);
+        break;
+      case friends:
+        sb.append(ApplicationDataMapDb.FINDBY_FRIENDS_GROUP);
+        lastParam = JPQLUtils.addInClause(sb, "f", "person.id", lastParam, nUsers);
+        // userId translates into all friends
+        break;
+      case groupId:
+        sb.append(ApplicationDataMapDb.FINDBY_GROUP_GROUP);
+        lastParam = JPQLUtils.addInClause(sb, "g", "owner.id", lastParam, nUsers);
+        sb.append(" and g.id = ?").append(lastParam);
+        lastParam++;
+        // userId translates into friends within a group
+        break;
+      default: // including self
+        // userId is the user Id
+        sb.append(ApplicationDataMapDb.FINDBY_SELF_GROUP);
+        lastParam = JPQLUtils.addInClause(sb, "am", "personId", lastParam, nUsers);
+        break;
+
+      }
+      sb.append(" and a.id = ?").append(lastParam);
+      query = JPQLUtils.cacheQuery(queryName, sb.toString());
     }
-    sb.append(" and a.id = ?").append(lastParam);
-    lastParam++;
-    paramList.add(appId);
-    return JPQLUtils.getListQuery(entityManager, sb.toString(), paramList, null);
 
+    // the parameters have to be added in the same order as the query was built
+    JPQLUtils.padInParameters(paramList, nUsers);
+    if (groupId.getType() == GroupId.Type.groupId) {
+      paramList.add(groupId.getGroupId());
+    }
+    paramList.add(appId);
+    return JPQLUtils.getListQuery(entityManager, query, paramList, null, BATCH_ATTRIBUTES);
   }
 
   /**
@@ -128,45 +154,9 @@ public class AppDataServiceDb implements AppDataService {
   public Future<DataCollection> getPersonData(Set<UserId> userIds, GroupId groupId, String appId,
       Set<String> fields, SecurityToken token) throws SocialSpiException {
     List<String> paramList = SPIUtils.getUserList(userIds, token);
-    int lastParam = 1;
-    StringBuilder sb = new StringBuilder();
-
-    switch (groupId.getType()) {
-    case all:
-      // userId translates into all contacts
-      sb.append(ApplicationDataMapDb.FINDBY_ALL_GROUP);
-      lastParam = JPQLUtils.addInClause(sb, "am", "personId", lastParam, paramList.size());
-      break;
-    case deleted:
-      // ignored
-      break;
-    case friends:
-      sb.append(ApplicationDataMapDb.FINDBY_FRIENDS_GROUP);
-      lastParam = JPQLUtils.addInClause(sb, "am", "personId", lastParam, paramList.size());
-      // userId translates into all friends
-      break;
-    case groupId:
-      sb.append(ApplicationDataMapDb.FINDBY_GROUP_GROUP);
-      lastParam = JPQLUtils.addInClause(sb, "am", "personId", lastParam, paramList.size());
-      sb.append(" and g.id = ?").append(lastParam);
-      paramList.add(groupId.getGroupId());
-      lastParam++;
-      // userId translates into friends within a group
-      break;
-    default: // including self
-      // userId is the user Id
-      sb.append(ApplicationDataMapDb.FINDBY_SELF_GROUP);
-      lastParam = JPQLUtils.addInClause(sb, "am", "personId", lastParam, paramList.size());
-      break;
-
-    }
-    sb.append(" and a.id = ?").append(lastParam);
-    lastParam++;
-    paramList.add(appId);
 
     // load the map up
-    List<ApplicationDataMapDb> dataMaps = JPQLUtils.getListQuery(entityManager, sb.toString(),
-        paramList, null);
+    List<ApplicationDataMapDb> dataMaps = getDataMaps(paramList, groupId, appId);
     Map<String, Map<String, String>> results = new HashMap<String, Map<String, String>>();
 
     // only add in the fields
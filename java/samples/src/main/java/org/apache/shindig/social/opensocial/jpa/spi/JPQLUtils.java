@@ -22,29 +22,126 @@ import org.apache.shindig.social.opensocial.spi.CollectionOptions;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Helpers for building and running the JPQL queries used by the SPI implementations.
  *
+ * Queries are built once per shape and kept in a bounded cache keyed by a query name, and in
+ * clauses are padded up to a small set of sizes, so that the provider only ever sees a handful of
+ * distinct statements and its statement and query plan caches are effective.
  */
 public class JPQLUtils {
 
   /**
-   * Append an in clause to the query builder buffer, using positional parameters.
+   * The EclipseLink query hint used to batch read a relationship for all results of a query.
+   */
+  public static final String BATCH_HINT = "eclipselink.batch";
+
+  /**
+   * The EclipseLink query hint used to rebuild the results of a query from the rows read, rather
+   * than take them as they are from the cache.
+   */
+  public static final String REFRESH_HINT = "eclipselink.refresh";
+
+  /**
+   * The largest in clause bucket, in clauses bigger than this are padded to a multiple of it.
+   */
+  static final int MAX_IN_CLAUSE_BUCKET = 256;
+
+  /**
+   * The maximum number of generated queries that are kept, any more are built on each request.
+   */
+  static final int MAX_CACHED_QUERIES = 1024;
+
+  private static final ConcurrentMap<String, String> QUERY_CACHE =
+      new ConcurrentHashMap<String, String>();
+
+  /**
+   * Get the number of positional parameters that an in clause of nfields values will use. This is
+   * the next power of 2, up to MAX_IN_CLAUSE_BUCKET, and then the next multiple of that.
+   *
+   * @param nfields the number of values in the in clause
+   * @return the padded number of parameters
+   */
+  public static int getInClauseBucket(int nfields) {
+    if (nfields > MAX_IN_CLAUSE_BUCKET) {
+      return ((nfields + MAX_IN_CLAUSE_BUCKET - 1) / MAX_IN_CLAUSE_BUCKET) * MAX_IN_CLAUSE_BUCKET;
+    }
+    int bucket = 1;
+    while (bucket < nfields) {
+      bucket <<= 1;
+    }
+    return bucket;
+  }
+
+  /**
+   * Append an in clause to the query builder buffer, using positional parameters. The number of
+   * parameters is padded to the bucket size, the values must be padded to match with
+   * {@link #padInParameters(List, int)}.
    *
    * @param sb the query builder buffer
    * @param alias the alias to use for the property
    * @param inField the infield name
+   * @param firstField the first positional parameter to use
    * @param nfields the number of infields
+   * @return the next free positional parameter
    */
   public static int addInClause(StringBuilder sb, String alias, String inField, int firstField,
       int nfields) {
+    int bucket = getInClauseBucket(nfields);
     sb.append(alias).append(".").append(inField).append(" in (");
-    for (int i = firstField; i < (firstField + nfields); i++) {
-      sb.append(" ?").append(i).append(" ");
+    for (int i = firstField; i < (firstField + bucket); i++) {
+      if (i > firstField) {
+        sb.append(",");
+      }
+      sb.append(" ?").append(i);
+    }
+    sb.append(" )");
+    return firstField + bucket;
+  }
+
+  /**
+   * Pad the in clause values at the end of a parameter list up to the bucket size by repeating the
+   * last value, which does not change the result of the in clause.
+   *
+   * @param <T> the type of the parameters
+   * @param parameterValues the parameter list, ending with the nfields in clause values
+   * @param nfields the number of values in the in clause
+   */
+  public static <T> void padInParameters(List<T> parameterValues, int nfields) {
+    int bucket = getInClauseBucket(nfields);
+    T last = (nfields == 0) ? null : parameterValues.get(parameterValues.size() - 1);
+    for (int i = nfields; i < bucket; i++) {
+      parameterValues.add(last);
     }
-    sb.append(")");
-    return firstField + nfields;
+  }
+
+  /**
+   * Get a generated query by name.
+   *
+   * @param name the name of the query, which must identify the shape of the query completely
+   * @return the JPQL query or null if it has not been built yet
+   */
+  public static String getCachedQuery(String name) {
+    return QUERY_CACHE.get(name);
+  }
+
+  /**
+   * Save a generated query under a name so that it is not built again.
+   *
+   * @param name the name of the query
+   * @param query the JPQL query
+   * @return the query
+   */
+  public static String cacheQuery(String name, String query) {
+    if (QUERY_CACHE.size() < MAX_CACHED_QUERIES) {
+      QUERY_CACHE.putIfAbsent(name, query);
+    }
+    return query;
   }
 
   /**
@@ -56,9 +153,25 @@ public class JPQLUtils {
    * @param collectionOptions the options used for paging.
    * @return a typed list of objects
    */
-  @SuppressWarnings("unchecked")
   public static <T> List<T> getListQuery(EntityManager entityManager, String query,
       List<?> parametersValues, CollectionOptions collectionOptions) {
+    return getListQuery(entityManager, query, parametersValues, collectionOptions, null);
+  }
+
+  /**
+   * Perform a JPAQ, batch reading the named relationships, and return a typed list.
+   *
+   * @param <T> The type of list
+   * @param query the JPQL Query with positional parameters
+   * @param parametersValues a list of parameters
+   * @param collectionOptions the options used for paging.
+   * @param batchAttributes relationships to batch read, qualified by the query alias, may be null
+   * @return a typed list of objects
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> List<T> getListQuery(EntityManager entityManager, String query,
+      List<?> parametersValues, CollectionOptions collectionOptions,
+      Collection<String> batchAttributes) {
     Query q = entityManager.createQuery(query);
     int i = 1;
     for (Object p : parametersValues) {
@@ -67,7 +180,14 @@ public class JPQLUtils {
     }
     if (collectionOptions != null) {
       q.setFirstResult(collectionOptions.getFirst());
-      q.setMaxResults(collectionOptions.getFirst() + collectionOptions.getMax());
+      if (collectionOptions.getMax() > 0) {
+        q.setMaxResults(collectionOptions.getMax());
+      }
+    }
+    if (batchAttributes != null) {
+      for (String attribute : batchAttributes) {
+        q.setHint(BATCH_HINT, attribute);
+      }
     }
     return (List<T>) q.getResultList();
   }
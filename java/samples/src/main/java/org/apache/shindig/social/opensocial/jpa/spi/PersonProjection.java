@@ -0,0 +1,459 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.opensocial.jpa.spi;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.apache.shindig.social.opensocial.jpa.EnumDb;
+import org.apache.shindig.social.opensocial.jpa.PersonDb;
+import org.apache.shindig.social.opensocial.jpa.PersonPropertyDb;
+import org.apache.shindig.social.opensocial.model.Account;
+import org.apache.shindig.social.opensocial.model.Address;
+import org.apache.shindig.social.opensocial.model.BodyType;
+import org.apache.shindig.social.opensocial.model.ListField;
+import org.apache.shindig.social.opensocial.model.Name;
+import org.apache.shindig.social.opensocial.model.Organization;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.model.Url;
+import org.apache.shindig.social.opensocial.model.Enum.Drinker;
+import org.apache.shindig.social.opensocial.model.Enum.NetworkPresence;
+import org.apache.shindig.social.opensocial.model.Enum.Smoker;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Loads people with only the columns and relationships that are needed for a set of person
+ * fields, rather than loading complete PersonDb entities. The columns are selected by a single
+ * query, single valued relationships are outer joined into that query and each collection is read
+ * for all the people at once by one extra query. The people that are returned are not managed by
+ * the entity manager.
+ */
+public class PersonProjection {
+
+  /**
+   * The fields that are stored as columns of the person table, and the property they are mapped to.
+   */
+  private static final Map<Person.Field, String> COLUMNS = Maps.newEnumMap(Person.Field.class);
+
+  /**
+   * The fields that are stored as single valued relationships.
+   */
+  private static final Map<Person.Field, String> RELATIONSHIPS =
+      Maps.newEnumMap(Person.Field.class);
+
+  /**
+   * The fields that are stored as collections, and the entity that holds the collection.
+   */
+  private static final Map<Person.Field, String> COLLECTIONS = Maps.newEnumMap(Person.Field.class);
+
+  /**
+   * The fields that are stored as person properties.
+   */
+  private static final Set<Person.Field> PROPERTY_FIELDS = EnumSet.of(Person.Field.ACTIVITIES,
+      Person.Field.BOOKS, Person.Field.CARS, Person.Field.FOOD, Person.Field.HEROES,
+      Person.Field.INTERESTS, Person.Field.LANGUAGES_SPOKEN, Person.Field.LOOKING_FOR,
+      Person.Field.MOVIES, Person.Field.MUSIC, Person.Field.QUOTES, Person.Field.SPORTS,
+      Person.Field.TAGS, Person.Field.TURN_OFFS, Person.Field.TURN_ONS, Person.Field.TV_SHOWS);
+
+  static {
+    COLUMNS.put(Person.Field.ABOUT_ME, "aboutMe");
+    COLUMNS.put(Person.Field.AGE, "age");
+    COLUMNS.put(Person.Field.BIRTHDAY, "birthday");
+    COLUMNS.put(Person.Field.CHILDREN, "children");
+    COLUMNS.put(Person.Field.DISPLAY_NAME, "displayName");
+    COLUMNS.put(Person.Field.DRINKER, "drinkerDb");
+    COLUMNS.put(Person.Field.ETHNICITY, "ethnicity");
+    COLUMNS.put(Person.Field.FASHION, "fashion");
+    COLUMNS.put(Person.Field.GENDER, "genderDb");
+    COLUMNS.put(Person.Field.HAPPIEST_WHEN, "happiestWhen");
+    COLUMNS.put(Person.Field.HUMOR, "humor");
+    COLUMNS.put(Person.Field.JOB_INTERESTS, "jobInterests");
+    COLUMNS.put(Person.Field.LAST_UPDATED, "updated");
+    COLUMNS.put(Person.Field.LIVING_ARRANGEMENT, "livingArrangement");
+    COLUMNS.put(Person.Field.NETWORKPRESENCE, "networkPresenceDb");
+    COLUMNS.put(Person.Field.NICKNAME, "nickname");
+    COLUMNS.put(Person.Field.PETS, "pets");
+    COLUMNS.put(Person.Field.POLITICAL_VIEWS, "politicalViews");
+    COLUMNS.put(Person.Field.RELATIONSHIP_STATUS, "relationshipStatus");
+    COLUMNS.put(Person.Field.RELIGION, "religion");
+    COLUMNS.put(Person.Field.ROMANCE, "romance");
+    COLUMNS.put(Person.Field.SCARED_OF, "scaredOf");
+    COLUMNS.put(Person.Field.SEXUAL_ORIENTATION, "sexualOrientation");
+    COLUMNS.put(Person.Field.SMOKER, "smokerDb");
+    COLUMNS.put(Person.Field.STATUS, "status");
+    COLUMNS.put(Person.Field.UTC_OFFSET, "utcOffset");
+
+    RELATIONSHIPS.put(Person.Field.BODY_TYPE, "bodyType");
+    RELATIONSHIPS.put(Person.Field.CURRENT_LOCATION, "currentLocation");
+    RELATIONSHIPS.put(Person.Field.NAME, "name");
+
+    COLLECTIONS.put(Person.Field.ACCOUNTS, "PersonAccountDb");
+    COLLECTIONS.put(Person.Field.ADDRESSES, "PersonAddressDb");
+    COLLECTIONS.put(Person.Field.EMAILS, "EmailDb");
+    COLLECTIONS.put(Person.Field.IMS, "ImDb");
+    COLLECTIONS.put(Person.Field.ORGANIZATIONS, "PersonOrganizationDb");
+    COLLECTIONS.put(Person.Field.PHONE_NUMBERS, "PhoneDb");
+    COLLECTIONS.put(Person.Field.PHOTOS, "PhotoDb");
+    COLLECTIONS.put(Person.Field.THUMBNAIL_URL, "PhotoDb");
+    COLLECTIONS.put(Person.Field.URLS, "UrlDb");
+    COLLECTIONS.put(Person.Field.PROFILE_URL, "UrlDb");
+  }
+
+  /**
+   * The columns and relationships in the order they are selected, after the object id and the id.
+   */
+  private final List<Person.Field> selected = Lists.newArrayList();
+
+  /**
+   * The collections that have to be read, keyed by the entity that holds them.
+   */
+  private final Map<String, Person.Field> collections = Maps.newLinkedHashMap();
+
+  private final boolean loadProperties;
+
+  private final String name;
+
+  /**
+   * Create a projection for a set of fields.
+   *
+   * @param fields the requested fields, if null or empty the default fields are used, fields that
+   *          are not recognized are ignored.
+   */
+  public PersonProjection(Set<String> fields) {
+    if (fields == null || fields.isEmpty()) {
+      fields = Person.Field.DEFAULT_FIELDS;
+    }
+    Set<Person.Field> requested = EnumSet.noneOf(Person.Field.class);
+    for (String f : fields) {
+      Person.Field field = Person.Field.fromUrlString(f);
+      if (field != null) {
+        requested.add(field);
+      }
+    }
+    boolean properties = false;
+    StringBuilder sb = new StringBuilder();
+    // iterating over the enum set gives a stable order for the name and the select.
+    for (Person.Field field : requested) {
+      if (COLUMNS.containsKey(field) || RELATIONSHIPS.containsKey(field)) {
+        selected.add(field);
+        sb.append(field).append(',');
+      } else if (COLLECTIONS.containsKey(field)) {
+        String entity = COLLECTIONS.get(field);
+        if (!collections.containsKey(entity)) {
+          collections.put(entity, field);
+        }
+        sb.append(field).append(',');
+      } else if (PROPERTY_FIELDS.contains(field)) {
+        properties = true;
+        sb.append(field).append(',');
+      }
+    }
+    this.loadProperties = properties;
+    this.name = sb.toString();
+  }
+
+  /**
+   * @return a name that identifies the projection, for use in query names.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Append the select clause to a query, the query must continue with a from clause that defines
+   * the person as p, followed by {@link #appendJoins(StringBuilder)}.
+   *
+   * @param sb the query builder buffer
+   * @param distinct true if each person should only be selected once
+   */
+  public void appendSelect(StringBuilder sb, boolean distinct) {
+    sb.append(distinct ? "select distinct p.objectId, p.id" : "select p.objectId, p.id");
+    int join = 0;
+    for (Person.Field field : selected) {
+      if (COLUMNS.containsKey(field)) {
+        sb.append(", p.").append(COLUMNS.get(field));
+      } else {
+        sb.append(", j").append(join++);
+      }
+    }
+    sb.append(' ');
+  }
+
+  /**
+   * Append the outer joins needed for the single valued relationships.
+   *
+   * @param sb the query builder buffer
+   */
+  public void appendJoins(StringBuilder sb) {
+    int join = 0;
+    for (Person.Field field : selected) {
+      if (RELATIONSHIPS.containsKey(field)) {
+        sb.append(" left join p.").append(RELATIONSHIPS.get(field)).append(" j").append(join++);
+      }
+    }
+    sb.append(' ');
+  }
+
+  /**
+   * Append a group by clause on everything that is selected, so that each person is only
+   * selected once when the query joins them more than once.
+   *
+   * @param sb the query builder buffer
+   */
+  public void appendGroupBy(StringBuilder sb) {
+    sb.append(" group by p.objectId, p.id");
+    int join = 0;
+    for (Person.Field field : selected) {
+      if (COLUMNS.containsKey(field)) {
+        sb.append(", p.").append(COLUMNS.get(field));
+      } else {
+        sb.append(", j").append(join++);
+      }
+    }
+    sb.append(' ');
+  }
+
+  /**
+   * Run a query built with this projection and load the people, including the requested
+   * collections.
+   *
+   * @param entityManager the entity manager
+   * @param query the JPQL query
+   * @param parameterValues the positional parameters of the query
+   * @param collectionOptions the options used for paging, may be null
+   * @return the people in the order of the query
+   */
+  public List<Person> getPeople(EntityManager entityManager, String query,
+      List<?> parameterValues, CollectionOptions collectionOptions) {
+    List<Object[]> rows = JPQLUtils.getListQuery(entityManager, query, parameterValues,
+        collectionOptions);
+    List<Person> people = Lists.newArrayListWithExpectedSize(rows.size());
+    Map<Long, PersonDb> byObjectId = Maps.newLinkedHashMap();
+    for (Object[] row : rows) {
+      PersonDb person = new PersonDb();
+      person.setId((String) row[1]);
+      for (int i = 0; i < selected.size(); i++) {
+        setField(person, selected.get(i), row[i + 2]);
+      }
+      byObjectId.put((Long) row[0], person);
+      people.add(person);
+    }
+    if (byObjectId.isEmpty()) {
+      return people;
+    }
+
+    List<Long> objectIds = Lists.newArrayList(byObjectId.keySet());
+    for (Map.Entry<String, Person.Field> e : collections.entrySet()) {
+      Map<Long, List<Object>> values = getCollection(entityManager, e.getKey(), objectIds);
+      for (Map.Entry<Long, PersonDb> p : byObjectId.entrySet()) {
+        List<Object> v = values.get(p.getKey());
+        setCollection(p.getValue(), e.getValue(), v == null ? Lists.newArrayList() : v);
+      }
+    }
+    if (loadProperties) {
+      Map<Long, List<Object>> values = getCollection(entityManager, "PersonPropertyDb",
+          objectIds);
+      for (Map.Entry<Long, PersonDb> p : byObjectId.entrySet()) {
+        List<PersonPropertyDb> properties = Lists.newArrayList();
+        List<Object> v = values.get(p.getKey());
+        if (v != null) {
+          for (Object o : v) {
+            properties.add((PersonPropertyDb) o);
+          }
+        }
+        p.getValue().loadProperties(properties);
+      }
+    }
+    return people;
+  }
+
+  /**
+   * Read a collection for a set of people with one query.
+   *
+   * @param entityManager the entity manager
+   * @param entity the entity that holds the collection, and refers to the person
+   * @param objectIds the object ids of the people
+   * @return the collection elements keyed by the object id of the person
+   */
+  private Map<Long, List<Object>> getCollection(EntityManager entityManager, String entity,
+      List<Long> objectIds) {
+    int n = objectIds.size();
+    String queryName = "person.collection." + entity + "." + JPQLUtils.getInClauseBucket(n);
+    String query = JPQLUtils.getCachedQuery(queryName);
+    if (query == null) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("select c.person.objectId, c from ").append(entity).append(" c where ");
+      JPQLUtils.addInClause(sb, "c", "person.objectId", 1, n);
+      query = JPQLUtils.cacheQuery(queryName, sb.toString());
+    }
+    List<Long> params = Lists.newArrayList(objectIds);
+    JPQLUtils.padInParameters(params, n);
+    List<Object[]> rows = JPQLUtils.getListQuery(entityManager, query, params, null);
+    Map<Long, List<Object>> values = Maps.newHashMap();
+    for (Object[] row : rows) {
+      List<Object> l = values.get(row[0]);
+      if (l == null) {
+        l = Lists.newArrayList();
+        values.put((Long) row[0], l);
+      }
+      l.add(row[1]);
+    }
+    return values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void setCollection(PersonDb person, Person.Field field, List<?> values) {
+    switch (field) {
+    case ACCOUNTS:
+      person.setAccounts((List<Account>) values);
+      break;
+    case ADDRESSES:
+      person.setAddresses((List<Address>) values);
+      break;
+    case EMAILS:
+      person.setEmails((List<ListField>) values);
+      break;
+    case IMS:
+      person.setIms((List<ListField>) values);
+      break;
+    case ORGANIZATIONS:
+      person.setOrganizations((List<Organization>) values);
+      break;
+    case PHONE_NUMBERS:
+      person.setPhoneNumbers((List<ListField>) values);
+      break;
+    case PHOTOS:
+    case THUMBNAIL_URL:
+      person.setPhotos((List<ListField>) values);
+      break;
+    case URLS:
+    case PROFILE_URL:
+      person.setUrls((List<Url>) values);
+      break;
+    }
+  }
+
+  private void setField(PersonDb person, Person.Field field, Object value) {
+    switch (field) {
+    case ABOUT_ME:
+      person.setAboutMe((String) value);
+      break;
+    case AGE:
+      person.setAge((Integer) value);
+      break;
+    case BIRTHDAY:
+      person.setBirthday((Date) value);
+      break;
+    case BODY_TYPE:
+      person.setBodyType((BodyType) value);
+      break;
+    case CHILDREN:
+      person.setChildren((String) value);
+      break;
+    case CURRENT_LOCATION:
+      person.setCurrentLocation((Address) value);
+      break;
+    case DISPLAY_NAME:
+      person.setDisplayName((String) value);
+      break;
+    case DRINKER:
+      if (value != null) {
+        person.setDrinker(new EnumDb<Drinker>(Drinker.valueOf((String) value)));
+      }
+      break;
+    case ETHNICITY:
+      person.setEthnicity((String) value);
+      break;
+    case FASHION:
+      person.setFashion((String) value);
+      break;
+    case GENDER:
+      if (value != null) {
+        person.setGender(Person.Gender.valueOf((String) value));
+      }
+      break;
+    case HAPPIEST_WHEN:
+      person.setHappiestWhen((String) value);
+      break;
+    case HUMOR:
+      person.setHumor((String) value);
+      break;
+    case JOB_INTERESTS:
+      person.setJobInterests((String) value);
+      break;
+    case LAST_UPDATED:
+      person.setUpdated((Date) value);
+      break;
+    case LIVING_ARRANGEMENT:
+      person.setLivingArrangement((String) value);
+      break;
+    case NAME:
+      person.setName((Name) value);
+      break;
+    case NETWORKPRESENCE:
+      if (value != null) {
+        person.setNetworkPresence(new EnumDb<NetworkPresence>(
+            NetworkPresence.valueOf((String) value)));
+      }
+      break;
+    case NICKNAME:
+      person.setNickname((String) value);
+      break;
+    case PETS:
+      person.setPets((String) value);
+      break;
+    case POLITICAL_VIEWS:
+      person.setPoliticalViews((String) value);
+      break;
+    case RELATIONSHIP_STATUS:
+      person.setRelationshipStatus((String) value);
+      break;
+    case RELIGION:
+      person.setReligion((String) value);
+      break;
+    case ROMANCE:
+      person.setRomance((String) value);
+      break;
+    case SCARED_OF:
+      person.setScaredOf((String) value);
+      break;
+    case SEXUAL_ORIENTATION:
+      person.setSexualOrientation((String) value);
+      break;
+    case SMOKER:
+      if (value != null) {
+        person.setSmoker(new EnumDb<Smoker>(Smoker.valueOf((String) value)));
+      }
+      break;
+    case STATUS:
+      person.setStatus((String) value);
+      break;
+    case UTC_OFFSET:
+      person.setUtcOffset((Long) value);
+      break;
+    }
+  }
+}
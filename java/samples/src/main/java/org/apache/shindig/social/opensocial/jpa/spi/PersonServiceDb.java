@@ -34,14 +34,11 @@ import org.apache.shindig.social.opensocial.spi.RestfulCollection;
 import org.apache.shindig.social.opensocial.spi.SocialSpiException;
 import org.apache.shindig.social.opensocial.spi.UserId;
 
-import com.google.common.collect.Lists;
-import com.google.inject.Inject;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 /**
  * Implements the PersonService from the SPI binding to the JPA model and providing queries to
@@ -49,6 +46,12 @@ import javax.persistence.Query;
  */
 public class PersonServiceDb implements PersonService {
 
+  /**
+   * The order of the top friends sort, highest score first. A friend of several of the users is
+   * ranked by their best score.
+   */
+  private static final String TOP_FRIENDS_ORDER = "max(f.score)";
+
   /**
    * This is the JPA entity manager, shared by all threads accessing this service (need to check
    * that its really thread safe).
@@ -76,59 +79,102 @@ public class PersonServiceDb implements PersonService {
     // by the group id, the final set is filtered
     // using the collectionOptions and return the fields requested.
 
-    // not dealing with the collection options at the moment, and not the fields because they are
-    // either lazy or at no extra costs, the consumer will either access the properties or not
-    List<Person> plist = null;
-    int lastPos = 1;
-
-    StringBuilder sb = new StringBuilder();
     // sanitize the list to get the uid's and remove duplicates
     List<String> paramList = SPIUtils.getUserList(userIds, token);
-    // select the group Id as this will drive the query
-    switch (groupId.getType()) {
-    case all:
-      // select all contacts
-      sb.append(PersonDb.JPQL_FINDALLPERSON);
-      lastPos = JPQLUtils.addInClause(sb, "p", "id", lastPos, paramList.size());
-      break;
-    case friends:
-      // select all friends (subset of contacts)
-      sb.append(PersonDb.JPQL_FINDPERSON_BY_FRIENDS);
-      lastPos = JPQLUtils.addInClause(sb, "p", "id", lastPos, paramList.size());
-      break;
-    case groupId:
-      // select those in the group
-      sb.append(PersonDb.JPQL_FINDPERSON_BY_GROUP);
-      lastPos = JPQLUtils.addInClause(sb, "p", "id", lastPos, paramList.size());
-      sb.append(" and g.id = ?").append(lastPos);
-      lastPos++;
-      break;
-    case deleted:
-      // ???
-      break;
-    case self:
-      // select self
-      sb.append(PersonDb.JPQL_FINDPERSON);
-      lastPos = JPQLUtils.addInClause(sb, "p", "id", lastPos, paramList.size());
-      break;
-    default:
-      throw new SocialSpiException(ResponseError.BAD_REQUEST, "Group ID not recognized");
-
+    int nUsers = paramList.size();
+    if (nUsers == 0 || groupId.getType() == GroupId.Type.deleted) {
+      return ImmediateFuture.newInstance(new RestfulCollection<Person>(
+          Lists.<Person>newArrayList()));
     }
 
+    FilterCapability filterable = PersonDb.getFilterCapability();
+    String filter = filterable.getFilterableProperty(collectionOptions.getFilter(),
+        collectionOptions.getFilterOperation());
+    String sort = getSortProperty(filterable, groupId, collectionOptions);
+    PersonProjection projection = new PersonProjection(fields);
 
-    int filterPos = addFilterClause(sb, PersonDb.getFilterCapability(), collectionOptions,
-        lastPos);
-    if (filterPos > 0) {
-      paramList.add(collectionOptions.getFilterValue());
+    // the name identifies everything that changes the text of the query, the values are all
+    // positional parameters.
+    StringBuilder queryName = new StringBuilder("person.");
+    queryName.append(groupId.getType()).append('.').append(JPQLUtils.getInClauseBucket(nUsers));
+    queryName.append('.').append(filter);
+    if (FilterSpecification.isSpecial(filter)) {
+      queryName.append('.').append(collectionOptions.getFilter());
     }
-    addOrderClause(sb, collectionOptions);
+    queryName.append('.').append(collectionOptions.getFilterOperation());
+    queryName.append('.').append(sort).append('.').append(collectionOptions.getSortOrder());
+    queryName.append('.').append(projection.getName());
 
-    plist = JPQLUtils.getListQuery(entiyManager, sb.toString(), paramList, collectionOptions);
+    String query = JPQLUtils.getCachedQuery(queryName.toString());
+    if (query == null) {
+      StringBuilder sb = new StringBuilder();
+      int lastPos = 1;
+      // a person who is a friend of more than one of the users is joined once per friendship,
+      // so select them once. Ordering by score needs the friendships, so those are grouped by
+      // person instead.
+      boolean grouped = TOP_FRIENDS_ORDER.equals(sort);
+      boolean distinct = (groupId.getType() == GroupId.Type.all
+          || groupId.getType() == GroupId.Type.friends) && !grouped;
+      // only select the columns needed for the fields
+      projection.appendSelect(sb, distinct);
+      if (distinct && sort != null) {
+        // a distinct query can only be ordered by a selected column, the extra column is ignored
+        sb.append(", ").append(sort).append(' ');
+      }
+      // select the group Id as this will drive the query
+      switch (groupId.getType()) {
+      case all:
+        // select all contacts
+        sb.append(PersonDb.JPQL_FINDALLPERSON);
+        projection.appendJoins(sb);
+        sb.append(" where ");
+        lastPos = JPQLUtils.addInClause(sb, "f", "person.id", lastPos, nUsers);
+        break;
+      case friends:
+        // select all friends (subset of contacts)
+        sb.append(PersonDb.JPQL_FINDPERSON_BY_FRIENDS);
+        projection.appendJoins(sb);
+        sb.append(" where ");
+        lastPos = JPQLUtils.addInClause(sb, "f", "person.id", lastPos, nUsers);
+        break;
+      case groupId:
+        // select those in the group
+        sb.append(PersonDb.JPQL_FINDPERSON_BY_GROUP);
+        projection.appendJoins(sb);
+        sb.append(" where ");
+        lastPos = JPQLUtils.addInClause(sb, "g", "owner.id", lastPos, nUsers);
+        sb.append(" and g.id = ?").append(lastPos);
+        lastPos++;
+        break;
+      case self:
+        // select self
+        sb.append(PersonDb.JPQL_FINDPERSON);
+        projection.appendJoins(sb);
+        sb.append(" where ");
+        lastPos = JPQLUtils.addInClause(sb, "p", "id", lastPos, nUsers);
+        break;
+      default:
+        throw new SocialSpiException(ResponseError.BAD_REQUEST, "Group ID not recognized");
+      }
+      addFilterClause(sb, filter, collectionOptions, lastPos);
+      if (grouped) {
+        projection.appendGroupBy(sb);
+      }
+      addOrderClause(sb, sort, collectionOptions);
+      query = JPQLUtils.cacheQuery(queryName.toString(), sb.toString());
+    }
 
-    if (plist == null) {
-      plist = Lists.newArrayList();
+    // the parameters have to be added in the same order as the query was built
+    JPQLUtils.padInParameters(paramList, nUsers);
+    if (groupId.getType() == GroupId.Type.groupId) {
+      paramList.add(groupId.getGroupId());
+    }
+    String filterValue = getFilterValue(filter, collectionOptions);
+    if (filterValue != null) {
+      paramList.add(filterValue);
     }
+
+    List<Person> plist = projection.getPeople(entiyManager, query, paramList, collectionOptions);
     // all of the above could equally have been placed into a thread to overlay the
     // db wait times.
     return ImmediateFuture.newInstance(new RestfulCollection<Person>(plist));
@@ -141,108 +187,151 @@ public class PersonServiceDb implements PersonService {
   public Future<Person> getPerson(UserId id, Set<String> fields, SecurityToken token)
       throws SocialSpiException {
     String uid = id.getUserId(token);
-    Query q = entiyManager.createNamedQuery(PersonDb.FINDBY_PERSONID);
-    q.setParameter(PersonDb.PARAM_PERSONID, uid);
-    q.setFirstResult(1);
-    q.setMaxResults(1);
-    List<?> plist = q.getResultList();
+    PersonProjection projection = new PersonProjection(fields);
+    String queryName = "person.byid." + projection.getName();
+    String query = JPQLUtils.getCachedQuery(queryName);
+    if (query == null) {
+      StringBuilder sb = new StringBuilder();
+      projection.appendSelect(sb, false);
+      sb.append(PersonDb.JPQL_FINDPERSON);
+      projection.appendJoins(sb);
+      sb.append(" where p.id = ?1");
+      query = JPQLUtils.cacheQuery(queryName, sb.toString());
+    }
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(1);
+    List<Person> plist = projection.getPeople(entiyManager, query, Lists.newArrayList(uid),
+        options);
     Person person = null;
-    if (plist != null && plist.size() > 0) {
-      person = (Person) plist.get(0);
+    if (plist.size() > 0) {
+      person = plist.get(0);
     }
     return ImmediateFuture.newInstance(person);
   }
 
-
-
   /**
    * Add a filter clause specified by the collection options.
    *
    * @param sb the query builder buffer
+   * @param filter the filterable property, as translated by the filter capability
    * @param collectionOptions the options
-   * @param lastPos the last positional parameter that was used so far in the query
-   * @return
+   * @param lastPos the next positional parameter that is free in the query
    */
-  private int addFilterClause(StringBuilder sb, FilterCapability filterable,
+  private void addFilterClause(StringBuilder sb, String filter,
       CollectionOptions collectionOptions, int lastPos) {
-    // this makes the filter value safe
-    String filter = filterable.getFilterableProperty(collectionOptions.getFilter(),
-        collectionOptions.getFilterOperation());
-    String filterValue = collectionOptions.getFilterValue();
-    int filterPos = 0;
     if (FilterSpecification.isValid(filter)) {
       if (FilterSpecification.isSpecial(filter)) {
-        if (PersonService.HAS_APP_FILTER.equals(filter)) {
+        if (PersonService.HAS_APP_FILTER.equals(collectionOptions.getFilter())) {
           // Retrieves all friends with any data for this application.
           // TODO: how do we determine which application is being talked about,
           // the assumption below is wrong
-          filterPos = lastPos + 1;
-          sb.append(" f.application_id  = ?").append(filterPos);
-        } else if (PersonService.TOP_FRIENDS_FILTER.equals(filter)) {
-          // Retrieves only the user's top friends, this is defined here by the implementation
-          // and there is an assumption that the sort order has already been applied.
-          // to do this we need to modify the collections options
-          // there will only ever b x friends in the list and it will only ever start at 1
-
-          collectionOptions.setFirst(1);
-          collectionOptions.setMax(20);
-
-        } else if (PersonService.ALL_FILTER.equals(filter)) {
-           // select all, ie no filtering
-        } else if (PersonService.IS_WITH_FRIENDS_FILTER.equals(filter)) {
-          filterPos = lastPos + 1;
-          sb.append(" f.friend  = ?").append(filterPos);
+          sb.append(" and f.application_id = ?").append(lastPos);
+        } else if (PersonService.IS_WITH_FRIENDS_FILTER.equals(collectionOptions.getFilter())) {
+          sb.append(" and f.friend = ?").append(lastPos);
         }
       } else {
-        sb.append("p.").append(filter);
+        sb.append(" and p.").append(filter);
         switch (collectionOptions.getFilterOperation()) {
         case contains:
-          filterPos = lastPos + 1;
-          sb.append(" like ").append(" ?").append(filterPos);
-          filterValue = "%" + filterValue + "%";
-          collectionOptions.setFilter(filterValue);
+        case startsWith:
+          sb.append(" like ?").append(lastPos);
           break;
         case equals:
-          filterPos = lastPos + 1;
-          sb.append(" = ").append(" ?").append(filterPos);
+          sb.append(" = ?").append(lastPos);
           break;
         case present:
           sb.append(" is not null ");
           break;
-        case startsWith:
-          filterPos = lastPos + 1;
-          sb.append(" like ").append(" ?").append(filterPos);
-          filterValue = "%" + filterValue + "%";
-          collectionOptions.setFilter(filterValue);
-          break;
         }
       }
     }
-    return filterPos;
+  }
+
+  /**
+   * Get the value of the filter parameter, if the filter has one. Special filters may modify the
+   * collection options.
+   *
+   * @param filter the filterable property, as translated by the filter capability
+   * @param collectionOptions the options
+   * @return the value of the filter parameter, or null if the filter does not have a parameter
+   */
+  private String getFilterValue(String filter, CollectionOptions collectionOptions) {
+    if (!FilterSpecification.isValid(filter)) {
+      return null;
+    }
+    String filterValue = collectionOptions.getFilterValue();
+    if (FilterSpecification.isSpecial(filter)) {
+      if (PersonService.HAS_APP_FILTER.equals(collectionOptions.getFilter())
+          || PersonService.IS_WITH_FRIENDS_FILTER.equals(collectionOptions.getFilter())) {
+        return filterValue;
+      } else if (PersonService.TOP_FRIENDS_FILTER.equals(collectionOptions.getFilter())) {
+        // Retrieves only the user's top friends, this is defined here by the implementation
+        // and there is an assumption that the sort order has already been applied.
+        // to do this we need to modify the collections options
+        // there will only ever b x friends in the list and it will only ever start at the
+        // beginning
+        collectionOptions.setFirst(0);
+        collectionOptions.setMax(20);
+      }
+      return null;
+    }
+    switch (collectionOptions.getFilterOperation()) {
+    case contains:
+      return "%" + filterValue + "%";
+    case startsWith:
+      return filterValue + "%";
+    case equals:
+      return filterValue;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * Get the property to sort by, only filterable properties may be used so that the sort can't be
+   * used to inject into the query.
+   *
+   * @param filterable the filter capability of the model
+   * @param groupId the group being queried
+   * @param collectionOptions the options to use for the order.
+   * @return the qualified property or null if there is no usable sort
+   */
+  private String getSortProperty(FilterCapability filterable, GroupId groupId,
+      CollectionOptions collectionOptions) {
+    String sortBy = collectionOptions.getSortBy();
+    if (sortBy == null || sortBy.length() == 0) {
+      return null;
+    }
+    if (PersonService.TOP_FRIENDS_SORT.equals(sortBy)) {
+      // this assumes that the query is a join with the friends store.
+      if (groupId.getType() == GroupId.Type.all || groupId.getType() == GroupId.Type.friends) {
+        return TOP_FRIENDS_ORDER;
+      }
+      return null;
+    }
+    String property = filterable.getFilterableProperty(sortBy, FilterOperation.equals);
+    if (FilterSpecification.isValid(property) && !FilterSpecification.isSpecial(property)) {
+      return "p." + property;
+    }
+    return null;
   }
 
   /**
    * Add an order clause to the query string.
    *
    * @param sb the buffer for the query string
+   * @param sort the qualified property to sort by, may be null
    * @param collectionOptions the options to use for the order.
    */
-  private void addOrderClause(StringBuilder sb, CollectionOptions collectionOptions) {
-    String sortBy = collectionOptions.getSortBy();
-    if (sortBy != null && sortBy.length() > 0) {
-      if (PersonService.TOP_FRIENDS_SORT.equals(sortBy)) {
-        // this assumes that the query is a join with the friends store.
-        sb.append(" order by f.score ");
+  private void addOrderClause(StringBuilder sb, String sort,
+      CollectionOptions collectionOptions) {
+    if (sort != null) {
+      sb.append(" order by ").append(sort);
+      if (TOP_FRIENDS_ORDER.equals(sort)
+          || collectionOptions.getSortOrder() == SortOrder.descending) {
+        sb.append(" desc ");
       } else {
-        sb.append(" order by p.").append(sortBy);
-        switch (collectionOptions.getSortOrder()) {
-        case ascending:
-          sb.append(" asc ");
-          break;
-        case descending:
-          sb.append(" desc ");
-          break;
-        }
+        sb.append(" asc ");
       }
     }
   }
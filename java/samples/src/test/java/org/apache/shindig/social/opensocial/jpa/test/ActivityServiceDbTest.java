@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.opensocial.jpa.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.shindig.social.opensocial.jpa.ActivityDb;
+import org.apache.shindig.social.opensocial.jpa.FriendDb;
+import org.apache.shindig.social.opensocial.jpa.MediaItemDb;
+import org.apache.shindig.social.opensocial.jpa.eclipselink.Bootstrap;
+import org.apache.shindig.social.opensocial.jpa.spi.ActivityServiceDb;
+import org.apache.shindig.social.opensocial.model.Activity;
+import org.apache.shindig.social.opensocial.model.MediaItem;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+import org.eclipse.persistence.jpa.JpaEntityManager;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs the activity queries against an embedded in memory database, and logs how long they take.
+ */
+public class ActivityServiceDbTest {
+
+  private static final Log LOG = LogFactory.getLog("shindig-db-test");
+
+  private static final int PEOPLE = 20;
+
+  private static final int FRIENDS = 10;
+
+  private static final int ACTIVITIES = 5;
+
+  private static final int ITERATIONS = 200;
+
+  private static final String APP_ID = "app";
+
+  private static EntityManager entityManager;
+
+  private static UserId firstUser;
+
+  private static GroupId friends = new GroupId(GroupId.Type.friends, null);
+
+  @BeforeClass
+  public static void config() {
+    Bootstrap b = new Bootstrap(CountingDriver.class.getName(),
+        CountingDriver.URL_PREFIX + "hsqldb:mem:activitytest", "sa", "", "1", "1");
+    entityManager = b.getEntityManager("default");
+
+    EntityTransaction transaction = entityManager.getTransaction();
+    transaction.begin();
+    PersonPopulate pp = new PersonPopulate(entityManager);
+    long key = System.currentTimeMillis();
+    Random r = new Random();
+    List<Person> people = Lists.newArrayList();
+    for (int i = 0; i < PEOPLE; i++) {
+      Person person = pp.createPerson(i, key, r);
+      entityManager.persist(person);
+      people.add(person);
+    }
+    for (int i = 0; i < PEOPLE; i++) {
+      for (int j = 1; j <= FRIENDS; j++) {
+        FriendDb friend = new FriendDb();
+        friend.setPerson(people.get(i));
+        friend.setFriend(people.get((i + j) % PEOPLE));
+        entityManager.persist(friend);
+      }
+      for (int j = 0; j < ACTIVITIES; j++) {
+        ActivityDb activity = new ActivityDb("activity-" + i + "-" + j, people.get(i).getId());
+        activity.setAppId(APP_ID);
+        activity.setTitle("Activity " + j);
+        // every activity of a person is posted at the same time, so the id breaks the tie.
+        activity.setPostedTime(key - i);
+        MediaItemDb mediaItem = new MediaItemDb("image/png", MediaItem.Type.IMAGE,
+            "http://example.org/" + i + "/" + j + ".png");
+        entityManager.persist(mediaItem);
+        List<MediaItem> mediaItems = Lists.newArrayList();
+        mediaItems.add(mediaItem);
+        activity.setMediaItems(mediaItems);
+        entityManager.persist(activity);
+      }
+    }
+    firstUser = new UserId(UserId.Type.userId, pp.getPersonId(0, key));
+    transaction.commit();
+    entityManager.clear();
+  }
+
+  @Test
+  public void getFriendsActivitiesNewestFirst() throws Exception {
+    ActivityServiceDb activityService = new ActivityServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(15);
+    List<Activity> activities = activityService.getActivities(Sets.newHashSet(firstUser), friends,
+        APP_ID, null, options, null).get().getEntry();
+    assertEquals(15, activities.size());
+    for (int i = 1; i < activities.size(); i++) {
+      assertTrue(compare(activities.get(i - 1), activities.get(i)) > 0);
+    }
+    assertEquals(1, activities.get(0).getMediaItems().size());
+  }
+
+  @Test
+  public void getFriendsActivitiesPostedBefore() throws Exception {
+    ActivityServiceDb activityService = new ActivityServiceDb(entityManager);
+    Set<UserId> user = Sets.newHashSet(firstUser);
+    Set<String> seen = Sets.newHashSet();
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(7);
+    List<Activity> page = activityService.getActivities(user, friends, APP_ID, null, options,
+        null).get().getEntry();
+    while (!page.isEmpty()) {
+      for (Activity activity : page) {
+        assertTrue(seen.add(activity.getId()));
+      }
+      Activity last = page.get(page.size() - 1);
+      options.setFilter(ActivityServiceDb.POSTED_BEFORE_FILTER);
+      options.setFilterValue(last.getPostedTime() + ":" + last.getId());
+      page = activityService.getActivities(user, friends, APP_ID, null, options, null).get()
+          .getEntry();
+    }
+    assertEquals(FRIENDS * ACTIVITIES, seen.size());
+  }
+
+  @Test
+  public void getFriendsActivitiesStatementsPerPage() throws Exception {
+    ActivityServiceDb activityService = new ActivityServiceDb(entityManager);
+    Set<UserId> user = Sets.newHashSet(firstUser);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(7);
+    int pages = 0;
+    List<Activity> page;
+    do {
+      // nothing is in the cache, so every relationship used has to be read for this page
+      entityManager.clear();
+      ((JpaEntityManager) entityManager).getServerSession().getIdentityMapAccessor()
+          .initializeAllIdentityMaps();
+      CountingDriver.reset();
+      page = activityService.getActivities(user, friends, APP_ID, null, options, null).get()
+          .getEntry();
+      for (Activity activity : page) {
+        assertEquals(1, activity.getMediaItems().size());
+        assertTrue(activity.getTemplateParams().isEmpty());
+      }
+      if (page.isEmpty()) {
+        assertEquals(1, CountingDriver.getStatements());
+        assertEquals(0, CountingDriver.getRows());
+      } else {
+        // one query for the page and one for the media items and template parameters of the
+        // activities on it, each reading a row per activity.
+        assertEquals(2, CountingDriver.getStatements());
+        assertEquals(2 * page.size(), CountingDriver.getRows());
+        Activity last = page.get(page.size() - 1);
+        options.setFilter(ActivityServiceDb.POSTED_BEFORE_FILTER);
+        options.setFilterValue(last.getPostedTime() + ":" + last.getId());
+        pages++;
+      }
+    } while (!page.isEmpty());
+    assertEquals((FRIENDS * ACTIVITIES + 6) / 7, pages);
+  }
+
+  @Test
+  public void createAndDeleteActivity() throws Exception {
+    ActivityServiceDb activityService = new ActivityServiceDb(entityManager);
+    GroupId self = new GroupId(GroupId.Type.self, null);
+    ActivityDb activity = new ActivityDb();
+    activity.setTitle("New activity");
+
+    EntityTransaction transaction = entityManager.getTransaction();
+    transaction.begin();
+    activityService.createActivity(firstUser, self, APP_ID, null, activity, null).get();
+    transaction.commit();
+    assertNotNull(activity.getId());
+    entityManager.clear();
+
+    List<Activity> activities = activityService.getActivities(Sets.newHashSet(firstUser), self,
+        APP_ID, null, null).get().getEntry();
+    assertEquals(ACTIVITIES + 1, activities.size());
+    assertEquals(activity.getId(), activities.get(0).getId());
+
+    transaction.begin();
+    activityService.deleteActivities(firstUser, self, APP_ID,
+        Sets.newHashSet(activity.getId()), null).get();
+    transaction.commit();
+    entityManager.clear();
+
+    activities = activityService.getActivities(Sets.newHashSet(firstUser), self, APP_ID, null,
+        null).get().getEntry();
+    assertEquals(ACTIVITIES, activities.size());
+  }
+
+  @Test
+  public void getFriendsActivitiesThroughput() throws Exception {
+    ActivityServiceDb activityService = new ActivityServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(20);
+    Set<UserId> user = Sets.newHashSet(firstUser);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ITERATIONS; i++) {
+      List<Activity> activities = activityService.getActivities(user, friends, APP_ID, null,
+          options, null).get().getEntry();
+      assertEquals(20, activities.size());
+      for (Activity activity : activities) {
+        activity.getMediaItems().size();
+      }
+      entityManager.clear();
+    }
+    long time = System.currentTimeMillis() - start;
+    LOG.info("getActivities for " + FRIENDS + " friends took " + ((double) time / ITERATIONS)
+        + "ms per call");
+  }
+
+  private static int compare(Activity a, Activity b) {
+    int c = a.getPostedTime().compareTo(b.getPostedTime());
+    return c != 0 ? c : a.getId().compareTo(b.getId());
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.opensocial.jpa.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A JDBC driver that counts the statements executed and the rows read through the HSQLDB driver,
+ * so that tests can check how many queries an SPI call makes. A url of jdbc:counting:hsqldb:... is
+ * passed on as jdbc:hsqldb:...
+ */
+public class CountingDriver implements Driver {
+
+  public static final String URL_PREFIX = "jdbc:counting:";
+
+  private static final AtomicInteger STATEMENTS = new AtomicInteger();
+
+  private static final AtomicInteger ROWS = new AtomicInteger();
+
+  static {
+    try {
+      Class.forName("org.hsqldb.jdbcDriver");
+      DriverManager.registerDriver(new CountingDriver());
+    } catch (ClassNotFoundException e) {
+      throw new ExceptionInInitializerError(e);
+    } catch (SQLException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Start counting again from zero.
+   */
+  public static void reset() {
+    STATEMENTS.set(0);
+    ROWS.set(0);
+  }
+
+  /**
+   * @return the number of statements executed since the last reset, a batch counts as one
+   */
+  public static int getStatements() {
+    return STATEMENTS.get();
+  }
+
+  /**
+   * @return the number of rows read from result sets since the last reset
+   */
+  public static int getRows() {
+    return ROWS.get();
+  }
+
+  public Connection connect(String url, Properties info) throws SQLException {
+    if (!acceptsURL(url)) {
+      return null;
+    }
+    return wrap(Connection.class, DriverManager.getConnection(getTargetUrl(url), info));
+  }
+
+  public boolean acceptsURL(String url) {
+    return url != null && url.startsWith(URL_PREFIX);
+  }
+
+  public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+    return DriverManager.getDriver(getTargetUrl(url)).getPropertyInfo(getTargetUrl(url), info);
+  }
+
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  public Logger getParentLogger() {
+    return Logger.getLogger(CountingDriver.class.getName());
+  }
+
+  private static String getTargetUrl(String url) {
+    return "jdbc:" + url.substring(URL_PREFIX.length());
+  }
+
+  /**
+   * Wrap a connection, statement or result set so that the statements and result sets it returns
+   * are wrapped too.
+   */
+  private static <T> T wrap(Class<T> type, Object target) {
+    return type.cast(Proxy.newProxyInstance(CountingDriver.class.getClassLoader(),
+        new Class<?>[] { type }, new Counter(target)));
+  }
+
+  private static class Counter implements InvocationHandler {
+    private final Object target;
+
+    Counter(Object target) {
+      this.target = target;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("equals".equals(method.getName()) && method.getParameterTypes().length == 1) {
+        return proxy == args[0];
+      }
+      Object result;
+      try {
+        result = method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+      if (target instanceof Statement && method.getName().startsWith("execute")) {
+        STATEMENTS.incrementAndGet();
+      } else if (target instanceof ResultSet && "next".equals(method.getName())
+          && Boolean.TRUE.equals(result)) {
+        ROWS.incrementAndGet();
+      }
+      Class<?> type = method.getReturnType();
+      if (result != null && type.isInterface()
+          && (Statement.class.isAssignableFrom(type) || ResultSet.class.isAssignableFrom(type))) {
+        return wrap(type, result);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.opensocial.jpa.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.Lists;
+
+import org.apache.shindig.social.opensocial.jpa.spi.JPQLUtils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Tests the query building helpers.
+ */
+public class JPQLUtilsTest {
+
+  @Test
+  public void inClauseBuckets() {
+    assertEquals(1, JPQLUtils.getInClauseBucket(0));
+    assertEquals(1, JPQLUtils.getInClauseBucket(1));
+    assertEquals(2, JPQLUtils.getInClauseBucket(2));
+    assertEquals(4, JPQLUtils.getInClauseBucket(3));
+    assertEquals(64, JPQLUtils.getInClauseBucket(33));
+    assertEquals(256, JPQLUtils.getInClauseBucket(256));
+    assertEquals(512, JPQLUtils.getInClauseBucket(257));
+  }
+
+  @Test
+  public void inClauseIsPadded() {
+    StringBuilder sb = new StringBuilder();
+    int next = JPQLUtils.addInClause(sb, "p", "id", 2, 3);
+    assertEquals(6, next);
+    assertEquals("p.id in ( ?2, ?3, ?4, ?5 )", sb.toString());
+  }
+
+  @Test
+  public void sameShapeSameQuery() {
+    StringBuilder three = new StringBuilder();
+    JPQLUtils.addInClause(three, "p", "id", 1, 3);
+    StringBuilder four = new StringBuilder();
+    JPQLUtils.addInClause(four, "p", "id", 1, 4);
+    assertEquals(three.toString(), four.toString());
+  }
+
+  @Test
+  public void parametersArePadded() {
+    List<String> params = Lists.newArrayList("group", "a", "b", "c");
+    JPQLUtils.padInParameters(params, 3);
+    assertEquals(Lists.newArrayList("group", "a", "b", "c", "c"), params);
+  }
+
+  @Test
+  public void queryCache() {
+    assertNull(JPQLUtils.getCachedQuery("test.query"));
+    String query = "select p from PersonDb p";
+    assertSame(query, JPQLUtils.cacheQuery("test.query", query));
+    assertSame(query, JPQLUtils.getCachedQuery("test.query"));
+  }
+}
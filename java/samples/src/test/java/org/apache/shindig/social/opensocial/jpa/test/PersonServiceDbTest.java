@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.opensocial.jpa.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.shindig.social.opensocial.jpa.FriendDb;
+import org.apache.shindig.social.opensocial.jpa.eclipselink.Bootstrap;
+import org.apache.shindig.social.opensocial.jpa.spi.PersonServiceDb;
+import org.apache.shindig.social.opensocial.model.Person;
+import org.apache.shindig.social.opensocial.spi.CollectionOptions;
+import org.apache.shindig.social.opensocial.spi.GroupId;
+import org.apache.shindig.social.opensocial.spi.PersonService;
+import org.apache.shindig.social.opensocial.spi.RestfulCollection;
+import org.apache.shindig.social.opensocial.spi.UserId;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs the person queries against an embedded in memory database, and logs how long they take.
+ */
+public class PersonServiceDbTest {
+
+  private static final Log LOG = LogFactory.getLog("shindig-db-test");
+
+  private static final int PEOPLE = 40;
+
+  private static final int ITERATIONS = 200;
+
+  private static final int FRIENDS = 30;
+
+  private static EntityManager entityManager;
+
+  private static Set<UserId> userIds = Sets.newHashSet();
+
+  private static UserId firstUser;
+
+  private static UserId secondUser;
+
+  private static PersonPopulate populate;
+
+  private static long key;
+
+  @BeforeClass
+  public static void config() {
+    Bootstrap b = new Bootstrap("org.hsqldb.jdbcDriver", "jdbc:hsqldb:mem:persontest", "sa", "",
+        "1", "1");
+    entityManager = b.getEntityManager("default");
+
+    EntityTransaction transaction = entityManager.getTransaction();
+    transaction.begin();
+    PersonPopulate pp = new PersonPopulate(entityManager);
+    populate = pp;
+    key = System.currentTimeMillis();
+    Random r = new Random();
+    List<Person> people = Lists.newArrayList();
+    for (int i = 0; i < PEOPLE; i++) {
+      Person person = pp.createPerson(i, key, r);
+      entityManager.persist(person);
+      people.add(person);
+      userIds.add(new UserId(UserId.Type.userId, pp.getPersonId(i, key)));
+    }
+    for (int i = 0; i < PEOPLE; i++) {
+      for (int j = 1; j <= FRIENDS; j++) {
+        FriendDb friend = new FriendDb();
+        friend.setPerson(people.get(i));
+        friend.setFriend(people.get((i + j) % PEOPLE));
+        // the later people score higher, and higher again as friends of odd people
+        friend.setScore(((i + j) % PEOPLE) * 2 + i % 2);
+        entityManager.persist(friend);
+      }
+    }
+    firstUser = new UserId(UserId.Type.userId, pp.getPersonId(0, key));
+    secondUser = new UserId(UserId.Type.userId, pp.getPersonId(1, key));
+    transaction.commit();
+    entityManager.clear();
+  }
+
+  @Test
+  public void getPeoplePaginates() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setFirst(10);
+    options.setMax(15);
+    RestfulCollection<Person> people = personService.getPeople(userIds,
+        new GroupId(GroupId.Type.self, null), options, Person.Field.DEFAULT_FIELDS, null).get();
+    assertEquals(15, people.getEntry().size());
+  }
+
+  @Test
+  public void getFriendsOfSeveralUsersReturnsSharedFriendsOnce() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(PEOPLE);
+    GroupId friends = new GroupId(GroupId.Type.friends, null);
+    // the first user has the next FRIENDS people as friends, the second user shares all but one
+    // of them and adds one more
+    Set<UserId> users = Sets.newHashSet(firstUser, secondUser);
+    RestfulCollection<Person> people = personService.getPeople(users, friends, options,
+        Person.Field.DEFAULT_FIELDS, null).get();
+    Set<String> ids = Sets.newHashSet();
+    for (Person person : people.getEntry()) {
+      ids.add(person.getId());
+    }
+    assertEquals(FRIENDS + 1, ids.size());
+    assertEquals(FRIENDS + 1, people.getEntry().size());
+    assertEquals(FRIENDS + 1, people.getTotalResults());
+
+    options.setSortBy(Person.Field.ID.toString());
+    people = personService.getPeople(users, friends, options, Person.Field.DEFAULT_FIELDS,
+        null).get();
+    assertEquals(FRIENDS + 1, people.getEntry().size());
+  }
+
+  @Test
+  public void getTopFriendsOfSeveralUsersPaginates() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    GroupId friends = new GroupId(GroupId.Type.friends, null);
+    Set<UserId> users = Sets.newHashSet(firstUser, secondUser);
+    List<String> ids = Lists.newArrayList();
+    for (int first = 0; first < FRIENDS + 1; first += 10) {
+      CollectionOptions options = new CollectionOptions();
+      options.setSortBy(PersonService.TOP_FRIENDS_SORT);
+      options.setFirst(first);
+      options.setMax(10);
+      RestfulCollection<Person> people = personService.getPeople(users, friends, options,
+          Person.Field.DEFAULT_FIELDS, null).get();
+      assertEquals(Math.min(10, FRIENDS + 1 - first), people.getEntry().size());
+      for (Person person : people.getEntry()) {
+        ids.add(person.getId());
+      }
+    }
+    // every friend once, the one with the best score first
+    assertEquals(FRIENDS + 1, Sets.newHashSet(ids).size());
+    assertEquals(populate.getPersonId(FRIENDS + 1, key), ids.get(0));
+    assertEquals(populate.getPersonId(1, key), ids.get(FRIENDS));
+  }
+
+  @Test
+  public void getPersonLoadsRequestedFields() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    Set<String> fields = Sets.newHashSet(Person.Field.ID.toString(),
+        Person.Field.ABOUT_ME.toString(), Person.Field.EMAILS.toString(),
+        Person.Field.BOOKS.toString());
+    Person person = personService.getPerson(firstUser, fields, null).get();
+    assertEquals(firstUser.getUserId(), person.getId());
+    assertEquals("About Me 0", person.getAboutMe());
+    assertEquals(2, person.getEmails().size());
+    assertNotNull(person.getBooks());
+    assertNull(person.getOrganizations());
+  }
+
+  @Test
+  public void getFriendsThroughput() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(FRIENDS);
+    GroupId friends = new GroupId(GroupId.Type.friends, null);
+    Set<UserId> user = Sets.newHashSet(firstUser);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ITERATIONS; i++) {
+      RestfulCollection<Person> people = personService.getPeople(user, friends, options,
+          Person.Field.DEFAULT_FIELDS, null).get();
+      assertEquals(FRIENDS, people.getEntry().size());
+      entityManager.clear();
+    }
+    long time = System.currentTimeMillis() - start;
+    LOG.info("getPeople for " + FRIENDS + " friends took " + ((double) time / ITERATIONS)
+        + "ms per call");
+  }
+
+  @Test
+  public void getPeopleThroughput() throws Exception {
+    PersonServiceDb personService = new PersonServiceDb(entityManager);
+    CollectionOptions options = new CollectionOptions();
+    options.setMax(20);
+    GroupId self = new GroupId(GroupId.Type.self, null);
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < ITERATIONS; i++) {
+      RestfulCollection<Person> people = personService.getPeople(userIds, self, options,
+          Person.Field.DEFAULT_FIELDS, null).get();
+      assertEquals(20, people.getEntry().size());
+      entityManager.clear();
+    }
+    long time = System.currentTimeMillis() - start;
+    LOG.info("getPeople for " + userIds.size() + " users took " + ((double) time / ITERATIONS)
+        + "ms per call");
+  }
+}
@@ -20,6 +20,8 @@ package org.apache.shindig.server.endtoend;
 import org.apache.shindig.auth.AnonymousAuthenticationHandler;
 import org.apache.shindig.auth.AuthenticationHandler;
 import org.apache.shindig.common.servlet.ParameterFetcher;
+import org.apache.shindig.gadgets.servlet.JettyRequestSuspender;
+import org.apache.shindig.gadgets.servlet.RequestSuspender;
 import org.apache.shindig.social.core.oauth.AuthenticationHandlerProvider;
 import org.apache.shindig.social.core.util.BeanJsonConverter;
 import org.apache.shindig.social.core.util.BeanXStreamAtomConverter;
@@ -63,5 +65,8 @@ public class EndToEndModule extends AbstractModule {
     bind(new TypeLiteral<List<AuthenticationHandler>>(){}).toProvider(
         AuthenticationHandlerProvider.class);
     bind(ContainerConf.class).to(JsonContainerConf.class);
+
+    // The test server runs in Jetty, so proxied fetches can suspend their requests.
+    bind(RequestSuspender.class).to(JettyRequestSuspender.class);
   }
 }
@@ -0,0 +1,386 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.core.oauth;
+
+import org.apache.shindig.common.util.TimeSource;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthException;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
+import net.oauth.OAuthValidator;
+import net.oauth.signature.OAuthSignatureMethod;
+import net.oauth.signature.RSA_SHA1;
+
+import org.apache.commons.codec.binary.Base64;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An OAuthValidator for servers that see a lot of signed requests from the same consumers.
+ *
+ * HMAC-SHA1 signatures are checked with a Mac that is keyed once per consumer and then cloned for
+ * each request, and RSA-SHA1 signatures are checked with a public key that is parsed once per
+ * consumer. Other signature methods are left to the OAuth library. Timestamps must fall inside a
+ * window around the current time, and the nonces that each consumer has used inside that window are
+ * remembered so that a request can't be replayed. When a consumer's window is full, its new
+ * requests are refused until its oldest nonces expire; other consumers are not affected.
+ */
+@Singleton
+public class CachingOAuthValidator implements OAuthValidator {
+
+  /** How far a timestamp may be from the current time, in milliseconds. */
+  public static final long DEFAULT_TIMESTAMP_WINDOW_MSEC = 5 * 60 * 1000L;
+
+  /**
+   * The most nonces that are remembered for one consumer, its requests are refused while it has
+   * this many.
+   */
+  public static final int DEFAULT_MAX_NONCES = 10000;
+
+  /** The most consumers that keyed Macs and public keys are kept for. */
+  static final int MAX_CACHED_CONSUMERS = 1000;
+
+  private static final String OAUTH_VERSION = "1.0";
+  private static final String HMAC_SHA1 = "HMAC-SHA1";
+  private static final String RSA_SHA1_METHOD = "RSA-SHA1";
+  private static final String HMAC_ALGORITHM = "HmacSHA1";
+  private static final String RSA_ALGORITHM = "SHA1withRSA";
+  private static final String PUBLIC_KEY_HEADER = "-----BEGIN PUBLIC KEY-----";
+  private static final String PUBLIC_KEY_FOOTER = "-----END PUBLIC KEY-----";
+  private static final String UTF8 = "UTF-8";
+
+  private final TimeSource timeSource;
+  private final long timestampWindow;
+  private final int maxNonces;
+
+  /**
+   * Nonces by consumer key. Only correctly signed requests add a window, so there is at most one
+   * for each known consumer.
+   */
+  private final ConcurrentMap<String, NonceWindow> nonces = Maps.newConcurrentHashMap();
+
+  /** Keyed Macs by consumer key and secret, cloned for each use as a Mac is not thread safe. */
+  private final ConcurrentMap<String, Mac> macs = Maps.newConcurrentHashMap();
+
+  /** Parsed public keys by consumer key. */
+  private final ConcurrentMap<String, ParsedKey> publicKeys = Maps.newConcurrentHashMap();
+
+  /** A Signature for each thread, as a Signature is not thread safe. */
+  private final ThreadLocal<Signature> verifiers = new ThreadLocal<Signature>();
+
+  public CachingOAuthValidator(TimeSource timeSource) {
+    this(timeSource, DEFAULT_MAX_NONCES);
+  }
+
+  @Inject
+  public CachingOAuthValidator(TimeSource timeSource,
+      @Named("shindig.oauth.validator.max-nonces") int maxNonces) {
+    this(timeSource, DEFAULT_TIMESTAMP_WINDOW_MSEC, maxNonces);
+  }
+
+  public CachingOAuthValidator(TimeSource timeSource, long timestampWindow, int maxNonces) {
+    this.timeSource = timeSource;
+    this.timestampWindow = timestampWindow;
+    this.maxNonces = maxNonces;
+  }
+
+  public void validateMessage(OAuthMessage message, OAuthAccessor accessor)
+      throws OAuthException, IOException, URISyntaxException {
+    checkVersion(message);
+    checkSignature(message, accessor);
+    // Only a correctly signed request may use up a nonce, otherwise anyone could block a nonce.
+    checkTimestampAndNonce(message);
+  }
+
+  private void checkVersion(OAuthMessage message) throws OAuthException, IOException {
+    String version = message.getParameter(OAuth.OAUTH_VERSION);
+    if (version != null && !OAUTH_VERSION.equals(version)) {
+      OAuthProblemException problem = new OAuthProblemException("version_rejected");
+      problem.setParameter("oauth_acceptable_versions", OAUTH_VERSION);
+      throw problem;
+    }
+  }
+
+  private void checkTimestampAndNonce(OAuthMessage message) throws OAuthException, IOException {
+    String timestampParam = message.getParameter(OAuth.OAUTH_TIMESTAMP);
+    String nonce = message.getParameter(OAuth.OAUTH_NONCE);
+    if (timestampParam == null || nonce == null) {
+      OAuthProblemException problem = new OAuthProblemException("parameter_absent");
+      problem.setParameter("oauth_parameters_absent",
+          (timestampParam == null) ? OAuth.OAUTH_TIMESTAMP : OAuth.OAUTH_NONCE);
+      throw problem;
+    }
+    long timestamp;
+    try {
+      timestamp = Long.parseLong(timestampParam) * 1000L;
+    } catch (NumberFormatException e) {
+      throw new OAuthProblemException("timestamp_refused");
+    }
+    long now = timeSource.currentTimeMillis();
+    if (timestamp < now - timestampWindow || timestamp > now + timestampWindow) {
+      OAuthProblemException problem = new OAuthProblemException("timestamp_refused");
+      problem.setParameter("oauth_acceptable_timestamps",
+          ((now - timestampWindow) / 1000L) + "-" + ((now + timestampWindow) / 1000L));
+      throw problem;
+    }
+    String consumerKey = message.getParameter(OAuth.OAUTH_CONSUMER_KEY);
+    NonceWindow window = nonces.get(String.valueOf(consumerKey));
+    if (window == null) {
+      NonceWindow created = new NonceWindow(maxNonces);
+      window = nonces.putIfAbsent(String.valueOf(consumerKey), created);
+      if (window == null) {
+        window = created;
+      }
+    }
+    window.add(message.getParameter(OAuth.OAUTH_TOKEN) + '&' + nonce, timestamp,
+        now - timestampWindow);
+  }
+
+  private void checkSignature(OAuthMessage message, OAuthAccessor accessor)
+      throws OAuthException, IOException, URISyntaxException {
+    String method = message.getParameter(OAuth.OAUTH_SIGNATURE_METHOD);
+    String signature = message.getParameter(OAuth.OAUTH_SIGNATURE);
+    PublicKey publicKey =
+        RSA_SHA1_METHOD.equals(method) ? getPublicKey(accessor.consumer) : null;
+    boolean valid;
+    if (HMAC_SHA1.equals(method) && signature != null) {
+      valid = verifyHmac(message, accessor, signature);
+    } else if (publicKey != null && signature != null) {
+      valid = verifyRsa(message, publicKey, signature);
+    } else {
+      // The library checks for missing parameters and reports the problem.
+      message.validateSignature(accessor);
+      valid = true;
+    }
+    if (!valid) {
+      OAuthProblemException problem = new OAuthProblemException("signature_invalid");
+      problem.setParameter("oauth_signature_base_string", getBaseString(message));
+      throw problem;
+    }
+  }
+
+  private boolean verifyHmac(OAuthMessage message, OAuthAccessor accessor, String signature)
+      throws OAuthException, IOException, URISyntaxException {
+    String consumerSecret = accessor.consumer.consumerSecret;
+    String tokenSecret = accessor.tokenSecret;
+    String secret = OAuth.percentEncode(consumerSecret == null ? "" : consumerSecret) + '&'
+        + OAuth.percentEncode(tokenSecret == null ? "" : tokenSecret);
+    try {
+      byte[] expected = getMac(accessor.consumer.consumerKey, secret)
+          .doFinal(getBaseString(message).getBytes(UTF8));
+      byte[] actual = Base64.decodeBase64(signature.getBytes(UTF8));
+      return MessageDigest.isEqual(expected, actual);
+    } catch (GeneralSecurityException e) {
+      throw new OAuthException(e);
+    } catch (CloneNotSupportedException e) {
+      throw new OAuthException(e);
+    }
+  }
+
+  private Mac getMac(String consumerKey, String secret)
+      throws GeneralSecurityException, CloneNotSupportedException, IOException {
+    // The secret is part of the cache key, so a changed secret simply misses the cache.
+    String cacheKey = consumerKey + '&' + secret;
+    Mac mac = macs.get(cacheKey);
+    if (mac == null) {
+      mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(new SecretKeySpec(secret.getBytes(UTF8), HMAC_ALGORITHM));
+      if (macs.size() >= MAX_CACHED_CONSUMERS) {
+        macs.clear();
+      }
+      macs.put(cacheKey, mac);
+    }
+    return (Mac) mac.clone();
+  }
+
+  private boolean verifyRsa(OAuthMessage message, PublicKey publicKey, String signature)
+      throws OAuthException, IOException, URISyntaxException {
+    try {
+      Signature verifier = verifiers.get();
+      if (verifier == null) {
+        verifier = Signature.getInstance(RSA_ALGORITHM);
+        verifiers.set(verifier);
+      }
+      verifier.initVerify(publicKey);
+      verifier.update(getBaseString(message).getBytes(UTF8));
+      return verifier.verify(Base64.decodeBase64(signature.getBytes(UTF8)));
+    } catch (GeneralSecurityException e) {
+      throw new OAuthException(e);
+    }
+  }
+
+  /**
+   * @return the consumer's public key, parsed the first time it is used, or null if the consumer
+   *     has none or it can't be parsed here, in which case the library checks the signature.
+   */
+  private PublicKey getPublicKey(OAuthConsumer consumer) {
+    Object source = consumer.getProperty(RSA_SHA1.PUBLIC_KEY);
+    boolean certificate = false;
+    if (source == null) {
+      source = consumer.getProperty(RSA_SHA1.X509_CERTIFICATE);
+      certificate = true;
+    }
+    if (source instanceof PublicKey) {
+      return (PublicKey) source;
+    }
+    if (source == null || consumer.consumerKey == null) {
+      return null;
+    }
+    ParsedKey parsed = publicKeys.get(consumer.consumerKey);
+    // A consumer whose key has changed simply parses the new one.
+    if (parsed == null || !parsed.source.equals(source)) {
+      PublicKey key = parsePublicKey(source, certificate);
+      if (key == null) {
+        return null;
+      }
+      parsed = new ParsedKey(source, key);
+      if (publicKeys.size() >= MAX_CACHED_CONSUMERS) {
+        publicKeys.clear();
+      }
+      publicKeys.put(consumer.consumerKey, parsed);
+    }
+    return parsed.key;
+  }
+
+  private static PublicKey parsePublicKey(Object source, boolean certificate) {
+    try {
+      if (source instanceof X509Certificate) {
+        return ((X509Certificate) source).getPublicKey();
+      }
+      byte[] encoded;
+      if (source instanceof byte[]) {
+        encoded = (byte[]) source;
+      } else if (source instanceof String) {
+        encoded = ((String) source).getBytes(UTF8);
+      } else {
+        return null;
+      }
+      if (certificate) {
+        // Reads both PEM text and DER.
+        return CertificateFactory.getInstance("X.509")
+            .generateCertificate(new ByteArrayInputStream(encoded)).getPublicKey();
+      }
+      if (source instanceof String) {
+        String text = ((String) source).replace(PUBLIC_KEY_HEADER, "")
+            .replace(PUBLIC_KEY_FOOTER, "");
+        encoded = Base64.decodeBase64(text.getBytes(UTF8));
+      }
+      return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+    } catch (GeneralSecurityException e) {
+      return null;
+    } catch (UnsupportedEncodingException e) {
+      return null;
+    }
+  }
+
+  /**
+   * The library's base string. Requests for relative URLs can't have been signed, and the library
+   * fails on them with a NullPointerException.
+   */
+  private static String getBaseString(OAuthMessage message)
+      throws IOException, URISyntaxException {
+    URI uri = new URI(message.URL);
+    if (uri.getScheme() == null || uri.getAuthority() == null) {
+      throw new URISyntaxException(message.URL, "Request URL is not absolute");
+    }
+    return OAuthSignatureMethod.getBaseString(message);
+  }
+
+  /**
+   * A public key and the consumer property that it was parsed from.
+   */
+  private static class ParsedKey {
+    private final Object source;
+    private final PublicKey key;
+
+    ParsedKey(Object source, PublicKey key) {
+      this.source = source;
+      this.key = key;
+    }
+  }
+
+  /**
+   * The nonces that one consumer has used inside the timestamp window, by timestamp.
+   */
+  private static class NonceWindow {
+    private final int maxNonces;
+    private final TreeMap<Long, Set<String>> seen = new TreeMap<Long, Set<String>>();
+    private int size;
+
+    NonceWindow(int maxNonces) {
+      this.maxNonces = maxNonces;
+    }
+
+    /**
+     * Remembers a nonce until its timestamp leaves the window.
+     *
+     * @throws OAuthProblemException if the nonce has already been used, or if the window is full.
+     *     Live nonces are never forgotten to make room, as that would let them be replayed.
+     */
+    synchronized void add(String nonce, long timestamp, long oldest)
+        throws OAuthProblemException {
+      Iterator<Set<String>> expired = seen.headMap(oldest).values().iterator();
+      while (expired.hasNext()) {
+        size -= expired.next().size();
+        expired.remove();
+      }
+      Set<String> atTimestamp = seen.get(timestamp);
+      if (atTimestamp != null && atTimestamp.contains(nonce)) {
+        throw new OAuthProblemException("nonce_used");
+      }
+      if (size >= maxNonces) {
+        // The client may retry once the oldest nonces have expired.
+        throw new OAuthProblemException("timestamp_refused");
+      }
+      if (atTimestamp == null) {
+        atTimestamp = Sets.newHashSet();
+        seen.put(timestamp, atTimestamp);
+      }
+      atTimestamp.add(nonce);
+      size++;
+    }
+  }
+}
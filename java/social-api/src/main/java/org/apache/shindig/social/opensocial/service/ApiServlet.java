@@ -19,6 +19,7 @@ package org.apache.shindig.social.opensocial.service;
 
 import org.apache.shindig.auth.AuthInfo;
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.common.metrics.Metrics;
 import org.apache.shindig.common.servlet.InjectedServlet;
 import org.apache.shindig.common.util.ImmediateFuture;
 import org.apache.shindig.social.ResponseError;
@@ -45,6 +46,7 @@ public abstract class ApiServlet extends InjectedServlet {
   protected BeanJsonConverter jsonConverter;
   protected BeanConverter xmlConverter;
   protected BeanConverter atomConverter;
+  private Metrics metrics;
 
   @Inject
   public void setHandlerDispatcher(HandlerDispatcher dispatcher) {
@@ -62,6 +64,14 @@ public abstract class ApiServlet extends InjectedServlet {
     this.atomConverter = atomConverter;
   }
 
+  /**
+   * Each handler is timed as social.<service>.
+   */
+  @Inject(optional = true)
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
   protected SecurityToken getSecurityToken(HttpServletRequest servletRequest) {
     return new AuthInfo(servletRequest).getSecurityToken();
   }
@@ -87,7 +97,15 @@ public abstract class ApiServlet extends InjectedServlet {
           "The service " + requestItem.getService() + " is not implemented"));
     }
 
-    return handler.handleItem(requestItem);
+    if (metrics == null) {
+      return handler.handleItem(requestItem);
+    }
+    long start = System.nanoTime();
+    try {
+      return handler.handleItem(requestItem);
+    } finally {
+      metrics.getTimer("social." + requestItem.getService()).updateSince(start);
+    }
   }
 
   protected ResponseItem getResponseItem(Future<?> future) {
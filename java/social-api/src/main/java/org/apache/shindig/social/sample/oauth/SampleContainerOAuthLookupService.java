@@ -18,25 +18,28 @@
 package org.apache.shindig.social.sample.oauth;
 
 import org.apache.shindig.auth.SecurityToken;
+import org.apache.shindig.social.core.oauth.CachingOAuthValidator;
 import org.apache.shindig.social.core.oauth.OAuthSecurityToken;
 import org.apache.shindig.social.opensocial.oauth.OAuthLookupService;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
 
 import net.oauth.OAuthAccessor;
 import net.oauth.OAuthConsumer;
 import net.oauth.OAuthException;
 import net.oauth.OAuthMessage;
 import net.oauth.OAuthServiceProvider;
-import net.oauth.SimpleOAuthValidator;
+import net.oauth.OAuthValidator;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 public class SampleContainerOAuthLookupService implements OAuthLookupService {
   // If we were a real social network this would probably be a function
@@ -58,6 +61,16 @@ public class SampleContainerOAuthLookupService implements OAuthLookupService {
       "8355", "SocialActivitiesWorldSharedSecret"
   );
 
+  // Consumers that have already been looked up, by app url
+  private final ConcurrentMap<String, OAuthAccessor> accessors = Maps.newConcurrentHashMap();
+
+  private final OAuthValidator validator;
+
+  @Inject
+  public SampleContainerOAuthLookupService(CachingOAuthValidator validator) {
+    this.validator = validator;
+  }
+
   public boolean thirdPartyHasAccessToUser(OAuthMessage message, String appUrl, String userId) {
     String appId = getAppId(appUrl);
     return hasValidSignature(message, appUrl, appId)
@@ -65,16 +78,11 @@ public class SampleContainerOAuthLookupService implements OAuthLookupService {
   }
 
   private boolean hasValidSignature(OAuthMessage message, String appUrl, String appId) {
-    String sharedSecret = sampleContainerSharedSecrets.get(appId);
-    if (sharedSecret == null) {
+    OAuthAccessor accessor = getAccessor(appUrl, appId);
+    if (accessor == null) {
       return false;
     }
 
-    OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
-    OAuthConsumer consumer = new OAuthConsumer(null, appUrl, sharedSecret, provider);
-    OAuthAccessor accessor = new OAuthAccessor(consumer);
-
-    SimpleOAuthValidator validator = new SimpleOAuthValidator();
     try {
       validator.validateMessage(message, accessor);
     } catch (OAuthException e) {
@@ -88,6 +96,24 @@ public class SampleContainerOAuthLookupService implements OAuthLookupService {
     return true;
   }
 
+  private OAuthAccessor getAccessor(String appUrl, String appId) {
+    if (appUrl == null) {
+      return null;
+    }
+    OAuthAccessor accessor = accessors.get(appUrl);
+    if (accessor == null) {
+      String sharedSecret = sampleContainerSharedSecrets.get(appId);
+      if (sharedSecret == null) {
+        return null;
+      }
+      OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
+      OAuthConsumer consumer = new OAuthConsumer(null, appUrl, sharedSecret, provider);
+      accessor = new OAuthAccessor(consumer);
+      accessors.put(appUrl, accessor);
+    }
+    return accessor;
+  }
+
   private boolean userHasAppInstalled(String userId, String appId) {
     List<String> appInstalls = sampleContainerAppInstalls.get(userId);
     if (appInstalls != null) {
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.apache.shindig.social.core.oauth;
+
+import org.apache.shindig.common.util.FakeTimeSource;
+import org.apache.shindig.common.util.TimeSource;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+import net.oauth.OAuthProblemException;
+import net.oauth.OAuthServiceProvider;
+import net.oauth.signature.RSA_SHA1;
+
+import org.apache.commons.codec.binary.Base64;
+
+import junit.framework.TestCase;
+
+import java.net.URISyntaxException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.util.logging.Logger;
+
+public class CachingOAuthValidatorTest extends TestCase {
+  private static final Logger logger = Logger.getLogger(CachingOAuthValidatorTest.class.getName());
+
+  private static final String URL = "http://www.example.com:80/social/rest/people/@me/@self";
+
+  private OAuthAccessor accessor;
+  private CachingOAuthValidator validator;
+
+  @Override
+  protected void setUp() throws Exception {
+    OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
+    accessor = new OAuthAccessor(new OAuthConsumer(null, "consumer", "secret", provider));
+    validator = new CachingOAuthValidator(new TimeSource());
+  }
+
+  private OAuthMessage newMessage(String method) throws Exception {
+    accessor.consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, method);
+    return accessor.newRequestMessage("GET", URL + "?xoauth_requestor_id=john.doe",
+        OAuth.newList("fields", "name,id", "count", "10"));
+  }
+
+  public void testValidHmacSignature() throws Exception {
+    validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+  }
+
+  public void testOtherMethodsUseLibrary() throws Exception {
+    validator.validateMessage(newMessage("PLAINTEXT"), accessor);
+  }
+
+  public void testBadSignature() throws Exception {
+    OAuthMessage message = newMessage(OAuth.HMAC_SHA1);
+    OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
+    OAuthAccessor other = new OAuthAccessor(new OAuthConsumer(null, "consumer", "other", provider));
+    try {
+      validator.validateMessage(message, other);
+      fail("Signature should not have verified");
+    } catch (OAuthProblemException e) {
+      assertEquals("signature_invalid", e.getProblem());
+    }
+  }
+
+  public void testReplayIsRefused() throws Exception {
+    OAuthMessage message = newMessage(OAuth.HMAC_SHA1);
+    validator.validateMessage(message, accessor);
+    try {
+      validator.validateMessage(message, accessor);
+      fail("Replayed message should have been refused");
+    } catch (OAuthProblemException e) {
+      assertEquals("nonce_used", e.getProblem());
+    }
+  }
+
+  public void testOldTimestampIsRefused() throws Exception {
+    OAuthMessage message = newMessage(OAuth.HMAC_SHA1);
+    FakeTimeSource later = new FakeTimeSource(System.currentTimeMillis()
+        + CachingOAuthValidator.DEFAULT_TIMESTAMP_WINDOW_MSEC + 60000L);
+    validator = new CachingOAuthValidator(later);
+    try {
+      validator.validateMessage(message, accessor);
+      fail("Old message should have been refused");
+    } catch (OAuthProblemException e) {
+      assertEquals("timestamp_refused", e.getProblem());
+    }
+  }
+
+  public void testNonceWindowIsBounded() throws Exception {
+    validator = new CachingOAuthValidator(new TimeSource(),
+        CachingOAuthValidator.DEFAULT_TIMESTAMP_WINDOW_MSEC, 2);
+    OAuthMessage first = newMessage(OAuth.HMAC_SHA1);
+    validator.validateMessage(first, accessor);
+    validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+    try {
+      validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+      fail("A full nonce window should refuse new messages");
+    } catch (OAuthProblemException e) {
+      assertEquals("timestamp_refused", e.getProblem());
+    }
+    // The first nonce is still remembered, so it can't be replayed.
+    try {
+      validator.validateMessage(first, accessor);
+      fail("Replayed message should have been refused");
+    } catch (OAuthProblemException e) {
+      assertEquals("nonce_used", e.getProblem());
+    }
+  }
+
+  public void testNonceWindowEmptiesAsNoncesExpire() throws Exception {
+    long now = System.currentTimeMillis();
+    FakeTimeSource time = new FakeTimeSource(now);
+    validator = new CachingOAuthValidator(time, 60000L, 1);
+    validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+
+    // Once the first timestamp has left the window, its nonce makes room for a new one.
+    time.incrementSeconds(90);
+    accessor.consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
+    OAuthMessage later = accessor.newRequestMessage("GET", URL, OAuth.newList(
+        OAuth.OAUTH_TIMESTAMP, Long.toString(time.currentTimeMillis() / 1000L)));
+    validator.validateMessage(later, accessor);
+  }
+
+  public void testFullWindowOnlyRefusesItsConsumer() throws Exception {
+    validator = new CachingOAuthValidator(new TimeSource(),
+        CachingOAuthValidator.DEFAULT_TIMESTAMP_WINDOW_MSEC, 1);
+    validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+    try {
+      validator.validateMessage(newMessage(OAuth.HMAC_SHA1), accessor);
+      fail("A full nonce window should refuse new messages");
+    } catch (OAuthProblemException e) {
+      assertEquals("timestamp_refused", e.getProblem());
+    }
+
+    OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
+    OAuthAccessor other = new OAuthAccessor(new OAuthConsumer(null, "other", "secret", provider));
+    other.consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
+    validator.validateMessage(other.newRequestMessage("GET", URL, null), other);
+  }
+
+  public void testFutureTimestampDoesNotBlockExpiry() throws Exception {
+    long now = System.currentTimeMillis();
+    FakeTimeSource time = new FakeTimeSource(now);
+    validator = new CachingOAuthValidator(time, 60000L, 2);
+    accessor.consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, OAuth.HMAC_SHA1);
+
+    // Seen first, but expires last.
+    validator.validateMessage(accessor.newRequestMessage("GET", URL, OAuth.newList(
+        OAuth.OAUTH_TIMESTAMP, Long.toString(now / 1000L + 50))), accessor);
+    validator.validateMessage(accessor.newRequestMessage("GET", URL, OAuth.newList(
+        OAuth.OAUTH_TIMESTAMP, Long.toString(now / 1000L - 50))), accessor);
+
+    // The second nonce has left the window, and makes room even though the first has not.
+    time.incrementSeconds(30);
+    validator.validateMessage(accessor.newRequestMessage("GET", URL, OAuth.newList(
+        OAuth.OAUTH_TIMESTAMP, Long.toString(time.currentTimeMillis() / 1000L))), accessor);
+  }
+
+  private OAuthAccessor newRsaAccessor(Object publicKey, PrivateKey privateKey) {
+    OAuthServiceProvider provider = new OAuthServiceProvider(null, null, null);
+    OAuthAccessor rsa = new OAuthAccessor(new OAuthConsumer(null, "rsaconsumer", null, provider));
+    rsa.consumer.setProperty(OAuth.OAUTH_SIGNATURE_METHOD, "RSA-SHA1");
+    if (publicKey != null) {
+      rsa.consumer.setProperty(RSA_SHA1.PUBLIC_KEY, publicKey);
+    }
+    if (privateKey != null) {
+      rsa.consumer.setProperty(RSA_SHA1.PRIVATE_KEY, privateKey);
+    }
+    return rsa;
+  }
+
+  public void testRsaSignatureWithEncodedPublicKey() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    KeyPair keys = generator.generateKeyPair();
+    String encodedKey = new String(Base64.encodeBase64(keys.getPublic().getEncoded()), "UTF-8");
+    OAuthAccessor signer = newRsaAccessor(null, keys.getPrivate());
+    OAuthAccessor verifier = newRsaAccessor(encodedKey, null);
+
+    // The second message is checked with the key that was parsed for the first.
+    for (int i = 0; i < 2; i++) {
+      OAuthMessage message = signer.newRequestMessage("GET", URL, OAuth.newList("count", "10"));
+      validator.validateMessage(message, verifier);
+    }
+
+    KeyPair otherKeys = generator.generateKeyPair();
+    OAuthAccessor otherSigner = newRsaAccessor(null, otherKeys.getPrivate());
+    OAuthMessage message = otherSigner.newRequestMessage("GET", URL, OAuth.newList("count", "10"));
+    try {
+      validator.validateMessage(message, verifier);
+      fail("Signature should not have verified");
+    } catch (OAuthProblemException e) {
+      assertEquals("signature_invalid", e.getProblem());
+    }
+  }
+
+  public void testRelativeUrlIsRefused() throws Exception {
+    OAuthMessage message = newMessage(OAuth.HMAC_SHA1);
+    OAuthMessage relative = new OAuthMessage("GET", "/social/rest/people/@me/@self",
+        message.getParameters());
+    try {
+      validator.validateMessage(relative, accessor);
+      fail("A relative URL can't have been signed");
+    } catch (URISyntaxException e) {
+      // expected
+    }
+  }
+
+  public void testThroughput() throws Exception {
+    int iterations = 2000;
+    OAuthMessage[] messages = new OAuthMessage[iterations];
+    for (int i = 0; i < iterations; i++) {
+      messages[i] = newMessage(OAuth.HMAC_SHA1);
+    }
+    long start = System.currentTimeMillis();
+    for (OAuthMessage message : messages) {
+      validator.validateMessage(message, accessor);
+    }
+    logger.info("Validated " + iterations + " HMAC-SHA1 requests in "
+        + (System.currentTimeMillis() - start) + "ms");
+  }
+}